@@ -0,0 +1,109 @@
+package com.yu.screenrecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 把 H264 视频轨以 Annex-B 裸流写入 {@link ByteOutput}，音频轨被忽略
+ * <br/> MediaCodec 输出本身就是带起始码的 Annex-B 格式，只需在开头写入 SPS/PPS
+ */
+public class AnnexBSink implements ISampleSink {
+    private static final String TAG = "AnnexBSink";
+
+    private final ByteOutput output;
+    private TrackFormat videoFormat;
+    private int videoTrack = -1;
+    private int trackCount;
+    /* 已经交给 output 的字节数 */
+    private long position;
+    private RecordingJournal journal;
+    private KeyframeIndex index;
+    private boolean closed;
+
+    public AnnexBSink(ByteOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * 设置录制日志，每个样本写入时记入日志，在 start 之前调用
+     */
+    public void setJournal(RecordingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 设置关键帧索引，关键帧样本写入时记录它的位置，在 start 之前调用
+     */
+    public void setIndex(KeyframeIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        if (format.isVideo() && videoTrack < 0) {
+            videoTrack = trackCount;
+            videoFormat = format;
+        }
+        return trackCount++;
+    }
+
+    @Override
+    public void start() {
+        try {
+            if (videoFormat != null && videoFormat.csd0 != null) writeHeader(videoFormat.csd0);
+            if (videoFormat != null && videoFormat.csd1 != null) writeHeader(videoFormat.csd1);
+        } catch (IOException e) {
+            throw new IllegalStateException("write header failed", e);
+        }
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        if (track != videoTrack) {
+            return;
+        }
+        int size = buffer.remaining();
+        try {
+            output.write(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("write sample failed", e);
+        }
+        if (journal != null) {
+            journal.append(track, position, size, info.presentationTimeUs, info.flags);
+        }
+        if (index != null && info.isKeyFrame()) {
+            index.add(info.presentationTimeUs, position);
+        }
+        position += size;
+    }
+
+    private void writeHeader(byte[] csd) throws IOException {
+        output.write(ByteBuffer.wrap(csd));
+        position += csd.length;
+    }
+
+    @Override
+    public void stop() {
+        closeOutput();
+    }
+
+    /**
+     * 没有停止时关闭 output，已经写入的数据保留
+     */
+    @Override
+    public void release() {
+        closeOutput();
+    }
+
+    private void closeOutput() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            output.close();
+        } catch (IOException e) {
+            LogUtil.e(TAG, "close output failed: " + e.getMessage());
+        }
+    }
+}
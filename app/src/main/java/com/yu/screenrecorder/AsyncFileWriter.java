@@ -0,0 +1,276 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在独立线程中写文件的 {@link ByteOutput}
+ * <br/> 写入的数据先拷贝到预先分配的缓冲块，写满后交给写线程；
+ * 写线程通过 FileChannel 顺序写入，按区段预先扩展文件长度，
+ * 并按字节数或时间间隔批量 fsync，避免每次写入都卡在存储上
+ */
+public class AsyncFileWriter implements ByteOutput, Runnable {
+    private static final String TAG = "AsyncFileWriter";
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_CHUNK_COUNT = 16;
+    public static final long DEFAULT_EXTENT_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+
+    /* 队列为空时写线程的等待时间 */
+    private static final long IDLE_PARK_NS = 2000000;
+    /* 缓冲块用完时生产者的等待时间 */
+    private static final long FULL_PARK_NS = 100000;
+
+    /**
+     * 数据写入文件的通知，在写线程回调
+     */
+    public interface OnWrittenListener {
+        /**
+         * @param bytesWritten 已经写入文件的总字节数，进程被杀后这部分数据仍然在文件中
+         */
+        void onWritten(long bytesWritten);
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final SpscQueue<ByteBuffer> filled;
+    private final SpscQueue<ByteBuffer> free;
+    private final long extentBytes;
+    private final long syncBytes;
+    private final long syncIntervalNs;
+    private final Thread thread;
+
+    /* 生产者当前正在填充的缓冲块 */
+    private ByteBuffer current;
+    private boolean closed;
+
+    /* 以下只在写线程访问 */
+    private long allocated;
+    private long unsyncedBytes;
+    private long lastSyncNs;
+
+    private volatile long bytesWritten;
+    private volatile long syncCount;
+    private volatile boolean closing;
+    private volatile IOException error;
+    private volatile RecorderMetrics metrics;
+    private volatile OnWrittenListener writtenListener;
+
+    public AsyncFileWriter(File path) throws IOException {
+        this(path, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT, DEFAULT_EXTENT_BYTES,
+                DEFAULT_SYNC_BYTES, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * @param chunkSize 缓冲块大小
+     * @param chunkCount 缓冲块个数，决定最多缓冲多少未写入的数据
+     * @param extentBytes 每次预先扩展的文件长度
+     * @param syncBytes 写入多少字节后 fsync
+     * @param syncIntervalMs 最长多久 fsync 一次
+     */
+    public AsyncFileWriter(File path, int chunkSize, int chunkCount, long extentBytes,
+                           long syncBytes, long syncIntervalMs) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        filled = new SpscQueue<>(chunkCount);
+        free = new SpscQueue<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            free.offer(ByteBuffer.allocateDirect(chunkSize));
+        }
+        this.extentBytes = extentBytes;
+        this.syncBytes = syncBytes;
+        this.syncIntervalNs = syncIntervalMs * 1000000L;
+        lastSyncNs = System.nanoTime();
+        thread = new Thread(this, "record_writer");
+        thread.start();
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        checkError();
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            if (current == null) {
+                current = takeFreeChunk();
+            }
+            int n = Math.min(src.remaining(), current.remaining());
+            src.limit(src.position() + n);
+            current.put(src);
+            src.limit(limit);
+            if (!current.hasRemaining()) {
+                submitCurrent();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkError();
+        if (current != null && current.position() > 0) {
+            submitCurrent();
+        }
+    }
+
+    /**
+     * 写完缓冲的数据后停止写线程并关闭文件，可以重复调用；
+     * 写入出错时同样停止写线程、关闭文件，然后抛出错误
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            closing = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                /* 去掉预先扩展但没有用到的部分 */
+                channel.truncate(bytesWritten);
+                channel.force(true);
+            } finally {
+                file.close();
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * 等待写入的缓冲块个数
+     */
+    public int getQueueDepth() {
+        return filled.size();
+    }
+
+    public int getQueueCapacity() {
+        return filled.capacity();
+    }
+
+    /**
+     * 设置统计，记录写入的字节数和每次 fsync 的耗时
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置写入通知，在第一次 write 之前调用
+     */
+    public void setOnWrittenListener(OnWrittenListener listener) {
+        this.writtenListener = listener;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    private ByteBuffer takeFreeChunk() throws IOException {
+        ByteBuffer chunk;
+        while ((chunk = free.poll()) == null) {
+            checkError();
+            LockSupport.parkNanos(FULL_PARK_NS);
+        }
+        chunk.clear();
+        return chunk;
+    }
+
+    private void submitCurrent() {
+        current.flip();
+        // free 与 filled 容量相同，这里不会失败
+        filled.offer(current);
+        current = null;
+        LockSupport.unpark(thread);
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                ByteBuffer chunk = filled.poll();
+                if (chunk == null) {
+                    if (closing && filled.isEmpty()) {
+                        break;
+                    }
+                    maybeSync();
+                    LockSupport.parkNanos(IDLE_PARK_NS);
+                    continue;
+                }
+                ensureAllocated(chunk.remaining());
+                int n = chunk.remaining();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                bytesWritten += n;
+                RecorderMetrics metrics = this.metrics;
+                if (metrics != null) metrics.bytesWritten.addAndGet(n);
+                unsyncedBytes += n;
+                free.offer(chunk);
+                OnWrittenListener listener = writtenListener;
+                if (listener != null) listener.onWritten(bytesWritten);
+                maybeSync();
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "write failed: " + e.getMessage());
+            error = e;
+            /* 出错后继续回收缓冲块，避免生产者一直等待 */
+            while (!closing) {
+                ByteBuffer chunk = filled.poll();
+                if (chunk != null) {
+                    free.offer(chunk);
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NS);
+                }
+            }
+        }
+    }
+
+    /**
+     * 文件长度不够时按区段扩展，减少每次追加写入带来的元数据更新
+     */
+    private void ensureAllocated(int n) throws IOException {
+        long end = bytesWritten + n;
+        if (end > allocated) {
+            allocated = Math.max(end, allocated + extentBytes);
+            file.setLength(allocated);
+        }
+    }
+
+    private void maybeSync() throws IOException {
+        if (unsyncedBytes == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (unsyncedBytes >= syncBytes || now - lastSyncNs >= syncIntervalNs) {
+            channel.force(false);
+            unsyncedBytes = 0;
+            lastSyncNs = System.nanoTime();
+            syncCount++;
+            RecorderMetrics metrics = this.metrics;
+            if (metrics != null) metrics.fsyncTimeUs.record((lastSyncNs - now) / 1000);
+        }
+    }
+}
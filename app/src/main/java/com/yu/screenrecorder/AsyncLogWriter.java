@@ -0,0 +1,358 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志后端：任意线程把日志拷贝到预先分配的环形缓冲，后台线程写入文件并按大小轮转
+ * <br/> 写入方只做一次 CAS 和一次字符拷贝，不分配对象也不等待 IO；缓冲满时丢弃并计数
+ * <br/> 文件依次为 name、name.1 ... name.(maxFiles - 1)，编号越大越旧
+ */
+public class AsyncLogWriter implements Runnable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_MESSAGE_CHARS = 256;
+    public static final long DEFAULT_MAX_FILE_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 3;
+
+    /* 缓冲为空时写线程的等待时间 */
+    private static final long IDLE_PARK_NS = 50000000;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final char[] PRIORITY_CHARS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+    /**
+     * 环形缓冲中的一条日志，sequence 表示它当前可以被哪个序号写入或读取
+     */
+    private static class Entry {
+        volatile long sequence;
+        int priority;
+        String tag;
+        long timeMs;
+        long threadId;
+        final char[] text;
+        int length;
+
+        Entry(long sequence, int maxChars) {
+            this.sequence = sequence;
+            this.text = new char[maxChars];
+        }
+    }
+
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong nextWrite = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final File directory;
+    private final String name;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    /* 以下只在写线程访问 */
+    private long nextRead;
+    private final CharBuffer line;
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
+    private final Calendar calendar = Calendar.getInstance();
+    /* "MM-dd HH:mm:ss" */
+    private final char[] secondText = new char[14];
+    private long cachedSecond = -1;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long fileBytes;
+
+    private Thread thread;
+    private volatile boolean failed;
+    private volatile boolean closing;
+    private volatile long linesWritten;
+
+    public AsyncLogWriter(File directory, String name) {
+        this(directory, name, DEFAULT_CAPACITY, DEFAULT_MAX_MESSAGE_CHARS, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param capacity 缓冲的日志条数，取整到 2 的幂
+     * @param maxMessageChars 每条日志最多保留的字符数，超出部分截断
+     * @param maxFileBytes 单个文件超过这个大小后轮转
+     * @param maxFiles 最多保留的文件个数
+     */
+    public AsyncLogWriter(File directory, String name, int capacity, int maxMessageChars,
+                          long maxFileBytes, int maxFiles) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry(i, maxMessageChars);
+        }
+        mask = size - 1;
+        this.directory = directory;
+        this.name = name;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        line = CharBuffer.allocate(maxMessageChars + 128);
+    }
+
+    /**
+     * 启动写线程，日志文件在写线程中打开，不占用调用线程
+     */
+    public void start() {
+        thread = new Thread(this, "log_writer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 追加一条日志，可以在任意线程调用
+     *
+     * @return 缓冲已满被丢弃时返回 false
+     */
+    public boolean append(int priority, String tag, CharSequence msg) {
+        long sequence;
+        Entry entry;
+        do {
+            sequence = nextWrite.get();
+            entry = ring[(int) (sequence & mask)];
+            if (entry.sequence != sequence) {
+                // 写线程还没有取走这个位置上一轮的日志
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!nextWrite.compareAndSet(sequence, sequence + 1));
+
+        entry.priority = priority;
+        entry.tag = tag;
+        entry.timeMs = System.currentTimeMillis();
+        entry.threadId = Thread.currentThread().getId();
+        int length = Math.min(msg.length(), entry.text.length);
+        copyChars(msg, length, entry.text);
+        entry.length = length;
+        entry.sequence = sequence + 1;  // 发布
+        return true;
+    }
+
+    private static void copyChars(CharSequence src, int length, char[] dst) {
+        if (src instanceof String) {
+            ((String) src).getChars(0, length, dst, 0);
+        } else if (src instanceof StringBuilder) {
+            ((StringBuilder) src).getChars(0, length, dst, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[i] = src.charAt(i);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            openFile();
+        } catch (IOException e) {
+            // 没有可以报告的地方，之后的日志全部丢弃；不能调用 LogUtil，否则会写回自己
+            failed = true;
+        }
+        while (true) {
+            boolean stop = closing;
+            int count = drain();
+            if (count == 0) {
+                if (stop) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+
+    /**
+     * 写出缓冲中已经发布的日志
+     *
+     * @return 写出的条数
+     */
+    private int drain() {
+        int count = 0;
+        try {
+            while (true) {
+                Entry entry = ring[(int) (nextRead & mask)];
+                if (entry.sequence != nextRead + 1) {
+                    break;
+                }
+                if (!failed) formatLine(entry);
+                // 交还给写入方，下一轮的序号为 nextRead + 容量
+                entry.tag = null;
+                entry.sequence = nextRead + ring.length;
+                nextRead++;
+                count++;
+                if (failed) {
+                    dropped.incrementAndGet();
+                } else {
+                    writeLine();
+                    linesWritten++;
+                }
+            }
+            if (!failed) flushOutput();
+        } catch (IOException e) {
+            failed = true;
+        }
+        return count;
+    }
+
+    /**
+     * 格式：MM-dd HH:mm:ss.SSS tid P/tag: msg
+     */
+    private void formatLine(Entry entry) {
+        long second = entry.timeMs / 1000;
+        if (second != cachedSecond) {
+            // 同一秒内的日志复用日期部分
+            cachedSecond = second;
+            calendar.setTimeInMillis(entry.timeMs);
+            line.clear();
+            put2(calendar.get(Calendar.MONTH) + 1);
+            line.put('-');
+            put2(calendar.get(Calendar.DAY_OF_MONTH));
+            line.put(' ');
+            put2(calendar.get(Calendar.HOUR_OF_DAY));
+            line.put(':');
+            put2(calendar.get(Calendar.MINUTE));
+            line.put(':');
+            put2(calendar.get(Calendar.SECOND));
+            line.flip();
+            line.get(secondText);
+        }
+        line.clear();
+        line.put(secondText);
+        line.put('.');
+        int ms = (int) (entry.timeMs % 1000);
+        line.put((char) ('0' + ms / 100));
+        put2(ms % 100);
+        line.put(' ');
+        putLong(entry.threadId);
+        line.put(' ');
+        line.put(entry.priority < PRIORITY_CHARS.length ? PRIORITY_CHARS[entry.priority] : '?');
+        line.put('/');
+        String tag = entry.tag;
+        int tagLength = Math.min(tag == null ? 0 : tag.length(), 64);
+        for (int i = 0; i < tagLength; i++) {
+            line.put(tag.charAt(i));
+        }
+        line.put(':');
+        line.put(' ');
+        line.put(entry.text, 0, entry.length);
+        line.put('\n');
+        line.flip();
+    }
+
+    private void put2(int value) {
+        line.put((char) ('0' + value / 10));
+        line.put((char) ('0' + value % 10));
+    }
+
+    private void putLong(long value) {
+        if (value >= 10) {
+            putLong(value / 10);
+        }
+        line.put((char) ('0' + value % 10));
+    }
+
+    private void writeLine() throws IOException {
+        // UTF-8 每个字符最多 3 个字节；当前文件写满时先写出，由 flushOutput 轮转
+        if (output.remaining() < line.remaining() * 3 || fileBytes + output.position() >= maxFileBytes) {
+            flushOutput();
+        }
+        encoder.reset();
+        encoder.encode(line, output, true);
+        encoder.flush(output);
+    }
+
+    private void flushOutput() throws IOException {
+        if (output.position() == 0) {
+            return;
+        }
+        output.flip();
+        while (output.hasRemaining()) {
+            fileBytes += channel.write(output);
+        }
+        output.clear();
+        if (fileBytes >= maxFileBytes) {
+            rotate();
+        }
+    }
+
+    private File fileAt(int index) {
+        return new File(directory, index == 0 ? name : name + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        file = new RandomAccessFile(fileAt(0), "rw");
+        channel = file.getChannel();
+        fileBytes = channel.size();
+        channel.position(fileBytes);
+    }
+
+    private void rotate() throws IOException {
+        file.close();
+        for (int i = maxFiles - 1; i > 0; i--) {
+            File src = fileAt(i - 1);
+            if (src.exists()) {
+                File dst = fileAt(i);
+                if (dst.exists() && !dst.delete()) {
+                    throw new IOException("cannot delete " + dst);
+                }
+                if (!src.renameTo(dst)) {
+                    throw new IOException("cannot rename " + src);
+                }
+            }
+        }
+        if (maxFiles == 1 && !fileAt(0).delete()) {
+            throw new IOException("cannot delete " + fileAt(0));
+        }
+        openFile();
+    }
+
+    /**
+     * 写完缓冲中剩余的日志后关闭文件
+     */
+    public void close() throws IOException {
+        if (thread == null) {
+            return;
+        }
+        closing = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        if (file != null) file.close();
+    }
+
+    /**
+     * 打开或者写入文件失败后不再写入
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * 缓冲满或者写文件失败被丢弃的日志条数
+     */
+    public long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+}
@@ -0,0 +1,161 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Process;
+
+import java.io.IOException;
+
+/**
+ * AudioRecord 采集，在 "audio_capture" 线程中把 PCM 连同采集时间写入 {@link PcmRingBuffer}
+ * <br/> 7.0 以上用 AudioRecord.getTimestamp() 得到样本的实际采集时间，之前的版本用读取完成的时间减去这块数据的时长估算
+ */
+public class AudioCapture implements Runnable {
+    private static final String TAG = "AudioCapture";
+    /* 每次读取的时长，毫秒 */
+    private static final int CHUNK_MS = 20;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final AudioRecord record;
+    private final PcmRingBuffer ring;
+    private final short[] chunk;
+    private final int sampleRate;
+    private final int channelCount;
+    private Thread captureThread;
+    private volatile boolean running;
+
+    /* 只在采集线程访问 */
+    private long framesRead;
+    private Object timestamp;
+
+    private AudioCapture(AudioRecord record, PcmRingBuffer ring, int sampleRate, int channelCount) {
+        this.record = record;
+        this.ring = ring;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.chunk = new short[sampleRate * CHUNK_MS / 1000 * channelCount];
+    }
+
+    /**
+     * 按配置创建采集
+     *
+     * @throws IOException 没有录音权限或者设备不支持该参数时
+     */
+    public static AudioCapture create(RecordConfig config, PcmRingBuffer ring) throws IOException {
+        if (config.audioSource == RecordConfig.AUDIO_SOURCE_PLAYBACK) {
+            /* 采集其他应用的声音需要 10.0 的 AudioPlaybackCaptureConfiguration，这里退回到麦克风 */
+            LogUtil.w(TAG, "playback capture is not supported, fall back to mic");
+        }
+        int channelMask = config.audioChannelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        int minBufferSize = AudioRecord.getMinBufferSize(config.audioSampleRate, channelMask,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            throw new IOException("unsupported audio format " + config.audioSampleRate + "Hz");
+        }
+        AudioRecord record;
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.MIC, config.audioSampleRate, channelMask,
+                    AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2);
+        } catch (RuntimeException e) {
+            throw new IOException("create AudioRecord failed: " + e.getMessage());
+        }
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            throw new IOException("AudioRecord not initialized, permission denied?");
+        }
+        return new AudioCapture(record, ring, config.audioSampleRate, config.audioChannelCount);
+    }
+
+    public void start() throws IOException {
+        try {
+            record.startRecording();
+        } catch (IllegalStateException e) {
+            throw new IOException("start AudioRecord failed: " + e.getMessage());
+        }
+        if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            record.stop();
+            throw new IOException("AudioRecord is used by another app");
+        }
+        running = true;
+        captureThread = new Thread(this, "audio_capture");
+        captureThread.start();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (running) {
+            int n = record.read(chunk, 0, chunk.length);
+            if (n <= 0) {
+                LogUtil.w(TAG, "read returns {}", n);
+                if (n == AudioRecord.ERROR_INVALID_OPERATION || n == AudioRecord.ERROR_BAD_VALUE) {
+                    break;
+                }
+                continue;
+            }
+            int frames = n / channelCount;
+            ring.write(chunk, 0, n, timestampOf(frames));
+            framesRead += frames;
+        }
+    }
+
+    /**
+     * 刚读出的 frames 帧中第一帧的采集时间，System.nanoTime() 时基
+     */
+    private long timestampOf(int frames) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            long ns = presentationTimeOf(framesRead);
+            if (ns > 0) {
+                return ns;
+            }
+        }
+        return System.nanoTime() - frames * 1000000000L / sampleRate;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private long presentationTimeOf(long framePosition) {
+        if (timestamp == null) {
+            timestamp = new AudioTimestamp();
+        }
+        AudioTimestamp ts = (AudioTimestamp) timestamp;
+        if (record.getTimestamp(ts, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            return -1;
+        }
+        return ts.nanoTime + (framePosition - ts.framePosition) * 1000000000L / sampleRate;
+    }
+
+    /**
+     * 停止采集，之后缓冲中不会再有新数据
+     */
+    public void stop() {
+        running = false;
+        if (captureThread != null) {
+            try {
+                captureThread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            captureThread = null;
+        }
+        try {
+            record.stop();
+        } catch (IllegalStateException e) {
+            LogUtil.w(TAG, "stop AudioRecord failed: {}", e.getMessage());
+        }
+    }
+
+    public void release() {
+        record.release();
+    }
+
+    /**
+     * 每次读取的 short 个数
+     */
+    public int getChunkSamples() {
+        return chunk.length;
+    }
+}
@@ -0,0 +1,103 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把 {@link PcmRingBuffer} 中的 PCM 送入音频编码器，在 "audio_feed" 线程中运行
+ * <br/> 每个输入缓冲的时间戳取自 PCM 的采集时间，与 Surface 输入的视频同一时基；
+ * 停止时读完缓冲中剩余的数据后提交结束标志
+ */
+public class AudioEncoderFeeder implements Runnable {
+    private static final long INPUT_TIMEOUT_US = 10000;
+    /* 缓冲中没有数据时的等待时间 */
+    private static final long EMPTY_PARK_NS = 5000000;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final ICodecInput codec;
+    private final PcmRingBuffer ring;
+    private final short[] scratch;
+    private Thread feedThread;
+    private volatile boolean stopping;
+
+    /* 只在 feed 线程访问 */
+    private int inputIndex = -1;
+    private long lastPtsUs;
+
+    /**
+     * @param chunkSamples 每个输入缓冲最多放入的 short 个数
+     */
+    public AudioEncoderFeeder(ICodecInput codec, PcmRingBuffer ring, int chunkSamples) {
+        this.codec = codec;
+        this.ring = ring;
+        this.scratch = new short[chunkSamples];
+    }
+
+    public void start() {
+        stopping = false;
+        feedThread = new Thread(this, "audio_feed");
+        feedThread.start();
+    }
+
+    /**
+     * 在采集停止之后调用，等待剩余数据送入编码器并提交结束标志
+     */
+    public void stop() {
+        stopping = true;
+        if (feedThread == null) {
+            return;
+        }
+        LockSupport.unpark(feedThread);
+        try {
+            feedThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        feedThread = null;
+    }
+
+    @Override
+    public void run() {
+        while (feed(INPUT_TIMEOUT_US)) {
+            // 直到提交结束标志
+        }
+    }
+
+    /**
+     * 填充一个输入缓冲
+     *
+     * @return 提交了结束标志时返回 false
+     */
+    public boolean feed(long timeoutUs) {
+        if (inputIndex < 0) {
+            inputIndex = codec.dequeueInputBuffer(timeoutUs);
+            if (inputIndex < 0) {
+                return true;
+            }
+        }
+        /* 先读标志再读数据，停止时采集已经结束，读空即为全部数据 */
+        boolean ending = stopping;
+        ByteBuffer buffer = codec.getInputBuffer(inputIndex);
+        long timestampNs = ring.nextTimestampNs();
+        int samples = ring.read(scratch, 0, Math.min(scratch.length, buffer.capacity() / 2));
+        if (samples == 0) {
+            if (ending) {
+                codec.queueInputBuffer(inputIndex, 0, 0, lastPtsUs, SampleInfo.FLAG_END_OF_STREAM);
+                inputIndex = -1;
+                return false;
+            }
+            LockSupport.parkNanos(EMPTY_PARK_NS);
+            return true;
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.nativeOrder());
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort(scratch[i]);
+        }
+        lastPtsUs = timestampNs / 1000;
+        codec.queueInputBuffer(inputIndex, 0, samples * 2, lastPtsUs, 0);
+        inputIndex = -1;
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.io.IOException;
+
+/**
+ * 音频录制：AudioRecord 采集 -> {@link PcmRingBuffer} -> AAC 编码器 -> sink
+ * <br/> 采集、送入编码器、取出编码数据分别在 "audio_capture"、"audio_feed"、"encoder_drain" 线程，
+ * 采集线程只做拷贝，编码器或者下游卡顿时由环形缓冲吸收，放不下时丢弃并计为 overrun
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class AudioEngine {
+    /* 环形缓冲的时长，毫秒 */
+    private static final int RING_MS = 1000;
+
+    private PcmRingBuffer ring;
+    private AudioCapture capture;
+    private MediaCodecWrapper codec;
+    private AudioEncoderFeeder feeder;
+    private EncoderEngine encoder;
+
+    /**
+     * 创建采集和编码器，失败时已创建的资源会被释放
+     *
+     * @param sink 编码输出
+     */
+    public void prepare(RecordConfig config, ISampleSink sink, RecordingClock clock, RecorderMetrics metrics)
+            throws IOException {
+        int samplesPerSecond = config.audioSampleRate * config.audioChannelCount;
+        ring = new PcmRingBuffer(samplesPerSecond * RING_MS / 1000, config.audioSampleRate, config.audioChannelCount);
+        ring.setMetrics(metrics);
+        capture = AudioCapture.create(config, ring);
+        int chunkSamples = capture.getChunkSamples();
+        try {
+            codec = MediaCodecWrapper.createAudioEncoder(config, chunkSamples * 2);
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+        feeder = new AudioEncoderFeeder(codec, ring, chunkSamples);
+        encoder = new EncoderEngine(codec, sink);
+        encoder.setClock(clock);
+    }
+
+    /**
+     * 先启动采集，采集启动失败时编码器还没有启动，不会产生音频轨道
+     */
+    public void start() throws IOException {
+        capture.start();
+        encoder.start();
+        feeder.start();
+    }
+
+    /**
+     * 依次停止采集、送完剩余数据、等待编码输出结束
+     */
+    public void stop() {
+        capture.stop();
+        feeder.stop();
+        if (encoder.stop()) {
+            codec.stop();
+        }
+    }
+
+    public void release() {
+        if (capture != null) capture.release();
+        if (codec != null) EncoderEngine.releaseCodec(codec, encoder);
+        capture = null;
+        codec = null;
+        feeder = null;
+        encoder = null;
+    }
+
+    public long getOverruns() {
+        PcmRingBuffer ring = this.ring;
+        return ring != null ? ring.getOverruns() : 0;
+    }
+
+    public long getUnderruns() {
+        PcmRingBuffer ring = this.ring;
+        return ring != null ? ring.getUnderruns() : 0;
+    }
+}
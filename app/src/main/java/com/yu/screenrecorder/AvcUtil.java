@@ -0,0 +1,110 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * H264 码流的辅助方法：Annex-B 起始码与 AVCC 长度前缀之间的转换
+ */
+public final class AvcUtil {
+    public static final int NAL_IDR = 5;
+    public static final int NAL_SPS = 7;
+    public static final int NAL_PPS = 8;
+    public static final int NAL_AUD = 9;
+
+    private AvcUtil() {
+    }
+
+    /**
+     * 从 from 开始查找下一个起始码（00 00 01 或 00 00 00 01）
+     *
+     * @return 起始码第一个字节的位置，没有时返回 limit
+     */
+    static int findStartCode(ByteBuffer buf, int from, int limit) {
+        for (int i = from; i + 2 < limit; i++) {
+            if ((buf.get(i + 2) & 0xff) > 1) {
+                /* 第三个字节大于 1 时，从 i 到 i+2 都不可能是起始码的开头 */
+                i += 2;
+            } else if (buf.get(i) == 0 && buf.get(i + 1) == 0 && buf.get(i + 2) == 1) {
+                return i > from && buf.get(i - 1) == 0 ? i - 1 : i;
+            }
+        }
+        return limit;
+    }
+
+    private static int startCodeLength(ByteBuffer buf, int at) {
+        return buf.get(at + 2) == 1 ? 3 : 4;
+    }
+
+    /**
+     * 把 src 中剩余的 Annex-B 数据以 4 字节长度前缀的形式写入 dst，丢弃 AUD
+     * <br/> 没有起始码时整段作为一个 NAL；返回后 src 的位置移到 limit，不分配对象
+     *
+     * @return 写入 dst 的字节数
+     */
+    public static int writeAvcc(ByteBuffer src, ByteBuffer dst) {
+        int begin = dst.position();
+        int limit = src.limit();
+        int pos = src.position();
+        int code = findStartCode(src, pos, limit);
+        if (code != pos) {
+            /* 开头不是起始码，按一个 NAL 处理 */
+            dst.putInt(limit - pos);
+            dst.put(src);
+            return dst.position() - begin;
+        }
+        while (code < limit) {
+            int nalStart = code + startCodeLength(src, code);
+            int next = findStartCode(src, nalStart, limit);
+            if (next > nalStart && (src.get(nalStart) & 0x1f) != NAL_AUD) {
+                dst.putInt(next - nalStart);
+                src.limit(next).position(nalStart);
+                dst.put(src);
+                src.limit(limit);
+            }
+            code = next;
+        }
+        src.position(limit);
+        return dst.position() - begin;
+    }
+
+    /**
+     * 写入 {@link #writeAvcc(ByteBuffer, ByteBuffer)} 结果所需的最大空间
+     */
+    public static int maxAvccSize(int annexBSize) {
+        /* 最坏情况每个 3 字节起始码后跟 1 字节 NAL，长度前缀多 1 字节 */
+        return annexBSize + annexBSize / 4 + 4;
+    }
+
+    /**
+     * 按起始码拆分 NAL，用于 csd 等一次性的数据
+     */
+    public static List<byte[]> splitNals(byte[] data) {
+        List<byte[]> nals = new ArrayList<>();
+        if (data == null) {
+            return nals;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int code = findStartCode(buf, 0, data.length);
+        if (code != 0) {
+            nals.add(data);
+            return nals;
+        }
+        while (code < data.length) {
+            int nalStart = code + startCodeLength(buf, code);
+            int next = findStartCode(buf, nalStart, data.length);
+            if (next > nalStart) {
+                byte[] nal = new byte[next - nalStart];
+                System.arraycopy(data, nalStart, nal, 0, nal.length);
+                nals.add(nal);
+            }
+            code = next;
+        }
+        return nals;
+    }
+
+    public static int nalType(byte[] nal) {
+        return nal[0] & 0x1f;
+    }
+}
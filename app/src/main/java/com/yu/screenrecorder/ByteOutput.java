@@ -0,0 +1,22 @@
+package com.yu.screenrecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 顺序写入的字节输出，供自行封装格式的 {@link ISampleSink} 使用
+ */
+public interface ByteOutput {
+
+    /**
+     * 写入 src 中剩余的全部字节，返回后 src 可以被复用
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    /**
+     * 把已写入的数据提交给底层
+     */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,116 @@
+package com.yu.screenrecorder;
+
+/**
+ * 采集档位：按档位缩放屏幕尺寸，保持宽高比，宽高对齐到编码器友好的倍数，并给出对应的默认码率
+ * <br/> 只缩小不放大，屏幕本身比档位小时按原尺寸录制
+ */
+public final class CaptureProfile {
+    public static final int PROFILE_NATIVE = 0;  // 屏幕原始尺寸
+    public static final int PROFILE_1080P = 1;   // 短边 1080
+    public static final int PROFILE_720P = 2;    // 短边 720
+    public static final int PROFILE_480P = 3;    // 短边 480
+    public static final int PROFILE_CUSTOM = 4;  // 长边不超过指定值
+
+    /* 宽高对齐到 16，硬件编码器按 16x16 宏块处理，不对齐的尺寸在部分设备上无法配置 */
+    public static final int ALIGNMENT = 16;
+
+    private static final String[] NAMES = {"native", "1080p", "720p", "480p", "custom"};
+    /* 各档位的短边 */
+    private static final int[] SHORT_EDGES = {0, 1080, 720, 480, 0};
+    /* 各档位在 16:9、30fps 下的码率 */
+    private static final int[] BIT_RATES = {0, 8000000, 4000000, 2000000, 0};
+    /* 原始尺寸和自定义档位按 1080p 的每像素码率计算 */
+    private static final int REFERENCE_BIT_RATE = 8000000;
+    private static final long REFERENCE_PIXELS = 1920L * 1080;
+    private static final int REFERENCE_FRAME_RATE = 30;
+    private static final int MIN_BIT_RATE = 500000;
+
+    private CaptureProfile() {
+    }
+
+    public static String nameOf(int profile) {
+        return NAMES[profile];
+    }
+
+    /**
+     * 按 config 中的屏幕尺寸和档位计算录制宽高、dpi 和码率
+     */
+    public static void apply(RecordConfig config) {
+        apply(config, 0);
+    }
+
+    /**
+     * 在配置的档位基础上再降低 steps 级后计算，config.profile 不变，用于温控降级
+     * <br/> 依次降到 1080p、720p、480p；自定义档位每级把长边上限缩小到 3/4
+     */
+    public static void apply(RecordConfig config, int steps) {
+        int profile = config.profile;
+        int maxEdge = config.profileMaxEdge;
+        if (steps > 0) {
+            if (profile == PROFILE_CUSTOM && maxEdge > 0) {
+                for (int i = 0; i < steps; i++) {
+                    maxEdge = maxEdge * 3 / 4;
+                }
+            } else {
+                profile = lower(profile == PROFILE_CUSTOM ? PROFILE_NATIVE : profile, steps);
+            }
+        }
+        int shortSide = Math.min(config.screenWidth, config.screenHeight);
+        int longSide = Math.max(config.screenWidth, config.screenHeight);
+        double scale = scaleOf(profile, maxEdge, shortSide, longSide);
+        config.width = align(config.screenWidth, scale);
+        config.height = align(config.screenHeight, scale);
+        config.dpi = Math.max(1, (int) Math.round(config.screenDpi * scale));
+        config.bitRate = defaultBitRate(profile, config.width, config.height, config.frameRate);
+        config.minBitRate = Math.min(config.minBitRate, config.bitRate);
+    }
+
+    /**
+     * 低 steps 级的档位，最低 480p
+     */
+    static int lower(int profile, int steps) {
+        return Math.min(PROFILE_480P, profile + steps);
+    }
+
+    /**
+     * 缩放比例，不超过 1
+     */
+    static double scaleOf(int profile, int maxEdge, int shortSide, int longSide) {
+        double scale = 1;
+        if (profile == PROFILE_CUSTOM) {
+            if (maxEdge > 0) scale = (double) maxEdge / longSide;
+        } else if (profile != PROFILE_NATIVE) {
+            scale = (double) SHORT_EDGES[profile] / shortSide;
+        }
+        return Math.min(1, scale);
+    }
+
+    /**
+     * 缩放后取最接近的 {@link #ALIGNMENT} 的倍数，超过原尺寸时向下取
+     */
+    static int align(int size, double scale) {
+        int scaled = (int) Math.round(size * scale);
+        int aligned = (scaled + ALIGNMENT / 2) / ALIGNMENT * ALIGNMENT;
+        if (aligned > size) {
+            aligned = size / ALIGNMENT * ALIGNMENT;
+        }
+        return Math.max(ALIGNMENT, aligned);
+    }
+
+    /**
+     * 档位的默认码率，按实际像素数和帧率换算
+     */
+    public static int defaultBitRate(int profile, int width, int height, int frameRate) {
+        long pixels = (long) width * height;
+        double bitRate;
+        int shortEdge = SHORT_EDGES[profile];
+        if (shortEdge > 0) {
+            long nominalPixels = (long) shortEdge * (shortEdge * 16 / 9);
+            bitRate = (double) BIT_RATES[profile] * pixels / nominalPixels;
+        } else {
+            bitRate = (double) REFERENCE_BIT_RATE * pixels / REFERENCE_PIXELS;
+        }
+        bitRate = bitRate * frameRate / REFERENCE_FRAME_RATE;
+        return (int) Math.max(MIN_BIT_RATE, Math.min(Integer.MAX_VALUE, bitRate));
+    }
+}
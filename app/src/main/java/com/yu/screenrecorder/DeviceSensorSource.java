@@ -0,0 +1,67 @@
+package com.yu.screenrecorder;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.lang.reflect.Method;
+
+/**
+ * 从系统读取电池温度、充电状态、电量和温控状态
+ * <br/> 电池信息取 ACTION_BATTERY_CHANGED 的粘性广播，不注册接收器；
+ * 温控状态需要 10.0 的 PowerManager.getCurrentThermalStatus()，编译版本没有这个接口，通过反射调用，之前的版本为 UNKNOWN
+ */
+public class DeviceSensorSource implements ThermalGovernor.SensorSource {
+    private static final String TAG = "DeviceSensorSource";
+    /* Build.VERSION_CODES.Q */
+    private static final int VERSION_Q = 29;
+
+    private final Context context;
+    private final IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+    private final PowerManager powerManager;
+    private Method thermalStatusMethod;
+
+    public DeviceSensorSource(Context context) {
+        this.context = context.getApplicationContext();
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= VERSION_Q) {
+            try {
+                thermalStatusMethod = PowerManager.class.getMethod("getCurrentThermalStatus");
+            } catch (NoSuchMethodException e) {
+                LogUtil.w(TAG, "thermal status is not available");
+            }
+        }
+    }
+
+    @Override
+    public boolean read(SensorReading out) {
+        Intent battery = context.registerReceiver(null, batteryFilter);
+        if (battery == null) {
+            return false;
+        }
+        int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, SensorReading.TEMPERATURE_UNKNOWN);
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, BatteryManager.BATTERY_STATUS_UNKNOWN);
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int percent = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+        out.set(temperature, charging, percent, readThermalStatus());
+        return true;
+    }
+
+    private int readThermalStatus() {
+        if (thermalStatusMethod == null) {
+            return SensorReading.THERMAL_STATUS_UNKNOWN;
+        }
+        try {
+            return (Integer) thermalStatusMethod.invoke(powerManager);
+        } catch (Exception e) {
+            LogUtil.w(TAG, "read thermal status failed: {}", e);
+            thermalStatusMethod = null;
+            return SensorReading.THERMAL_STATUS_UNKNOWN;
+        }
+    }
+}
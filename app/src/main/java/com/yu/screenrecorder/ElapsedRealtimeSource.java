@@ -0,0 +1,18 @@
+package com.yu.screenrecorder;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * 基于 SystemClock.elapsedRealtimeNanos 的时钟，包含深度睡眠时间
+ */
+public class ElapsedRealtimeSource implements RecordingClock.TimeSource {
+
+    @Override
+    public long nanoTime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+}
@@ -0,0 +1,90 @@
+package com.yu.screenrecorder;
+
+/**
+ * 编码器能力，对应 MediaCodecInfo.VideoCapabilities 中录制关心的部分
+ * <br/> 不依赖 android 类，由 {@link EncoderCapabilityCache} 持久化
+ */
+public class EncoderCapabilities {
+    public final String mime;
+    public String codecName;
+    public int minWidth = 1;
+    public int maxWidth = Integer.MAX_VALUE;
+    public int minHeight = 1;
+    public int maxHeight = Integer.MAX_VALUE;
+    public int widthAlignment = 1;
+    public int heightAlignment = 1;
+    /* 支持的最大像素数，宽高各自不超过上限时也可能超过它 */
+    public long maxPixels = Long.MAX_VALUE;
+    public int maxFrameRate = Integer.MAX_VALUE;
+    public int minBitRate = 1;
+    public int maxBitRate = Integer.MAX_VALUE;
+    /* 支持的 profile，AVC 为 MediaCodecInfo.CodecProfileLevel.AVCProfile* */
+    public int[] profiles = new int[0];
+
+    public EncoderCapabilities(String mime) {
+        this.mime = mime;
+    }
+
+    public boolean isSizeSupported(int width, int height) {
+        return width >= minWidth && width <= maxWidth && height >= minHeight && height <= maxHeight
+                && width % widthAlignment == 0 && height % heightAlignment == 0
+                && (long) width * height <= maxPixels;
+    }
+
+    public boolean supportsProfile(int profile) {
+        for (int p : profiles) {
+            if (p == profile) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把 config 中的宽高、dpi、帧率和码率调整到编码器支持的范围内
+     * <br/> 尺寸过大时保持宽高比缩小后再按对齐要求向下取整
+     *
+     * @return 有参数被调整时返回 true
+     */
+    public boolean fit(RecordConfig config) {
+        boolean changed = false;
+        int width = config.width;
+        int height = config.height;
+        if (!isSizeSupported(width, height)) {
+            double scale = Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height));
+            scale = Math.min(scale, Math.sqrt((double) maxPixels / ((double) width * height)));
+            width = alignDown((int) (width * scale), widthAlignment, minWidth);
+            height = alignDown((int) (height * scale), heightAlignment, minHeight);
+            config.dpi = Math.max(1, (int) Math.round(config.dpi * Math.min((double) width / config.width,
+                    (double) height / config.height)));
+            config.width = width;
+            config.height = height;
+            changed = true;
+        }
+        if (config.frameRate > maxFrameRate) {
+            config.frameRate = maxFrameRate;
+            changed = true;
+        }
+        config.minFrameRate = Math.min(config.minFrameRate, config.frameRate);
+        int bitRate = Math.max(minBitRate, Math.min(maxBitRate, config.bitRate));
+        if (bitRate != config.bitRate) {
+            config.bitRate = bitRate;
+            changed = true;
+        }
+        config.minBitRate = Math.max(minBitRate, Math.min(config.minBitRate, config.bitRate));
+        return changed;
+    }
+
+    private static int alignDown(int size, int alignment, int min) {
+        int aligned = size / alignment * alignment;
+        if (aligned < min) {
+            aligned = (min + alignment - 1) / alignment * alignment;
+        }
+        return aligned;
+    }
+
+    @Override
+    public String toString() {
+        return codecName + " " + mime + " " + minWidth + "-" + maxWidth + "x" + minHeight + "-" + maxHeight
+                + " align " + widthAlignment + "x" + heightAlignment + " maxPixels " + maxPixels
+                + " fps<=" + maxFrameRate + " bitrate " + minBitRate + "-" + maxBitRate;
+    }
+}
@@ -0,0 +1,210 @@
+package com.yu.screenrecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编码器能力缓存
+ * <br/> 查询编码器能力需要遍历 MediaCodecList，耗时几十毫秒；结果按设备和系统版本的指纹保存在一个很小的二进制文件中，
+ * 之后的启动直接读取文件，在创建编码器之前就能选出支持的参数。
+ * 指纹不一致、版本不一致或文件损坏时重新查询并覆盖
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * UTF    fingerprint
+ * int    count
+ * count * { UTF mime, boolean present, [UTF codecName, int minWidth, int maxWidth, int minHeight, int maxHeight,
+ *           int widthAlignment, int heightAlignment, long maxPixels, int maxFrameRate, int minBitRate,
+ *           int maxBitRate, int profileCount, profileCount * int] }
+ * </pre>
+ */
+public class EncoderCapabilityCache {
+    private static final String TAG = "EncoderCapabilityCache";
+    static final int MAGIC = 0x45434150; // "ECAP"
+    static final int VERSION = 1;
+
+    /**
+     * 查询编码器能力
+     */
+    public interface Probe {
+        /**
+         * @return 没有支持该类型的编码器时返回 null
+         */
+        EncoderCapabilities probe(String mime);
+    }
+
+    /* 查询过但是没有对应编码器 */
+    private static final EncoderCapabilities MISSING = new EncoderCapabilities("");
+
+    private final File file;
+    private final String fingerprint;
+    private final Probe probe;
+    private final Map<String, EncoderCapabilities> entries = new HashMap<String, EncoderCapabilities>();
+    private boolean loaded;
+    private boolean loadedFromFile;
+    private long loadTimeNs;
+
+    public EncoderCapabilityCache(File file, String fingerprint, Probe probe) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.probe = probe;
+    }
+
+    /**
+     * 获取编码器能力，缓存中没有时查询并写入文件
+     *
+     * @return 没有支持该类型的编码器时返回 null
+     */
+    public synchronized EncoderCapabilities get(String mime) {
+        load();
+        EncoderCapabilities caps = entries.get(mime);
+        if (caps == null) {
+            caps = probe.probe(mime);
+            entries.put(mime, caps != null ? caps : MISSING);
+            save();
+        }
+        return caps == MISSING ? null : caps;
+    }
+
+    /**
+     * 读取缓存文件，只在第一次调用时读取，可以提前在后台线程调用
+     */
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        long begin = System.nanoTime();
+        if (file.exists()) {
+            try {
+                loadedFromFile = read();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "read {} failed: {}", file, e.getMessage());
+            }
+            if (!loadedFromFile) {
+                entries.clear();
+            }
+        }
+        loadTimeNs = System.nanoTime() - begin;
+    }
+
+    /**
+     * 内容来自缓存文件而不是重新查询
+     */
+    public synchronized boolean isLoadedFromFile() {
+        return loadedFromFile;
+    }
+
+    /**
+     * 读取缓存文件的耗时，纳秒
+     */
+    public synchronized long getLoadTimeNanos() {
+        return loadTimeNs;
+    }
+
+    /**
+     * @return 指纹或版本不一致时返回 false
+     */
+    private boolean read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readUTF())) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String mime = in.readUTF();
+                entries.put(mime, in.readBoolean() ? readEntry(in, mime) : MISSING);
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static EncoderCapabilities readEntry(DataInputStream in, String mime) throws IOException {
+        EncoderCapabilities caps = new EncoderCapabilities(mime);
+        caps.codecName = in.readUTF();
+        caps.minWidth = in.readInt();
+        caps.maxWidth = in.readInt();
+        caps.minHeight = in.readInt();
+        caps.maxHeight = in.readInt();
+        caps.widthAlignment = in.readInt();
+        caps.heightAlignment = in.readInt();
+        caps.maxPixels = in.readLong();
+        caps.maxFrameRate = in.readInt();
+        caps.minBitRate = in.readInt();
+        caps.maxBitRate = in.readInt();
+        int profileCount = in.readInt();
+        if (profileCount < 0 || profileCount > 1024) {
+            throw new IOException("bad profile count " + profileCount);
+        }
+        caps.profiles = new int[profileCount];
+        for (int i = 0; i < profileCount; i++) {
+            caps.profiles[i] = in.readInt();
+        }
+        return caps;
+    }
+
+    /**
+     * 先写临时文件再重命名，写到一半被杀也不会留下损坏的缓存
+     */
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("mkdirs " + dir + " failed");
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, EncoderCapabilities> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    EncoderCapabilities caps = entry.getValue();
+                    out.writeBoolean(caps != MISSING);
+                    if (caps != MISSING) {
+                        writeEntry(out, caps);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename " + tmp + " failed");
+            }
+        } catch (IOException e) {
+            LogUtil.w(TAG, "write {} failed: {}", file, e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, EncoderCapabilities caps) throws IOException {
+        out.writeUTF(caps.codecName != null ? caps.codecName : "");
+        out.writeInt(caps.minWidth);
+        out.writeInt(caps.maxWidth);
+        out.writeInt(caps.minHeight);
+        out.writeInt(caps.maxHeight);
+        out.writeInt(caps.widthAlignment);
+        out.writeInt(caps.heightAlignment);
+        out.writeLong(caps.maxPixels);
+        out.writeInt(caps.maxFrameRate);
+        out.writeInt(caps.minBitRate);
+        out.writeInt(caps.maxBitRate);
+        out.writeInt(caps.profiles.length);
+        for (int profile : caps.profiles) {
+            out.writeInt(profile);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码引擎：循环从 {@link ICodec} 取出编码数据并写入 {@link ISampleSink}
+ * <br/> 本身不依赖 android 类，可配合假编码器在 JVM 上测试吞吐
+ */
+public class EncoderEngine implements Runnable {
+    private static final String TAG = "EncoderEngine";
+    /* 每次等待输出的超时时间 */
+    private static final long DRAIN_TIMEOUT_US = 10000;
+    /* 等待编码结束的最长时间 */
+    private static final long STOP_TIMEOUT_MS = 3000;
+    /* 超过这个值的编码耗时认为时间戳不是 System.nanoTime() 时基，不统计 */
+    private static final long MAX_ENCODE_LATENCY_US = 10000000;
+
+    private final ICodec codec;
+    private final ISampleSink sink;
+    private final SampleInfo info = new SampleInfo();
+
+    private RateController rateController;
+    private RecordingClock clock;
+    private RecorderMetrics metrics;
+    private boolean countCaptured = true;
+    private Thread drainThread;
+    private volatile boolean running;
+    private long stopTimeoutMs = STOP_TIMEOUT_MS;
+    private int track = -1;
+    /* 音频轨道不统计帧数和编码耗时，时间戳按音频换算 */
+    private boolean video = true;
+
+    /* 只在 drain 线程写，其他线程读 */
+    private volatile long framesEncoded;
+    private volatile long bytesEncoded;
+    private volatile long firstFrameTimeNs = -1;
+
+    public EncoderEngine(ICodec codec, ISampleSink sink) {
+        this.codec = codec;
+        this.sink = sink;
+    }
+
+    /**
+     * 设置码率控制器，在 drain 线程中接收每个样本的统计
+     */
+    public void setRateController(RateController rateController) {
+        this.rateController = rateController;
+    }
+
+    /**
+     * 设置录制时钟，输出时间戳按它换算，暂停期间的样本被丢弃
+     */
+    public void setClock(RecordingClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * 设置统计，在 start 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 输入帧由 {@link VariableFrameRateSource} 计数时设为 false，默认在编码器输出时计为采集的帧
+     */
+    public void setCountCaptured(boolean countCaptured) {
+        this.countCaptured = countCaptured;
+    }
+
+    /**
+     * 设置 stop 每次等待 drain 线程的时间，测试用
+     */
+    void setStopTimeoutMs(long stopTimeoutMs) {
+        this.stopTimeoutMs = stopTimeoutMs;
+    }
+
+    /**
+     * 启动编码器以及 drain 线程
+     */
+    public void start() {
+        codec.start();
+        running = true;
+        drainThread = new Thread(this, "encoder_drain");
+        drainThread.start();
+    }
+
+    /**
+     * 通知输入结束并等待 drain 线程写完剩余数据
+     * <br/> 超时后让 drain 线程退出循环并中断它，再等待一次；仍然没有退出时 drain 线程可能还在访问编码器，
+     * 调用者不能停止或释放编码器
+     *
+     * @return drain 线程已经退出时返回 true
+     */
+    public boolean stop() {
+        Thread thread = drainThread;
+        if (thread == null) {
+            return true;
+        }
+        codec.signalEndOfInputStream();
+        join(thread, stopTimeoutMs);
+        running = false;
+        if (thread.isAlive()) {
+            LogUtil.w(TAG, "drain thread not finished in {}ms, interrupt it", stopTimeoutMs);
+            thread.interrupt();
+            join(thread, stopTimeoutMs);
+        }
+        if (thread.isAlive()) {
+            LogUtil.e(TAG, "drain thread still running, keep codec");
+            return false;
+        }
+        drainThread = null;
+        return true;
+    }
+
+    /**
+     * drain 线程是否还在运行，stop 返回 false 之后可以用来判断能否释放编码器
+     */
+    public boolean isDraining() {
+        Thread thread = drainThread;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * 释放编码器；stop 超时后 drain 线程仍在访问编码器时放弃释放，避免它抛出 IllegalStateException
+     *
+     * @param encoder 使用该编码器的引擎，还没有创建时为 null
+     */
+    public static void releaseCodec(ICodec codec, EncoderEngine encoder) {
+        if (encoder != null && encoder.isDraining()) {
+            LogUtil.e(TAG, "drain thread still running, codec not released");
+            return;
+        }
+        codec.release();
+    }
+
+    private static void join(Thread thread, long timeoutMs) {
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running && drain(DRAIN_TIMEOUT_US)) {
+            // 直到收到结束标志
+        }
+        running = false;
+    }
+
+    /**
+     * 处理一次编码器输出
+     *
+     * @return 收到结束标志时返回 false
+     */
+    public boolean drain(long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(info, timeoutUs);
+        if (index == ICodec.INFO_TRY_AGAIN_LATER || index == ICodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            return true;
+        }
+        if (index == ICodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            if (track < 0) {
+                TrackFormat format = codec.getOutputFormat();
+                video = format.isVideo();
+                track = sink.addTrack(format);
+                sink.start();
+            }
+            return true;
+        }
+        if (index < 0) {
+            LogUtil.w(TAG, "unexpected dequeueOutputBuffer result {}", index);
+            return true;
+        }
+
+        ByteBuffer buffer = codec.getOutputBuffer(index);
+        /* SPS/PPS 已经包含在输出格式里，不再作为样本写入 */
+        if (!info.isCodecConfig() && info.size > 0 && track >= 0) {
+            writeSample(buffer);
+        }
+        codec.releaseOutputBuffer(index);
+        return !info.isEndOfStream();
+    }
+
+    private void writeSample(ByteBuffer buffer) {
+        if (!video) {
+            writeAudioSample(buffer);
+            return;
+        }
+        long nowUs = System.nanoTime() / 1000;
+        if (rateController != null) {
+            rateController.onSampleEncoded(info.size, info.presentationTimeUs, nowUs);
+        }
+        if (metrics != null) {
+            if (countCaptured) metrics.framesCaptured.incrementAndGet();
+            /* Surface 输入的时间戳与 System.nanoTime() 同一时基，差值即采集到编码输出的耗时 */
+            long latencyUs = nowUs - info.presentationTimeUs;
+            if (latencyUs >= 0 && latencyUs < MAX_ENCODE_LATENCY_US) {
+                metrics.encodeLatencyUs.record(latencyUs);
+            }
+        }
+        if (clock != null) {
+            long ptsUs = clock.rebasePtsUs(info.presentationTimeUs, info.isKeyFrame());
+            if (ptsUs < 0) {
+                if (metrics != null) metrics.framesPaused.incrementAndGet();
+                return;
+            }
+            info.presentationTimeUs = ptsUs;
+        }
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        sink.writeSample(track, buffer, info);
+        if (framesEncoded == 0) {
+            firstFrameTimeNs = System.nanoTime();
+        }
+        framesEncoded++;
+        bytesEncoded += info.size;
+        if (metrics != null) {
+            metrics.framesEncoded.incrementAndGet();
+            metrics.bytesEncoded.addAndGet(info.size);
+        }
+    }
+
+    private void writeAudioSample(ByteBuffer buffer) {
+        if (clock != null) {
+            long ptsUs = clock.rebaseAudioPtsUs(info.presentationTimeUs);
+            if (ptsUs < 0) {
+                return;
+            }
+            info.presentationTimeUs = ptsUs;
+        }
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        sink.writeSample(track, buffer, info);
+        framesEncoded++;
+        bytesEncoded += info.size;
+        if (metrics != null) {
+            metrics.bytesEncoded.addAndGet(info.size);
+        }
+    }
+
+    public long getFramesEncoded() {
+        return framesEncoded;
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded;
+    }
+
+    /**
+     * 第一帧写入 sink 的时间，{@link System#nanoTime()} 时基，还没有时返回-1
+     */
+    public long getFirstFrameTimeNanos() {
+        return firstFrameTimeNs;
+    }
+}
@@ -0,0 +1,144 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个输出文件：封装格式的 sink 以及它的写线程、录制日志和关键帧索引
+ * <br/> 正常停止后文件已经完整写完，删除日志、关闭索引；启动后没有停止就释放时保留日志，下次启动时修复；
+ * 没有启动就释放时（例如待机时预先准备的输出被丢弃）写线程随 sink 关闭，文件、日志和索引一起删除
+ */
+class FileOutput implements ISampleSink {
+    private static final String TAG = "FileOutput";
+
+    final File file;
+    final ISampleSink sink;
+    final AsyncFileWriter writer;
+    private final AtomicLong closedBytes;
+    private RecordingJournal journal;
+    private KeyframeIndex index;
+    private boolean started;
+    volatile boolean stopped;
+
+    FileOutput(File file, ISampleSink sink, AsyncFileWriter writer, RecordingJournal journal,
+               KeyframeIndex index, AtomicLong closedBytes) {
+        this.file = file;
+        this.sink = sink;
+        this.writer = writer;
+        this.journal = journal;
+        this.index = index;
+        this.closedBytes = closedBytes;
+    }
+
+    /**
+     * 打开一个输出文件；H264 裸流和分片 mp4 同时创建写线程、录制日志和关键帧索引，日志和索引创建失败时不影响录制
+     *
+     * @param closedBytes 停止时累加写线程写入的字节数
+     */
+    static FileOutput open(RecordConfig config, File file, RecorderMetrics metrics,
+                           AtomicLong closedBytes) throws IOException {
+        if (config.outputFormat != RecordConfig.OUTPUT_FORMAT_H264
+                && config.outputFormat != RecordConfig.OUTPUT_FORMAT_FMP4) {
+            return new FileOutput(file, new MediaMuxerSink(file.getPath()), null, null, null, closedBytes);
+        }
+        AsyncFileWriter writer = new AsyncFileWriter(file);
+        writer.setMetrics(metrics);
+        RecordingJournal journal = null;
+        try {
+            journal = new RecordingJournal(file, config.outputFormat);
+            writer.setOnWrittenListener(journal);
+        } catch (IOException e) {
+            LogUtil.w(TAG, "create journal failed: {}", e.getMessage());
+        }
+        KeyframeIndex index = null;
+        if (config.sidecarIndex) {
+            try {
+                index = new KeyframeIndex(file, config.outputFormat);
+            } catch (IOException e) {
+                LogUtil.w(TAG, "create keyframe index failed: {}", e.getMessage());
+            }
+        }
+        ISampleSink sink;
+        if (config.outputFormat == RecordConfig.OUTPUT_FORMAT_H264) {
+            AnnexBSink annexB = new AnnexBSink(writer);
+            annexB.setJournal(journal);
+            annexB.setIndex(index);
+            sink = annexB;
+        } else {
+            FragmentedMp4Sink fmp4 = new FragmentedMp4Sink(writer, config.fragmentDurationMs * 1000L);
+            fmp4.setJournal(journal);
+            fmp4.setIndex(index);
+            sink = fmp4;
+        }
+        return new FileOutput(file, sink, writer, journal, index, closedBytes);
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return sink.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        sink.start();
+        started = true;
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        sink.writeSample(track, buffer, info);
+    }
+
+    @Override
+    public void stop() {
+        sink.stop();
+        if (writer != null) {
+            // 只在写样本的线程累加
+            closedBytes.addAndGet(writer.getBytesWritten());
+        }
+        stopped = true;
+        if (journal != null) {
+            journal.delete();
+            journal = null;
+        }
+        closeIndex();
+    }
+
+    @Override
+    public void release() {
+        // 没有停止的 sink 在这里关闭写线程
+        sink.release();
+        if (started) {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            closeIndex();
+            return;
+        }
+        if (journal != null) {
+            journal.delete();
+            journal = null;
+        }
+        if (index != null) {
+            closeIndex();
+            delete(KeyframeIndex.indexOf(file));
+        }
+        delete(file);
+    }
+
+    private void closeIndex() {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LogUtil.w(TAG, "delete {} failed", file);
+        }
+    }
+}
@@ -0,0 +1,809 @@
+package com.yu.screenrecorder;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分片 mp4 的无损剪切和拼接，不重新编码
+ * <br/> 输入只读取 moov 和各分片的 moof，样本数据用 {@link FileChannel#transferTo} 从输入直接复制到输出，
+ * 不经过 Java 堆，从几个 GB 的录制中剪出一段只需要复制这一段的数据。
+ * 不映射整个文件，32 位进程放不下几个 GB 的映射
+ * <br/> 剪切以样本为单位：开始位置向前取到主轨道（有视频时为视频轨）最近的关键帧，其他轨道从同一时间开始，
+ * 结束位置及之后的样本丢弃。每个分片按选中的样本重新生成 moof，tfdt 换算到输出的时间线，mfhd 序号连续
+ * <br/> 拼接的各输入轨道必须相同（同一次录制的各分段，或者相同参数的录制），输出的 ftyp、moov 取自第一个输入。
+ * 按解码时间选择样本，与 {@link FragmentedMp4Sink} 一样假定没有 B 帧
+ */
+public class FragmentedMp4Editor implements Closeable {
+    private static final String TAG = "FragmentedMp4Editor";
+
+    /* tfhd flags */
+    private static final int TFHD_BASE_DATA_OFFSET = 0x000001;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x000002;
+    private static final int TFHD_DEFAULT_DURATION = 0x000008;
+    private static final int TFHD_DEFAULT_SIZE = 0x000010;
+    private static final int TFHD_DEFAULT_FLAGS = 0x000020;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    /* trun flags */
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x000004;
+    private static final int TRUN_DURATION = 0x000100;
+    private static final int TRUN_SIZE = 0x000200;
+    private static final int TRUN_FLAGS = 0x000400;
+    private static final int TRUN_COMPOSITION_OFFSET = 0x000800;
+    /* sample_flags 中的 sample_is_non_sync_sample */
+    private static final int SAMPLE_NON_SYNC = 0x00010000;
+    private static final int MAX_BOX_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel out;
+    /* 读取 moof 和写 moof 分别复用 */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(8192);
+    private final ByteBuffer boxHeader = ByteBuffer.allocate(16);
+    /* 第一个输入的轨道，输出的 moov 取自它 */
+    private Movie outputMovie;
+    private int sequence;
+    /* 输出中主轨道的结束时间，下一个输入从这里接上 */
+    private long durationUs;
+
+    /**
+     * 创建输出文件，已经存在时清空
+     */
+    public FragmentedMp4Editor(File output) throws IOException {
+        raf = new RandomAccessFile(output, "rw");
+        raf.setLength(0);
+        out = raf.getChannel();
+    }
+
+    /**
+     * 从 input 中剪出 [startUs, endUs) 保存到 output，时间相对 input 主轨道的第一个样本
+     *
+     * @param endUs 小于 0 时到文件结尾
+     * @return 输出的时长，微秒
+     */
+    public static long trim(File input, File output, long startUs, long endUs) throws IOException {
+        FragmentedMp4Editor editor = new FragmentedMp4Editor(output);
+        try {
+            editor.append(input, startUs, endUs);
+        } catch (IOException e) {
+            editor.abort(output);
+            throw e;
+        }
+        editor.close();
+        return editor.getDurationUs();
+    }
+
+    /**
+     * 按顺序把 inputs 拼接到 output
+     *
+     * @return 输出的时长，微秒
+     */
+    public static long concat(List<File> inputs, File output) throws IOException {
+        FragmentedMp4Editor editor = new FragmentedMp4Editor(output);
+        try {
+            for (File input : inputs) {
+                editor.append(input);
+            }
+        } catch (IOException e) {
+            editor.abort(output);
+            throw e;
+        }
+        editor.close();
+        return editor.getDurationUs();
+    }
+
+    /**
+     * 追加整个 input
+     *
+     * @return 追加的时长，微秒
+     */
+    public long append(File input) throws IOException {
+        return append(input, 0, -1);
+    }
+
+    /**
+     * 追加 input 的 [startUs, endUs)，时间相对 input 主轨道的第一个样本；开始位置向前取到关键帧
+     *
+     * @param endUs 小于 0 时到文件结尾
+     * @return 追加的时长，微秒
+     */
+    public long append(File input, long startUs, long endUs) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            FileChannel in = file.getChannel();
+            Movie movie = readMovie(in);
+            if (outputMovie == null) {
+                writeFully(ByteBuffer.wrap(movie.ftyp));
+                writeFully(ByteBuffer.wrap(movie.moov));
+                outputMovie = movie;
+            } else if (!outputMovie.isCompatible(movie)) {
+                throw new IOException(input.getName() + ": tracks differ from the first input");
+            }
+            long before = durationUs;
+            copyRange(in, movie, Math.max(0, startUs), endUs);
+            LogUtil.i(TAG, "append " + input.getName() + " {}us", durationUs - before);
+            return durationUs - before;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 输出中主轨道的时长，微秒
+     */
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void abort(File output) {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // 输出即将删除
+        }
+        if (!output.delete()) {
+            LogUtil.w(TAG, "delete {} failed", output.getName());
+        }
+    }
+
+    /**
+     * 两遍扫描：第一遍只读 moof 找到开始位置之前最近的关键帧，第二遍从它前一个分片开始复制选中的样本。
+     * 其他轨道的样本可能比主轨道的关键帧早一点写入前一个分片
+     */
+    private void copyRange(FileChannel in, Movie movie, long startUs, long endUs) throws IOException {
+        Track primary = movie.tracks[movie.primary];
+        long firstUs = -1;
+        long cutUs = -1;
+        long copyFrom = movie.firstFragment;
+        long previous = movie.firstFragment;
+        long position = movie.firstFragment;
+        scan:
+        while (true) {
+            long size = nextFragment(in, movie, position);
+            if (size < 0) {
+                break;
+            }
+            if (primary.present) {
+                long time = primary.baseTime;
+                for (int i = 0; i < primary.count; i++) {
+                    long us = primary.toUs(time);
+                    if (firstUs < 0) {
+                        firstUs = us;
+                    }
+                    if ((primary.flags[i] & SAMPLE_NON_SYNC) == 0) {
+                        if (cutUs >= 0 && us > firstUs + startUs) {
+                            break scan;
+                        }
+                        cutUs = us;
+                        copyFrom = previous;
+                    }
+                    time += primary.durations[i];
+                }
+            }
+            previous = position;
+            position += size;
+        }
+        if (cutUs < 0) {
+            throw new IOException("no key frame in primary track");
+        }
+        long endAbsUs = endUs < 0 ? Long.MAX_VALUE : firstUs + endUs;
+        long baseUs = durationUs;
+        for (Track track : movie.tracks) {
+            track.shift = Math.round((baseUs - cutUs) * (double) track.timescale / 1000000);
+        }
+
+        position = copyFrom;
+        while (true) {
+            long size = nextFragment(in, movie, position);
+            if (size < 0 || !select(movie, cutUs, endAbsUs)) {
+                break;
+            }
+            writeFragment(in, movie);
+            position += size;
+        }
+    }
+
+    /**
+     * 从 position 开始找到下一个 moof 并解析到各轨道
+     *
+     * @return 从 position 到这个分片结束（下一个 moof 之前）的字节数，没有完整的分片时返回 -1
+     */
+    private long nextFragment(FileChannel in, Movie movie, long position) throws IOException {
+        long fileSize = in.size();
+        long moofPosition = -1;
+        int moofSize = 0;
+        long p = position;
+        while (p + 8 <= fileSize) {
+            long size = readBoxHeader(in, p, fileSize);
+            int type = boxHeader.getInt(4);
+            if (size < 8 || p + size > fileSize) {
+                // 进程被杀时最后一个 box 可能不完整
+                break;
+            }
+            if (type == Mp4Box.MOOF) {
+                if (moofPosition >= 0) {
+                    break;
+                }
+                if (size > MAX_BOX_SIZE) {
+                    throw new IOException("moof too large: " + size);
+                }
+                moofPosition = p;
+                moofSize = (int) size;
+            }
+            p += size;
+        }
+        if (moofPosition < 0) {
+            return -1;
+        }
+        readBox(in, moofPosition, moofSize);
+        if (!parseMoof(movie, moofPosition, moofSize, fileSize)) {
+            return -1;
+        }
+        return p - position;
+    }
+
+    private long readBoxHeader(FileChannel in, long position, long fileSize) throws IOException {
+        boxHeader.clear();
+        boxHeader.limit((int) Math.min(16, fileSize - position));
+        readFully(in, boxHeader, position);
+        long size = boxHeader.getInt(0) & 0xffffffffL;
+        if (size == 1) {
+            size = boxHeader.limit() == 16 ? boxHeader.getLong(8) : -1;
+        } else if (size == 0) {
+            size = fileSize - position;
+        }
+        return size;
+    }
+
+    private void readBox(FileChannel in, long position, int size) throws IOException {
+        if (readBuffer.capacity() < size) {
+            readBuffer = ByteBuffer.allocate(Math.max(size, readBuffer.capacity() * 2));
+        }
+        readBuffer.clear();
+        readBuffer.limit(size);
+        readFully(in, readBuffer, position);
+    }
+
+    /**
+     * 解析 readBuffer 中的 moof
+     *
+     * @return 样本数据超出文件结尾时返回 false
+     */
+    private boolean parseMoof(Movie movie, long moofPosition, int size, long fileSize) throws IOException {
+        for (Track track : movie.tracks) {
+            track.reset();
+        }
+        ByteBuffer buf = readBuffer;
+        long previousEnd = moofPosition;
+        for (int p = 8; p < size; p += buf.getInt(p)) {
+            checkBox(buf, p, size);
+            if (buf.getInt(p + 4) == Mp4Box.TRAF) {
+                previousEnd = parseTraf(movie, buf, p + 8, p + buf.getInt(p), moofPosition, previousEnd);
+            }
+        }
+        for (Track track : movie.tracks) {
+            if (track.present && track.offsets[track.count - 1] + track.sizes[track.count - 1] > fileSize) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 这个 traf 的数据结束位置，后面的 traf 没有指定位置时从这里开始
+     */
+    private long parseTraf(Movie movie, ByteBuffer buf, int start, int end, long moofPosition, long previousEnd)
+            throws IOException {
+        int tfhd = child(buf, start, end, Mp4Box.TFHD);
+        if (tfhd < 0) {
+            throw new IOException("traf without tfhd");
+        }
+        int flags = buf.getInt(tfhd + 8) & 0xffffff;
+        Track track = movie.trackOf(buf.getInt(tfhd + 12));
+        int p = tfhd + 16;
+        long base = (flags & TFHD_DEFAULT_BASE_IS_MOOF) != 0 ? moofPosition : previousEnd;
+        if ((flags & TFHD_BASE_DATA_OFFSET) != 0) {
+            base = buf.getLong(p);
+            p += 8;
+        }
+        if ((flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0) p += 4;
+        int defaultDuration = track.defaultDuration;
+        int defaultSize = track.defaultSize;
+        int defaultFlags = track.defaultFlags;
+        if ((flags & TFHD_DEFAULT_DURATION) != 0) {
+            defaultDuration = buf.getInt(p);
+            p += 4;
+        }
+        if ((flags & TFHD_DEFAULT_SIZE) != 0) {
+            defaultSize = buf.getInt(p);
+            p += 4;
+        }
+        if ((flags & TFHD_DEFAULT_FLAGS) != 0) {
+            defaultFlags = buf.getInt(p);
+        }
+        if (!track.present) {
+            int tfdt = child(buf, start, end, Mp4Box.TFDT);
+            if (tfdt >= 0) {
+                track.baseTime = buf.get(tfdt + 8) == 1 ? buf.getLong(tfdt + 12) : buf.getInt(tfdt + 12) & 0xffffffffL;
+            } else {
+                track.baseTime = track.nextTime;
+            }
+            track.present = true;
+        }
+
+        long dataEnd = base;
+        for (int q = start; q < end; q += buf.getInt(q)) {
+            checkBox(buf, q, end);
+            if (buf.getInt(q + 4) != Mp4Box.TRUN) {
+                continue;
+            }
+            int version = buf.get(q + 8);
+            int trunFlags = buf.getInt(q + 8) & 0xffffff;
+            int count = buf.getInt(q + 12);
+            int r = q + 16;
+            long offset = dataEnd;
+            if ((trunFlags & TRUN_DATA_OFFSET) != 0) {
+                offset = base + buf.getInt(r);
+                r += 4;
+            }
+            int firstFlags = defaultFlags;
+            if ((trunFlags & TRUN_FIRST_SAMPLE_FLAGS) != 0) {
+                firstFlags = buf.getInt(r);
+                r += 4;
+            }
+            int entryBytes = 4 * Integer.bitCount(trunFlags & 0xf00);
+            if (count < 0 || (long) count * entryBytes > q + buf.getInt(q) - r) {
+                throw new IOException("bad trun sample count " + count);
+            }
+            track.ensureCapacity(track.count + count);
+            for (int i = 0; i < count; i++) {
+                int duration = defaultDuration;
+                int size = defaultSize;
+                int sampleFlags = i == 0 ? firstFlags : defaultFlags;
+                int cto = 0;
+                if ((trunFlags & TRUN_DURATION) != 0) {
+                    duration = buf.getInt(r);
+                    r += 4;
+                }
+                if ((trunFlags & TRUN_SIZE) != 0) {
+                    size = buf.getInt(r);
+                    r += 4;
+                }
+                if ((trunFlags & TRUN_FLAGS) != 0) {
+                    sampleFlags = buf.getInt(r);
+                    r += 4;
+                }
+                if ((trunFlags & TRUN_COMPOSITION_OFFSET) != 0) {
+                    cto = buf.getInt(r);
+                    r += 4;
+                }
+                track.add(duration, size, sampleFlags, cto, offset);
+                offset += size;
+            }
+            if ((trunFlags & TRUN_COMPOSITION_OFFSET) != 0) {
+                track.hasCto = true;
+                track.trunVersion = version;
+            }
+            dataEnd = offset;
+        }
+        return dataEnd;
+    }
+
+    /**
+     * 按时间选择各轨道当前分片中的样本
+     *
+     * @return 所有轨道都已经到了结束时间时返回 false
+     */
+    private boolean select(Movie movie, long cutUs, long endAbsUs) {
+        boolean more = false;
+        for (Track track : movie.tracks) {
+            track.from = 0;
+            track.to = 0;
+            if (!track.present) {
+                continue;
+            }
+            long time = track.baseTime;
+            int from = -1;
+            int to = track.count;
+            for (int i = 0; i < track.count; i++) {
+                long us = track.toUs(time);
+                if (us >= endAbsUs) {
+                    to = i;
+                    break;
+                }
+                if (from < 0 && us >= cutUs) {
+                    from = i;
+                    track.firstTime = time;
+                }
+                time += track.durations[i];
+            }
+            track.nextTime = time;
+            if (to > 0) {
+                more = true;
+            }
+            if (from >= 0 && from < to) {
+                track.from = from;
+                track.to = to;
+            }
+        }
+        return more;
+    }
+
+    /**
+     * 按选中的样本写一个分片：新的 moof，之后是各轨道选中的样本数据
+     */
+    private void writeFragment(FileChannel in, Movie movie) throws IOException {
+        int headerSize = 64;
+        long payloadSize = 0;
+        for (Track track : movie.tracks) {
+            int count = track.to - track.from;
+            headerSize += 80 + count * 16;
+            for (int i = track.from; i < track.to; i++) {
+                payloadSize += track.sizes[i];
+            }
+        }
+        if (payloadSize == 0) {
+            return;
+        }
+        if (payloadSize > Integer.MAX_VALUE - 8) {
+            throw new IOException("fragment too large: " + payloadSize);
+        }
+        if (writeBuffer.capacity() < headerSize) {
+            writeBuffer = ByteBuffer.allocate(Math.max(headerSize, writeBuffer.capacity() * 2));
+        }
+        ByteBuffer buf = writeBuffer;
+        buf.clear();
+        int moof = Mp4Box.begin(buf, Mp4Box.MOOF);
+        int mfhd = Mp4Box.beginFull(buf, Mp4Box.MFHD, 0, 0);
+        buf.putInt(++sequence);
+        Mp4Box.end(buf, mfhd);
+        for (Track track : movie.tracks) {
+            if (track.to > track.from) {
+                writeTraf(buf, track);
+            }
+        }
+        Mp4Box.end(buf, moof);
+        long dataOffset = buf.position() - moof + 8;
+        for (Track track : movie.tracks) {
+            if (track.to > track.from) {
+                buf.putInt(track.dataOffsetPosition, (int) dataOffset);
+                for (int i = track.from; i < track.to; i++) {
+                    dataOffset += track.sizes[i];
+                }
+            }
+        }
+        buf.putInt((int) (8 + payloadSize));
+        buf.putInt(Mp4Box.MDAT);
+        buf.flip();
+        writeFully(buf);
+        for (Track track : movie.tracks) {
+            if (track.to > track.from) {
+                copySamples(in, track);
+            }
+        }
+        Track primary = movie.tracks[movie.primary];
+        if (primary.to > primary.from) {
+            long end = primary.firstTime + primary.shift;
+            for (int i = primary.from; i < primary.to; i++) {
+                end += primary.durations[i];
+            }
+            durationUs = Math.max(durationUs, primary.toUs(end));
+        }
+    }
+
+    private void writeTraf(ByteBuffer buf, Track track) {
+        int traf = Mp4Box.begin(buf, Mp4Box.TRAF);
+        int tfhd = Mp4Box.beginFull(buf, Mp4Box.TFHD, 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        buf.putInt(track.id);
+        Mp4Box.end(buf, tfhd);
+        int tfdt = Mp4Box.beginFull(buf, Mp4Box.TFDT, 1, 0);
+        buf.putLong(Math.max(0, track.firstTime + track.shift));
+        Mp4Box.end(buf, tfdt);
+        int flags = TRUN_DATA_OFFSET | TRUN_DURATION | TRUN_SIZE | TRUN_FLAGS
+                | (track.hasCto ? TRUN_COMPOSITION_OFFSET : 0);
+        int trun = Mp4Box.beginFull(buf, Mp4Box.TRUN, track.hasCto ? track.trunVersion : 0, flags);
+        buf.putInt(track.to - track.from);
+        track.dataOffsetPosition = buf.position();
+        buf.putInt(0);
+        for (int i = track.from; i < track.to; i++) {
+            buf.putInt(track.durations[i]);
+            buf.putInt(track.sizes[i]);
+            buf.putInt(track.flags[i]);
+            if (track.hasCto) {
+                buf.putInt(track.ctos[i]);
+            }
+        }
+        Mp4Box.end(buf, trun);
+        Mp4Box.end(buf, traf);
+    }
+
+    /**
+     * 连续存放的样本合并成一次 transferTo
+     */
+    private void copySamples(FileChannel in, Track track) throws IOException {
+        long start = track.offsets[track.from];
+        long end = start;
+        for (int i = track.from; i < track.to; i++) {
+            if (track.offsets[i] != end) {
+                transferFully(in, start, end - start);
+                start = track.offsets[i];
+                end = start;
+            }
+            end += track.sizes[i];
+        }
+        transferFully(in, start, end - start);
+    }
+
+    private void transferFully(FileChannel in, long position, long count) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new EOFException("transfer stopped at " + position);
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = in.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("unexpected end of file at " + position);
+            }
+            position += n;
+        }
+        dst.flip();
+    }
+
+    /**
+     * 读取 ftyp、moov 和各轨道的信息，定位第一个分片
+     */
+    private Movie readMovie(FileChannel in) throws IOException {
+        Movie movie = new Movie();
+        long fileSize = in.size();
+        long p = 0;
+        while (p + 8 <= fileSize && movie.firstFragment < 0) {
+            long size = readBoxHeader(in, p, fileSize);
+            int type = boxHeader.getInt(4);
+            if (size < 8 || p + size > fileSize) {
+                break;
+            }
+            if (type == Mp4Box.FTYP || type == Mp4Box.MOOV) {
+                if (size > MAX_BOX_SIZE) {
+                    throw new IOException(Mp4Box.typeName(type) + " too large: " + size);
+                }
+                readBox(in, p, (int) size);
+                byte[] bytes = new byte[(int) size];
+                readBuffer.get(bytes);
+                if (type == Mp4Box.FTYP) {
+                    movie.ftyp = bytes;
+                } else {
+                    movie.moov = bytes;
+                }
+            } else if (type == Mp4Box.MOOF) {
+                movie.firstFragment = p;
+            }
+            p += size;
+        }
+        if (movie.ftyp == null || movie.moov == null || movie.firstFragment < 0) {
+            throw new IOException("not a fragmented mp4");
+        }
+        parseMoov(movie, ByteBuffer.wrap(movie.moov));
+        return movie;
+    }
+
+    private static void parseMoov(Movie movie, ByteBuffer buf) throws IOException {
+        int end = buf.limit();
+        int count = 0;
+        for (int p = 8; p < end; p += buf.getInt(p)) {
+            checkBox(buf, p, end);
+            if (buf.getInt(p + 4) == Mp4Box.fourcc("trak")) count++;
+        }
+        if (count == 0) {
+            throw new IOException("no track");
+        }
+        movie.tracks = new Track[count];
+        int index = 0;
+        int mvex = -1;
+        for (int p = 8; p < end; p += buf.getInt(p)) {
+            int type = buf.getInt(p + 4);
+            if (type == Mp4Box.fourcc("trak")) {
+                movie.tracks[index++] = parseTrak(buf, p + 8, p + buf.getInt(p));
+            } else if (type == Mp4Box.fourcc("mvex")) {
+                mvex = p;
+            }
+        }
+        movie.primary = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            if (movie.tracks[i].video) movie.primary = i;
+        }
+        if (mvex < 0) {
+            return;
+        }
+        int mvexEnd = mvex + buf.getInt(mvex);
+        for (int p = mvex + 8; p < mvexEnd; p += buf.getInt(p)) {
+            checkBox(buf, p, mvexEnd);
+            if (buf.getInt(p + 4) == Mp4Box.fourcc("trex")) {
+                Track track = movie.trackOf(buf.getInt(p + 12));
+                track.defaultDuration = buf.getInt(p + 20);
+                track.defaultSize = buf.getInt(p + 24);
+                track.defaultFlags = buf.getInt(p + 28);
+            }
+        }
+    }
+
+    private static Track parseTrak(ByteBuffer buf, int start, int end) throws IOException {
+        Track track = new Track();
+        int tkhd = child(buf, start, end, Mp4Box.fourcc("tkhd"));
+        int mdia = child(buf, start, end, Mp4Box.fourcc("mdia"));
+        if (tkhd < 0 || mdia < 0) {
+            throw new IOException("bad trak");
+        }
+        track.id = buf.getInt(tkhd + (buf.get(tkhd + 8) == 1 ? 28 : 20));
+        int mdiaEnd = mdia + buf.getInt(mdia);
+        int mdhd = child(buf, mdia + 8, mdiaEnd, Mp4Box.fourcc("mdhd"));
+        int hdlr = child(buf, mdia + 8, mdiaEnd, Mp4Box.fourcc("hdlr"));
+        int minf = child(buf, mdia + 8, mdiaEnd, Mp4Box.fourcc("minf"));
+        if (mdhd < 0 || hdlr < 0 || minf < 0) {
+            throw new IOException("bad mdia");
+        }
+        track.timescale = buf.getInt(mdhd + (buf.get(mdhd + 8) == 1 ? 28 : 20));
+        if (track.timescale <= 0) {
+            throw new IOException("bad timescale " + track.timescale);
+        }
+        track.video = buf.getInt(hdlr + 16) == Mp4Box.fourcc("vide");
+        int stbl = child(buf, minf + 8, minf + buf.getInt(minf), Mp4Box.fourcc("stbl"));
+        int stsd = stbl < 0 ? -1 : child(buf, stbl + 8, stbl + buf.getInt(stbl), Mp4Box.fourcc("stsd"));
+        if (stsd < 0) {
+            throw new IOException("trak without stsd");
+        }
+        track.stsd = Arrays.copyOfRange(buf.array(), stsd, stsd + buf.getInt(stsd));
+        return track;
+    }
+
+    /**
+     * 在 [start, end) 中查找类型为 type 的第一个子 box
+     *
+     * @return box 的起始位置，没有时返回 -1
+     */
+    private static int child(ByteBuffer buf, int start, int end, int type) throws IOException {
+        for (int p = start; p < end; p += buf.getInt(p)) {
+            checkBox(buf, p, end);
+            if (buf.getInt(p + 4) == type) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkBox(ByteBuffer buf, int p, int end) throws IOException {
+        if (p + 8 > end || buf.getInt(p) < 8 || p + buf.getInt(p) > end) {
+            throw new IOException("bad box at " + p);
+        }
+    }
+
+    /**
+     * 一个输入文件的轨道
+     */
+    private static class Movie {
+        byte[] ftyp;
+        byte[] moov;
+        long firstFragment = -1;
+        Track[] tracks;
+        /* 决定剪切位置的轨道，有视频轨时为第一个视频轨 */
+        int primary;
+
+        Track trackOf(int id) throws IOException {
+            for (Track track : tracks) {
+                if (track.id == id) return track;
+            }
+            throw new IOException("unknown track " + id);
+        }
+
+        /**
+         * 轨道编号、时间单位和样本描述都相同才能拼接
+         */
+        boolean isCompatible(Movie other) {
+            if (tracks.length != other.tracks.length) {
+                return false;
+            }
+            for (int i = 0; i < tracks.length; i++) {
+                Track a = tracks[i];
+                Track b = other.tracks[i];
+                if (a.id != b.id || a.timescale != b.timescale || !Arrays.equals(a.stsd, b.stsd)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 轨道信息以及它在当前分片中的样本
+     */
+    private static class Track {
+        int id;
+        int timescale;
+        boolean video;
+        byte[] stsd;
+        int defaultDuration;
+        int defaultSize;
+        int defaultFlags;
+
+        boolean present;
+        long baseTime;
+        /* 没有 tfdt 时按上一个分片的结束时间 */
+        long nextTime;
+        int count;
+        int[] durations = new int[64];
+        int[] sizes = new int[64];
+        int[] flags = new int[64];
+        int[] ctos = new int[64];
+        long[] offsets = new long[64];
+        boolean hasCto;
+        int trunVersion;
+
+        /* 选中的样本 [from, to) */
+        int from;
+        int to;
+        /* 第一个选中样本的解码时间 */
+        long firstTime;
+        /* 输入时间换算到输出时间的偏移，轨道时间单位 */
+        long shift;
+        int dataOffsetPosition;
+
+        long toUs(long time) {
+            return time * 1000000 / timescale;
+        }
+
+        void reset() {
+            present = false;
+            count = 0;
+            hasCto = false;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity <= durations.length) {
+                return;
+            }
+            int size = Math.max(capacity, durations.length * 2);
+            durations = Arrays.copyOf(durations, size);
+            sizes = Arrays.copyOf(sizes, size);
+            flags = Arrays.copyOf(flags, size);
+            ctos = Arrays.copyOf(ctos, size);
+            offsets = Arrays.copyOf(offsets, size);
+        }
+
+        void add(int duration, int size, int sampleFlags, int cto, long offset) {
+            durations[count] = duration;
+            sizes[count] = size;
+            flags[count] = sampleFlags;
+            ctos[count] = cto;
+            offsets[count] = offset;
+            count++;
+        }
+    }
+}
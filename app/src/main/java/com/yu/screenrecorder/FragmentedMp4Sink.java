@@ -0,0 +1,543 @@
+package com.yu.screenrecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片 MP4（fMP4）输出：开始时写入 ftyp + 不含样本表的 moov，之后每隔一段时间写一个 moof + mdat 分片
+ * <br/> 每个分片写完即 flush，进程被杀最多丢失最后一个分片，文件在录制过程中也可以播放。
+ * 有视频轨时分片从关键帧开始；H264 样本由 Annex-B 转为 AVCC。样本在各轨道复用的缓冲中累积，
+ * 分片头写入同一个复用的缓冲，稳定后写分片不再分配内存。
+ * <br/> 假定没有 B 帧（屏幕录制的编码器默认不输出 B 帧），解码时间等于显示时间
+ */
+public class FragmentedMp4Sink implements ISampleSink {
+    private static final String TAG = "FragmentedMp4Sink";
+    public static final long DEFAULT_FRAGMENT_DURATION_US = 2000000;
+
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    /* tfhd flags: default-base-is-moof */
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    /* trun flags: data-offset, sample-duration, sample-size, sample-flags */
+    private static final int TRUN_FLAGS = 0x000701;
+    private static final int TRUN_SAMPLE_BYTES = 12;
+    private static final int MIN_INITIAL_PAYLOAD = 64 * 1024;
+    private static final int MAX_INITIAL_PAYLOAD = 16 * 1024 * 1024;
+
+    private final ByteOutput output;
+    private final long fragmentDurationUs;
+    private final List<Track> tracks = new ArrayList<>();
+    /* 决定分片边界的轨道，有视频轨时为视频轨 */
+    private Track primary;
+    /* moov 和各分片的 moof 共用 */
+    private ByteBuffer header = ByteBuffer.allocate(4096);
+    private boolean started;
+    private int sequence;
+    /* 已经交给 output 的字节数，即下一个分片在文件中的位置 */
+    private long position;
+    private RecordingJournal journal;
+    private KeyframeIndex index;
+    private volatile long fragmentsWritten;
+    private boolean closed;
+
+    public FragmentedMp4Sink(ByteOutput output) {
+        this(output, DEFAULT_FRAGMENT_DURATION_US);
+    }
+
+    /**
+     * @param fragmentDurationUs 分片时长，有视频轨时分片在这之后的第一个关键帧处切分
+     */
+    public FragmentedMp4Sink(ByteOutput output, long fragmentDurationUs) {
+        this.output = output;
+        this.fragmentDurationUs = fragmentDurationUs;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("addTrack after start");
+        }
+        Track track = new Track(tracks.size() + 1, format, fragmentDurationUs);
+        tracks.add(track);
+        if (primary == null || (!primary.video && track.video)) {
+            primary = track;
+        }
+        return tracks.size() - 1;
+    }
+
+    @Override
+    public void start() {
+        ensureHeaderCapacity(2048 + csdSize());
+        header.clear();
+        writeFtyp(header);
+        writeMoov(header);
+        header.flip();
+        position = header.remaining();
+        try {
+            output.write(header);
+            output.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("write header failed", e);
+        }
+        started = true;
+    }
+
+    @Override
+    public void writeSample(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        Track track = tracks.get(trackIndex);
+        if (track == primary && track.count > 0 && (!track.video || info.isKeyFrame())
+                && info.presentationTimeUs - track.ptsUs[0] >= fragmentDurationUs) {
+            writeFragment(info.presentationTimeUs);
+        }
+        track.append(buffer, info);
+    }
+
+    @Override
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        try {
+            writeFragment(-1);
+        } finally {
+            closeOutput();
+        }
+    }
+
+    /**
+     * 没有停止时关闭 output，不再写出最后一个分片，已经写入的分片由录制日志修复
+     */
+    @Override
+    public void release() {
+        started = false;
+        closeOutput();
+    }
+
+    private void closeOutput() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            output.close();
+        } catch (IOException e) {
+            LogUtil.e(TAG, "close output failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 设置录制日志，每个分片的样本在写出时记入日志，在 start 之前调用
+     */
+    public void setJournal(RecordingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 设置关键帧索引，视频轨的关键帧在分片写出时按所在分片的位置记录，在 start 之前调用
+     */
+    public void setIndex(KeyframeIndex index) {
+        this.index = index;
+    }
+
+    public long getFragmentsWritten() {
+        return fragmentsWritten;
+    }
+
+    /**
+     * 写出当前分片
+     *
+     * @param nextPrimaryPtsUs 下一个分片第一个样本的时间戳，用于计算最后一个样本的时长，未知时为 -1
+     */
+    private void writeFragment(long nextPrimaryPtsUs) {
+        int headerSize = 64;
+        long payloadSize = 0;
+        for (Track track : tracks) {
+            headerSize += 64 + track.count * TRUN_SAMPLE_BYTES;
+            payloadSize += track.payload.position();
+        }
+        if (payloadSize == 0) {
+            return;
+        }
+        ensureHeaderCapacity(headerSize);
+        ByteBuffer buf = header;
+        buf.clear();
+        int moof = Mp4Box.begin(buf, Mp4Box.MOOF);
+        int mfhd = Mp4Box.beginFull(buf, Mp4Box.MFHD, 0, 0);
+        buf.putInt(++sequence);
+        Mp4Box.end(buf, mfhd);
+        for (Track track : tracks) {
+            if (track.count > 0) {
+                writeTraf(buf, track, track == primary ? nextPrimaryPtsUs : -1);
+            }
+        }
+        Mp4Box.end(buf, moof);
+        /* 各轨道的数据在 mdat 中依次排列，data_offset 相对 moof 开头 */
+        long offset = buf.position() - moof + 8;
+        Track last = null;
+        for (Track track : tracks) {
+            if (track.count > 0) {
+                buf.putInt(track.dataOffsetPosition, (int) offset);
+                track.dataOffset = offset;
+                offset += track.payload.position();
+                last = track;
+            }
+        }
+        buf.putInt((int) (8 + payloadSize));
+        buf.putInt(Mp4Box.MDAT);
+        buf.flip();
+        if (journal != null) {
+            journalFragment(last);
+        }
+        if (index != null && primary.video) {
+            indexFragment(primary);
+        }
+        position += buf.remaining() + payloadSize;
+        try {
+            output.write(buf);
+            for (Track track : tracks) {
+                if (track.count > 0) {
+                    track.payload.flip();
+                    output.write(track.payload);
+                }
+                track.reset();
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("write fragment failed", e);
+        }
+        fragmentsWritten++;
+    }
+
+    private void journalFragment(Track last) {
+        for (Track track : tracks) {
+            long sampleOffset = position + track.dataOffset;
+            for (int i = 0; i < track.count; i++) {
+                int flags = track.flags[i] == Mp4Box.SAMPLE_FLAGS_SYNC ? SampleInfo.FLAG_KEY_FRAME : 0;
+                if (track == last && i == track.count - 1) {
+                    flags |= RecordingJournal.FLAG_FRAGMENT_END;
+                }
+                journal.append(track.id - 1, sampleOffset, track.sizes[i], track.ptsUs[i], flags);
+                sampleOffset += track.sizes[i];
+            }
+        }
+    }
+
+    private void indexFragment(Track track) {
+        for (int i = 0; i < track.count; i++) {
+            if (track.flags[i] == Mp4Box.SAMPLE_FLAGS_SYNC) {
+                index.add(track.ptsUs[i], position);
+            }
+        }
+    }
+
+    private void writeTraf(ByteBuffer buf, Track track, long nextPtsUs) {
+        int traf = Mp4Box.begin(buf, Mp4Box.TRAF);
+        int tfhd = Mp4Box.beginFull(buf, Mp4Box.TFHD, 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        buf.putInt(track.id);
+        Mp4Box.end(buf, tfhd);
+        int tfdt = Mp4Box.beginFull(buf, Mp4Box.TFDT, 1, 0);
+        buf.putLong(track.toTimescale(track.ptsUs[0]));
+        Mp4Box.end(buf, tfdt);
+        int trun = Mp4Box.beginFull(buf, Mp4Box.TRUN, 0, TRUN_FLAGS);
+        buf.putInt(track.count);
+        track.dataOffsetPosition = buf.position();
+        buf.putInt(0);
+        int last = track.count - 1;
+        for (int i = 0; i < track.count; i++) {
+            long duration;
+            if (i < last) {
+                duration = track.toTimescale(track.ptsUs[i + 1]) - track.toTimescale(track.ptsUs[i]);
+            } else if (nextPtsUs > track.ptsUs[i]) {
+                duration = track.toTimescale(nextPtsUs) - track.toTimescale(track.ptsUs[i]);
+            } else {
+                duration = track.lastDuration;
+            }
+            if (duration <= 0) {
+                duration = 1;
+            }
+            track.lastDuration = duration;
+            buf.putInt((int) duration);
+            buf.putInt(track.sizes[i]);
+            buf.putInt(track.flags[i]);
+        }
+        Mp4Box.end(buf, trun);
+        Mp4Box.end(buf, traf);
+    }
+
+    private void writeFtyp(ByteBuffer buf) {
+        int ftyp = Mp4Box.begin(buf, Mp4Box.FTYP);
+        buf.putInt(Mp4Box.fourcc("isom"));
+        buf.putInt(0x200);
+        buf.putInt(Mp4Box.fourcc("isom"));
+        buf.putInt(Mp4Box.fourcc("iso5"));
+        buf.putInt(Mp4Box.fourcc("avc1"));
+        buf.putInt(Mp4Box.fourcc("mp41"));
+        Mp4Box.end(buf, ftyp);
+    }
+
+    private void writeMoov(ByteBuffer buf) {
+        int moov = Mp4Box.begin(buf, Mp4Box.MOOV);
+        int mvhd = Mp4Box.beginFull(buf, "mvhd", 0, 0);
+        buf.putInt(0).putInt(0);            // creation, modification time
+        buf.putInt(MOVIE_TIMESCALE);
+        buf.putInt(0);                      // duration，分片文件中为 0
+        buf.putInt(0x00010000);             // rate 1.0
+        buf.putShort((short) 0x0100);       // volume 1.0
+        Mp4Box.putZeros(buf, 10);
+        Mp4Box.putMatrix(buf);
+        Mp4Box.putZeros(buf, 24);
+        buf.putInt(tracks.size() + 1);      // next_track_ID
+        Mp4Box.end(buf, mvhd);
+        for (Track track : tracks) {
+            writeTrak(buf, track);
+        }
+        int mvex = Mp4Box.begin(buf, "mvex");
+        for (Track track : tracks) {
+            int trex = Mp4Box.beginFull(buf, "trex", 0, 0);
+            buf.putInt(track.id);
+            buf.putInt(1);                  // default_sample_description_index
+            buf.putInt(0).putInt(0).putInt(0);
+            Mp4Box.end(buf, trex);
+        }
+        Mp4Box.end(buf, mvex);
+        Mp4Box.end(buf, moov);
+    }
+
+    private void writeTrak(ByteBuffer buf, Track track) {
+        TrackFormat format = track.format;
+        int trak = Mp4Box.begin(buf, "trak");
+        int tkhd = Mp4Box.beginFull(buf, "tkhd", 0, 3); // enabled | in_movie
+        buf.putInt(0).putInt(0);
+        buf.putInt(track.id);
+        buf.putInt(0);
+        buf.putInt(0);                      // duration
+        Mp4Box.putZeros(buf, 8);
+        buf.putShort((short) 0);            // layer
+        buf.putShort((short) 0);            // alternate_group
+        buf.putShort((short) (track.video ? 0 : 0x0100));
+        buf.putShort((short) 0);
+        Mp4Box.putMatrix(buf);
+        buf.putInt(track.video ? format.width << 16 : 0);
+        buf.putInt(track.video ? format.height << 16 : 0);
+        Mp4Box.end(buf, tkhd);
+
+        int mdia = Mp4Box.begin(buf, "mdia");
+        int mdhd = Mp4Box.beginFull(buf, "mdhd", 0, 0);
+        buf.putInt(0).putInt(0);
+        buf.putInt(track.timescale);
+        buf.putInt(0);
+        buf.putShort((short) 0x55c4);       // language "und"
+        buf.putShort((short) 0);
+        Mp4Box.end(buf, mdhd);
+        int hdlr = Mp4Box.beginFull(buf, "hdlr", 0, 0);
+        buf.putInt(0);
+        buf.putInt(Mp4Box.fourcc(track.video ? "vide" : "soun"));
+        Mp4Box.putZeros(buf, 12);
+        byte[] name = (track.video ? "VideoHandler" : "SoundHandler").getBytes();
+        buf.put(name).put((byte) 0);
+        Mp4Box.end(buf, hdlr);
+
+        int minf = Mp4Box.begin(buf, "minf");
+        if (track.video) {
+            int vmhd = Mp4Box.beginFull(buf, "vmhd", 0, 1);
+            Mp4Box.putZeros(buf, 8);
+            Mp4Box.end(buf, vmhd);
+        } else {
+            int smhd = Mp4Box.beginFull(buf, "smhd", 0, 0);
+            Mp4Box.putZeros(buf, 4);
+            Mp4Box.end(buf, smhd);
+        }
+        int dinf = Mp4Box.begin(buf, "dinf");
+        int dref = Mp4Box.beginFull(buf, "dref", 0, 0);
+        buf.putInt(1);
+        int url = Mp4Box.beginFull(buf, "url ", 0, 1); // 数据在同一个文件中
+        Mp4Box.end(buf, url);
+        Mp4Box.end(buf, dref);
+        Mp4Box.end(buf, dinf);
+
+        int stbl = Mp4Box.begin(buf, "stbl");
+        int stsd = Mp4Box.beginFull(buf, "stsd", 0, 0);
+        buf.putInt(1);
+        if (track.video) {
+            writeAvc1(buf, format);
+        } else {
+            writeMp4a(buf, format);
+        }
+        Mp4Box.end(buf, stsd);
+        /* 样本都在分片中，样本表为空 */
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int box = Mp4Box.beginFull(buf, type, 0, 0);
+            buf.putInt(0);
+            Mp4Box.end(buf, box);
+        }
+        int stsz = Mp4Box.beginFull(buf, "stsz", 0, 0);
+        buf.putInt(0).putInt(0);
+        Mp4Box.end(buf, stsz);
+        Mp4Box.end(buf, stbl);
+        Mp4Box.end(buf, minf);
+        Mp4Box.end(buf, mdia);
+        Mp4Box.end(buf, trak);
+    }
+
+    private void writeAvc1(ByteBuffer buf, TrackFormat format) {
+        int avc1 = Mp4Box.begin(buf, "avc1");
+        Mp4Box.putZeros(buf, 6);
+        buf.putShort((short) 1);            // data_reference_index
+        Mp4Box.putZeros(buf, 16);
+        buf.putShort((short) format.width);
+        buf.putShort((short) format.height);
+        buf.putInt(0x00480000);             // 72 dpi
+        buf.putInt(0x00480000);
+        buf.putInt(0);
+        buf.putShort((short) 1);            // frame_count
+        Mp4Box.putZeros(buf, 32);           // compressorname
+        buf.putShort((short) 0x0018);       // depth
+        buf.putShort((short) -1);
+
+        List<byte[]> sps = new ArrayList<>();
+        List<byte[]> pps = new ArrayList<>();
+        for (byte[] csd : new byte[][]{format.csd0, format.csd1}) {
+            for (byte[] nal : AvcUtil.splitNals(csd)) {
+                if (AvcUtil.nalType(nal) == AvcUtil.NAL_SPS) sps.add(nal);
+                else if (AvcUtil.nalType(nal) == AvcUtil.NAL_PPS) pps.add(nal);
+            }
+        }
+        int avcC = Mp4Box.begin(buf, "avcC");
+        buf.put((byte) 1);                  // configurationVersion
+        if (!sps.isEmpty() && sps.get(0).length >= 4) {
+            byte[] first = sps.get(0);
+            buf.put(first[1]).put(first[2]).put(first[3]);
+        } else {
+            buf.put((byte) 66).put((byte) 0).put((byte) 31);
+        }
+        buf.put((byte) 0xff);               // lengthSizeMinusOne = 3
+        buf.put((byte) (0xe0 | sps.size()));
+        for (byte[] nal : sps) {
+            buf.putShort((short) nal.length).put(nal);
+        }
+        buf.put((byte) pps.size());
+        for (byte[] nal : pps) {
+            buf.putShort((short) nal.length).put(nal);
+        }
+        Mp4Box.end(buf, avcC);
+        Mp4Box.end(buf, avc1);
+    }
+
+    private void writeMp4a(ByteBuffer buf, TrackFormat format) {
+        int mp4a = Mp4Box.begin(buf, "mp4a");
+        Mp4Box.putZeros(buf, 6);
+        buf.putShort((short) 1);
+        Mp4Box.putZeros(buf, 8);
+        buf.putShort((short) format.channelCount);
+        buf.putShort((short) 16);           // samplesize
+        buf.putInt(0);
+        buf.putInt(format.sampleRate << 16);
+
+        byte[] asc = format.csd0 != null ? format.csd0 : new byte[0];
+        int esds = Mp4Box.beginFull(buf, "esds", 0, 0);
+        buf.put((byte) 0x03).put((byte) (3 + 15 + asc.length + 2 + 3));  // ES_Descriptor
+        buf.putShort((short) 0).put((byte) 0);
+        buf.put((byte) 0x04).put((byte) (13 + 2 + asc.length));          // DecoderConfigDescriptor
+        buf.put((byte) 0x40);               // Audio ISO/IEC 14496-3
+        buf.put((byte) 0x15);               // AudioStream
+        buf.put((byte) 0).putShort((short) 0);  // bufferSizeDB
+        buf.putInt(format.bitRate).putInt(format.bitRate);
+        buf.put((byte) 0x05).put((byte) asc.length).put(asc);            // DecoderSpecificInfo
+        buf.put((byte) 0x06).put((byte) 1).put((byte) 0x02);             // SLConfigDescriptor
+        Mp4Box.end(buf, esds);
+        Mp4Box.end(buf, mp4a);
+    }
+
+    private int csdSize() {
+        int size = 0;
+        for (Track track : tracks) {
+            if (track.format.csd0 != null) size += track.format.csd0.length;
+            if (track.format.csd1 != null) size += track.format.csd1.length;
+        }
+        return size;
+    }
+
+    private void ensureHeaderCapacity(int capacity) {
+        if (header.capacity() < capacity) {
+            header = ByteBuffer.allocate(Math.max(capacity, header.capacity() * 2));
+        }
+    }
+
+    /**
+     * 一个轨道当前分片中的样本
+     */
+    private static class Track {
+        final int id;
+        final TrackFormat format;
+        final boolean video;
+        final int timescale;
+        long[] ptsUs = new long[64];
+        int[] sizes = new int[64];
+        int[] flags = new int[64];
+        int count;
+        ByteBuffer payload;
+        /* 上一个样本的时长，分片最后一个样本无法计算时使用 */
+        long lastDuration;
+        int dataOffsetPosition;
+        /* 当前分片中本轨道数据相对 moof 开头的位置 */
+        long dataOffset;
+
+        Track(int id, TrackFormat format, long fragmentDurationUs) {
+            this.id = id;
+            this.format = format;
+            this.video = format.isVideo();
+            this.timescale = video ? VIDEO_TIMESCALE : Math.max(1, format.sampleRate);
+            this.lastDuration = video ? VIDEO_TIMESCALE / DEFAULT_FRAME_RATE : AAC_FRAME_SAMPLES;
+            /* 按码率预估一个分片的大小，留出关键帧的余量，避免录制中扩容 */
+            long expected = (long) format.bitRate * fragmentDurationUs / 8000000 * 3 / 2;
+            this.payload = ByteBuffer.allocate((int) Math.min(MAX_INITIAL_PAYLOAD, Math.max(MIN_INITIAL_PAYLOAD, expected)));
+        }
+
+        long toTimescale(long us) {
+            return (us * timescale + 500000) / 1000000;
+        }
+
+        void append(ByteBuffer buffer, SampleInfo info) {
+            if (count == ptsUs.length) {
+                int capacity = count * 2;
+                long[] newPts = new long[capacity];
+                int[] newSizes = new int[capacity];
+                int[] newFlags = new int[capacity];
+                System.arraycopy(ptsUs, 0, newPts, 0, count);
+                System.arraycopy(sizes, 0, newSizes, 0, count);
+                System.arraycopy(flags, 0, newFlags, 0, count);
+                ptsUs = newPts;
+                sizes = newSizes;
+                flags = newFlags;
+            }
+            int needed = video ? AvcUtil.maxAvccSize(buffer.remaining()) : buffer.remaining();
+            if (payload.remaining() < needed) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(payload.capacity() * 2, payload.position() + needed));
+                payload.flip();
+                grown.put(payload);
+                payload = grown;
+            }
+            int size;
+            if (video) {
+                size = AvcUtil.writeAvcc(buffer, payload);
+            } else {
+                size = buffer.remaining();
+                payload.put(buffer);
+            }
+            ptsUs[count] = info.presentationTimeUs;
+            sizes[count] = size;
+            flags[count] = !video || info.isKeyFrame() ? Mp4Box.SAMPLE_FLAGS_SYNC : Mp4Box.SAMPLE_FLAGS_NON_SYNC;
+            count++;
+        }
+
+        void reset() {
+            count = 0;
+            payload.clear();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.yu.screenrecorder;
+
+/**
+ * 可变帧率的取舍逻辑：画面没有变化时不编码，变化时不超过最大帧率，
+ * 超过最长间隔没有输出时补一个心跳帧（同时作为关键帧）
+ * <br/> 只做判断，不涉及画面本身，调用均在采集线程
+ */
+public class FrameGate {
+    public static final int SKIP = 0;       // 画面没有变化，丢弃
+    public static final int EMIT = 1;       // 输出
+    public static final int DEFER = 2;      // 画面有变化但距离上一帧太近，保留画面稍后输出
+    public static final int HEARTBEAT = 3;  // 画面长时间没有变化，重新输出最近的画面并请求关键帧
+
+    private final long minIntervalNs;
+    private final long maxIntervalNs;
+
+    private boolean hasFrame;
+    private long lastHash;
+    private boolean hasEmitted;
+    private long lastEmitNs;
+    /* 有被推迟的变化画面 */
+    private boolean pending;
+
+    private long framesSkipped;
+    private long heartbeats;
+
+    /**
+     * @param maxFrameRate 最大帧率
+     * @param maxIntervalMs 最长输出间隔，画面一直不变时按这个间隔输出心跳帧
+     */
+    public FrameGate(int maxFrameRate, int maxIntervalMs) {
+        this.minIntervalNs = 1000000000L / Math.max(1, maxFrameRate);
+        this.maxIntervalNs = maxIntervalMs * 1000000L;
+    }
+
+    /**
+     * 采集到一帧
+     *
+     * @param hash 画面的哈希
+     * @return {@link #SKIP}, {@link #EMIT} 或 {@link #DEFER}，DEFER 时需要保留画面并在 {@link #nextDeadlineNs()} 输出
+     */
+    public int onFrame(long hash, long nowNs) {
+        boolean changed = !hasFrame || hash != lastHash;
+        hasFrame = true;
+        lastHash = hash;
+        if (!changed) {
+            framesSkipped++;
+            return SKIP;
+        }
+        if (hasEmitted && nowNs - lastEmitNs < minIntervalNs) {
+            pending = true;
+            return DEFER;
+        }
+        emitted(nowNs);
+        return EMIT;
+    }
+
+    /**
+     * 下一次需要主动输出（推迟的画面或者心跳）的时间
+     *
+     * @return 还没有输出过时返回 -1
+     */
+    public long nextDeadlineNs() {
+        if (!hasEmitted) {
+            return -1;
+        }
+        return lastEmitNs + (pending ? minIntervalNs : maxIntervalNs);
+    }
+
+    /**
+     * 到达 {@link #nextDeadlineNs()} 时调用
+     *
+     * @return 输出推迟的画面时返回 {@link #EMIT}，输出心跳帧时返回 {@link #HEARTBEAT}，还没到时间时返回 {@link #SKIP}
+     */
+    public int onDeadline(long nowNs) {
+        long deadline = nextDeadlineNs();
+        if (deadline < 0 || nowNs < deadline) {
+            return SKIP;
+        }
+        int result = pending ? EMIT : HEARTBEAT;
+        if (result == HEARTBEAT) {
+            heartbeats++;
+        }
+        emitted(nowNs);
+        return result;
+    }
+
+    private void emitted(long nowNs) {
+        hasEmitted = true;
+        lastEmitNs = nowNs;
+        pending = false;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public long getHeartbeats() {
+        return heartbeats;
+    }
+}
@@ -0,0 +1,55 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 抽样计算画面的哈希，用于判断画面有没有变化
+ * <br/> 每隔 rowStep 行、每行每隔 columnStep 个像素取一个 32 位像素，分两路做 FNV-1a 后合并，
+ * 默认只读 1/16 的像素；变化区域小于抽样间隔时可能漏判，由心跳帧兜底。
+ * 只读取 buffer 不修改位置，不分配对象
+ */
+public class FrameHasher {
+    public static final int DEFAULT_STEP = 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int columnStep;
+    private final int rowStep;
+
+    public FrameHasher() {
+        this(DEFAULT_STEP, DEFAULT_STEP);
+    }
+
+    public FrameHasher(int columnStep, int rowStep) {
+        this.columnStep = columnStep;
+        this.rowStep = rowStep;
+    }
+
+    /**
+     * @param pixels 从 buffer 当前位置开始的像素数据
+     * @param rowStride 每行字节数
+     * @param pixelStride 每个像素的字节数，不小于 4
+     */
+    public long hash(ByteBuffer pixels, int width, int height, int rowStride, int pixelStride) {
+        /* 两条独立的乘法链交替累加，避免每个样本都等上一次乘法完成 */
+        long h0 = FNV_OFFSET;
+        long h1 = FNV_OFFSET ^ FNV_PRIME;
+        int base = pixels.position();
+        int columnBytes = columnStep * pixelStride;
+        int rowEnd = width * pixelStride;
+        int firstColumn = columnStep / 2 * pixelStride;
+        /* 从抽样间隔的一半开始，避开边缘的固定内容 */
+        for (int y = rowStep / 2; y < height; y += rowStep) {
+            int row = base + y * rowStride;
+            int x = firstColumn;
+            for (; x + columnBytes < rowEnd; x += 2 * columnBytes) {
+                h0 = (h0 ^ pixels.getInt(row + x)) * FNV_PRIME;
+                h1 = (h1 ^ pixels.getInt(row + x + columnBytes)) * FNV_PRIME;
+            }
+            if (x < rowEnd) {
+                h0 = (h0 ^ pixels.getInt(row + x)) * FNV_PRIME;
+            }
+        }
+        return h0 * 31 + h1;
+    }
+}
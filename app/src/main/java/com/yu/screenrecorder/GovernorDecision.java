@@ -0,0 +1,51 @@
+package com.yu.screenrecorder;
+
+/**
+ * 温控器做出的一次级别调整
+ */
+public class GovernorDecision {
+    /* 调整原因 */
+    public static final int REASON_TEMPERATURE = 1;     // 电池温度升高，降级
+    public static final int REASON_THERMAL_STATUS = 2;  // 系统温控状态升高，降级
+    public static final int REASON_BATTERY = 3;         // 未充电且电量低，降级
+    public static final int REASON_RECOVER = 4;         // 持续好转，恢复一级
+
+    public final int level;
+    public final int previousLevel;
+    public final int reason;
+    /* 该级别下的限制 */
+    public final int bitRatePercent;
+    public final int maxFrameRate;
+    public final int profileSteps;
+    /* 做出调整时的读数 */
+    public final int temperature;
+    public final int thermalStatus;
+    public final int batteryPercent;
+    public final boolean charging;
+
+    public GovernorDecision(int level, int previousLevel, int reason, SensorReading reading) {
+        this.level = level;
+        this.previousLevel = previousLevel;
+        this.reason = reason;
+        this.bitRatePercent = ThermalGovernor.bitRatePercentOf(level);
+        this.maxFrameRate = ThermalGovernor.maxFrameRateOf(level);
+        this.profileSteps = ThermalGovernor.profileStepsOf(level);
+        this.temperature = reading.temperature;
+        this.thermalStatus = reading.thermalStatus;
+        this.batteryPercent = reading.batteryPercent;
+        this.charging = reading.charging;
+    }
+
+    @Override
+    public String toString() {
+        String name = reason == REASON_TEMPERATURE ? "temperature"
+                : reason == REASON_THERMAL_STATUS ? "thermal_status"
+                : reason == REASON_BATTERY ? "battery" : "recover";
+        return name + " " + ThermalGovernor.nameOf(previousLevel) + " -> " + ThermalGovernor.nameOf(level)
+                + ": bitrate " + bitRatePercent + "%"
+                + (maxFrameRate < Integer.MAX_VALUE ? " fps<=" + maxFrameRate : "")
+                + (profileSteps > 0 ? " profile-" + profileSteps : "")
+                + " (" + (temperature == SensorReading.TEMPERATURE_UNKNOWN ? "?" : temperature / 10 + "." + Math.abs(temperature % 10))
+                + "C, thermal " + thermalStatus + ", battery " + batteryPercent + "%" + (charging ? " charging" : "") + ")";
+    }
+}
@@ -0,0 +1,32 @@
+package com.yu.screenrecorder;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在指定 Looper 线程中执行任务的 Executor，例如在主线程接收录制事件
+ */
+public class HandlerExecutor implements Executor {
+    private final Handler handler;
+
+    public HandlerExecutor(Looper looper) {
+        handler = new Handler(looper);
+    }
+
+    /**
+     * 主线程 Executor
+     */
+    public static HandlerExecutor mainThread() {
+        return new HandlerExecutor(Looper.getMainLooper());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!handler.post(command)) {
+            throw new RejectedExecutionException(handler.getLooper() + " is quitting");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的无锁直方图，第 i 个桶记录 [2^(i-1), 2^i) 范围内的值，0 和负数记在第 0 个桶
+ * <br/> 记录一次只需要几次原子操作，不分配对象，可以在每一帧的路径上调用；
+ * 分位数按桶的上界估算，误差不超过一倍
+ */
+public class Histogram {
+    public static final int BUCKET_COUNT = 64;
+
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param unit 记录值的单位，只用于显示
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 其他线程同时更新了最大值，重试
+        }
+    }
+
+    static int bucketOf(long value) {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * 桶的上界（不含）
+     */
+    static long upperBoundOf(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 复制当前数据，复制过程中仍有写入时各项之间可能有少量偏差
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(unit);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot.buckets[i] = buckets.get(i);
+        }
+        snapshot.count = count.get();
+        snapshot.sum = sum.get();
+        snapshot.max = max.get();
+        return snapshot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * 直方图某一时刻的副本
+     */
+    public static class Snapshot {
+        public final String unit;
+        public final long[] buckets = new long[BUCKET_COUNT];
+        public long count;
+        public long sum;
+        public long max;
+
+        Snapshot(String unit) {
+            this.unit = unit;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param percent 0 到 100
+         * @return 所在桶的上界，不超过最大值；没有数据时返回 0
+         */
+        public long getPercentile(double percent) {
+            long total = 0;
+            for (long n : buckets) {
+                total += n;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(target, 1)) {
+                    return i == 0 ? 0 : Math.min(upperBoundOf(i) - 1, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + " mean=" + getMean() + unit
+                    + " p50=" + getPercentile(50) + unit
+                    + " p99=" + getPercentile(99) + unit
+                    + " max=" + max + unit;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器接口，对 MediaCodec 输出端的最小抽象
+ * <br/> 真机上由 {@link MediaCodecWrapper} 实现，JVM 测试中可用假实现替换
+ */
+public interface ICodec {
+    /* dequeueOutputBuffer 的特殊返回值，取值与 MediaCodec.INFO_* 一致 */
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    void start();
+
+    /**
+     * 取出一个编码完成的输出缓冲
+     * @param info 输出样本信息
+     * @param timeoutUs 超时时间，微秒
+     * @return 缓冲索引，或者 INFO_* 常量
+     */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    /**
+     * 输出格式，在 INFO_OUTPUT_FORMAT_CHANGED 之后有效
+     */
+    TrackFormat getOutputFormat();
+
+    /**
+     * Surface 输入时通知编码器输入结束
+     */
+    void signalEndOfInputStream();
+
+    /**
+     * 请求尽快输出一个关键帧
+     */
+    void requestSyncFrame();
+
+    /**
+     * 运行时调整目标码率
+     */
+    void setVideoBitrate(int bitRate);
+
+    /**
+     * 运行时调整目标帧率，编码器不支持时忽略
+     */
+    void setFrameRate(int frameRate);
+
+    void stop();
+
+    void release();
+}
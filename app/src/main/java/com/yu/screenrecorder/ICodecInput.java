@@ -0,0 +1,25 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器输入端的最小抽象，用于 ByteBuffer 输入的音频编码器
+ * <br/> 真机上由 {@link MediaCodecWrapper} 实现，JVM 测试中可用假实现替换
+ */
+public interface ICodecInput {
+
+    /**
+     * 取出一个空闲的输入缓冲
+     * @param timeoutUs 超时时间，微秒
+     * @return 缓冲索引，没有空闲缓冲时返回负数
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    /**
+     * 提交填好的输入缓冲
+     * @param flags SampleInfo.FLAG_*
+     */
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+}
@@ -0,0 +1,56 @@
+package com.yu.screenrecorder;
+
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * 录制引擎，负责把 VirtualDisplay 渲染到的 Surface 编码并输出到文件
+ */
+public interface IRecordEngine {
+
+    /**
+     * 按配置准备编码器和输出文件
+     */
+    void prepare(RecordConfig config) throws IOException;
+
+    /**
+     * VirtualDisplay 的渲染目标，prepare 之后有效
+     */
+    Surface getInputSurface();
+
+    void start();
+
+    /**
+     * 暂停录制
+     * @return 不支持暂停时返回false
+     */
+    boolean pause();
+
+    /**
+     * 恢复录制
+     * @return 不支持暂停时返回false
+     */
+    boolean resume();
+
+    void stop();
+
+    /**
+     * 第一帧编码完成的时间，{@link System#nanoTime()} 时基
+     * @return 还没有输出或者无法得知时返回-1
+     */
+    long getFirstFrameTimeNanos();
+
+    /**
+     * 设置录制中的码率和帧率上限，例如温控降级，可以在任意线程调用
+     * <br/> 不支持录制中调整时忽略
+     * @param bitRate 码率上限，配置码率表示不限制
+     * @param frameRate 帧率上限，配置帧率表示不限制
+     */
+    void setRateCeiling(int bitRate, int frameRate);
+
+    /**
+     * 释放资源, 在 {@link #stop()} 之后调用
+     */
+    void release();
+}
@@ -2,31 +2,193 @@ package com.yu.screenrecorder;
 
 import android.media.projection.MediaProjection;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
 /**
  * Created by D22436 on 2017/8/16.
  * 屏幕录制控制接口
  */
 
 public interface IRecorderController {
+    /* 录制模式 */
+    int MODE_MEDIA_RECORDER = 0;  // MediaRecorder 录制
+    int MODE_MEDIA_CODEC = 1;     // MediaCodec + MediaMuxer 录制，需要 5.0 以上
+    int MODE_REPLAY_BUFFER = 2;   // 只在内存中保留最近一段录像，调用 saveReplay() 时保存，需要 5.0 以上
+    int MODE_LIVE_STREAM = 3;     // 不写文件，以分片 mp4 通过局域网 HTTP 直播，需要 5.0 以上
+
+    /* 附加输出，可以组合 */
+    int OUTPUT_FILE = 1;            // 写文件
+    int OUTPUT_REPLAY_BUFFER = 2;   // 回放缓冲
+    int OUTPUT_LIVE_STREAM = 4;     // 局域网直播
+
     /**
-     * 开始录制
+     * 开始录制，所有控制操作都在同一个线程中依次执行
+     * @return 开始结果，当前状态不能开始时立即返回false
      */
-    void startRecord();
+    Future<Boolean> startRecord();
 
     /**
      * 结束录制
+     * @return 结束结果，当前没有在录制时立即返回false
+     */
+    Future<Boolean> stopRecord();
+
+    /**
+     * 暂停录制，暂停的时间段不计入录制时长，也不会出现在输出文件中
+     * <br/> MediaRecorder 模式需要 7.0 以上
+     * @return 暂停结果，不支持或者当前不能暂停时为false
+     */
+    Future<Boolean> pauseRecord();
+
+    /**
+     * 恢复录制
+     * @return 恢复结果，当前没有暂停时为false
+     */
+    Future<Boolean> resumeRecord();
+
+    /**
+     * 获取当前录制状态
+     * @return RecorderStateMachine.STATE_*
+     */
+    int getState();
+
+    /**
+     * 是否已经准备好待机录制，此时不需要重新授权，调用 {@link #startRecord()} 即可立即开始
+     * <br/> 设置 MediaProjection 之后进入待机，录制结束后只要授权没有被撤销会再次进入待机
+     * @return
+     */
+    boolean isStandby();
+
+    /**
+     * 是否已暂停
      * @return
      */
-    boolean stopRecord();
+    boolean isPaused();
 
     /**
-     *  设置配置信息
-     * @param width
-     * @param height
-     * @param dpi
+     *  设置屏幕信息，实际录制尺寸按采集档位缩放
+     * @param width 屏幕宽度
+     * @param height 屏幕高度
+     * @param dpi 屏幕密度
      */
     void setConfig(int width, int height, int dpi);
 
+    /**
+     * 设置采集档位，按档位缩小录制尺寸并使用对应的默认码率，下次开始录制时生效
+     * @param profile CaptureProfile.PROFILE_*，默认 {@link CaptureProfile#PROFILE_720P}
+     * @param maxEdge {@link CaptureProfile#PROFILE_CUSTOM} 时长边的最大值，其他档位忽略
+     */
+    void setCaptureProfile(int profile, int maxEdge);
+
+    /**
+     * 设置录制模式，下次开始录制时生效
+     * @param mode {@link #MODE_MEDIA_RECORDER}, {@link #MODE_MEDIA_CODEC}, {@link #MODE_REPLAY_BUFFER}
+     *             或 {@link #MODE_LIVE_STREAM}
+     */
+    void setRecordMode(int mode);
+
+    /**
+     * 设置附加输出，与录制模式本身的输出合并，视频只编码一次后分发给各个输出，下次开始录制时生效
+     * <br/> 例如直播模式加上 {@link #OUTPUT_FILE} 即边直播边录制完整的文件。直播、回放缓冲跟不上时只丢自己的帧，
+     * 不影响文件；MediaRecorder 模式忽略
+     * @param outputs {@link #OUTPUT_FILE}、{@link #OUTPUT_REPLAY_BUFFER}、{@link #OUTPUT_LIVE_STREAM} 的组合，0 为不附加
+     */
+    void setExtraOutputs(int outputs);
+
+    /**
+     * 设置回放缓冲的大小，下次开始录制时生效
+     * @param maxBytes 最多占用的内存
+     * @param maxSeconds 最多保留的秒数
+     */
+    void setReplayBufferConfig(int maxBytes, int maxSeconds);
+
+    /**
+     * 设置直播的监听端口，立即生效，已经连接的客户端会断开
+     */
+    void setStreamPort(int port);
+
+    /**
+     * 把回放缓冲中最近的录像保存到文件，异步执行
+     * @return 保存结果，当前没有可保存的内容时为false
+     */
+    Future<Boolean> saveReplay();
+
+    /**
+     * 设置录制时长回调和通知的更新间隔，下次开始录制时生效
+     * @param intervalMs 小于等于0表示不更新
+     */
+    void setStatusUpdateInterval(int intervalMs);
+
+    /**
+     * 设置空闲超时，没有录制的时间超过它后释放待机的编码器、回放缓冲、直播服务和后台线程，授权保留，立即重新计时
+     * <br/> 释放后 {@link #isStandby()} 为 false，开始录制时重新准备，启动会慢一些
+     * @param timeoutMs 默认 {@link RecordService#DEFAULT_IDLE_TIMEOUT_MS}，小于等于0表示不释放
+     */
+    void setIdleTimeout(int timeoutMs);
+
+    /**
+     * 设置 MediaCodec 模式下的输出格式，下次开始录制时生效
+     * @param format {@link RecordConfig#OUTPUT_FORMAT_MP4}、{@link RecordConfig#OUTPUT_FORMAT_H264}
+     *               或 {@link RecordConfig#OUTPUT_FORMAT_FMP4}，默认分片 mp4
+     */
+    void setOutputFormat(int format);
+
+    /**
+     * 设置 MediaCodec 模式下写文件的分段，下次开始录制时生效
+     * <br/> 达到时长或样本大小后在下一个关键帧切换到新文件，每个分段写完时发出 {@link RecorderEvent#TYPE_SEGMENT_CLOSED}
+     * @param durationMs 分段最长时长，毫秒，小于等于0表示不按时长分段
+     * @param bytes 分段最大字节数，小于等于0表示不按大小分段
+     */
+    void setSegmentLimits(int durationMs, long bytes);
+
+    /**
+     * 设置音频来源，下次开始录制时生效
+     * <br/> MediaCodec 模式只在输出 mp4 时录制音频，回放缓冲模式不录制音频
+     * @param source RecordConfig.AUDIO_SOURCE_*，默认 {@link RecordConfig#AUDIO_SOURCE_MIC}
+     */
+    void setAudioSource(int source);
+
+    /**
+     * 设置存储跟不上编码速度时的处理策略，下次开始录制时生效
+     * @param policy RecordPipeline.BACKPRESSURE_*
+     */
+    void setBackpressurePolicy(int policy);
+
+    /**
+     * 设置 MediaCodec 模式下的自适应码率，下次开始录制时生效
+     * <br/> 码率在 [minBitRate, 配置码率]，帧率在 [minFrameRate, 配置帧率] 之间调整
+     * @param enabled 是否开启
+     */
+    void setAdaptiveRate(boolean enabled, int minBitRate, int minFrameRate);
+
+    /**
+     * 设置 MediaCodec 模式下的可变帧率，下次开始录制时生效，需要 6.0 以上
+     * <br/> 画面没有变化时不编码，静止画面按最长间隔输出关键帧
+     * @param enabled 是否开启
+     * @param maxIntervalMs 画面不变时的最长输出间隔
+     */
+    void setVariableFrameRate(boolean enabled, int maxIntervalMs);
+
+    /**
+     * 获取最近一次码率调整
+     * @return 没有调整过时返回null
+     */
+    RateDecision getLastRateDecision();
+
+    /**
+     * 获取录制流水线各阶段的队列深度等状态
+     * @return 当前没有经过流水线录制时返回null
+     */
+    PipelineStats getPipelineStats();
+
+    /**
+     * 获取录制统计，包括启动耗时、帧数、编码耗时、fsync 耗时、队列深度等
+     * <br/> 服务存活期间一直累计，也可以通过 dumpsys 查看
+     * @return 快照，不会随录制继续而改变
+     */
+    RecorderStats getStats();
+
     /**
      * 是否正在录制
      * @return
@@ -40,10 +202,18 @@ public interface IRecorderController {
     void setMediaProject(MediaProjection project);
 
     /**
-     * 设置录制状态改变回调
+     * 添加录制事件回调，包括开始、结束、时长、统计、码率调整、错误以及文件写完等事件
+     * <br/> 回调在指定的 executor 中执行，处理不过来时时长和统计事件只保留最新的
+     * @param listener
+     * @param executor 例如 {@link HandlerExecutor#mainThread()}
+     */
+    void addRecorderListener(OnRecorderEventListener listener, Executor executor);
+
+    /**
+     * 移除录制事件回调
      * @param listener
      */
-    void setRecordingCallback(RecordService.OnRecorderStateChangeListener listener);
+    void removeRecorderListener(OnRecorderEventListener listener);
 
 }
 
@@ -0,0 +1,27 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码样本的输出端，调用顺序与 MediaMuxer 相同：
+ * addTrack -> start -> writeSample... -> stop -> release
+ */
+public interface ISampleSink {
+
+    /**
+     * 添加轨道
+     * @return 轨道索引
+     */
+    int addTrack(TrackFormat format);
+
+    void start();
+
+    /**
+     * 写入一个样本，buffer 在返回后即被编码器回收，需要的话自行拷贝
+     */
+    void writeSample(int track, ByteBuffer buffer, SampleInfo info);
+
+    void stop();
+
+    void release();
+}
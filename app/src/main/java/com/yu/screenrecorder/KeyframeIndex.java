@@ -0,0 +1,218 @@
+package com.yu.screenrecorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 关键帧索引：录制过程中把每个关键帧的时间戳和在输出文件中的位置追加到旁边的索引文件，录制结束后保留
+ * <br/> 播放或者预览时不需要重新解析整个文件，用 {@link Reader} 映射索引后二分查找即可定位。
+ * 分片 mp4 记录关键帧所在分片的 moof 位置，H264 裸流记录关键帧样本的位置
+ * <br/> 格式：32 字节文件头 MAGIC、VERSION、输出格式、记录大小，之后是定长记录 ptsUs(8) offset(8)，
+ * 时间戳和位置都递增。进程被杀时最后一条记录可能不完整，读取时按整条记录计数
+ */
+public class KeyframeIndex {
+    private static final String TAG = "KeyframeIndex";
+    public static final String SUFFIX = ".idx";
+
+    static final int MAGIC = 0x52494458;   // "RIDX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /* 只在写样本的线程访问 */
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+    private long lastPtsUs = -1;
+    private boolean failed;
+    private volatile long entries;
+
+    /**
+     * 创建索引并写入文件头
+     *
+     * @param media 输出文件，索引为同目录下的 media + {@link #SUFFIX}
+     * @param outputFormat RecordConfig.OUTPUT_FORMAT_*
+     */
+    public KeyframeIndex(File media, int outputFormat) throws IOException {
+        raf = new RandomAccessFile(indexOf(media), "rw");
+        raf.setLength(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(outputFormat);
+        header.putInt(RECORD_SIZE);
+        header.clear();
+        channel = raf.getChannel();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    public static File indexOf(File media) {
+        return new File(media.getPath() + SUFFIX);
+    }
+
+    /**
+     * 追加一个关键帧，在写样本的线程调用；时间戳不大于上一条的关键帧被忽略
+     *
+     * @param offset 分片 mp4 为所在分片的 moof 位置，H264 裸流为样本位置
+     */
+    public void add(long ptsUs, long offset) {
+        if (failed || ptsUs <= lastPtsUs) {
+            return;
+        }
+        record.clear();
+        record.putLong(ptsUs);
+        record.putLong(offset);
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            /* 索引只是加速查找，写失败不影响录制 */
+            LogUtil.w(TAG, "append index failed: {}", e.getMessage());
+            failed = true;
+            return;
+        }
+        lastPtsUs = ptsUs;
+        entries++;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "close index failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 输出文件被截短到 length 之后，去掉指向截掉部分的记录
+     *
+     * @return 保留的记录数，没有有效的索引时返回 -1
+     */
+    public static long truncate(File media, long length) throws IOException {
+        File file = indexOf(media);
+        if (!file.isFile()) {
+            return -1;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            Reader reader = new Reader(raf);
+            if (!reader.valid) {
+                return -1;
+            }
+            /* 位置递增，二分找到第一条不在文件内的记录 */
+            int lo = 0;
+            int hi = reader.count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (reader.getOffset(mid) < length) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            raf.setLength(HEADER_SIZE + (long) lo * RECORD_SIZE);
+            return lo;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 映射索引文件读取，查找为 O(log n)，不把索引读入堆内存
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer map;
+        private final boolean valid;
+        private final int format;
+        private final int count;
+
+        /**
+         * @param index 索引文件，即 {@link #indexOf(File)}
+         */
+        public Reader(File index) throws IOException {
+            this(new RandomAccessFile(index, "r"));
+        }
+
+        private Reader(RandomAccessFile raf) throws IOException {
+            this.raf = raf;
+            long length = raf.length();
+            if (length < HEADER_SIZE) {
+                valid = false;
+                map = null;
+                format = -1;
+                count = 0;
+                return;
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            valid = map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(12) == RECORD_SIZE;
+            format = valid ? map.getInt(8) : -1;
+            count = valid ? (int) ((length - HEADER_SIZE) / RECORD_SIZE) : 0;
+        }
+
+        /**
+         * 文件头不对时为 false，此时没有记录
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * RecordConfig.OUTPUT_FORMAT_*
+         */
+        public int getOutputFormat() {
+            return format;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getPtsUs(int i) {
+            return map.getLong(HEADER_SIZE + i * RECORD_SIZE);
+        }
+
+        public long getOffset(int i) {
+            return map.getLong(HEADER_SIZE + i * RECORD_SIZE + 8);
+        }
+
+        /**
+         * 查找 ptsUs 所在的关键帧，即时间戳不大于 ptsUs 的最后一个关键帧
+         *
+         * @return 记录序号，ptsUs 在第一个关键帧之前或者没有记录时返回 -1
+         */
+        public int find(long ptsUs) {
+            int lo = 0;
+            int hi = count - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getPtsUs(mid) <= ptsUs) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
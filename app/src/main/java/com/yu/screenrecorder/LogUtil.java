@@ -4,46 +4,199 @@ import android.util.Log;
 
 /**
  * Created by D22436 on 2017/8/8.
+ * <br/> 除了直接传入字符串，也可以使用 "{}" 占位的参数化消息，被级别过滤掉时只做一次比较，不拼接字符串；
+ * 设置 {@link AsyncLogWriter} 后日志写入预先分配的环形缓冲，由后台线程写到文件，不再同步写 logcat
  */
 
 public class LogUtil {
-    /* 日志级别，依次递增 */
-    private static final int VERBOSE = 1;
-    private static final int DEBUG = 2;
-    private static final int INFO = 3;
-    private static final int WARN = 4;
-    private static final int ERROR = 5;
-    private static final int NOTHING = 6;
+    /* 日志级别，依次递增，与 android.util.Log 的优先级一致 */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int NOTHING = 7;
 
     public static int level = VERBOSE;  // 日志过滤级别
 
+    /* 参数为 long 的位置，避免装箱 */
+    private static final int LONG_ARG1 = 1;
+    private static final int LONG_ARG2 = 2;
+
+    private static volatile AsyncLogWriter asyncWriter;
+
+    /* 每个线程复用一个 StringBuilder 拼接参数化消息 */
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    /**
+     * 设置异步写文件的后端，为 null 时恢复同步写 logcat
+     */
+    public static void setAsyncWriter(AsyncLogWriter writer) {
+        asyncWriter = writer;
+    }
+
+    public static boolean isLoggable(int priority) {
+        return level <= priority;
+    }
+
     public static void v(String tag, String msg) {
         if (level <= VERBOSE) {
-            Log.v(tag, msg);
+            println(VERBOSE, tag, msg);
         }
     }
 
     public static void d(String tag, String msg) {
         if (level <= DEBUG) {
-            Log.d(tag, msg);
+            println(DEBUG, tag, msg);
         }
     }
 
     public static void i(String tag, String msg) {
         if (level <= INFO) {
-            Log.i(tag, msg);
+            println(INFO, tag, msg);
         }
     }
 
     public static void w(String tag, String msg) {
         if (level <= WARN) {
-            Log.w(tag, msg);
+            println(WARN, tag, msg);
         }
     }
 
     public static void e(String tag, String msg) {
         if (level <= ERROR) {
-            Log.e(tag, msg);
+            println(ERROR, tag, msg);
+        }
+    }
+
+    public static void d(String tag, String format, Object arg) {
+        if (level <= DEBUG) {
+            format(DEBUG, tag, format, 1, 0, arg, 0, null, 0);
+        }
+    }
+
+    public static void d(String tag, String format, long arg) {
+        if (level <= DEBUG) {
+            format(DEBUG, tag, format, 1, LONG_ARG1, null, arg, null, 0);
+        }
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (level <= DEBUG) {
+            format(DEBUG, tag, format, 2, 0, arg1, 0, arg2, 0);
+        }
+    }
+
+    public static void d(String tag, String format, long arg1, Object arg2) {
+        if (level <= DEBUG) {
+            format(DEBUG, tag, format, 2, LONG_ARG1, null, arg1, arg2, 0);
+        }
+    }
+
+    public static void i(String tag, String format, Object arg) {
+        if (level <= INFO) {
+            format(INFO, tag, format, 1, 0, arg, 0, null, 0);
+        }
+    }
+
+    public static void i(String tag, String format, long arg) {
+        if (level <= INFO) {
+            format(INFO, tag, format, 1, LONG_ARG1, null, arg, null, 0);
+        }
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (level <= INFO) {
+            format(INFO, tag, format, 2, 0, arg1, 0, arg2, 0);
+        }
+    }
+
+    public static void i(String tag, String format, long arg1, Object arg2) {
+        if (level <= INFO) {
+            format(INFO, tag, format, 2, LONG_ARG1, null, arg1, arg2, 0);
+        }
+    }
+
+    public static void w(String tag, String format, Object arg) {
+        if (level <= WARN) {
+            format(WARN, tag, format, 1, 0, arg, 0, null, 0);
+        }
+    }
+
+    public static void w(String tag, String format, long arg) {
+        if (level <= WARN) {
+            format(WARN, tag, format, 1, LONG_ARG1, null, arg, null, 0);
+        }
+    }
+
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        if (level <= WARN) {
+            format(WARN, tag, format, 2, 0, arg1, 0, arg2, 0);
+        }
+    }
+
+    public static void e(String tag, String format, Object arg) {
+        if (level <= ERROR) {
+            format(ERROR, tag, format, 1, 0, arg, 0, null, 0);
+        }
+    }
+
+    public static void e(String tag, String format, Object arg1, Object arg2) {
+        if (level <= ERROR) {
+            format(ERROR, tag, format, 2, 0, arg1, 0, arg2, 0);
+        }
+    }
+
+    private static void format(int priority, String tag, String format, int argCount, int longArgs,
+                               Object obj1, long num1, Object obj2, long num2) {
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        appendFormat(sb, format, argCount, longArgs, obj1, num1, obj2, num2);
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.append(priority, tag, sb);
+        } else {
+            Log.println(priority, tag, sb.toString());
+        }
+    }
+
+    private static void println(int priority, String tag, String msg) {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.append(priority, tag, msg);
+        } else {
+            Log.println(priority, tag, msg);
+        }
+    }
+
+    /**
+     * 依次用参数替换 "{}"，多余的占位符原样保留
+     */
+    static void appendFormat(StringBuilder sb, String format, int argCount, int longArgs,
+                             Object obj1, long num1, Object obj2, long num2) {
+        int start = 0;
+        int arg = 0;
+        while (arg < argCount) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(format, start, index);
+            if (arg == 0) {
+                if ((longArgs & LONG_ARG1) != 0) sb.append(num1);
+                else sb.append(obj1);
+            } else {
+                if ((longArgs & LONG_ARG2) != 0) sb.append(num2);
+                else sb.append(obj2);
+            }
+            arg++;
+            start = index + 2;
         }
+        sb.append(format, start, format.length());
     }
 }
@@ -9,10 +9,11 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -23,19 +24,30 @@ import android.widget.Button;
 import android.widget.TextView;
 
 
-public class MainActivity extends AppCompatActivity implements RecordService.OnRecorderStateChangeListener {
+public class MainActivity extends AppCompatActivity implements OnRecorderEventListener {
     private static final int RECORD_REQUEST_CODE = 101;
     private static final int STORAGE_REQUEST_CODE = 102;
     private static final int AUDIO_REQUEST_CODE = 103;
 
+    /* 录制中刷新时长的间隔 */
+    private static final long STATUS_REFRESH_MS = 250;
+
     private MediaProjectionManager projectionManager;
-    private MediaProjection mediaProjection;
     private Button startBtn;
-    private IRecorderController mRecorderController;
+    /* 录制服务运行在独立进程，控制是 oneway 调用，状态从共享内存读取 */
+    private RemoteRecorderClient mRecorder;
+    private final RecorderStatus status = new RecorderStatus();
+    private final TimeFormatter timeText = new TimeFormatter("正在录制:");
+    private final TimeFormatter lastTimeText = new TimeFormatter("上次录制时长:");
+    private long lastSeconds;
+    private final Handler handler = new Handler();
+    /* 调用 bindService 的时间，连接后记录耗时，其中包括录制进程和服务的冷启动 */
+    private long bindRequestedNs;
 
     private TextView tvRecordInfo;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long begin = StartupTrace.begin("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         projectionManager = (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
         setContentView(R.layout.activity_main);
@@ -47,9 +59,15 @@ public class MainActivity extends AppCompatActivity implements RecordService.OnR
             @TargetApi(Build.VERSION_CODES.LOLLIPOP)
             @Override
             public void onClick(View v) {
-                if (mRecorderController.isRecording()) {
-                    mRecorderController.stopRecord();
+                mRecorder.readStatus(status);
+                if (status.isRecording()) {
+                    mRecorder.stopRecord();
                     startBtn.setText(R.string.start_record);
+                } else if (status.isStandby() || status.isAuthorized()) {
+                    /* 授权仍然有效，直接开始；空闲释放了待机资源时服务会重新准备 */
+                    mRecorder.startRecord();
+                    startBtn.setText(R.string.stop_record);
+                    refreshStatus.run();
                 } else {
                     /* Returns an Intent that must passed to startActivityForResult() in order to start screen capture */
                     Intent captureIntent = projectionManager.createScreenCaptureIntent();
@@ -62,9 +80,9 @@ public class MainActivity extends AppCompatActivity implements RecordService.OnR
         checkPermission(); /* 检查权限*/
 
       //  registerRecordReceiver();
-        Intent intent = new Intent(this, RecordService.class);
-
-        bindService(intent, conn, BIND_AUTO_CREATE);
+        bindRequestedNs = System.nanoTime();
+        bindService(RemoteRecorderClient.bindIntent(this), conn, BIND_AUTO_CREATE);
+        StartupTrace.end("MainActivity.onCreate", begin);
     }
 
     /** 检查权限*/
@@ -87,17 +105,22 @@ public class MainActivity extends AppCompatActivity implements RecordService.OnR
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == RECORD_REQUEST_CODE && resultCode == RESULT_OK) {
-            /* 获取屏幕采集的接口 */
-            mediaProjection = projectionManager.getMediaProjection(resultCode, data);
-            mRecorderController.setMediaProject(mediaProjection);
-            mRecorderController.startRecord();
+            /* 授权结果交给录制进程，由它创建 MediaProjection；同一个客户端的 oneway 调用按顺序执行 */
+            mRecorder.setProjection(resultCode, data);
+            mRecorder.startRecord();
             startBtn.setText(R.string.stop_record);
+            refreshStatus.run();
         }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        handler.removeCallbacks(refreshStatus);
+        if (mRecorder != null) {
+            mRecorder.removeRecorderListener(this);
+            mRecorder.close();
+        }
         if (conn != null) unbindService(conn);
        // unregisterRecordReceiver();
     }
@@ -113,19 +136,62 @@ public class MainActivity extends AppCompatActivity implements RecordService.OnR
     }
 
     private ServiceConnection conn = new ServiceConnection() {
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
         @Override
         public void onServiceConnected(ComponentName className, IBinder service) {
+            if (bindRequestedNs > 0) {
+                StartupTrace.record("MainActivity.bindService", System.nanoTime() - bindRequestedNs);
+                bindRequestedNs = 0;
+            }
             DisplayMetrics metrics = new DisplayMetrics();
-            getWindowManager().getDefaultDisplay().getMetrics(metrics);
-            mRecorderController = (IRecorderController) service;
-            mRecorderController.setConfig(metrics.widthPixels, metrics.heightPixels, metrics.densityDpi);
-            mRecorderController.setRecordingCallback(MainActivity.this);
+            /* 镜像的是整个屏幕，包括导航栏 */
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                getWindowManager().getDefaultDisplay().getRealMetrics(metrics);
+            } else {
+                getWindowManager().getDefaultDisplay().getMetrics(metrics);
+            }
+            mRecorder = new RemoteRecorderClient(service);
+            mRecorder.setConfig(metrics.widthPixels, metrics.heightPixels, metrics.densityDpi);
+            mRecorder.addRecorderListener(MainActivity.this, HandlerExecutor.mainThread());
             startBtn.setEnabled(true);
-            startBtn.setText(mRecorderController.isRecording() ? R.string.stop_record : R.string.start_record);
+            mRecorder.readStatus(status);
+            startBtn.setText(status.isRecording() ? R.string.stop_record : R.string.start_record);
+            if (status.isRecording()) {
+                refreshStatus.run();
+            }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName arg0) {
+            /* 录制进程退出，系统会重新创建服务并再次回调 onServiceConnected */
+            handler.removeCallbacks(refreshStatus);
+            startBtn.setEnabled(false);
+            if (mRecorder != null) {
+                mRecorder.close();
+                mRecorder = null;
+            }
+        }
+    };
+
+    /**
+     * 录制中定时读取共享的状态刷新时长，不产生 binder 调用
+     */
+    private final Runnable refreshStatus = new Runnable() {
+        @Override
+        public void run() {
+            handler.removeCallbacks(this);
+            if (mRecorder == null || !mRecorder.readStatus(status)) {
+                return;
+            }
+            if (status.isRecording() || status.state == RecorderStateMachine.STATE_PREPARING) {
+                if (status.isRecording()) {
+                    lastSeconds = status.elapsedAt(SystemClock.elapsedRealtime()) / 1000;
+                    if (timeText.format(lastSeconds)) {
+                        tvRecordInfo.setText(timeText);
+                    }
+                }
+                handler.postDelayed(this, STATUS_REFRESH_MS);
+            }
         }
     };
 
@@ -141,27 +207,28 @@ public class MainActivity extends AppCompatActivity implements RecordService.OnR
         if (recordReceiver != null) unregisterReceiver(recordReceiver);
     }
 
+    /**
+     * 在主线程中调用，录制时长不经过事件，由 refreshStatus 读取
+     */
     @Override
-    public void onRecordStart() {
-
-    }
-
-    private String lastTime;
-    @Override
-    public void onRecordUpdate(final String time) {
-        lastTime = time;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                tvRecordInfo.setText("正在录制:" + time);
-            }
-        });
-    }
-
-    @Override
-    public void onRecordStop() {
-        startBtn.setText( R.string.start_record );
-        tvRecordInfo.setText("上次录制时长:"+lastTime);
+    public void onRecorderEvent(RecorderEvent event) {
+        switch (event.type) {
+            case RecorderEvent.TYPE_START:
+                refreshStatus.run();
+                break;
+            case RecorderEvent.TYPE_STOP:
+                handler.removeCallbacks(refreshStatus);
+                startBtn.setText( R.string.start_record );
+                lastTimeText.format(lastSeconds);
+                tvRecordInfo.setText(lastTimeText);
+                break;
+            case RecorderEvent.TYPE_ERROR:
+                LogUtil.e("TAG", "record error: " + event.text);
+                break;
+            case RecorderEvent.TYPE_RECOVERED:
+                tvRecordInfo.setText("已修复中断的录制:" + event.text);
+                break;
+        }
     }
 
 
@@ -0,0 +1,80 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+
+/**
+ * 通过 MediaCodecList 查询编码器能力
+ * <br/> 取第一个支持该类型的编码器，与 MediaCodec.createEncoderByType() 的选择一致
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MediaCodecCapabilityProbe implements EncoderCapabilityCache.Probe {
+    private static final String TAG = "CapabilityProbe";
+    /* 用来确定最大像素数的常见尺寸，从大到小 */
+    private static final int[][] PROBE_SIZES = {
+            {3840, 2160}, {2560, 1440}, {1920, 1088}, {1920, 1080}, {1280, 720}, {640, 480}
+    };
+
+    @Override
+    public EncoderCapabilities probe(String mime) {
+        MediaCodecInfo[] infos;
+        try {
+            infos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        } catch (RuntimeException e) {
+            LogUtil.w(TAG, "list codecs failed: {}", e.getMessage());
+            return null;
+        }
+        for (MediaCodecInfo info : infos) {
+            if (!info.isEncoder() || !supportsType(info, mime)) {
+                continue;
+            }
+            MediaCodecInfo.CodecCapabilities codecCaps = info.getCapabilitiesForType(mime);
+            MediaCodecInfo.VideoCapabilities video = codecCaps.getVideoCapabilities();
+            if (video == null) {
+                continue;
+            }
+            EncoderCapabilities caps = new EncoderCapabilities(mime);
+            caps.codecName = info.getName();
+            caps.minWidth = video.getSupportedWidths().getLower();
+            caps.maxWidth = video.getSupportedWidths().getUpper();
+            caps.minHeight = video.getSupportedHeights().getLower();
+            caps.maxHeight = video.getSupportedHeights().getUpper();
+            caps.widthAlignment = video.getWidthAlignment();
+            caps.heightAlignment = video.getHeightAlignment();
+            caps.maxPixels = maxPixelsOf(video);
+            Range<Integer> frameRates = video.getSupportedFrameRates();
+            caps.maxFrameRate = frameRates.getUpper();
+            caps.minBitRate = video.getBitrateRange().getLower();
+            caps.maxBitRate = video.getBitrateRange().getUpper();
+            caps.profiles = new int[codecCaps.profileLevels.length];
+            for (int i = 0; i < caps.profiles.length; i++) {
+                caps.profiles[i] = codecCaps.profileLevels[i].profile;
+            }
+            LogUtil.i(TAG, "probed {}", caps);
+            return caps;
+        }
+        return null;
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mime) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mime)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 宽高上限相乘通常超过编码器实际能处理的大小，用常见尺寸（横竖两个方向）找出支持的最大像素数
+     */
+    private static long maxPixelsOf(MediaCodecInfo.VideoCapabilities video) {
+        for (int[] size : PROBE_SIZES) {
+            if (video.isSizeSupported(size[0], size[1]) || video.isSizeSupported(size[1], size[0])) {
+                return (long) size[0] * size[1];
+            }
+        }
+        return (long) video.getSupportedWidths().getUpper() * video.getSupportedHeights().getUpper();
+    }
+}
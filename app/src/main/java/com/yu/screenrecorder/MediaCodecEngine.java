@@ -0,0 +1,398 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接驱动 MediaCodec 的录制引擎，可以拿到每一个编码样本
+ * <br/> 写文件时编码输出经过 {@link RecordPipeline}，drain、封装、写文件分别在各自线程中进行。
+ * 输出 mp4 文件时可以同时录制音频，音视频各自经过一条流水线后由 {@link MultiTrackSink} 写入同一个 MediaMuxer。
+ * 开启可变帧率时 VirtualDisplay 渲染到 {@link VariableFrameRateSource}，画面变化时才送入编码器
+ * <br/> 写文件时在旁边生成 {@link KeyframeIndex}，开启可变帧率时同时生成 {@link ThumbnailStrip}，录制结束后保留
+ * <br/> 有多个输出时（例如同时写文件和直播）视频只编码一次，经 {@link TeeSink} 分发给各个输出
+ * <br/> 设置了分段时长或大小时文件输出经过 {@link SegmentedSink}，每个分段有自己的写线程、录制日志和关键帧索引
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MediaCodecEngine implements IRecordEngine {
+    private static final String TAG = "MediaCodecEngine";
+    /* 音频样本小而频繁，队列按 1 秒左右的 AAC 帧准备 */
+    private static final int AUDIO_QUEUE_CAPACITY = 64;
+    /* AAC 帧每声道最多 768 字节，按视频样本预分配会白占十几 MB 堆外内存 */
+    private static final int AUDIO_SAMPLE_CAPACITY = 4 * 1024;
+    /* 直播、回放缓冲等附加输出的分支队列，满了只丢该分支的样本 */
+    private static final int EXTRA_QUEUE_CAPACITY = 32;
+
+    private final ISampleSink[] outputSinks;
+    private final boolean writeFile;
+    private MediaCodecWrapper codec;
+    private ISampleSink sink;
+    private RecordPipeline pipeline;
+    private TeeSink tee;
+    /* 正在写的文件，分段时在写样本的线程切换 */
+    private volatile FileOutput fileOutput;
+    private SegmentedSink segments;
+    private SegmentedSink.OnSegmentClosedListener segmentListener;
+    /* 已经结束的分段写入的字节数 */
+    private final AtomicLong closedBytes = new AtomicLong();
+    private ThumbnailStrip thumbnails;
+    private EncoderEngine encoder;
+    private RateController rateController;
+    private RateController.OnRateChangeListener rateListener;
+    private RecordingClock clock;
+    private RecorderMetrics metrics;
+    private AudioEngine audio;
+    private RecordPipeline audioPipeline;
+    private MultiTrackSink tracks;
+    private VariableFrameRateSource vfr;
+
+    /**
+     * 编码输出写入 {@link RecordConfig#outputPath} 指定的文件
+     */
+    public MediaCodecEngine() {
+        this(new ISampleSink[0], true);
+    }
+
+    /**
+     * @param outputSink 编码输出直接写入指定的 sink，不写文件
+     */
+    public MediaCodecEngine(ISampleSink outputSink) {
+        this(new ISampleSink[]{outputSink}, false);
+    }
+
+    /**
+     * @param outputSinks 编码输出写入的 sink，每个 sink 在 tee 中有自己的队列，满了只丢自己的样本
+     * @param writeFile 是否同时写入 {@link RecordConfig#outputPath}，没有 outputSinks 时总是写文件
+     */
+    public MediaCodecEngine(ISampleSink[] outputSinks, boolean writeFile) {
+        this.outputSinks = outputSinks;
+        this.writeFile = writeFile || outputSinks.length == 0;
+    }
+
+    @Override
+    public void prepare(RecordConfig config) throws IOException {
+        codec = MediaCodecWrapper.createVideoEncoder(config);
+        ISampleSink fileSink = null;
+        if (writeFile) {
+            try {
+                fileSink = createFileSink(config);
+            } catch (IOException e) {
+                codec.release();
+                codec = null;
+                throw e;
+            }
+            if (config.audioSource != RecordConfig.AUDIO_SOURCE_NONE
+                    && config.outputFormat != RecordConfig.OUTPUT_FORMAT_H264) {
+                fileSink = prepareAudio(config, fileSink);
+            }
+        }
+        if (fileSink == null && outputSinks.length == 1) {
+            sink = outputSinks[0];
+        } else if (outputSinks.length == 0) {
+            pipeline = new RecordPipeline(fileSink, config.queueCapacity, config.backpressurePolicy);
+            pipeline.setCodec(codec);
+            pipeline.setMetrics(metrics);
+            sink = pipeline;
+        } else {
+            tee = new TeeSink();
+            tee.setCodec(codec);
+            tee.setMetrics(metrics);
+            if (fileSink != null) {
+                tee.addBranch("file", fileSink, config.queueCapacity, config.backpressurePolicy);
+            }
+            for (ISampleSink output : outputSinks) {
+                tee.addBranch(output.getClass().getSimpleName(), output, EXTRA_QUEUE_CAPACITY,
+                        RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE);
+            }
+            sink = tee;
+        }
+        encoder = new EncoderEngine(codec, sink);
+        encoder.setClock(clock);
+        encoder.setMetrics(metrics);
+        if (config.variableFrameRate && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            vfr = createVariableFrameRateSource(config);
+            encoder.setCountCaptured(false);
+        }
+        if (config.adaptiveRate) {
+            rateController = new RateController(config.minBitRate, config.bitRate,
+                    config.minFrameRate, config.frameRate);
+            rateController.setCodec(codec);
+            // 分段时写线程随分段更换，只看流水线队列，写线程堵塞最终也会反映到流水线队列上
+            FileOutput output = fileOutput;
+            rateController.setQueues(pipeline, output != null && segments == null ? output.writer : null);
+            rateController.setOnRateChangeListener(rateListener);
+            encoder.setRateController(rateController);
+        }
+    }
+
+    /**
+     * 准备音频，成功时音视频共用 fileSink
+     *
+     * @return 视频流水线的下游，音频准备失败时仍为 fileSink，只录制视频
+     */
+    private ISampleSink prepareAudio(RecordConfig config, ISampleSink fileSink) {
+        audio = new AudioEngine();
+        MultiTrackSink tracks = new MultiTrackSink(fileSink, 2);
+        audioPipeline = new RecordPipeline(tracks.newInput(), AUDIO_QUEUE_CAPACITY,
+                RecordPipeline.BACKPRESSURE_BLOCK, AUDIO_SAMPLE_CAPACITY);
+        try {
+            audio.prepare(config, audioPipeline, clock, metrics);
+        } catch (IOException e) {
+            LogUtil.w(TAG, "prepare audio failed, record video only: {}", e.getMessage());
+            audio = null;
+            audioPipeline = null;
+            return fileSink;
+        }
+        this.tracks = tracks;
+        return tracks.newInput();
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private VariableFrameRateSource createVariableFrameRateSource(RecordConfig config) {
+        VariableFrameRateSource source = new VariableFrameRateSource(config, codec.getInputSurface(), codec);
+        source.setMetrics(metrics);
+        if (writeFile && config.sidecarIndex && config.thumbnailIntervalMs > 0 && clock != null) {
+            try {
+                thumbnails = new ThumbnailStrip(new File(config.outputPath), config.width, config.height,
+                        config.thumbnailWidth, config.thumbnailIntervalMs * 1000L);
+                source.setThumbnailStrip(thumbnails, clock);
+            } catch (IOException e) {
+                LogUtil.w(TAG, "create thumbnails failed: {}", e.getMessage());
+            }
+        }
+        return source;
+    }
+
+    /**
+     * 设置录制时钟，样本时间戳按它换算，在 prepare 之前调用
+     */
+    public void setClock(RecordingClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * 设置统计，在 prepare 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置码率调整回调，在 prepare 之前调用
+     */
+    public void setOnRateChangeListener(RateController.OnRateChangeListener listener) {
+        rateListener = listener;
+    }
+
+    /**
+     * 设置分段结束回调，在写样本的线程回调，在 prepare 之前调用
+     */
+    public void setOnSegmentClosedListener(SegmentedSink.OnSegmentClosedListener listener) {
+        segmentListener = listener;
+    }
+
+    /**
+     * 最近一次码率调整，没有开启自适应码率或者还没有调整过时返回 null
+     */
+    public RateDecision getLastRateDecision() {
+        RateController controller = rateController;
+        return controller != null ? controller.getLastDecision() : null;
+    }
+
+    /**
+     * 开启自适应码率时交给 RateController，在 drain 线程下一个样本时生效，之后在上限内继续调整；
+     * 否则直接设置编码器
+     */
+    @Override
+    public void setRateCeiling(int bitRate, int frameRate) {
+        RateController controller = rateController;
+        if (controller != null) {
+            controller.setCeiling(bitRate, frameRate);
+            return;
+        }
+        ICodec target = codec;
+        if (target == null) {
+            return;
+        }
+        try {
+            target.setVideoBitrate(bitRate);
+            target.setFrameRate(frameRate);
+        } catch (IllegalStateException e) {
+            // 编码器正在停止
+            LogUtil.w(TAG, "set rate ceiling failed: {}", e.getMessage());
+        }
+    }
+
+    private ISampleSink createFileSink(final RecordConfig config) throws IOException {
+        File file = new File(config.outputPath);
+        if (!config.isSegmented()) {
+            FileOutput output = FileOutput.open(config, file, metrics, closedBytes);
+            fileOutput = output;
+            return output;
+        }
+        segments = new SegmentedSink(file, config.segmentDurationMs * 1000L, config.segmentBytes,
+                new SegmentedSink.SegmentFactory() {
+                    @Override
+                    public ISampleSink open(File file) throws IOException {
+                        FileOutput output = FileOutput.open(config, file, metrics, closedBytes);
+                        fileOutput = output;
+                        return output;
+                    }
+                });
+        segments.setCodec(codec);
+        segments.setOnSegmentClosedListener(segmentListener);
+        return segments;
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return vfr != null ? vfr.getInputSurface() : codec.getInputSurface();
+    }
+
+    @Override
+    public void start() {
+        if (audio != null) {
+            try {
+                audio.start();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "start audio failed, record video only: {}", e.getMessage());
+                audio.release();
+                audio = null;
+                tracks.cancelInput();
+            }
+        }
+        encoder.start();
+        if (vfr != null) {
+            vfr.start();
+        }
+    }
+
+    /**
+     * 编码器继续运行，暂停期间的样本由录制时钟丢弃
+     */
+    @Override
+    public boolean pause() {
+        return clock != null;
+    }
+
+    /**
+     * 恢复后需要从关键帧开始
+     */
+    @Override
+    public boolean resume() {
+        if (clock == null) {
+            return false;
+        }
+        codec.requestSyncFrame();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if (vfr != null) {
+            vfr.stop();
+        }
+        if (encoder.stop()) {
+            codec.stop();
+        }
+        if (audio != null) {
+            audio.stop();
+        }
+        sink.stop();
+        if (audioPipeline != null) {
+            audioPipeline.stop();
+        }
+        if (tracks != null) {
+            tracks.stop();
+        }
+        closeThumbnails();
+    }
+
+    /**
+     * 关闭缩略图，文件保留
+     */
+    private void closeThumbnails() {
+        if (thumbnails != null) {
+            thumbnails.close();
+            thumbnails = null;
+        }
+    }
+
+    @Override
+    public long getFirstFrameTimeNanos() {
+        EncoderEngine encoder = this.encoder;
+        return encoder != null ? encoder.getFirstFrameTimeNanos() : -1;
+    }
+
+    @Override
+    public void release() {
+        if (vfr != null) vfr.release();
+        if (codec != null) EncoderEngine.releaseCodec(codec, encoder);
+        if (sink != null) sink.release();
+        if (audio != null) audio.release();
+        if (tracks != null) tracks.release();
+        closeThumbnails();
+        codec = null;
+        sink = null;
+        pipeline = null;
+        tee = null;
+        fileOutput = null;
+        segments = null;
+        encoder = null;
+        rateController = null;
+        audio = null;
+        audioPipeline = null;
+        tracks = null;
+        vfr = null;
+    }
+
+    /**
+     * 获取流水线各阶段的状态
+     *
+     * @return 没有经过流水线时返回false
+     */
+    public boolean getPipelineStats(PipelineStats stats) {
+        RecordPipeline pipeline = this.pipeline;
+        TeeSink tee = this.tee;
+        if (pipeline != null) {
+            stats.muxQueueDepth = pipeline.getQueueDepth();
+            stats.muxQueueCapacity = pipeline.getQueueCapacity();
+            stats.droppedSamples = pipeline.getDroppedSamples();
+            stats.drainBlockedMs = pipeline.getBlockedNs() / 1000000;
+            stats.failed = pipeline.isFailed();
+        } else if (tee != null) {
+            stats.branches = tee.getBranchStats();
+            for (TeeSink.BranchStats branch : stats.branches) {
+                stats.droppedSamples += branch.droppedSamples;
+                stats.failed |= branch.failed;
+            }
+            if (writeFile) {
+                /* 文件分支总是第一个 */
+                stats.muxQueueDepth = stats.branches[0].queueDepth;
+                stats.muxQueueCapacity = stats.branches[0].queueCapacity;
+            }
+        } else {
+            return false;
+        }
+        FileOutput output = fileOutput;
+        if (output != null && output.writer != null) {
+            stats.writeQueueDepth = output.writer.getQueueDepth();
+            stats.bytesWritten = closedBytes.get() + (output.stopped ? 0 : output.writer.getBytesWritten());
+            stats.syncCount = output.writer.getSyncCount();
+        }
+        SegmentedSink segments = this.segments;
+        if (segments != null) {
+            stats.segments = segments.getSegmentCount();
+        }
+        AudioEngine audio = this.audio;
+        if (audio != null) {
+            stats.audioOverruns = audio.getOverruns();
+            stats.audioUnderruns = audio.getUnderruns();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 MediaCodec 的 {@link ICodec} 实现，音频编码器同时作为 {@link ICodecInput} 使用
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MediaCodecWrapper implements ICodec, ICodecInput {
+    /* MediaFormat.KEY_MAX_FPS_TO_ENCODER, 10.0 开始公开，之前的版本会忽略 */
+    private static final String KEY_MAX_FPS_TO_ENCODER = "max-fps-to-encoder";
+
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private Surface inputSurface;
+
+    private MediaCodecWrapper(MediaCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 创建以 Surface 作为输入的 H264 编码器
+     */
+    public static MediaCodecWrapper createVideoEncoder(RecordConfig config) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(TrackFormat.MIME_AVC, config.width, config.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.iFrameInterval);
+        format.setFloat(KEY_MAX_FPS_TO_ENCODER, config.frameRate);
+
+        MediaCodec codec = MediaCodec.createEncoderByType(TrackFormat.MIME_AVC);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            codec.release();
+            throw new IOException("configure encoder failed: " + e.getMessage());
+        }
+        MediaCodecWrapper wrapper = new MediaCodecWrapper(codec);
+        wrapper.inputSurface = codec.createInputSurface();
+        return wrapper;
+    }
+
+    /**
+     * 创建以 16 位 PCM 作为输入的 AAC 编码器
+     */
+    public static MediaCodecWrapper createAudioEncoder(RecordConfig config, int maxInputSize) throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(TrackFormat.MIME_AAC, config.audioSampleRate,
+                config.audioChannelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.audioBitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+
+        MediaCodec codec = MediaCodec.createEncoderByType(TrackFormat.MIME_AAC);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            codec.release();
+            throw new IOException("configure audio encoder failed: " + e.getMessage());
+        }
+        return new MediaCodecWrapper(codec);
+    }
+
+    /**
+     * 编码器的输入 Surface，用于 VirtualDisplay 渲染
+     */
+    public Surface getInputSurface() {
+        return inputSurface;
+    }
+
+    @Override
+    public void start() {
+        codec.start();
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        if (index >= 0) {
+            info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return codec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        codec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return codec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        codec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        return MediaFormatUtil.toTrackFormat(codec.getOutputFormat());
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        /* ByteBuffer 输入的编码器由输入端提交带结束标志的缓冲 */
+        if (inputSurface != null) {
+            codec.signalEndOfInputStream();
+        }
+    }
+
+    @Override
+    public void requestSyncFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        codec.setParameters(params);
+    }
+
+    @Override
+    public void setVideoBitrate(int bitRate) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        codec.setParameters(params);
+    }
+
+    @Override
+    public void setFrameRate(int frameRate) {
+        Bundle params = new Bundle();
+        params.putFloat(KEY_MAX_FPS_TO_ENCODER, frameRate);
+        codec.setParameters(params);
+    }
+
+    @Override
+    public void stop() {
+        codec.stop();
+    }
+
+    @Override
+    public void release() {
+        codec.release();
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MediaFormat 与 {@link TrackFormat} 之间的转换
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MediaFormatUtil {
+
+    public static TrackFormat toTrackFormat(MediaFormat mediaFormat) {
+        TrackFormat format = new TrackFormat(mediaFormat.getString(MediaFormat.KEY_MIME));
+        if (format.isVideo()) {
+            format.width = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
+            format.height = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        } else {
+            format.sampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            format.channelCount = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        }
+        format.csd0 = toBytes(mediaFormat.getByteBuffer("csd-0"));
+        format.csd1 = toBytes(mediaFormat.getByteBuffer("csd-1"));
+        return format;
+    }
+
+    public static MediaFormat toMediaFormat(TrackFormat format) {
+        MediaFormat mediaFormat;
+        if (format.isVideo()) {
+            mediaFormat = MediaFormat.createVideoFormat(format.mime, format.width, format.height);
+        } else {
+            mediaFormat = MediaFormat.createAudioFormat(format.mime, format.sampleRate, format.channelCount);
+        }
+        if (format.csd0 != null) mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(format.csd0));
+        if (format.csd1 != null) mediaFormat.setByteBuffer("csd-1", ByteBuffer.wrap(format.csd1));
+        return mediaFormat;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer src = buffer.duplicate();
+        src.rewind();
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,53 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 MediaMuxer 的输出，写入 mp4 文件
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class MediaMuxerSink implements ISampleSink {
+    private final MediaMuxer muxer;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private boolean started;
+
+    public MediaMuxerSink(String path) throws IOException {
+        muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return muxer.addTrack(MediaFormatUtil.toMediaFormat(format));
+    }
+
+    @Override
+    public void start() {
+        muxer.start();
+        started = true;
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        bufferInfo.set(buffer.position(), buffer.remaining(), info.presentationTimeUs, info.flags);
+        muxer.writeSampleData(track, buffer, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        if (started) {
+            started = false;
+            muxer.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        muxer.release();
+    }
+}
@@ -0,0 +1,102 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * 基于 MediaRecorder 的录制引擎
+ */
+public class MediaRecorderEngine implements IRecordEngine {
+    private final MediaRecorder mediaRecorder = new MediaRecorder();
+
+    @Override
+    public void prepare(RecordConfig config) throws IOException {
+        boolean hasAudio = config.audioSource != RecordConfig.AUDIO_SOURCE_NONE;
+        // 设置音频源，MediaRecorder 只能录麦克风
+        if (hasAudio) {
+            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        }
+        // 设置视频源
+        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        // 设置输出文件的格式
+        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        // 设置输出文件
+        mediaRecorder.setOutputFile(config.outputPath);
+        // 设置视频的宽高
+        mediaRecorder.setVideoSize(config.width, config.height);
+        // 设置音频编码器
+        if (hasAudio) {
+            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+            mediaRecorder.setAudioSamplingRate(config.audioSampleRate);
+            mediaRecorder.setAudioChannels(config.audioChannelCount);
+            mediaRecorder.setAudioEncodingBitRate(config.audioBitRate);
+        }
+        // 设置视频编码器
+        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        // 设置视频编码比特率
+        mediaRecorder.setVideoEncodingBitRate(config.bitRate);// Call this method before prepare().
+        // 设置要捕捉的视频帧率
+        mediaRecorder.setVideoFrameRate(config.frameRate); // Must be called after setVideoSource(). Call this after setOutFormat() but before prepare()
+        mediaRecorder.prepare(); // Prepares the recorder to begin capturing and encoding data
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mediaRecorder.getSurface();
+    }
+
+    @Override
+    public void start() {
+        mediaRecorder.start();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public boolean pause() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return false;
+        }
+        mediaRecorder.pause();
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public boolean resume() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return false;
+        }
+        mediaRecorder.resume();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        mediaRecorder.stop();
+        mediaRecorder.reset();
+    }
+
+    /**
+     * MediaRecorder 不提供每一帧的回调
+     */
+    @Override
+    public long getFirstFrameTimeNanos() {
+        return -1;
+    }
+
+    /**
+     * MediaRecorder 录制中不能调整码率和帧率，只在下次 prepare 时按配置生效
+     */
+    @Override
+    public void setRateCeiling(int bitRate, int frameRate) {
+    }
+
+    @Override
+    public void release() {
+        mediaRecorder.release();
+    }
+}
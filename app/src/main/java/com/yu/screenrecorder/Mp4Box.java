@@ -0,0 +1,85 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 写 ISO BMFF box 的辅助方法，box 大小在结束时回填
+ */
+final class Mp4Box {
+    static final int FTYP = fourcc("ftyp");
+    static final int MOOV = fourcc("moov");
+    static final int MOOF = fourcc("moof");
+    static final int MFHD = fourcc("mfhd");
+    static final int TRAF = fourcc("traf");
+    static final int TFHD = fourcc("tfhd");
+    static final int TFDT = fourcc("tfdt");
+    static final int TRUN = fourcc("trun");
+    static final int MDAT = fourcc("mdat");
+
+    /* trun 中的 sample_flags */
+    static final int SAMPLE_FLAGS_SYNC = 0x02000000;      // sample_depends_on = 2
+    static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;  // sample_depends_on = 1, sample_is_non_sync_sample
+
+    private Mp4Box() {
+    }
+
+    static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    static String typeName(int type) {
+        return new String(new char[]{(char) (type >>> 24), (char) ((type >> 16) & 0xff),
+                (char) ((type >> 8) & 0xff), (char) (type & 0xff)});
+    }
+
+    /**
+     * 开始一个 box，先写入占位的大小
+     *
+     * @return box 的起始位置，传给 {@link #end(ByteBuffer, int)}
+     */
+    static int begin(ByteBuffer buf, int type) {
+        int start = buf.position();
+        buf.putInt(0);
+        buf.putInt(type);
+        return start;
+    }
+
+    static int begin(ByteBuffer buf, String type) {
+        return begin(buf, fourcc(type));
+    }
+
+    /**
+     * 开始一个 full box
+     */
+    static int beginFull(ByteBuffer buf, int type, int version, int flags) {
+        int start = begin(buf, type);
+        buf.putInt((version << 24) | (flags & 0xffffff));
+        return start;
+    }
+
+    static int beginFull(ByteBuffer buf, String type, int version, int flags) {
+        return beginFull(buf, fourcc(type), version, flags);
+    }
+
+    /**
+     * 回填 box 大小
+     */
+    static void end(ByteBuffer buf, int start) {
+        buf.putInt(start, buf.position() - start);
+    }
+
+    /**
+     * 单位矩阵，tkhd 和 mvhd 使用
+     */
+    static void putMatrix(ByteBuffer buf) {
+        buf.putInt(0x00010000).putInt(0).putInt(0);
+        buf.putInt(0).putInt(0x00010000).putInt(0);
+        buf.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    static void putZeros(ByteBuffer buf, int count) {
+        for (int i = 0; i < count; i++) {
+            buf.put((byte) 0);
+        }
+    }
+}
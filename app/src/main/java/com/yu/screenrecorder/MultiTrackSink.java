@@ -0,0 +1,140 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 多个编码器共用一个下游 sink，例如音视频写入同一个 MediaMuxer
+ * <br/> 每个编码器通过 {@link #newInput()} 得到自己的输入端；所有轨道都添加之后才启动下游，
+ * 在此之前写入的样本等待启动，超过 {@link #START_TIMEOUT_MS} 仍有轨道没有添加时只用已有的轨道启动。
+ * 各输入端在各自线程写入，对下游的调用串行进行；下游由创建者在所有输入端停止后
+ * 通过 {@link #stop()}、{@link #release()} 统一停止和释放
+ */
+public class MultiTrackSink {
+    private static final String TAG = "MultiTrackSink";
+    static final long START_TIMEOUT_MS = 2000;
+
+    private final ISampleSink downstream;
+    private int expectedTracks;
+    private int addedTracks;
+    private boolean started;
+    private boolean stopped;
+    private long droppedSamples;
+
+    public MultiTrackSink(ISampleSink downstream, int expectedTracks) {
+        this.downstream = downstream;
+        this.expectedTracks = expectedTracks;
+    }
+
+    /**
+     * 新的输入端，对应一个轨道
+     */
+    public ISampleSink newInput() {
+        return new Input();
+    }
+
+    /**
+     * 某个输入端不会再添加轨道，例如音频采集启动失败，剩下的轨道都添加后即可启动
+     */
+    public synchronized void cancelInput() {
+        expectedTracks--;
+        startIfReady();
+    }
+
+    private synchronized int addTrack(TrackFormat format) {
+        if (started || stopped) {
+            LogUtil.w(TAG, "track {} added after start, ignored", format.mime);
+            return -1;
+        }
+        addedTracks++;
+        return downstream.addTrack(format);
+    }
+
+    private synchronized void startIfReady() {
+        if (!started && !stopped && addedTracks > 0 && addedTracks >= expectedTracks) {
+            downstream.start();
+            started = true;
+            notifyAll();
+        }
+    }
+
+    private synchronized void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        if (!started && !awaitStart()) {
+            droppedSamples++;
+            return;
+        }
+        downstream.writeSample(track, buffer, info);
+    }
+
+    /**
+     * 等待所有轨道添加，超时后用已有的轨道启动
+     */
+    private boolean awaitStart() {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        long remaining;
+        while (!started && !stopped && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (!started && !stopped && addedTracks > 0) {
+            LogUtil.w(TAG, "start with {} of {} tracks", addedTracks, expectedTracks);
+            downstream.start();
+            started = true;
+            notifyAll();
+        }
+        return started;
+    }
+
+    /**
+     * 所有输入端停止后调用
+     */
+    public synchronized void stop() {
+        if (!stopped) {
+            stopped = true;
+            notifyAll();
+            downstream.stop();
+        }
+    }
+
+    public synchronized void release() {
+        downstream.release();
+    }
+
+    /**
+     * 下游启动之前被丢弃的样本数
+     */
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    private class Input implements ISampleSink {
+        @Override
+        public int addTrack(TrackFormat format) {
+            return MultiTrackSink.this.addTrack(format);
+        }
+
+        @Override
+        public void start() {
+            startIfReady();
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            MultiTrackSink.this.writeSample(track, buffer, info);
+        }
+
+        /**
+         * 下游由 {@link MultiTrackSink#stop()} 统一停止
+         */
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制状态事件回调，在注册时指定的 Executor 中调用
+ */
+public interface OnRecorderEventListener {
+    void onRecorderEvent(RecorderEvent event);
+}
@@ -0,0 +1,198 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 16 位 PCM 的单生产者单消费者无锁环形缓冲，采集线程写入，编码线程读出
+ * <br/> 数据直接拷贝到一个 short 数组中，读写都不分配对象。
+ * 每块写入时带上采集时间，与按采样数推算的时间偏差超过 {@link #RESYNC_TOLERANCE_NS} 时记录一个锚点，
+ * 读出时按锚点换算出样本的时间戳，一次读取不会跨过锚点，因此丢弃的数据不会让之后的时间戳整体偏移。
+ * <br/> 缓冲满时丢弃整块新数据并计为 overrun；编码线程读到空缓冲计为 underrun，连续读空只计一次
+ */
+public class PcmRingBuffer {
+    /* 采集时间与推算时间的偏差超过该值时重新对齐 */
+    static final long RESYNC_TOLERANCE_NS = 10000000;
+    private static final int ANCHOR_CAPACITY = 64;
+
+    private final short[] buffer;
+    private final int mask;
+    private final int channelCount;
+    private final int sampleRate;
+    /* 读位置，只由消费者写，单位为 short */
+    private final AtomicLong head = new AtomicLong();
+    /* 写位置，只由生产者写 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /* 锚点：位置和对应的采集时间，同样是单生产者单消费者 */
+    private final long[] anchorPositions = new long[ANCHOR_CAPACITY];
+    private final long[] anchorTimesNs = new long[ANCHOR_CAPACITY];
+    private final AtomicLong anchorHead = new AtomicLong();
+    private final AtomicLong anchorTail = new AtomicLong();
+
+    /* 只在生产者线程访问：最近一个锚点，丢弃数据后置为 -1 强制重新对齐 */
+    private long writeAnchorPosition = -1;
+    private long writeAnchorNs;
+    /* 只在消费者线程访问：当前生效的锚点 */
+    private long readAnchorPosition;
+    private long readAnchorNs;
+    private boolean hasReadAnchor;
+    private boolean lastReadEmpty = true;
+
+    private volatile long overruns;
+    private volatile long underruns;
+    private volatile long droppedSamples;
+    private RecorderMetrics metrics;
+
+    /**
+     * @param capacity 容量，short 个数，向上取整为 2 的幂
+     */
+    public PcmRingBuffer(int capacity, int sampleRate, int channelCount) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        buffer = new short[size];
+        mask = size - 1;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * 设置统计，overrun 和 underrun 同时计入其中
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 写入一块交错排列的 PCM，只在采集线程调用
+     *
+     * @param timestampNs 第一个样本的采集时间，System.nanoTime() 时基
+     * @return 缓冲满时整块丢弃并返回 false
+     */
+    public boolean write(short[] src, int offset, int length, long timestampNs) {
+        long t = tail.get();
+        boolean resync = writeAnchorPosition < 0
+                || Math.abs(timestampNs - timeAt(t, writeAnchorPosition, writeAnchorNs)) > RESYNC_TOLERANCE_NS;
+        if (t + length - head.get() > buffer.length
+                || (resync && anchorTail.get() - anchorHead.get() == ANCHOR_CAPACITY)) {
+            overruns++;
+            droppedSamples += length;
+            writeAnchorPosition = -1;
+            if (metrics != null) metrics.audioOverruns.incrementAndGet();
+            return false;
+        }
+        if (resync) {
+            long a = anchorTail.get();
+            int slot = (int) (a & (ANCHOR_CAPACITY - 1));
+            anchorPositions[slot] = t;
+            anchorTimesNs[slot] = timestampNs;
+            anchorTail.lazySet(a + 1);
+            writeAnchorPosition = t;
+            writeAnchorNs = timestampNs;
+        }
+        int index = (int) (t & mask);
+        int first = Math.min(length, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        System.arraycopy(src, offset + first, buffer, 0, length - first);
+        tail.lazySet(t + length);
+        return true;
+    }
+
+    /**
+     * 下一次 {@link #read} 读出的第一个样本的采集时间，只在编码线程调用
+     *
+     * @return 还没有写入过数据时返回 -1
+     */
+    public long nextTimestampNs() {
+        long h = head.get();
+        advanceAnchor(h);
+        if (!hasReadAnchor) {
+            return -1;
+        }
+        return timeAt(h, readAnchorPosition, readAnchorNs);
+    }
+
+    /**
+     * 读出 PCM，只在编码线程调用
+     * <br/> 读出的数量按声道数对齐，并且不跨过下一个锚点
+     *
+     * @return 读出的 short 个数，没有数据时返回 0
+     */
+    public int read(short[] dst, int offset, int length) {
+        long h = head.get();
+        advanceAnchor(h);
+        long available = tail.get() - h;
+        if (anchorHead.get() < anchorTail.get()) {
+            /* 下一个锚点之后的数据时间不连续，留到下次读 */
+            available = Math.min(available, anchorPositions[(int) (anchorHead.get() & (ANCHOR_CAPACITY - 1))] - h);
+        }
+        int n = (int) Math.min(available, length);
+        n -= n % channelCount;
+        if (n <= 0) {
+            if (!lastReadEmpty) {
+                lastReadEmpty = true;
+                underruns++;
+                if (metrics != null) metrics.audioUnderruns.incrementAndGet();
+            }
+            return 0;
+        }
+        lastReadEmpty = false;
+        int index = (int) (h & mask);
+        int first = Math.min(n, buffer.length - index);
+        System.arraycopy(buffer, index, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, n - first);
+        head.lazySet(h + n);
+        return n;
+    }
+
+    /**
+     * 读位置到达锚点后切换到该锚点
+     */
+    private void advanceAnchor(long position) {
+        long a = anchorHead.get();
+        while (a < anchorTail.get()) {
+            int slot = (int) (a & (ANCHOR_CAPACITY - 1));
+            if (anchorPositions[slot] > position) {
+                break;
+            }
+            readAnchorPosition = anchorPositions[slot];
+            readAnchorNs = anchorTimesNs[slot];
+            hasReadAnchor = true;
+            a++;
+            anchorHead.lazySet(a);
+        }
+    }
+
+    private long timeAt(long position, long anchorPosition, long anchorNs) {
+        long frames = (position - anchorPosition) / channelCount;
+        return anchorNs + frames * 1000000000L / sampleRate;
+    }
+
+    /**
+     * 可读的 short 个数，其他线程读取时只是近似值
+     */
+    public int available() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * 因 overrun 丢弃的 short 个数
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
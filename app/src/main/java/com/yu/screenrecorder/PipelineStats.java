@@ -0,0 +1,37 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制流水线各阶段的状态快照
+ */
+public class PipelineStats {
+    /* drain -> mux 队列 */
+    public int muxQueueDepth;
+    public int muxQueueCapacity;
+    /* mux -> 写文件 队列，单位为缓冲块，不经过写线程时为 0 */
+    public int writeQueueDepth;
+    public long droppedSamples;
+    public long drainBlockedMs;
+    public long bytesWritten;
+    public long syncCount;
+    public boolean failed;
+    /* 音频采集缓冲写满丢弃、读空的次数，没有录制音频时为 0 */
+    public long audioOverruns;
+    public long audioUnderruns;
+    /* 经过 TeeSink 分发时各分支的状态，否则为 null */
+    public TeeSink.BranchStats[] branches;
+    /* 分段录制时已经打开的分段个数，不分段时为 0 */
+    public int segments;
+
+    @Override
+    public String toString() {
+        return "mux=" + muxQueueDepth + "/" + muxQueueCapacity
+                + " write=" + writeQueueDepth
+                + " dropped=" + droppedSamples
+                + " blocked=" + drainBlockedMs + "ms"
+                + " written=" + bytesWritten
+                + " fsync=" + syncCount
+                + (segments > 0 ? " segments=" + segments : "")
+                + " audio overrun/underrun=" + audioOverruns + "/" + audioUnderruns
+                + (failed ? " FAILED" : "");
+    }
+}
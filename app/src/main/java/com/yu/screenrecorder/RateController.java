@@ -0,0 +1,226 @@
+package com.yu.screenrecorder;
+
+/**
+ * 自适应码率、帧率控制
+ * <br/> 根据实际输出码率、编码延迟以及写入队列的堆积情况，在配置的范围内调整目标码率和帧率：
+ * 出现拥塞时先降码率，码率到下限后再降帧率；画面静止导致实际码率远低于目标时降低目标码率；
+ * 持续良好时先恢复帧率再逐步提高码率。
+ * <br/> 温控可以用 {@link #setCeiling(int, int)} 压低上限，超过上限时在下一个样本立即降到上限，上限提高后按正常节奏恢复
+ * <br/> 每个样本只做累加，每个统计周期才计算一次，调用均在 drain 线程
+ */
+public class RateController {
+    private static final String TAG = "RateController";
+
+    /* 统计周期 */
+    private static final long WINDOW_US = 1000000;
+    /* 编码延迟超过该值视为拥塞 */
+    private static final long LATENCY_HIGH_US = 200000;
+    private static final long LATENCY_LOW_US = 80000;
+    /* 队列占用超过该比例视为拥塞 */
+    private static final float QUEUE_HIGH = 0.5f;
+    private static final float QUEUE_LOW = 0.25f;
+    /* 实际码率低于目标的该比例视为画面变化少 */
+    private static final float LOW_CONTENT_RATIO = 0.4f;
+    /* 连续多少个周期良好后才开始恢复 */
+    private static final int RECOVER_WINDOWS = 3;
+    private static final int LOW_CONTENT_WINDOWS = 3;
+    private static final int FRAME_RATE_STEP = 5;
+
+    public interface OnRateChangeListener {
+        /**
+         * called in drain thread
+         */
+        void onRateChanged(RateDecision decision);
+    }
+
+    private final int minBitRate;
+    private final int maxBitRate;
+    private final int minFrameRate;
+    private final int maxFrameRate;
+
+    private ICodec codec;
+    private RecordPipeline pipeline;
+    private AsyncFileWriter writer;
+    private OnRateChangeListener listener;
+
+    private int bitRate;
+    private int frameRate;
+
+    /* 当前统计周期的累计值 */
+    private long windowStartUs = -1;
+    private long windowBytes;
+    private long windowLatencyUs;
+    private int windowSamples;
+
+    /* 外部设定的上限，在其他线程设置，drain 线程在下一个样本检查 */
+    private volatile int ceilingBitRate = Integer.MAX_VALUE;
+    private volatile int ceilingFrameRate = Integer.MAX_VALUE;
+    private volatile boolean ceilingChanged;
+
+    private int goodWindows;
+    private int lowContentWindows;
+    private volatile RateDecision lastDecision;
+
+    public RateController(int minBitRate, int maxBitRate, int minFrameRate, int maxFrameRate) {
+        this.minBitRate = minBitRate;
+        this.maxBitRate = maxBitRate;
+        this.minFrameRate = minFrameRate;
+        this.maxFrameRate = maxFrameRate;
+        this.bitRate = maxBitRate;
+        this.frameRate = maxFrameRate;
+    }
+
+    /**
+     * 设置调整目标的编码器
+     */
+    public void setCodec(ICodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 设置用于观察堆积情况的队列，可以为 null
+     */
+    public void setQueues(RecordPipeline pipeline, AsyncFileWriter writer) {
+        this.pipeline = pipeline;
+        this.writer = writer;
+    }
+
+    public void setOnRateChangeListener(OnRateChangeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置码率和帧率的上限，例如温控降级，可以在任意线程调用
+     * <br/> 码率上限可以低于 minBitRate，帧率上限可以低于 minFrameRate
+     *
+     * @param bitRate 不限制时为 Integer.MAX_VALUE
+     * @param frameRate 不限制时为 Integer.MAX_VALUE
+     */
+    public void setCeiling(int bitRate, int frameRate) {
+        ceilingBitRate = bitRate;
+        ceilingFrameRate = frameRate;
+        ceilingChanged = true;
+    }
+
+    /**
+     * 每输出一个编码样本调用一次
+     *
+     * @param size 样本字节数
+     * @param ptsUs 样本时间戳
+     * @param nowUs 当前时间，与 Surface 输入的时间戳同一时基
+     */
+    public void onSampleEncoded(int size, long ptsUs, long nowUs) {
+        if (ceilingChanged) {
+            ceilingChanged = false;
+            applyCeiling();
+        }
+        if (windowStartUs < 0) {
+            windowStartUs = nowUs;
+        }
+        windowBytes += size;
+        windowLatencyUs += Math.max(0, nowUs - ptsUs);
+        windowSamples++;
+        if (nowUs - windowStartUs >= WINDOW_US) {
+            evaluate(nowUs - windowStartUs);
+            windowStartUs = nowUs;
+            windowBytes = 0;
+            windowLatencyUs = 0;
+            windowSamples = 0;
+        }
+    }
+
+    private void evaluate(long elapsedUs) {
+        int measuredBitRate = (int) (windowBytes * 8 * 1000000L / elapsedUs);
+        long latencyUs = windowLatencyUs / windowSamples;
+        float queueFill = getQueueFill();
+
+        if (latencyUs > LATENCY_HIGH_US || queueFill > QUEUE_HIGH) {
+            goodWindows = 0;
+            lowContentWindows = 0;
+            if (bitRate > minBitRate) {
+                apply(RateDecision.REASON_CONGESTION, Math.max(minBitRate, bitRate * 4 / 5), frameRate,
+                        measuredBitRate, latencyUs, queueFill);
+            } else if (frameRate > minFrameRate) {
+                apply(RateDecision.REASON_CONGESTION, bitRate, Math.max(minFrameRate, frameRate - FRAME_RATE_STEP),
+                        measuredBitRate, latencyUs, queueFill);
+            }
+            return;
+        }
+
+        if (measuredBitRate < bitRate * LOW_CONTENT_RATIO) {
+            goodWindows = 0;
+            if (++lowContentWindows >= LOW_CONTENT_WINDOWS && bitRate > minBitRate) {
+                lowContentWindows = 0;
+                int target = Math.max(minBitRate, Math.min(bitRate * 4 / 5, measuredBitRate * 2));
+                apply(RateDecision.REASON_LOW_CONTENT, target, frameRate, measuredBitRate, latencyUs, queueFill);
+            }
+            return;
+        }
+        lowContentWindows = 0;
+
+        if (latencyUs < LATENCY_LOW_US && queueFill < QUEUE_LOW && ++goodWindows >= RECOVER_WINDOWS) {
+            goodWindows = 0;
+            int topFrameRate = Math.min(maxFrameRate, ceilingFrameRate);
+            int topBitRate = Math.min(maxBitRate, ceilingBitRate);
+            if (frameRate < topFrameRate) {
+                apply(RateDecision.REASON_RECOVER, bitRate, Math.min(topFrameRate, frameRate + FRAME_RATE_STEP),
+                        measuredBitRate, latencyUs, queueFill);
+            } else if (bitRate < topBitRate) {
+                apply(RateDecision.REASON_RECOVER, Math.min(topBitRate, bitRate + maxBitRate / 10), frameRate,
+                        measuredBitRate, latencyUs, queueFill);
+            }
+        }
+    }
+
+    /**
+     * 当前目标超过上限时立即降到上限
+     */
+    private void applyCeiling() {
+        int newBitRate = Math.min(bitRate, ceilingBitRate);
+        int newFrameRate = Math.min(frameRate, ceilingFrameRate);
+        if (newBitRate != bitRate || newFrameRate != frameRate) {
+            goodWindows = 0;
+            apply(RateDecision.REASON_CEILING, newBitRate, newFrameRate, 0, 0, 0);
+        }
+    }
+
+    private float getQueueFill() {
+        float fill = 0;
+        if (pipeline != null) {
+            fill = (float) pipeline.getQueueDepth() / pipeline.getQueueCapacity();
+        }
+        if (writer != null) {
+            fill = Math.max(fill, (float) writer.getQueueDepth() / writer.getQueueCapacity());
+        }
+        return fill;
+    }
+
+    private void apply(int reason, int newBitRate, int newFrameRate, int measuredBitRate,
+                       long latencyUs, float queueFill) {
+        if (codec != null) {
+            if (newBitRate != bitRate) codec.setVideoBitrate(newBitRate);
+            if (newFrameRate != frameRate) codec.setFrameRate(newFrameRate);
+        }
+        bitRate = newBitRate;
+        frameRate = newFrameRate;
+        RateDecision decision = new RateDecision(reason, newBitRate, newFrameRate, measuredBitRate, latencyUs, queueFill);
+        lastDecision = decision;
+        LogUtil.i(TAG, "{}", decision);
+        if (listener != null) listener.onRateChanged(decision);
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * 最近一次调整，没有调整过时返回 null
+     */
+    public RateDecision getLastDecision() {
+        return lastDecision;
+    }
+}
@@ -0,0 +1,39 @@
+package com.yu.screenrecorder;
+
+/**
+ * 码率控制器做出的一次调整
+ */
+public class RateDecision {
+    /* 调整原因 */
+    public static final int REASON_CONGESTION = 1;   // 编码延迟过高或写入队列堆积，降低
+    public static final int REASON_LOW_CONTENT = 2;  // 画面变化少，实际码率远低于目标，降低
+    public static final int REASON_RECOVER = 3;      // 状态良好，逐步恢复
+    public static final int REASON_CEILING = 4;      // 温控等外部设定的上限降低，立即降到上限
+
+    public final int reason;
+    public final int bitRate;
+    public final int frameRate;
+    /* 做出调整时的测量值 */
+    public final int measuredBitRate;
+    public final long encoderLatencyUs;
+    public final float queueFill;
+
+    public RateDecision(int reason, int bitRate, int frameRate, int measuredBitRate,
+                        long encoderLatencyUs, float queueFill) {
+        this.reason = reason;
+        this.bitRate = bitRate;
+        this.frameRate = frameRate;
+        this.measuredBitRate = measuredBitRate;
+        this.encoderLatencyUs = encoderLatencyUs;
+        this.queueFill = queueFill;
+    }
+
+    @Override
+    public String toString() {
+        String name = reason == REASON_CONGESTION ? "congestion"
+                : reason == REASON_LOW_CONTENT ? "low_content"
+                : reason == REASON_CEILING ? "ceiling" : "recover";
+        return name + " -> " + bitRate + "bps@" + frameRate + "fps (measured " + measuredBitRate
+                + "bps, latency " + encoderLatencyUs / 1000 + "ms, queue " + (int) (queueFill * 100) + "%)";
+    }
+}
@@ -2,7 +2,13 @@ package com.yu.screenrecorder;
 
 import android.app.Application;
 import android.content.Context;
-import android.content.Intent;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 
 
 public class RecordApplication extends Application {
@@ -17,9 +23,51 @@ public class RecordApplication extends Application {
 
   @Override
   public void onCreate() {
+    long begin = StartupTrace.begin("RecordApplication.onCreate");
     super.onCreate();
-    // 启动 Marvel service
-    startService(new Intent(this, RecordService.class));
+    // RecordService 运行在 ":recorder" 进程，两个进程都会创建 Application
+    String processName = getProcessName(getPackageName());
+    boolean mainProcess = processName.equals(getPackageName());
+    if (!BuildConfig.DEBUG) {
+      // 正式版日志写入应用目录下轮转的文件，不同步写 logcat，避免影响录制线程；每个进程写自己的文件
+      AsyncLogWriter writer = new AsyncLogWriter(new File(getFilesDir(), "logs"),
+          mainProcess ? "record.log" : "record_" + processName.substring(processName.indexOf(':') + 1) + ".log");
+      writer.start();
+      LogUtil.setAsyncWriter(writer);
+    }
+    // 不在启动时创建 RecordService，界面绑定或者开始录制时才创建，后台常驻时只占用很少的内存
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      StartupTrace.record(processName + ".fork->Application.onCreate",
+          (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) * 1000000L);
+    }
+    StartupTrace.end("RecordApplication.onCreate", begin);
+  }
+
+  /**
+   * 当前进程名，读取失败时返回 defaultName
+   */
+  private static String getProcessName(String defaultName) {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream("/proc/self/cmdline");
+      byte[] buffer = new byte[256];
+      int length = in.read(buffer);
+      int end = 0;
+      while (end < length && buffer[end] != 0) {
+        end++;
+      }
+      return end > 0 ? new String(buffer, 0, end, "UTF-8") : defaultName;
+    } catch (IOException e) {
+      return defaultName;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
   }
 
   public static RecordApplication getInstance() {
@@ -0,0 +1,81 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制参数
+ */
+public class RecordConfig {
+    /* 输出格式 */
+    public static final int OUTPUT_FORMAT_MP4 = 0;   // MediaMuxer 写 mp4
+    public static final int OUTPUT_FORMAT_H264 = 1;  // H264 裸流，经由独立写线程写入
+    public static final int OUTPUT_FORMAT_FMP4 = 2;  // 分片 mp4，经由独立写线程写入，异常退出时只丢失最后一个分片
+
+    /* 屏幕尺寸，由 setConfig 设置 */
+    public int screenWidth = 720;
+    public int screenHeight = 1080;
+    public int screenDpi = 320;
+    /* 采集档位，录制尺寸、dpi 和码率由 CaptureProfile.apply() 按屏幕尺寸计算 */
+    public int profile = CaptureProfile.PROFILE_720P;
+    /* PROFILE_CUSTOM 时长边的最大值 */
+    public int profileMaxEdge;
+
+    public int width = 720;
+    public int height = 1080;
+    public int dpi = 320;
+    public int bitRate = 5 * 1024 * 1024;
+    public int frameRate = 30;
+    /* 关键帧间隔，秒 */
+    public int iFrameInterval = 1;
+    public String outputPath;
+
+    /* 音频来源 */
+    public static final int AUDIO_SOURCE_NONE = 0;      // 不录音频
+    public static final int AUDIO_SOURCE_MIC = 1;       // 麦克风
+    public static final int AUDIO_SOURCE_PLAYBACK = 2;  // 其他应用播放的声音，需要 10.0 以上，之前的版本使用麦克风
+    public int audioSource = AUDIO_SOURCE_MIC;
+    public int audioSampleRate = 44100;
+    public int audioChannelCount = 1;
+    public int audioBitRate = 128000;
+
+    /* 以下只对 MediaCodec 模式有效 */
+    /* 默认分片 mp4，进程被杀后可以由 RecordingRecovery 修复；OUTPUT_FORMAT_MP4 没有录制日志，中断后无法修复 */
+    public int outputFormat = OUTPUT_FORMAT_FMP4;
+    public int backpressurePolicy = RecordPipeline.BACKPRESSURE_BLOCK;
+    public int queueCapacity = RecordPipeline.DEFAULT_QUEUE_CAPACITY;
+    /* 自适应码率，码率在 [minBitRate, bitRate]，帧率在 [minFrameRate, frameRate] 之间调整 */
+    public boolean adaptiveRate;
+    public int minBitRate = 1024 * 1024;
+    public int minFrameRate = 15;
+    /* 可变帧率，画面没有变化时不编码，需要 6.0 以上；帧率不超过 frameRate */
+    public boolean variableFrameRate;
+    /* 可变帧率时画面不变的最长输出间隔，毫秒，到时输出一个关键帧 */
+    public int maxFrameIntervalMs = 1000;
+    /* 分片 mp4 的分片时长，毫秒 */
+    public int fragmentDurationMs = 2000;
+    /* 录制时在输出文件旁边写关键帧索引（H264 裸流和分片 mp4）和缩略图（需要开启可变帧率） */
+    public boolean sidecarIndex = true;
+    /* 缩略图间隔，毫秒，画面不变时不追加 */
+    public int thumbnailIntervalMs = 5000;
+    public int thumbnailWidth = ThumbnailStrip.DEFAULT_WIDTH;
+    /* 分段录制，达到时长（毫秒）或样本大小（字节）后在下一个关键帧切换到新文件，都为 0 时不分段 */
+    public int segmentDurationMs;
+    public long segmentBytes;
+
+    /* 温控，录制中按电池温度、系统温控状态和电量限制码率、帧率，下一次录制降低采集档位 */
+    public boolean thermalGovernor = true;
+    /* 录制中读取温度的间隔，毫秒 */
+    public int governorIntervalMs = 5000;
+
+    /**
+     * 是否分段录制
+     */
+    public boolean isSegmented() {
+        return segmentDurationMs > 0 || segmentBytes > 0;
+    }
+
+    /**
+     * 输出文件扩展名
+     */
+    public String getFileExtension() {
+        return outputFormat == OUTPUT_FORMAT_H264 ? ".h264" : ".mp4";
+    }
+}
@@ -0,0 +1,215 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 编码输出流水线：drain 线程 -> 有界队列 -> mux 线程 -> 下游 sink
+ * <br/> 作为 {@link ISampleSink} 接在 {@link EncoderEngine} 后面，把样本拷贝到样本池后
+ * 立即返回，封装和写文件都在 "record_mux" 线程以及下游 sink 自己的线程中完成。
+ * 队列满时按背压策略处理，避免存储卡顿直接拖住编码器。
+ */
+public class RecordPipeline implements ISampleSink, Runnable {
+    private static final String TAG = "RecordPipeline";
+
+    /* 背压策略 */
+    public static final int BACKPRESSURE_BLOCK = 0;          // 阻塞 drain 线程直到有空位
+    public static final int BACKPRESSURE_DROP_NON_REFERENCE = 1; // 丢弃到下一个关键帧为止的非关键帧
+    public static final int BACKPRESSURE_FAIL = 2;           // 直接失败，停止写入
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_SAMPLE_CAPACITY = 256 * 1024;
+
+    private static final long IDLE_PARK_NS = 1000000;
+    private static final long FULL_PARK_NS = 100000;
+
+    private final ISampleSink downstream;
+    private final SamplePool pool;
+    private final SpscQueue<Sample> queue;
+    private final int policy;
+    private ICodec codec;
+    private Thread muxThread;
+
+    /* 只在 drain 线程访问 */
+    private boolean waitingForKeyFrame;
+
+    private volatile boolean stopping;
+    private volatile boolean failed;
+    private volatile long droppedSamples;
+    private volatile long blockedNs;
+    private RecorderMetrics metrics;
+
+    public RecordPipeline(ISampleSink downstream, int queueCapacity, int policy) {
+        this(downstream, queueCapacity, policy, DEFAULT_SAMPLE_CAPACITY);
+    }
+
+    /**
+     * @param sampleCapacity 样本池中每个样本预先分配的大小，按该轨道通常的样本大小设置，
+     *                       更大的样本到来时单独扩容
+     */
+    public RecordPipeline(ISampleSink downstream, int queueCapacity, int policy, int sampleCapacity) {
+        this.downstream = downstream;
+        this.queue = new SpscQueue<>(queueCapacity);
+        /* 队列中、mux 线程手上以及 drain 线程正在填充的样本各需要一个 */
+        this.pool = new SamplePool(queue.capacity() + 2, sampleCapacity);
+        this.policy = policy;
+    }
+
+    /**
+     * 设置统计，丢弃的样本计入其中，在 start 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置编码器，丢帧后用于请求关键帧尽快恢复
+     */
+    public void setCodec(ICodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return downstream.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        downstream.start();
+        muxThread = new Thread(this, "record_mux");
+        muxThread.start();
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        if (failed) {
+            drop();
+            return;
+        }
+        if (waitingForKeyFrame) {
+            if (!info.isKeyFrame()) {
+                drop();
+                return;
+            }
+            waitingForKeyFrame = false;
+        }
+        if (queue.isFull()) {
+            if (policy == BACKPRESSURE_FAIL) {
+                LogUtil.e(TAG, "queue full, pipeline failed");
+                failed = true;
+                drop();
+                return;
+            }
+            if (policy == BACKPRESSURE_DROP_NON_REFERENCE && !info.isKeyFrame()) {
+                /* 后续帧都参考被丢弃的帧，一直丢到下一个关键帧 */
+                waitingForKeyFrame = true;
+                drop();
+                if (codec != null) codec.requestSyncFrame();
+                return;
+            }
+        }
+
+        Sample sample;
+        long blockStart = 0;
+        while ((sample = pool.acquire()) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 停止超时，drain 线程被中断，不再等待
+                drop();
+                return;
+            }
+            if (blockStart == 0) blockStart = System.nanoTime();
+            LockSupport.parkNanos(FULL_PARK_NS);
+        }
+        sample.copyFrom(track, buffer, info);
+        while (!queue.offer(sample)) {
+            if (blockStart == 0) blockStart = System.nanoTime();
+            LockSupport.parkNanos(FULL_PARK_NS);
+        }
+        if (blockStart != 0) {
+            blockedNs += System.nanoTime() - blockStart;
+        }
+        LockSupport.unpark(muxThread);
+    }
+
+    /**
+     * 只在 drain 线程调用
+     */
+    private void drop() {
+        droppedSamples++;
+        if (metrics != null) metrics.framesDropped.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Sample sample = queue.poll();
+            if (sample == null) {
+                if (stopping && queue.isEmpty()) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NS);
+                continue;
+            }
+            try {
+                if (!failed) {
+                    downstream.writeSample(sample.track, sample.data, sample.info);
+                }
+            } catch (RuntimeException e) {
+                LogUtil.e(TAG, "write sample failed: " + e.getMessage());
+                failed = true;
+            }
+            pool.release(sample);
+        }
+    }
+
+    /**
+     * 等待队列中的样本全部写完后停止下游
+     */
+    @Override
+    public void stop() {
+        if (muxThread == null) {
+            return;
+        }
+        stopping = true;
+        LockSupport.unpark(muxThread);
+        try {
+            muxThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        muxThread = null;
+        downstream.stop();
+    }
+
+    @Override
+    public void release() {
+        downstream.release();
+    }
+
+    /**
+     * drain 与 mux 之间的队列深度
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * drain 线程因队列满被阻塞的总时间，纳秒
+     */
+    public long getBlockedNs() {
+        return blockedNs;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -1,9 +1,6 @@
 package com.yu.screenrecorder;
 
 import android.annotation.TargetApi;
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -11,40 +8,115 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.MediaRecorder;
 import android.media.projection.MediaProjection;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Debug;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
-import android.widget.RemoteViews;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.util.Locale;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class RecordService extends Service {
+    private static final String TAG = "RecordService";
+    /* 被拒绝的操作直接返回这个结果 */
+    private static final Future<Boolean> REJECTED = completed(false);
+    /* 销毁时等待停止录制的最长时间 */
+    private static final long DESTROY_STOP_TIMEOUT_MS = 3000;
+    /* 默认空闲多久后释放录制资源 */
+    public static final int DEFAULT_IDLE_TIMEOUT_MS = 60000;
+    /* 控制线程没有任务时的存活时间，之后线程退出，有新任务时再创建 */
+    private static final long CONTROL_THREAD_KEEP_ALIVE_MS = 10000;
+
     private MediaProjection mediaProjection;
-    private MediaRecorder mediaRecorder;
+    private volatile IRecordEngine recordEngine;
     private VirtualDisplay virtualDisplay;
 
-    private boolean isRecording;
-    private int width = 720;
-    private int height = 1080;
-    private int dpi;
+    /* 录制状态，所有状态转换都在 recorder_control 线程中进行 */
+    private final RecorderStateMachine stateMachine = new RecorderStateMachine();
+    private static final int DEFAULT_STREAM_PORT = 8090;
+    private int recordMode = IRecorderController.MODE_MEDIA_RECORDER;
+    /* IRecorderController.OUTPUT_* */
+    private int extraOutputs;
+    /* 当前录制引擎是否写文件 */
+    private boolean engineWritesFile;
+    /* 录制引擎分段写文件，分段结束事件由引擎发出 */
+    private boolean engineSegmented;
+    private final RecordConfig config = new RecordConfig();
+    /* 录制时钟，录制时长与样本时间戳都以它为准 */
+    private final RecordingClock clock = new RecordingClock(new ElapsedRealtimeSource(), RecordingClock.MONOTONIC);
+
+    /* 回放缓冲, 只在 MODE_REPLAY_BUFFER 下使用 */
+    private ReplayBuffer replayBuffer;
+    private int replayBufferBytes = 64 * 1024 * 1024;
+    private int replayBufferSeconds = 60;
+    /* 直播服务, 只在 MODE_LIVE_STREAM 下运行 */
+    private volatile StreamServer streamServer;
+    private int streamPort = DEFAULT_STREAM_PORT;
 
     RecordReceiver recordReceiver;
-    NotificationManager manager;
 
-    Handler recordHandler;
+    /* service_thread 以及依赖它的通知和广播，第一次需要时在控制线程创建，空闲超时后释放，释放后为 null */
+    volatile Handler recordHandler;
+    RecordStatusPublisher statusPublisher;
+    private int statusUpdateIntervalMs = RecordStatusPublisher.DEFAULT_INTERVAL_MS;
+    /* 串行执行所有控制操作，空闲时线程退出 */
+    ExecutorService controlExecutor;
+    /* 空闲超时的计时器以及授权回调所在的线程 */
+    private Handler mainHandler;
+    /* 小于等于 0 表示空闲时不释放 */
+    private volatile int idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    /* 最近一次进入空闲的时间 */
+    private volatile long idleSinceMs;
+    /* 温控，与 service_thread 一起创建；录制中在 service_thread 定时读取 */
+    private volatile ThermalGovernor governor;
+    private final RecorderControllerImpl controller = new RecorderControllerImpl();
+    /* 已经准备好编码器、输出文件和虚拟显示，开始录制时只需启动 */
+    private volatile boolean standbyReady;
+    /* 保存目录，第一次使用时确定 */
+    private String saveDirectory;
+    /* 调用 startRecord() 的时间以及到第一帧编码完成的耗时 */
+    private volatile long startRequestedNs;
+    private volatile long firstFrameLatencyNs = -1;
+    /* 录制统计，服务存活期间一直累计 */
+    final RecorderMetrics metrics = new RecorderMetrics();
+    /* 编码器能力，5.0 以下无法查询时为 null */
+    private EncoderCapabilityCache capabilityCache;
+    /* 跨进程的控制接口以及与客户端共享的录制状态，状态文件创建失败时为 null */
+    private RemoteRecorderBinder remoteBinder;
+    private StatusBlock statusBlock;
+    private final RecorderStatus status = new RecorderStatus();
+    /* 计算码率用的上一次编码字节数和时间，与 status 一起加锁 */
+    private long lastBytesEncoded;
+    private long lastBitRateTimeMs;
 
     @Override
     public IBinder onBind(Intent intent) {
-        return new RecorderControllerImpl();
+        if (RemoteRecorderClient.ACTION_BIND.equals(intent.getAction())) {
+            return remoteBinder;
+        }
+        return controller;
     }
 
     @Override
@@ -54,184 +126,820 @@ public class RecordService extends Service {
 
     @Override
     public void onCreate() {
+        long begin = StartupTrace.begin("RecordService.onCreate");
         super.onCreate();
-        LogUtil.e("TAG", "RecordService onCreate");
+        LogUtil.d(TAG, "RecordService onCreate");
+        // 这里只创建轻量的对象，录制用的线程、通知和编码器在第一次使用时创建
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                CONTROL_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "recorder_control");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        controlExecutor = executor;
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        File statusFile = new File(getFilesDir(), "recorder.status");
+        try {
+            statusBlock = new StatusBlock(statusFile);
+            writeStatus();
+        } catch (IOException e) {
+            LogUtil.e(TAG, "create status block failed: " + e.getMessage());
+        }
+        remoteBinder = new RemoteRecorderBinder(this, controller, statusFile, HandlerExecutor.mainThread());
+
+        // 上次录制中进程被杀时留下了日志，在开始新的录制之前修复
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                recoverInterruptedRecordings();
+            }
+        });
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // 缓存文件在获得授权、创建录制资源时才读取
+            capabilityCache = createCapabilityCache();
+        }
+        scheduleIdleRelease();
+        StartupTrace.end("RecordService.onCreate", begin);
+    }
+
+    /**
+     * 创建 service_thread、前台通知和停止录制的广播，已经创建时直接返回，在控制线程调用
+     */
+    private void createResources() {
+        if (recordHandler != null) {
+            return;
+        }
+        long begin = StartupTrace.begin("RecordService.createResources");
         HandlerThread recordThread = new HandlerThread("service_thread",
                 android.os.Process.THREAD_PRIORITY_BACKGROUND);
         recordThread.start();
-        recordHandler = new Handler(recordThread.getLooper());
-        isRecording = false;
-        mediaRecorder = new MediaRecorder();
-
+        Handler handler = new Handler(recordThread.getLooper());
+        statusPublisher = new RecordStatusPublisher(this, handler, clock);
+        statusPublisher.setMetrics(metrics);
+        statusPublisher.setUpdateInterval(statusUpdateIntervalMs);
+        statusPublisher.setCallback(new RecordStatusPublisher.Callback() {
+            @Override
+            public void onStatusUpdate(CharSequence time) {
+                publishStatus(time);
+            }
+        });
         registerRecordReceiver();
+        if (governor == null) {
+            ThermalGovernor thermal = new ThermalGovernor(new DeviceSensorSource(this));
+            thermal.setOnLevelChangeListener(governorListener);
+            governor = thermal;
+        }
+        recordHandler = handler;
+        if (capabilityCache != null) {
+            // 第一次录制前就能知道编码器的限制
+            capabilityCache.load();
+            LogUtil.d(TAG, "encoder capabilities loaded in {}us", capabilityCache.getLoadTimeNanos() / 1000);
+        }
+        StartupTrace.end("RecordService.createResources", begin);
+    }
+
+    /**
+     * 释放 createResources 创建的资源，在控制线程调用；service_thread 中已经提交的任务会执行完
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void releaseResources() {
+        Handler handler = recordHandler;
+        if (handler == null) {
+            return;
+        }
+        recordHandler = null;
+        statusPublisher.stop();
+        statusPublisher = null;
+        unregisterRecordReceiver();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            handler.getLooper().quitSafely();
+        } else {
+            handler.getLooper().quit();
+        }
+    }
+
+    /**
+     * 重新开始空闲计时，录制结束、进入待机等之后调用
+     */
+    private void scheduleIdleRelease() {
+        idleSinceMs = SystemClock.elapsedRealtime();
+        mainHandler.removeCallbacks(idleCheck);
+        if (idleTimeoutMs > 0) {
+            mainHandler.postDelayed(idleCheck, idleTimeoutMs);
+        }
+    }
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    releaseIfIdle();
+                }
+            });
+        }
+    };
+
+    /**
+     * 空闲超时后释放待机的编码器和虚拟显示、回放缓冲、直播服务以及 service_thread，保留授权，在控制线程调用
+     * <br/> 之后没有客户端绑定时服务退出
+     */
+    private void releaseIfIdle() {
+        int timeout = idleTimeoutMs;
+        long idleMs = SystemClock.elapsedRealtime() - idleSinceMs;
+        if (timeout <= 0 || idleMs < timeout || !stateMachine.isIn(RecorderStateMachine.STATE_IDLE)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        releaseStandby();
+        stopStreamServer();
+        replayBuffer = null;
+        releaseResources();
+        LogUtil.i(TAG, "idle for " + idleMs + "ms, resources released in {}us", (System.nanoTime() - begin) / 1000);
+        stopSelf();
+    }
+
+    /**
+     * 设置空闲超时，立即重新计时
+     */
+    private void setIdleTimeout(int timeoutMs) {
+        idleTimeoutMs = timeoutMs;
+        scheduleIdleRelease();
+    }
+
+    /**
+     * 修复保存目录中被打断的录制，在控制线程调用
+     */
+    private void recoverInterruptedRecordings() {
+        if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+            return;
+        }
+        File dir = new File(Environment.getExternalStorageDirectory(), "ScreenRecord");
+        for (RecordingRecovery.Result result : new RecordingRecovery().recoverAll(dir)) {
+            postEvent(RecorderEvent.TYPE_RECOVERED, result.file.getAbsolutePath(), result);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private EncoderCapabilityCache createCapabilityCache() {
+        return new EncoderCapabilityCache(new File(getFilesDir(), "encoder_caps.bin"), Build.FINGERPRINT,
+                new MediaCodecCapabilityProbe());
     }
 
     /**
-     * 设置允许应用程序捕获屏幕内容和/或记录系统音频的一个标记
+     * 设置允许应用程序捕获屏幕内容和/或记录系统音频的一个标记，同时准备待机录制
      */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private void setMediaProject(MediaProjection project) {
+        if (project == mediaProjection) {
+            return;
+        }
+        releaseStandby();
+        if (mediaProjection != null) {
+            mediaProjection.unregisterCallback(projectionCallback);
+            mediaProjection.stop();
+        }
         mediaProjection = project;
+        if (project != null) {
+            if (projectionCallback == null) {
+                projectionCallback = createProjectionCallback();
+            }
+            // 回调只是转到控制线程，放在主线程，service_thread 释放后仍然有效
+            project.registerCallback(projectionCallback, mainHandler);
+            createResources();
+        }
+        prepareStandby();
+    }
+
+    /* 授权被系统或用户撤销时释放待机资源 */
+    private MediaProjection.Callback projectionCallback;
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private MediaProjection.Callback createProjectionCallback() {
+        return new MediaProjection.Callback() {
+            @Override
+            public void onStop() {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // 先清空，避免停止录制后用失效的授权重新进入待机
+                        if (mediaProjection != null) {
+                            mediaProjection.unregisterCallback(projectionCallback);
+                            mediaProjection = null;
+                        }
+                        if (stateMachine.isActive()) {
+                            RecordService.this.stopRecord();
+                        }
+                        releaseStandby();
+                    }
+                });
+            }
+        };
     }
 
     private boolean isRecording() {
-        return isRecording;
+        return stateMachine.isActive();
     }
 
     /**
-     * 配置宽高以及分辨率
+     * 配置屏幕宽高以及分辨率，实际录制尺寸由采集档位决定
      */
     private void setConfig(int width, int height, int dpi) {
-        this.width = width;
-        this.height = height;
-        this.dpi = dpi;
-    }
-
-    /**
-     * 初始化Recorder
-     */
-    private void initRecorder() {
-        // 设置音频源
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        // 设置视频源
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        // 设置输出文件的格式
-        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-        // 设置输出文件
-        mediaRecorder.setOutputFile(getSaveDirectory() + System.currentTimeMillis() + ".mp4");
-        // 设置视频的宽高
-        mediaRecorder.setVideoSize(width, height);
-        // 设置音频编码器
-        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
-        // 设置视频编码器
-        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        // 设置视频编码比特率
-        mediaRecorder.setVideoEncodingBitRate(5 * 1024 * 1024);// Call this method before prepare().
-        // 设置要捕捉的视频帧率
-        mediaRecorder.setVideoFrameRate(30); // Must be called after setVideoSource(). Call this after setOutFormat() but before prepare()
+        config.screenWidth = width;
+        config.screenHeight = height;
+        config.screenDpi = dpi;
+        refreshStandby();
+    }
+
+    /**
+     * 设置采集档位，下次开始录制时生效
+     */
+    private void setCaptureProfile(int profile, int maxEdge) {
+        config.profile = profile;
+        config.profileMaxEdge = maxEdge;
+        refreshStandby();
+    }
+
+    /**
+     * 设置录制模式，下次开始录制时生效
+     */
+    private void setRecordMode(int mode) {
+        recordMode = mode;
+        if ((getOutputs() & IRecorderController.OUTPUT_LIVE_STREAM) == 0) {
+            stopStreamServer();
+        }
+        refreshStandby();
+    }
+
+    /**
+     * 设置附加输出，下次开始录制时生效
+     */
+    private void setExtraOutputs(int outputs) {
+        extraOutputs = outputs;
+        if ((getOutputs() & IRecorderController.OUTPUT_LIVE_STREAM) == 0) {
+            stopStreamServer();
+        }
+        refreshStandby();
+    }
+
+    /**
+     * 录制模式本身的输出加上附加输出
+     */
+    private int getOutputs() {
+        switch (recordMode) {
+            case IRecorderController.MODE_REPLAY_BUFFER:
+                return IRecorderController.OUTPUT_REPLAY_BUFFER | extraOutputs;
+            case IRecorderController.MODE_LIVE_STREAM:
+                return IRecorderController.OUTPUT_LIVE_STREAM | extraOutputs;
+            case IRecorderController.MODE_MEDIA_CODEC:
+                return IRecorderController.OUTPUT_FILE | extraOutputs;
+            default:
+                return IRecorderController.OUTPUT_FILE;
+        }
+    }
+
+    private void setStreamPort(int port) {
+        if (streamPort == port) {
+            return;
+        }
+        streamPort = port;
+        stopStreamServer();
+        refreshStandby();
+    }
+
+    /**
+     * 设置录制时长回调和通知的更新间隔，下次开始录制时生效
+     */
+    private void setStatusUpdateInterval(int intervalMs) {
+        statusUpdateIntervalMs = intervalMs;
+        if (statusPublisher != null) {
+            statusPublisher.setUpdateInterval(intervalMs);
+        }
+    }
+
+    private void setOutputFormat(int format) {
+        config.outputFormat = format;
+        refreshStandby();
+    }
+
+    private void setSegmentLimits(int durationMs, long bytes) {
+        config.segmentDurationMs = Math.max(0, durationMs);
+        config.segmentBytes = Math.max(0, bytes);
+        refreshStandby();
+    }
+
+    private void setVariableFrameRate(boolean enabled, int maxIntervalMs) {
+        config.variableFrameRate = enabled;
+        config.maxFrameIntervalMs = maxIntervalMs;
+        refreshStandby();
+    }
+
+    private void setAudioSource(int source) {
+        config.audioSource = source;
+        refreshStandby();
+    }
+
+    private void setBackpressurePolicy(int policy) {
+        config.backpressurePolicy = policy;
+        refreshStandby();
+    }
+
+    private void setAdaptiveRate(boolean enabled, int minBitRate, int minFrameRate) {
+        config.adaptiveRate = enabled;
+        config.minBitRate = minBitRate;
+        config.minFrameRate = minFrameRate;
+        refreshStandby();
+    }
+
+    /**
+     * 获取最近一次码率调整，没有时返回null
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private RateDecision getLastRateDecision() {
+        IRecordEngine engine = recordEngine;
+        if (engine instanceof MediaCodecEngine) {
+            return ((MediaCodecEngine) engine).getLastRateDecision();
+        }
+        return null;
+    }
+
+    /**
+     * 获取流水线状态，没有使用流水线时返回null
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private PipelineStats getPipelineStats() {
+        IRecordEngine engine = recordEngine;
+        if (engine instanceof MediaCodecEngine) {
+            PipelineStats stats = new PipelineStats();
+            if (((MediaCodecEngine) engine).getPipelineStats(stats)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取录制统计快照
+     */
+    private RecorderStats getStats() {
+        RecorderStats stats = metrics.snapshot();
+        stats.state = stateMachine.getState();
+        stats.droppedEvents = eventBus.getDroppedEvents();
+        stats.pipeline = getPipelineStats();
+        StreamServer server = streamServer;
+        if (server != null) {
+            stats.streamClients = server.getClientCount();
+        }
+        return stats;
+    }
+
+    /**
+     * adb shell dumpsys activity service com.yu.screenrecorder/.RecordService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("RecordService:");
+        getStats().dump(writer, "  ");
+        writer.println("Startup:");
+        StartupTrace.dump(writer, "  ");
+        ThermalGovernor thermal = governor;
+        if (thermal != null) {
+            writer.println("Thermal: " + ThermalGovernor.nameOf(thermal.getLevel()) + ", last " + thermal.getLastDecision());
+        }
+        writer.println("Idle: timeout=" + idleTimeoutMs + "ms resources="
+                + (recordHandler != null ? "created" : "released") + " pss=" + Debug.getPss() + "KB");
+    }
+
+    /**
+     * 设置回放缓冲大小，下次开始录制时生效
+     */
+    private void setReplayBufferConfig(int maxBytes, int maxSeconds) {
+        replayBufferBytes = maxBytes;
+        replayBufferSeconds = maxSeconds;
+        refreshStandby();
+    }
+
+    /**
+     * 按录制模式和附加输出创建录制引擎，MediaCodec 模式需要 5.0 以上
+     */
+    private IRecordEngine createRecordEngine() {
+        engineWritesFile = true;
+        engineSegmented = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && recordMode != IRecorderController.MODE_MEDIA_RECORDER) {
+            int outputs = getOutputs();
+            List<ISampleSink> sinks = new ArrayList<>();
+            if ((outputs & IRecorderController.OUTPUT_REPLAY_BUFFER) != 0) {
+                sinks.add(obtainReplayBuffer());
+            }
+            if ((outputs & IRecorderController.OUTPUT_LIVE_STREAM) != 0) {
+                StreamServer server = obtainStreamServer();
+                if (server != null) {
+                    sinks.add(new FragmentedMp4Sink(new StreamOutput(server), config.fragmentDurationMs * 1000L));
+                }
+            }
+            /* 直播启动失败并且没有其他输出时改为写文件 */
+            engineWritesFile = (outputs & IRecorderController.OUTPUT_FILE) != 0 || sinks.isEmpty();
+            engineSegmented = engineWritesFile && config.isSegmented();
+            MediaCodecEngine engine = new MediaCodecEngine(sinks.toArray(new ISampleSink[sinks.size()]), engineWritesFile);
+            engine.setOnRateChangeListener(rateListener);
+            engine.setOnSegmentClosedListener(segmentListener);
+            engine.setClock(clock);
+            engine.setMetrics(metrics);
+            return engine;
+        }
+        return new MediaRecorderEngine();
+    }
+
+    /**
+     * 获取直播服务，没有运行时启动，端口被占用等启动失败时返回 null，改为录制到文件
+     */
+    private StreamServer obtainStreamServer() {
+        if (streamServer == null) {
+            StreamServer server = new StreamServer(streamPort);
+            server.setMetrics(metrics);
+            try {
+                server.start();
+            } catch (IOException e) {
+                LogUtil.e(TAG, "start stream server failed: " + e.getMessage());
+                postEvent(RecorderEvent.TYPE_ERROR, "start stream server failed: " + e.getMessage(), null);
+                return null;
+            }
+            streamServer = server;
+        }
+        return streamServer;
+    }
+
+    private void stopStreamServer() {
+        if (streamServer != null) {
+            streamServer.stop();
+            streamServer = null;
+        }
+    }
+
+    /**
+     * 获取清空后的回放缓冲，大小改变时重新分配
+     */
+    private ReplayBuffer obtainReplayBuffer() {
+        long maxDurationUs = replayBufferSeconds * 1000000L;
+        if (replayBuffer == null || replayBuffer.getCapacityBytes() != replayBufferBytes
+                || replayBuffer.getMaxDurationUs() != maxDurationUs) {
+            // 每秒最多按 120 个样本估算索引大小
+            replayBuffer = new ReplayBuffer(replayBufferBytes, replayBufferSeconds * 120, maxDurationUs);
+        } else {
+            replayBuffer.clear();
+        }
+        return replayBuffer;
+    }
+
+    /**
+     * 在 service_thread 中把回放缓冲保存到文件，不占用控制线程
+     *
+     * @return 保存结果，没有可保存的内容时为false
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private Future<Boolean> saveReplay() {
+        final ReplayBuffer buffer = replayBuffer;
+        Handler handler = recordHandler;
+        if (buffer == null || buffer.isEmpty() || handler == null) {
+            return REJECTED;
+        }
+        FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                String path = getSaveDirectory() + "replay_" + System.currentTimeMillis() + ".mp4";
+                MediaMuxerSink sink = null;
+                try {
+                    sink = new MediaMuxerSink(path);
+                    int count = buffer.saveTo(sink);
+                    LogUtil.i(TAG, "saveReplay() {} samples to {}", count, path);
+                    postEvent(RecorderEvent.TYPE_SEGMENT_CLOSED, path, null);
+                    return true;
+                } catch (IOException | IllegalStateException e) {
+                    LogUtil.e(TAG, "saveReplay() failed: " + e.getMessage());
+                    postEvent(RecorderEvent.TYPE_ERROR, "save replay failed: " + e.getMessage(), null);
+                    return false;
+                } finally {
+                    if (sink != null) sink.release();
+                }
+            }
+        });
+        handler.post(task);
+        return task;
+    }
+
+    /**
+     * 初始化录制引擎
+     *
+     * @return 成功返回true
+     */
+    private boolean initRecorder() {
+        if (saveDirectory == null) {
+            saveDirectory = getSaveDirectory();
+        }
+        config.outputPath = saveDirectory + System.currentTimeMillis() + config.getFileExtension();
+        // 温度较高时降低采集档位，录制中只能调整码率和帧率
+        int profileSteps = 0;
+        ThermalGovernor thermal = governor;
+        if (config.thermalGovernor && thermal != null) {
+            thermal.update();
+            profileSteps = thermal.getProfileSteps();
+        }
+        CaptureProfile.apply(config, profileSteps);
+        EncoderCapabilities caps = capabilityCache != null ? capabilityCache.get(TrackFormat.MIME_AVC) : null;
+        if (caps != null && caps.fit(config)) {
+            LogUtil.i(TAG, "config adjusted to encoder {}", caps.codecName);
+        }
+        if (LogUtil.isLoggable(LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "capture " + CaptureProfile.nameOf(config.profile) + " " + config.width + "x" + config.height
+                    + " dpi " + config.dpi + " bitrate " + config.bitRate);
+        }
+        recordEngine = createRecordEngine();
         try {
-            mediaRecorder.prepare(); // Prepares the recorder to begin capturing and encoding data
+            recordEngine.prepare(config);
         } catch (IOException e) {
-            e.printStackTrace();
+            LogUtil.e(TAG, "prepare record engine failed: " + e.getMessage());
+            releaseRecorder();
+            return false;
         }
+        return true;
     }
 
 
     /**
-     * 开始录制
+     * 开始录制，在控制线程中调用
      *
      * @return 成功返回true
      */
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private boolean startRecord() {
-        if (mediaProjection == null || isRecording) {
+        if (mediaProjection == null
+                || !stateMachine.transition(RecorderStateMachine.STATE_IDLE, RecorderStateMachine.STATE_PREPARING)) {
             return false;
         }
+        mainHandler.removeCallbacks(idleCheck);
+        createResources();
+        // 录制期间即使界面解绑服务也要继续运行，空闲释放资源后 stopSelf
+        startService(new Intent(this, RecordService.class));
 
-        initRecorder();
-        createVirtualDisplay();
-        mediaRecorder.start();
-        isRecording = true;
-        sendRecordingNotification("");
-        if (listener!=null) listener.onRecordStart();
-        recordHandler.post(new TimerRunnable());
+        // 正常情况下待机录制已经准备好，这里只是兜底
+        if (!standbyReady && !prepareStandbyLocked()) {
+            fail(RecorderStateMachine.STATE_PREPARING, "prepare record engine failed");
+            return false;
+        }
+        standbyReady = false;
+        try {
+            clock.start();
+            recordEngine.start();
+            // 编码器启动之后再把屏幕内容接到输入 Surface
+            virtualDisplay.setSurface(recordEngine.getInputSurface());
+        } catch (RuntimeException e) {
+            clock.stop();
+            releaseVirtualDisplay();
+            releaseRecorder();
+            fail(RecorderStateMachine.STATE_PREPARING, "start record engine failed: " + e.getMessage());
+            return false;
+        }
+        firstFrameLatencyNs = -1;
+        stateMachine.transition(RecorderStateMachine.STATE_PREPARING, RecorderStateMachine.STATE_RECORDING);
+        long startLatencyUs = stateMachine.getLastDurationNanos(RecorderStateMachine.STATE_PREPARING) / 1000;
+        metrics.startLatencyUs.record(startLatencyUs);
+        metrics.recordings.incrementAndGet();
+        LogUtil.d(TAG, "start latency {}us", startLatencyUs);
+        pipelineFailureReported = false;
+        postEvent(RecorderEvent.TYPE_START, config.outputPath, null);
+        statusPublisher.start();
+        startGovernor();
         return true;
     }
 
     /**
-     * 将数字转化为时间显示
-     * @param count
-     * @return 时间字符串表示
+     * 结束录制，在控制线程中调用
+     *
+     * @return 成功返回 true
      */
-    private String getStringTime(int count) {
-        int hour = count / 3600;
-        int min = count % 3600 / 60;
-        int second = count % 60;
-        return String.format(Locale.CHINA, "%02d:%02d:%02d", hour, min, second);
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean stopRecord() {
+        int from = stateMachine.getState();
+        if (from != RecorderStateMachine.STATE_RECORDING && from != RecorderStateMachine.STATE_PAUSED) {
+            return false;
+        }
+        if (!stateMachine.transition(from, RecorderStateMachine.STATE_STOPPING)) {
+            return false;
+        }
+        statusPublisher.stop();
+        stopGovernor();
+        checkFirstFrame();
+        boolean stopped = true;
+        try {
+            recordEngine.stop();
+        } catch (RuntimeException e) {
+            // 例如 MediaRecorder 还没有收到任何数据就被停止
+            LogUtil.e(TAG, "stop record engine failed: " + e.getMessage());
+            stopped = false;
+        }
+        clock.stop();
+        releaseVirtualDisplay();
+        releaseRecorder();
+        if (!stopped) {
+            fail(RecorderStateMachine.STATE_STOPPING, "stop record engine failed");
+            return false;
+        }
+        stateMachine.transition(RecorderStateMachine.STATE_STOPPING, RecorderStateMachine.STATE_IDLE);
+        long stopLatencyUs = stateMachine.getLastDurationNanos(RecorderStateMachine.STATE_STOPPING) / 1000;
+        metrics.stopLatencyUs.record(stopLatencyUs);
+        LogUtil.d(TAG, "stop latency {}us", stopLatencyUs);
+        postEvent(RecorderEvent.TYPE_STOP, null, null);
+        // 分段录制时每个分段由 segmentListener 发出，包括最后一个
+        if (engineWritesFile && !engineSegmented) {
+            postEvent(RecorderEvent.TYPE_SEGMENT_CLOSED, config.outputPath, null);
+        }
+        // 授权仍然有效，为下一次录制准备好待机；放到控制线程的下一个任务中，不计入停止耗时
+        execute(prepareStandbyTask);
+        scheduleIdleRelease();
+        return true;
     }
 
     /**
-     * 计时
+     * 进入错误状态，发出错误事件后回到空闲状态
      */
-    private class TimerRunnable implements Runnable {
-        private int counter = 0;
+    private void fail(int from, String message) {
+        stateMachine.transition(from, RecorderStateMachine.STATE_ERROR);
+        postEvent(RecorderEvent.TYPE_ERROR, message, null);
+        stateMachine.transition(RecorderStateMachine.STATE_ERROR, RecorderStateMachine.STATE_IDLE);
+        scheduleIdleRelease();
+    }
 
-        @Override
-        public void run() {
-            if (isRecording) {
-                String time = getStringTime(counter);
-                sendRecordingNotification(time);
-                if (listener!=null) listener.onRecordUpdate(time);
-                ++counter;
-                recordHandler.postDelayed(this, 1000);
-            }
+    /**
+     * 暂停录制，暂停期间不计入录制时长，也不写入输出文件，在控制线程中调用
+     *
+     * @return 成功返回 true
+     */
+    private boolean pauseRecord() {
+        if (!stateMachine.isIn(RecorderStateMachine.STATE_RECORDING)) {
+            return false;
         }
+        if (!recordEngine.pause() || !clock.pause()) {
+            return false;
+        }
+        stateMachine.transition(RecorderStateMachine.STATE_RECORDING, RecorderStateMachine.STATE_PAUSED);
+        statusPublisher.setPaused(true);
+        postEvent(RecorderEvent.TYPE_PAUSE, null, null);
+        return true;
     }
 
     /**
-     * 结束录制
+     * 恢复录制，在控制线程中调用
      *
      * @return 成功返回 true
      */
+    private boolean resumeRecord() {
+        if (!stateMachine.isIn(RecorderStateMachine.STATE_PAUSED)) {
+            return false;
+        }
+        clock.resume();
+        recordEngine.resume();
+        stateMachine.transition(RecorderStateMachine.STATE_PAUSED, RecorderStateMachine.STATE_RECORDING);
+        statusPublisher.setPaused(false);
+        postEvent(RecorderEvent.TYPE_RESUME, null, null);
+        return true;
+    }
+
+    private final Runnable prepareStandbyTask = new Runnable() {
+        @Override
+        public void run() {
+            prepareStandby();
+        }
+    };
+
+    /**
+     * 准备待机录制：创建并 prepare 录制引擎、创建输出文件以及不带 Surface 的虚拟显示，在控制线程中调用
+     */
+    private void prepareStandby() {
+        if (mediaProjection == null || standbyReady || !stateMachine.isIn(RecorderStateMachine.STATE_IDLE)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        if (prepareStandbyLocked()) {
+            LogUtil.d(TAG, "standby ready in {}us, output {}", (System.nanoTime() - begin) / 1000, config.outputPath);
+            scheduleIdleRelease();
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private boolean stopRecord() {
-        if (!isRecording) {
+    private boolean prepareStandbyLocked() {
+        if (!initRecorder()) {
             return false;
         }
-        cancelRecordingNotification();
-        isRecording = false;
-        mediaRecorder.stop();
-        mediaRecorder.reset();
-        virtualDisplay.release();
-        mediaProjection.stop();
-        if (listener!=null) listener.onRecordStop();
-        LogUtil.e("TAG", "stopRecord()");
+        try {
+            createVirtualDisplay();
+        } catch (RuntimeException e) {
+            LogUtil.e(TAG, "create virtual display failed: " + e.getMessage());
+            releaseStandby();
+            return false;
+        }
+        standbyReady = true;
+        writeStatus();
         return true;
     }
 
     /**
-     * 释放MediaRecorder资源
-     * <br/>call this method after {@link #stopRecord()}
-     *
-     * @see #stopRecord()
+     * 释放待机录制的资源并删除还没有写入的输出文件和它的索引
      */
-    private void releaseRecorder() {
-        if (mediaRecorder != null) mediaRecorder.release();
+    private void releaseStandby() {
+        releaseVirtualDisplay();
+        if (recordEngine != null) {
+            releaseRecorder();
+            if (config.outputPath != null) {
+                File output = new File(config.outputPath);
+                if (!output.delete()) {
+                    LogUtil.w(TAG, "delete unused output {} failed", config.outputPath);
+                }
+                KeyframeIndex.indexOf(output).delete();
+                ThumbnailStrip.stripOf(output).delete();
+            }
+        }
+        standbyReady = false;
+        writeStatus();
     }
 
     /**
-     * 当开始录屏（{@link #startRecord()}被调用）的时候发送录屏通知
-     * 在通知上可以点击停止录屏
+     * 配置变化后按新配置重新准备待机录制
      */
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private void sendRecordingNotification(String time) {
-        LogUtil.e("TAG", "sendRecordingNotification()");
-        manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        /* 发送广播的意图 */
-        Intent i = new Intent();
-        i.setAction("com.yu.screenrecorder.RecordService.action_stop_record");
-        PendingIntent pi = PendingIntent.getBroadcast(RecordService.this, 1, i, PendingIntent.FLAG_CANCEL_CURRENT);
+    private void refreshStandby() {
+        if (standbyReady) {
+            releaseStandby();
+            prepareStandby();
+        }
+    }
 
-        RemoteViews remoteViews = new RemoteViews(getPackageName(), R.layout.item_view_remote);
-        remoteViews.setOnClickPendingIntent(R.id.id_btn_stop_noti, pi); // 给停止按钮添加点击事件
-        remoteViews.setTextViewText(R.id.id_tv_title_noti, "正在录制:" + time);
-        Notification noti = new Notification.Builder(this)
-                .setSmallIcon(R.mipmap.ic_launcher)  // 记得设置icon，不然通知发送无效
-                .setContent(remoteViews)
-                .setAutoCancel(true)
-                .setWhen(System.currentTimeMillis())
-                .build();
-        startForeground(1, noti);
-        manager.notify(1, noti);
+    /**
+     * 第一帧编码完成后记录从调用 startRecord() 开始的耗时，在 service_thread 或者停止录制时调用
+     */
+    private void checkFirstFrame() {
+        IRecordEngine engine = recordEngine;
+        if (firstFrameLatencyNs >= 0 || engine == null) {
+            return;
+        }
+        long firstFrameNs = engine.getFirstFrameTimeNanos();
+        if (firstFrameNs >= 0) {
+            firstFrameLatencyNs = firstFrameNs - startRequestedNs;
+            metrics.firstFrameLatencyUs.record(firstFrameLatencyNs / 1000);
+            LogUtil.i(TAG, "start to first frame {}us", firstFrameLatencyNs / 1000);
+        }
     }
 
-    @TargetApi(Build.VERSION_CODES.ECLAIR)
-    private void cancelRecordingNotification() {
-        if (manager != null) {
-            stopForeground(true);
-            manager.cancel(1);
+    private void releaseVirtualDisplay() {
+        if (virtualDisplay != null) virtualDisplay.release();
+        virtualDisplay = null;
+    }
+
+    /**
+     * 在控制线程中执行，线程已经关闭时直接返回false
+     */
+    private Future<Boolean> submit(Callable<Boolean> task) {
+        try {
+            return controlExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return REJECTED;
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            controlExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LogUtil.w(TAG, "control executor is shut down");
         }
     }
 
+    private static Future<Boolean> completed(final boolean result) {
+        FutureTask<Boolean> future = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return result;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * 释放录制引擎资源
+     * <br/>call this method after {@link #stopRecord()}
+     *
+     * @see #stopRecord()
+     */
+    private void releaseRecorder() {
+        if (recordEngine != null) recordEngine.release();
+        recordEngine = null;
+    }
 
     /**
      * 注册广播
@@ -240,25 +948,26 @@ public class RecordService extends Service {
     private void registerRecordReceiver() {
         recordReceiver = new RecordReceiver();
         IntentFilter filter = new IntentFilter();
-        filter.addAction("com.yu.screenrecorder.RecordService.action_stop_record");
+        filter.addAction(RecordStatusPublisher.ACTION_STOP_RECORD);
         registerReceiver(recordReceiver, filter);
     }
 
     private void unregisterRecordReceiver() {
         if (recordReceiver != null) unregisterReceiver(recordReceiver);
+        recordReceiver = null;
     }
 
 
     /**
-     * 创建一个虚拟显示来捕捉屏幕的内容
+     * 创建一个虚拟显示来捕捉屏幕的内容，待机时先不设置 Surface，开始录制时再接上
      */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private void createVirtualDisplay() {
         // VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR 参数是指创建屏幕镜像，所以我们实际录制内容的是屏幕镜像，
         // 但内容和实际屏幕是一样的，并且这里我们把 VirtualDisplay 的渲染目标 Surface 设置为
-        // MediaRecorder.getSurface的surface，之后通过 MediaRecorder 将屏幕内容录制下来，并且存成 video 文件
-        virtualDisplay = mediaProjection.createVirtualDisplay("MainScreen", width, height, dpi,
-                DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR, mediaRecorder.getSurface(), null, null);
+        // 录制引擎的输入surface，之后通过录制引擎将屏幕内容编码下来，并且存成 video 文件
+        virtualDisplay = mediaProjection.createVirtualDisplay("MainScreen", config.width, config.height, config.dpi,
+                DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR, null, null, null);
     }
 
 
@@ -279,37 +988,257 @@ public class RecordService extends Service {
                 }
             }
 
-            Toast.makeText(getApplicationContext(), "savedDir=" + savedDir, Toast.LENGTH_LONG).show();
+            showToast("savedDir=" + savedDir);
             return savedDir;
         }
 
         return null;
     }
 
+    /**
+     * 在主线程中显示提示，可以在任意线程调用
+     */
+    private void showToast(final String text) {
+        HandlerExecutor.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), text, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
     /**
      * 控制器
      */
     private class RecorderControllerImpl extends Binder implements IRecorderController {
 
         @Override
-        public void startRecord() {
-            recordHandler.post(new Runnable() {
+        public Future<Boolean> startRecord() {
+            // 先在调用线程做一次廉价检查，明显非法的请求不进入控制线程
+            if (!stateMachine.isIn(RecorderStateMachine.STATE_IDLE)) {
+                return REJECTED;
+            }
+            startRequestedNs = System.nanoTime();
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return RecordService.this.startRecord();
+                }
+            });
+        }
+
+        @Override
+        public Future<Boolean> stopRecord() {
+            if (!stateMachine.isActive()) {
+                return REJECTED;
+            }
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return RecordService.this.stopRecord();
+                }
+            });
+        }
+
+        @Override
+        public Future<Boolean> pauseRecord() {
+            if (!stateMachine.isIn(RecorderStateMachine.STATE_RECORDING)) {
+                return REJECTED;
+            }
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return RecordService.this.pauseRecord();
+                }
+            });
+        }
+
+        @Override
+        public Future<Boolean> resumeRecord() {
+            if (!stateMachine.isIn(RecorderStateMachine.STATE_PAUSED)) {
+                return REJECTED;
+            }
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return RecordService.this.resumeRecord();
+                }
+            });
+        }
+
+        @Override
+        public int getState() {
+            return stateMachine.getState();
+        }
+
+        @Override
+        public boolean isStandby() {
+            return standbyReady;
+        }
+
+        @Override
+        public void setConfig(final int width, final int height, final int dpi) {
+            execute(new Runnable() {
                 @Override
                 public void run() {
-//                    LogUtil.e("TAG", Thread.currentThread().getName().toString());
-                    RecordService.this.startRecord();
+                    RecordService.this.setConfig(width, height, dpi);
                 }
             });
         }
 
         @Override
-        public boolean stopRecord() {
-            return RecordService.this.stopRecord();
+        public void setCaptureProfile(final int profile, final int maxEdge) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setCaptureProfile(profile, maxEdge);
+                }
+            });
+        }
+
+        @Override
+        public void setRecordMode(final int mode) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setRecordMode(mode);
+                }
+            });
         }
 
         @Override
-        public void setConfig(int width, int height, int dpi) {
-            RecordService.this.setConfig(width, height, dpi);
+        public void setExtraOutputs(final int outputs) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setExtraOutputs(outputs);
+                }
+            });
+        }
+
+        @Override
+        public void setReplayBufferConfig(final int maxBytes, final int maxSeconds) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setReplayBufferConfig(maxBytes, maxSeconds);
+                }
+            });
+        }
+
+        @Override
+        public void setStreamPort(final int port) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setStreamPort(port);
+                }
+            });
+        }
+
+        @Override
+        public Future<Boolean> saveReplay() {
+            return RecordService.this.saveReplay();
+        }
+
+        @Override
+        public void setStatusUpdateInterval(final int intervalMs) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setStatusUpdateInterval(intervalMs);
+                }
+            });
+        }
+
+        @Override
+        public void setIdleTimeout(final int timeoutMs) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setIdleTimeout(timeoutMs);
+                }
+            });
+        }
+
+        @Override
+        public void setOutputFormat(final int format) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setOutputFormat(format);
+                }
+            });
+        }
+
+        @Override
+        public void setSegmentLimits(final int durationMs, final long bytes) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setSegmentLimits(durationMs, bytes);
+                }
+            });
+        }
+
+        @Override
+        public void setVariableFrameRate(final boolean enabled, final int maxIntervalMs) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setVariableFrameRate(enabled, maxIntervalMs);
+                }
+            });
+        }
+
+        @Override
+        public void setAudioSource(final int source) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setAudioSource(source);
+                }
+            });
+        }
+
+        @Override
+        public void setBackpressurePolicy(final int policy) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setBackpressurePolicy(policy);
+                }
+            });
+        }
+
+        @Override
+        public void setAdaptiveRate(final boolean enabled, final int minBitRate, final int minFrameRate) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setAdaptiveRate(enabled, minBitRate, minFrameRate);
+                }
+            });
+        }
+
+        @Override
+        public RateDecision getLastRateDecision() {
+            return RecordService.this.getLastRateDecision();
+        }
+
+        @Override
+        public PipelineStats getPipelineStats() {
+            return RecordService.this.getPipelineStats();
+        }
+
+        @Override
+        public RecorderStats getStats() {
+            return RecordService.this.getStats();
+        }
+
+        @Override
+        public boolean isPaused() {
+            return stateMachine.isIn(RecorderStateMachine.STATE_PAUSED);
         }
 
         @Override
@@ -318,13 +1247,23 @@ public class RecordService extends Service {
         }
 
         @Override
-        public void setMediaProject(MediaProjection project) {
-            RecordService.this.setMediaProject(project);
+        public void setMediaProject(final MediaProjection project) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    RecordService.this.setMediaProject(project);
+                }
+            });
         }
 
         @Override
-        public void setRecordingCallback(OnRecorderStateChangeListener listener) {
-           RecordService.this.setOnRecorderStateChangeListener(listener);
+        public void addRecorderListener(OnRecorderEventListener listener, Executor executor) {
+            eventBus.register(listener, executor);
+        }
+
+        @Override
+        public void removeRecorderListener(OnRecorderEventListener listener) {
+            eventBus.unregister(listener);
         }
 
     }
@@ -338,9 +1277,8 @@ public class RecordService extends Service {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             switch (action) {
-                case "com.yu.screenrecorder.RecordService.action_stop_record":
-                    if (isRecording) stopRecord();
-                    cancelRecordingNotification();
+                case RecordStatusPublisher.ACTION_STOP_RECORD:
+                    controller.stopRecord();
                     break;
             }
         }
@@ -349,31 +1287,177 @@ public class RecordService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        stopRecord();
-        releaseRecorder();
-        unregisterRecordReceiver();
-        cancelRecordingNotification();
+        mainHandler.removeCallbacks(idleCheck);
+        try {
+            controller.stopRecord().get(DESTROY_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LogUtil.w(TAG, "stop record on destroy failed: {}", e);
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                setMediaProject(null);
+                stopStreamServer();
+                releaseResources();
+            }
+        });
+        controlExecutor.shutdown();
+        remoteBinder.release();
+        if (statusBlock != null) {
+            // 已经映射的内存在关闭文件后仍然有效，之后的写入不会出错
+            try {
+                statusBlock.close();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "close status block failed: {}", e);
+            }
+        }
     }
 
 
-    OnRecorderStateChangeListener listener;
-    public interface OnRecorderStateChangeListener {
-        /**
-         * called in WorkerThread
-         */
-        void onRecordStart();
+    /* 录制事件，订阅者在各自的 Executor 中接收 */
+    final RecorderEventBus eventBus = new RecorderEventBus();
+    private boolean pipelineFailureReported;
 
-        /**
-         * called in WorkerThread
-         */
-        void onRecordUpdate(String time);
+    /* 温控级别变化时调整录制中的码率帧率上限并转发到事件总线 */
+    private final ThermalGovernor.OnLevelChangeListener governorListener = new ThermalGovernor.OnLevelChangeListener() {
+        @Override
+        public void onLevelChanged(GovernorDecision decision) {
+            if (stateMachine.isActive()) {
+                applyRateCeiling();
+            }
+            postEvent(RecorderEvent.TYPE_THROTTLED, decision.toString(), decision);
+        }
+    };
+
+    /* 录制中定时读取温度，在 service_thread 中执行 */
+    private final Runnable governorTick = new Runnable() {
+        @Override
+        public void run() {
+            ThermalGovernor thermal = governor;
+            Handler handler = recordHandler;
+            if (thermal == null || handler == null) {
+                return;
+            }
+            thermal.update();
+            handler.postDelayed(this, config.governorIntervalMs);
+        }
+    };
 
-        void onRecordStop();
+    /**
+     * 开始录制后应用当前级别的上限并开始定时读取，在控制线程调用
+     */
+    private void startGovernor() {
+        Handler handler = recordHandler;
+        if (!config.thermalGovernor || governor == null || handler == null) {
+            return;
+        }
+        applyRateCeiling();
+        handler.removeCallbacks(governorTick);
+        handler.postDelayed(governorTick, config.governorIntervalMs);
+    }
 
+    private void stopGovernor() {
+        Handler handler = recordHandler;
+        if (handler != null) {
+            handler.removeCallbacks(governorTick);
+        }
     }
 
-    void setOnRecorderStateChangeListener(OnRecorderStateChangeListener listener) {
-        this.listener = listener;
+    /**
+     * 按温控级别设置录制引擎的码率帧率上限，级别为 NORMAL 时恢复配置值
+     */
+    private void applyRateCeiling() {
+        IRecordEngine engine = recordEngine;
+        ThermalGovernor thermal = governor;
+        if (engine == null || thermal == null) {
+            return;
+        }
+        int bitRate = (int) ((long) config.bitRate * thermal.getBitRatePercent() / 100);
+        int frameRate = Math.min(config.frameRate, thermal.getMaxFrameRate());
+        engine.setRateCeiling(bitRate, frameRate);
+    }
+
+    /* 分段写完时转发到事件总线，在写样本的线程回调 */
+    private final SegmentedSink.OnSegmentClosedListener segmentListener = new SegmentedSink.OnSegmentClosedListener() {
+        @Override
+        public void onSegmentClosed(SegmentedSink.Segment segment) {
+            postEvent(RecorderEvent.TYPE_SEGMENT_CLOSED, segment.file.getPath(), segment);
+        }
+    };
+
+    /* 码率调整转发到事件总线 */
+    private final RateController.OnRateChangeListener rateListener = new RateController.OnRateChangeListener() {
+        @Override
+        public void onRateChanged(RateDecision decision) {
+            postEvent(RecorderEvent.TYPE_RATE_CHANGED, null, decision);
+        }
+    };
+
+    void postEvent(int type, String text, Object payload) {
+        // 先更新共享状态，收到事件的客户端读到的是最新状态
+        writeStatus();
+        eventBus.post(type, text, payload, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 把当前状态写入与客户端共享的状态文件，状态变化和定时更新时调用
+     */
+    private void writeStatus() {
+        if (statusBlock == null) {
+            return;
+        }
+        synchronized (status) {
+            status.state = stateMachine.getState();
+            status.flags = (standbyReady ? RecorderStatus.FLAG_STANDBY : 0)
+                    | (mediaProjection != null ? RecorderStatus.FLAG_AUTHORIZED : 0);
+            status.elapsedMs = clock.getElapsedNanos() / 1000000;
+            status.framesEncoded = metrics.framesEncoded.get();
+            status.framesDropped = metrics.framesDropped.get();
+            status.bytesWritten = metrics.bytesWritten.get();
+            status.updateTimeMs = SystemClock.elapsedRealtime();
+            if (!stateMachine.isActive()) {
+                // 下次录制重新开始计算码率
+                status.bitRate = 0;
+                lastBitRateTimeMs = 0;
+            }
+            statusBlock.write(status);
+        }
+    }
+
+    /**
+     * 按上次更新以来编码的字节数计算码率，在 service_thread 中调用，录制开始后第一次更新时还没有码率
+     */
+    private void updateBitRate() {
+        long now = SystemClock.elapsedRealtime();
+        long bytes = metrics.bytesEncoded.get();
+        synchronized (status) {
+            if (lastBitRateTimeMs > 0 && now > lastBitRateTimeMs && bytes >= lastBytesEncoded) {
+                status.bitRate = (int) ((bytes - lastBytesEncoded) * 8 * 1000 / (now - lastBitRateTimeMs));
+            }
+            lastBytesEncoded = bytes;
+            lastBitRateTimeMs = now;
+        }
+    }
+
+    /**
+     * 定时发布录制时长和流水线状态，在 service_thread 中调用
+     */
+    private void publishStatus(CharSequence time) {
+        checkFirstFrame();
+        updateBitRate();
+        // 时长文本是复用的对象，只有事件要交给订阅者的线程时才拷贝
+        postEvent(RecorderEvent.TYPE_UPDATE, eventBus.hasSubscribers() ? time.toString() : null, null);
+        PipelineStats stats = getPipelineStats();
+        if (stats == null) {
+            return;
+        }
+        metrics.muxQueueDepth.record(stats.muxQueueDepth);
+        metrics.writeQueueDepth.record(stats.writeQueueDepth);
+        postEvent(RecorderEvent.TYPE_STATS, null, stats);
+        if (stats.failed && !pipelineFailureReported) {
+            pipelineFailureReported = true;
+            postEvent(RecorderEvent.TYPE_ERROR, "record pipeline failed, stats: " + stats, stats);
+        }
     }
 
 }
\ No newline at end of file
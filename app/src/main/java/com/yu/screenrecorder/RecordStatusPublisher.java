@@ -0,0 +1,213 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.RemoteViews;
+
+/**
+ * 录制状态发布：前台通知与录制时长回调
+ * <br/> PendingIntent 和 Notification.Builder 只在开始时创建一次，startForeground 也只调用一次；
+ * 通知中的时长由 Chronometer 在系统界面中自己走，只有开始、暂停、恢复时才更新通知，
+ * 录制期间不再每秒与 system_server 之间做 binder 调用。定时任务只负责回调录制时长
+ * <br/> start、stop、setPaused 可以在任意线程调用，状态改变都提交到 handler 线程执行，其余字段只在 handler 线程访问
+ */
+public class RecordStatusPublisher implements Runnable {
+    private static final int NOTIFICATION_ID = 1;
+    public static final String ACTION_STOP_RECORD = "com.yu.screenrecorder.RecordService.action_stop_record";
+    /* 默认每秒更新一次 */
+    public static final int DEFAULT_INTERVAL_MS = 1000;
+
+    public interface Callback {
+        /**
+         * called in publisher thread
+         *
+         * @param time 复用同一个对象，下次回调时内容会改变，跨线程保存时调用 toString()
+         */
+        void onStatusUpdate(CharSequence time);
+    }
+
+    private final Service service;
+    private final Handler handler;
+    private final RecordingClock clock;
+    private final StatusTicker ticker = new StatusTicker();
+    private NotificationManager manager;
+    private Notification.Builder builder;
+    private PendingIntent stopIntent;
+    private volatile Callback callback;
+    private volatile RecorderMetrics metrics;
+
+    private volatile int intervalMs = DEFAULT_INTERVAL_MS;
+    private boolean started;
+    private boolean paused;
+
+    private final Runnable startTask = new Runnable() {
+        @Override
+        public void run() {
+            doStart();
+        }
+    };
+
+    private final Runnable stopTask = new Runnable() {
+        @Override
+        public void run() {
+            doStop();
+        }
+    };
+
+    private final Runnable pauseTask = new Runnable() {
+        @Override
+        public void run() {
+            updatePaused(true);
+        }
+    };
+
+    private final Runnable resumeTask = new Runnable() {
+        @Override
+        public void run() {
+            updatePaused(false);
+        }
+    };
+
+    /**
+     * @param handler 定时任务所在线程
+     * @param clock 录制时钟，显示的时长以它为准
+     */
+    public RecordStatusPublisher(Service service, Handler handler, RecordingClock clock) {
+        this.service = service;
+        this.handler = handler;
+        this.clock = clock;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 设置统计，记录每次更新通知的耗时
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置更新间隔，下次开始时生效
+     * @param intervalMs 小于等于 0 表示不更新，通知只显示正在录制
+     */
+    public void setUpdateInterval(int intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * 发送前台通知并开始定时更新，在 handler 线程执行
+     */
+    public void start() {
+        handler.post(startTask);
+    }
+
+    /**
+     * 停止更新并取消通知，在 handler 线程执行
+     */
+    public void stop() {
+        handler.post(stopTask);
+    }
+
+    /**
+     * 暂停或恢复时更新通知，暂停期间通知中的时长停止走动
+     */
+    public void setPaused(boolean paused) {
+        handler.post(paused ? pauseTask : resumeTask);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void doStart() {
+        if (manager == null) {
+            manager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+            /* 发送广播的意图 */
+            Intent i = new Intent(ACTION_STOP_RECORD);
+            stopIntent = PendingIntent.getBroadcast(service, 1, i, PendingIntent.FLAG_UPDATE_CURRENT);
+            builder = new Notification.Builder(service)
+                    .setSmallIcon(R.mipmap.ic_launcher)  // 记得设置icon，不然通知发送无效
+                    .setAutoCancel(true)
+                    .setOnlyAlertOnce(true);
+        }
+        handler.removeCallbacks(this);
+        started = true;
+        paused = false;
+        boolean ticking = ticker.start(SystemClock.uptimeMillis(), intervalMs);
+        builder.setWhen(System.currentTimeMillis());
+        service.startForeground(NOTIFICATION_ID, buildNotification());
+        Callback callback = this.callback;
+        if (callback != null) callback.onStatusUpdate(ticker.getText());
+
+        if (ticking) {
+            handler.postAtTime(this, ticker.nextTickUptimeMs(SystemClock.uptimeMillis()));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ECLAIR)
+    private void doStop() {
+        handler.removeCallbacks(this);
+        if (started) {
+            started = false;
+            service.stopForeground(true);
+            manager.cancel(NOTIFICATION_ID);
+        }
+    }
+
+    private void updatePaused(boolean paused) {
+        if (!started || this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        if (ticker.getIntervalMs() <= 0) {
+            return;
+        }
+        long begin = System.nanoTime();
+        manager.notify(NOTIFICATION_ID, buildNotification());
+        RecorderMetrics metrics = this.metrics;
+        if (metrics != null) metrics.notifyCostUs.record((System.nanoTime() - begin) / 1000);
+    }
+
+    /**
+     * 只回调录制时长，通知中的时长由 Chronometer 自己更新
+     */
+    @Override
+    public void run() {
+        if (!started) {
+            return;
+        }
+        Callback callback = this.callback;
+        if (ticker.tick(clock.getElapsedSeconds()) && callback != null) {
+            callback.onStatusUpdate(ticker.getText());
+        }
+        handler.postAtTime(this, ticker.nextTickUptimeMs(SystemClock.uptimeMillis()));
+    }
+
+    /**
+     * RemoteViews 每次设置都会追加一个 action，重复使用会越来越大，所以每次更新新建一个
+     * <br/> Chronometer 的起点为 elapsedRealtime 减去已经录制的时长，暂停时停在当前时长
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Notification buildNotification() {
+        RemoteViews remoteViews = new RemoteViews(service.getPackageName(), R.layout.item_view_remote);
+        remoteViews.setOnClickPendingIntent(R.id.id_btn_stop_noti, stopIntent); // 给停止按钮添加点击事件
+        if (ticker.getIntervalMs() > 0) {
+            long base = SystemClock.elapsedRealtime() - clock.getElapsedNanos() / 1000000;
+            remoteViews.setViewVisibility(R.id.id_tv_title_noti, View.GONE);
+            remoteViews.setViewVisibility(R.id.id_chronometer_noti, View.VISIBLE);
+            remoteViews.setChronometer(R.id.id_chronometer_noti, base, paused ? "已暂停:%s" : "正在录制:%s", !paused);
+        } else {
+            remoteViews.setTextViewText(R.id.id_tv_title_noti, "正在录制");
+        }
+        return builder.setContent(remoteViews).build();
+    }
+}
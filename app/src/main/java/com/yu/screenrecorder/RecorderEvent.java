@@ -0,0 +1,43 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制状态事件
+ */
+public class RecorderEvent {
+    public static final int TYPE_START = 1;
+    public static final int TYPE_UPDATE = 2;         // text 为录制时长
+    public static final int TYPE_STOP = 3;
+    public static final int TYPE_PAUSE = 4;
+    public static final int TYPE_RESUME = 5;
+    public static final int TYPE_STATS = 6;          // payload 为 PipelineStats
+    public static final int TYPE_RATE_CHANGED = 7;   // payload 为 RateDecision
+    public static final int TYPE_ERROR = 8;          // text 为错误信息
+    public static final int TYPE_SEGMENT_CLOSED = 9; // text 为文件路径，分段录制时 payload 为 SegmentedSink.Segment
+    public static final int TYPE_RECOVERED = 10;     // text 为文件路径，payload 为 RecordingRecovery.Result
+    public static final int TYPE_THROTTLED = 11;     // 温控级别变化，text 为说明，payload 为 GovernorDecision
+
+    public final int type;
+    public final String text;
+    public final Object payload;
+    /* 事件产生的时间，SystemClock.elapsedRealtime 时基由发布者决定 */
+    public final long timeMs;
+
+    public RecorderEvent(int type, String text, Object payload, long timeMs) {
+        this.type = type;
+        this.text = text;
+        this.payload = payload;
+        this.timeMs = timeMs;
+    }
+
+    /**
+     * 同类事件只需要最新的一个，订阅者处理不过来时可以合并
+     */
+    public boolean isCoalescable() {
+        return type == TYPE_UPDATE || type == TYPE_STATS;
+    }
+
+    @Override
+    public String toString() {
+        return "RecorderEvent{type=" + type + ", text=" + text + ", payload=" + payload + "}";
+    }
+}
@@ -0,0 +1,162 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 录制事件总线，支持多个订阅者，每个订阅者在自己指定的 Executor 中接收事件
+ * <br/> 订阅者列表写时复制，发布时不加全局锁；每个订阅者有一个有界队列，
+ * 处理不过来时同类可合并的事件只保留最新一个，队列满时丢弃最旧的事件，
+ * 所以慢的订阅者不会拖住发布事件的录制线程
+ */
+public class RecorderEventBus {
+    private static final String TAG = "RecorderEventBus";
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final int queueCapacity;
+
+    public RecorderEventBus() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public RecorderEventBus(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * 注册订阅者，同一个 listener 重复注册会替换之前的 executor
+     */
+    public void register(OnRecorderEventListener listener, Executor executor) {
+        unregister(listener);
+        subscriptions.add(new Subscription(listener, executor, queueCapacity));
+    }
+
+    public void unregister(OnRecorderEventListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscription.active = false;
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public void post(RecorderEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.enqueue(event);
+        }
+    }
+
+    public void post(int type, String text, Object payload, long timeMs) {
+        if (!subscriptions.isEmpty()) {
+            post(new RecorderEvent(type, text, payload, timeMs));
+        }
+    }
+
+    /**
+     * 订阅者处理不过来被丢弃的事件总数
+     */
+    public long getDroppedEvents() {
+        long dropped = 0;
+        for (Subscription subscription : subscriptions) {
+            dropped += subscription.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * 一个订阅者以及它的待处理事件队列
+     */
+    private static final class Subscription implements Runnable {
+        final OnRecorderEventListener listener;
+        final Executor executor;
+        final RecorderEvent[] ring;
+        volatile boolean active = true;
+
+        /* 以下由 this 保护 */
+        private int head;
+        private int count;
+        private boolean scheduled;
+        private long dropped;
+
+        Subscription(OnRecorderEventListener listener, Executor executor, int capacity) {
+            this.listener = listener;
+            this.executor = executor;
+            this.ring = new RecorderEvent[capacity];
+        }
+
+        void enqueue(RecorderEvent event) {
+            synchronized (this) {
+                if (!offer(event)) {
+                    return;
+                }
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                LogUtil.w(TAG, "executor rejected event delivery");
+                synchronized (this) {
+                    scheduled = false;
+                }
+            }
+        }
+
+        /**
+         * @return 事件被合并到已有事件中时返回 false
+         */
+        private boolean offer(RecorderEvent event) {
+            if (event.isCoalescable()) {
+                for (int i = 0; i < count; i++) {
+                    int index = (head + i) % ring.length;
+                    if (ring[index].type == event.type) {
+                        ring[index] = event;
+                        dropped++;
+                        return false;
+                    }
+                }
+            }
+            if (count == ring.length) {
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count--;
+                dropped++;
+            }
+            ring[(head + count) % ring.length] = event;
+            count++;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                RecorderEvent event;
+                synchronized (this) {
+                    if (count == 0) {
+                        scheduled = false;
+                        return;
+                    }
+                    event = ring[head];
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    count--;
+                }
+                if (active) {
+                    listener.onRecorderEvent(event);
+                }
+            }
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+    }
+}
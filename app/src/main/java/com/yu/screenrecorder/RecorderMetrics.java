@@ -0,0 +1,66 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 录制过程的计数器和耗时直方图，服务创建后一直累计
+ * <br/> 各组件在自己的线程中直接更新对应的字段，每一帧只增加几次原子操作；
+ * 读取时通过 {@link #snapshot()} 得到副本
+ */
+public class RecorderMetrics {
+    /* 耗时，微秒 */
+    public final Histogram startLatencyUs = new Histogram("us");
+    public final Histogram stopLatencyUs = new Histogram("us");
+    public final Histogram firstFrameLatencyUs = new Histogram("us");
+    public final Histogram encodeLatencyUs = new Histogram("us");
+    public final Histogram fsyncTimeUs = new Histogram("us");
+    public final Histogram notifyCostUs = new Histogram("us");
+    /* 每次发布状态时采样的队列深度 */
+    public final Histogram muxQueueDepth = new Histogram("");
+    public final Histogram writeQueueDepth = new Histogram("");
+
+    public final AtomicLong recordings = new AtomicLong();
+    /* 进入录制的帧：可变帧率模式下是虚拟显示输出的每一帧，包括画面没有变化的；
+       Surface 直接输入编码器时拿不到输入回调，按编码器输出计数 */
+    public final AtomicLong framesCaptured = new AtomicLong();
+    /* 交给输出的帧 */
+    public final AtomicLong framesEncoded = new AtomicLong();
+    /* 存储或者直播跟不上时丢弃的帧 */
+    public final AtomicLong framesDropped = new AtomicLong();
+    /* 暂停期间按用户意图丢弃的帧，不算丢帧 */
+    public final AtomicLong framesPaused = new AtomicLong();
+    /* 可变帧率模式下画面没有变化而没有编码的帧 */
+    public final AtomicLong framesUnchanged = new AtomicLong();
+    public final AtomicLong bytesEncoded = new AtomicLong();
+    /* 经过 AsyncFileWriter 写入文件的字节数，MediaMuxer 输出不计入 */
+    public final AtomicLong bytesWritten = new AtomicLong();
+    /* 音频采集缓冲写满丢弃、编码线程读空的次数 */
+    public final AtomicLong audioOverruns = new AtomicLong();
+    public final AtomicLong audioUnderruns = new AtomicLong();
+    /* 直播客户端跟不上而丢弃的分片，每个客户端分别计数 */
+    public final AtomicLong streamFragmentsDropped = new AtomicLong();
+
+    public RecorderStats snapshot() {
+        RecorderStats stats = new RecorderStats();
+        stats.recordings = recordings.get();
+        stats.framesCaptured = framesCaptured.get();
+        stats.framesEncoded = framesEncoded.get();
+        stats.framesDropped = framesDropped.get();
+        stats.framesUnchanged = framesUnchanged.get();
+        stats.framesPaused = framesPaused.get();
+        stats.bytesEncoded = bytesEncoded.get();
+        stats.bytesWritten = bytesWritten.get();
+        stats.audioOverruns = audioOverruns.get();
+        stats.audioUnderruns = audioUnderruns.get();
+        stats.streamFragmentsDropped = streamFragmentsDropped.get();
+        stats.startLatencyUs = startLatencyUs.snapshot();
+        stats.stopLatencyUs = stopLatencyUs.snapshot();
+        stats.firstFrameLatencyUs = firstFrameLatencyUs.snapshot();
+        stats.encodeLatencyUs = encodeLatencyUs.snapshot();
+        stats.fsyncTimeUs = fsyncTimeUs.snapshot();
+        stats.notifyCostUs = notifyCostUs.snapshot();
+        stats.muxQueueDepth = muxQueueDepth.snapshot();
+        stats.writeQueueDepth = writeQueueDepth.snapshot();
+        return stats;
+    }
+}
@@ -0,0 +1,111 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 录制状态机
+ * <pre>
+ * IDLE -> PREPARING -> RECORDING <-> PAUSED
+ *              |            |            |
+ *              +--> ERROR <-+-> STOPPING <+
+ *                     |            |
+ *                     +--> IDLE <--+
+ * </pre>
+ * 状态转换通过 CAS 完成，非法转换直接返回 false；
+ * 同时记录每个状态最近一次停留的时长，PREPARING 即启动耗时，STOPPING 即停止耗时
+ */
+public class RecorderStateMachine {
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_PREPARING = 1;
+    public static final int STATE_RECORDING = 2;
+    public static final int STATE_PAUSED = 3;
+    public static final int STATE_STOPPING = 4;
+    public static final int STATE_ERROR = 5;
+    private static final int STATE_COUNT = 6;
+
+    private static final String[] NAMES = {"IDLE", "PREPARING", "RECORDING", "PAUSED", "STOPPING", "ERROR"};
+
+    /* 每个状态允许转换到的状态，按位表示 */
+    private static final int[] LEGAL = new int[STATE_COUNT];
+
+    static {
+        LEGAL[STATE_IDLE] = bit(STATE_PREPARING);
+        LEGAL[STATE_PREPARING] = bit(STATE_RECORDING) | bit(STATE_ERROR) | bit(STATE_IDLE);
+        LEGAL[STATE_RECORDING] = bit(STATE_PAUSED) | bit(STATE_STOPPING) | bit(STATE_ERROR);
+        LEGAL[STATE_PAUSED] = bit(STATE_RECORDING) | bit(STATE_STOPPING) | bit(STATE_ERROR);
+        LEGAL[STATE_STOPPING] = bit(STATE_IDLE) | bit(STATE_ERROR);
+        LEGAL[STATE_ERROR] = bit(STATE_IDLE);
+    }
+
+    private static int bit(int state) {
+        return 1 << state;
+    }
+
+    private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+    private final RecordingClock.TimeSource timeSource;
+    /* 进入当前状态的时间 */
+    private volatile long enteredAtNs;
+    /* 每个状态最近一次停留的时长 */
+    private final AtomicLongArray lastDurationNs = new AtomicLongArray(STATE_COUNT);
+
+    public RecorderStateMachine() {
+        this(RecordingClock.MONOTONIC);
+    }
+
+    public RecorderStateMachine(RecordingClock.TimeSource timeSource) {
+        this.timeSource = timeSource;
+        enteredAtNs = timeSource.nanoTime();
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    public boolean isIn(int expected) {
+        return state.get() == expected;
+    }
+
+    /**
+     * 正在录制或已暂停
+     */
+    public boolean isActive() {
+        int s = state.get();
+        return s == STATE_RECORDING || s == STATE_PAUSED;
+    }
+
+    public static boolean isLegal(int from, int to) {
+        return (LEGAL[from] & bit(to)) != 0;
+    }
+
+    /**
+     * 从 from 转换到 to
+     *
+     * @return 非法转换或者当前状态不是 from 时返回 false
+     */
+    public boolean transition(int from, int to) {
+        if (!isLegal(from, to) || !state.compareAndSet(from, to)) {
+            return false;
+        }
+        long now = timeSource.nanoTime();
+        lastDurationNs.set(from, now - enteredAtNs);
+        enteredAtNs = now;
+        return true;
+    }
+
+    /**
+     * 某个状态最近一次停留的时长，纳秒
+     */
+    public long getLastDurationNanos(int state) {
+        return lastDurationNs.get(state);
+    }
+
+    public static String nameOf(int state) {
+        return NAMES[state];
+    }
+
+    @Override
+    public String toString() {
+        return nameOf(state.get());
+    }
+}
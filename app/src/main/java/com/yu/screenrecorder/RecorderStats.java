@@ -0,0 +1,67 @@
+package com.yu.screenrecorder;
+
+import java.io.PrintWriter;
+
+/**
+ * 录制统计的快照，由 {@link IRecorderController#getStats()} 返回
+ */
+public class RecorderStats {
+    /* RecorderStateMachine.STATE_* */
+    public int state;
+    public long recordings;
+    public long framesCaptured;
+    public long framesEncoded;
+    public long framesDropped;
+    public long framesUnchanged;
+    public long framesPaused;
+    public long bytesEncoded;
+    public long bytesWritten;
+    public long audioOverruns;
+    public long audioUnderruns;
+    /* 当前连接的直播客户端，没有开启直播时为 0 */
+    public int streamClients;
+    public long streamFragmentsDropped;
+    public long droppedEvents;
+
+    public Histogram.Snapshot startLatencyUs;
+    public Histogram.Snapshot stopLatencyUs;
+    public Histogram.Snapshot firstFrameLatencyUs;
+    public Histogram.Snapshot encodeLatencyUs;
+    public Histogram.Snapshot fsyncTimeUs;
+    public Histogram.Snapshot notifyCostUs;
+    public Histogram.Snapshot muxQueueDepth;
+    public Histogram.Snapshot writeQueueDepth;
+
+    /* 当前录制的流水线状态，没有时为 null */
+    public PipelineStats pipeline;
+
+    /**
+     * 按行输出，供 dumpsys 使用
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "state: " + RecorderStateMachine.nameOf(state));
+        pw.println(prefix + "recordings: " + recordings);
+        pw.println(prefix + "frames: captured=" + framesCaptured + " encoded=" + framesEncoded
+                + " dropped=" + framesDropped + " unchanged=" + framesUnchanged + " paused=" + framesPaused);
+        pw.println(prefix + "bytes: encoded=" + bytesEncoded + " written=" + bytesWritten);
+        pw.println(prefix + "audio: overruns=" + audioOverruns + " underruns=" + audioUnderruns);
+        pw.println(prefix + "stream: clients=" + streamClients + " dropped fragments=" + streamFragmentsDropped);
+        pw.println(prefix + "dropped events: " + droppedEvents);
+        pw.println(prefix + "start latency: " + startLatencyUs);
+        pw.println(prefix + "stop latency: " + stopLatencyUs);
+        pw.println(prefix + "first frame latency: " + firstFrameLatencyUs);
+        pw.println(prefix + "encode latency: " + encodeLatencyUs);
+        pw.println(prefix + "fsync time: " + fsyncTimeUs);
+        pw.println(prefix + "notification update: " + notifyCostUs);
+        pw.println(prefix + "mux queue depth: " + muxQueueDepth);
+        pw.println(prefix + "write queue depth: " + writeQueueDepth);
+        if (pipeline != null) {
+            pw.println(prefix + "pipeline: " + pipeline);
+            if (pipeline.branches != null) {
+                for (TeeSink.BranchStats branch : pipeline.branches) {
+                    pw.println(prefix + "  branch " + branch);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制状态，由 {@link StatusBlock} 在进程间共享
+ * <br/> 服务只在状态变化和定时更新时写入，录制中的实时时长可以按
+ * elapsedMs + (SystemClock.elapsedRealtime() - updateTimeMs) 推算
+ */
+public class RecorderStatus {
+    public static final int FLAG_STANDBY = 1;
+    /* 持有录屏授权，空闲释放待机资源后仍然可以直接开始录制 */
+    public static final int FLAG_AUTHORIZED = 2;
+
+    /* RecorderStateMachine.STATE_* */
+    public int state;
+    /* FLAG_* */
+    public int flags;
+    /* 不含暂停的录制时长，毫秒 */
+    public long elapsedMs;
+    /* 服务存活期间累计 */
+    public long framesEncoded;
+    public long framesDropped;
+    public long bytesWritten;
+    /* 最近一次更新间隔内的编码码率，bit/s */
+    public int bitRate;
+    /* 写入时的 SystemClock.elapsedRealtime() */
+    public long updateTimeMs;
+    /* 写入次数，没有变化时不需要刷新界面 */
+    public long version;
+
+    /**
+     * 正在录制或已暂停
+     */
+    public boolean isRecording() {
+        return state == RecorderStateMachine.STATE_RECORDING || state == RecorderStateMachine.STATE_PAUSED;
+    }
+
+    public boolean isPaused() {
+        return state == RecorderStateMachine.STATE_PAUSED;
+    }
+
+    public boolean isStandby() {
+        return (flags & FLAG_STANDBY) != 0;
+    }
+
+    public boolean isAuthorized() {
+        return (flags & FLAG_AUTHORIZED) != 0;
+    }
+
+    /**
+     * 推算 nowMs 时的录制时长
+     *
+     * @param nowMs SystemClock.elapsedRealtime()
+     */
+    public long elapsedAt(long nowMs) {
+        if (!isRecording() || isPaused()) {
+            return elapsedMs;
+        }
+        return elapsedMs + Math.max(0, nowMs - updateTimeMs);
+    }
+
+    @Override
+    public String toString() {
+        return "RecorderStatus{state=" + state + ", flags=" + flags + ", elapsedMs=" + elapsedMs
+                + ", frames=" + framesEncoded + "/" + framesDropped + ", bytesWritten=" + bytesWritten
+                + ", bitRate=" + bitRate + ", version=" + version + "}";
+    }
+}
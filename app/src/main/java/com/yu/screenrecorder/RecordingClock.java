@@ -0,0 +1,215 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制时钟，界面、通知显示的录制时长以及输出样本的时间戳都以它为准
+ * <br/> 时长基于单调时钟计算，暂停期间不计入；样本时间戳按暂停时长整体前移，
+ * 暂停期间编码出的样本被丢弃，恢复后从第一个关键帧开始继续输出，输出时间线没有空洞。
+ * <br/> 控制方法与 {@link #rebasePtsUs(long, boolean)} 可以在不同线程调用
+ */
+public class RecordingClock {
+
+    /**
+     * 纳秒级单调时钟
+     */
+    public interface TimeSource {
+        long nanoTime();
+    }
+
+    /**
+     * System.nanoTime()，与 Surface 输入的样本时间戳同一时基
+     */
+    public static final TimeSource MONOTONIC = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final TimeSource displaySource;
+    private final TimeSource ptsSource;
+
+    /* 显示时长，displaySource 时基 */
+    private long startNs;
+    private long pausedTotalNs;
+    private long pauseStartNs;
+    private volatile boolean started;
+    private volatile boolean paused;
+
+    /* 样本时间戳，ptsSource 时基，微秒 */
+    private long pausePtsUs = Long.MAX_VALUE;
+    private long resumePtsUs = Long.MIN_VALUE;
+    private long lastPauseSpanUs;
+    private long pausedTotalPtsUs;
+    private int resumeCount;
+
+    /* 只在 drain 线程访问，音频 drain 线程和采集线程也会读取 firstPtsUs */
+    private long firstPtsUs = -1;
+    private long lastOutPtsUs = -1;
+    private long lastAudioOutPtsUs = -1;
+    private int handledResumeCount;
+    private boolean waitingForKeyFrame;
+
+    /**
+     * @param displaySource 显示时长使用的时钟
+     * @param ptsSource 与样本时间戳同一时基的时钟
+     */
+    public RecordingClock(TimeSource displaySource, TimeSource ptsSource) {
+        this.displaySource = displaySource;
+        this.ptsSource = ptsSource;
+    }
+
+    public synchronized void start() {
+        startNs = displaySource.nanoTime();
+        pausedTotalNs = 0;
+        pausePtsUs = Long.MAX_VALUE;
+        resumePtsUs = Long.MIN_VALUE;
+        lastPauseSpanUs = 0;
+        pausedTotalPtsUs = 0;
+        resumeCount = 0;
+        firstPtsUs = -1;
+        lastOutPtsUs = -1;
+        lastAudioOutPtsUs = -1;
+        handledResumeCount = 0;
+        waitingForKeyFrame = false;
+        paused = false;
+        started = true;
+    }
+
+    public synchronized void stop() {
+        if (paused) {
+            resume();
+        }
+        started = false;
+    }
+
+    /**
+     * @return 没有在计时或已经暂停时返回 false
+     */
+    public synchronized boolean pause() {
+        if (!started || paused) {
+            return false;
+        }
+        pauseStartNs = displaySource.nanoTime();
+        pausePtsUs = ptsSource.nanoTime() / 1000;
+        paused = true;
+        return true;
+    }
+
+    /**
+     * @return 没有暂停时返回 false
+     */
+    public synchronized boolean resume() {
+        if (!paused) {
+            return false;
+        }
+        pausedTotalNs += displaySource.nanoTime() - pauseStartNs;
+        resumePtsUs = ptsSource.nanoTime() / 1000;
+        lastPauseSpanUs = resumePtsUs - pausePtsUs;
+        pausedTotalPtsUs += lastPauseSpanUs;
+        resumeCount++;
+        paused = false;
+        return true;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 不含暂停时间的录制时长，纳秒
+     */
+    public synchronized long getElapsedNanos() {
+        if (!started) {
+            return 0;
+        }
+        long now = paused ? pauseStartNs : displaySource.nanoTime();
+        return now - startNs - pausedTotalNs;
+    }
+
+    public long getElapsedSeconds() {
+        return getElapsedNanos() / 1000000000L;
+    }
+
+    /**
+     * 把编码器输出的时间戳换算到输出时间线，第一个样本为 0，暂停的时间段被去掉
+     * <br/> 在 drain 线程调用
+     *
+     * @param ptsUs 编码器输出的时间戳
+     * @param keyFrame 是否为关键帧
+     * @return 输出时间戳，需要丢弃时返回 -1
+     */
+    public synchronized long rebasePtsUs(long ptsUs, boolean keyFrame) {
+        if (paused) {
+            return -1;
+        }
+        if (handledResumeCount != resumeCount) {
+            handledResumeCount = resumeCount;
+            waitingForKeyFrame = true;
+        }
+        if (ptsUs >= pausePtsUs && ptsUs < resumePtsUs) {
+            /* 暂停期间画面 */
+            return -1;
+        }
+        if (waitingForKeyFrame && ptsUs >= resumePtsUs) {
+            if (!keyFrame) {
+                return -1;
+            }
+            waitingForKeyFrame = false;
+        }
+        if (firstPtsUs < 0) {
+            firstPtsUs = ptsUs;
+        }
+        long offsetUs = ptsUs >= resumePtsUs ? pausedTotalPtsUs : pausedTotalPtsUs - lastPauseSpanUs;
+        long out = ptsUs - firstPtsUs - offsetUs;
+        /* 保证单调递增 */
+        if (out <= lastOutPtsUs) {
+            out = lastOutPtsUs + 1;
+        }
+        lastOutPtsUs = out;
+        return out;
+    }
+
+    /**
+     * 把采集时间换算到输出时间线，不改变时钟状态，用于缩略图等不经过编码器的数据
+     * <br/> 第一个样本输出之前的画面为 0
+     *
+     * @param ptsUs 采集时间，与视频样本时间戳同一时基
+     * @return 输出时间戳，暂停期间返回 -1
+     */
+    public synchronized long toOutputPtsUs(long ptsUs) {
+        if (paused || (ptsUs >= pausePtsUs && ptsUs < resumePtsUs)) {
+            return -1;
+        }
+        if (firstPtsUs < 0) {
+            return 0;
+        }
+        long offsetUs = ptsUs >= resumePtsUs ? pausedTotalPtsUs : pausedTotalPtsUs - lastPauseSpanUs;
+        return Math.max(0, ptsUs - firstPtsUs - offsetUs);
+    }
+
+    /**
+     * 把音频编码器输出的时间戳换算到输出时间线，与视频使用同一个起点和暂停偏移
+     * <br/> 第一帧视频之前和暂停期间的音频被丢弃，在音频 drain 线程调用
+     *
+     * @param ptsUs 音频采集时间，与视频样本时间戳同一时基
+     * @return 输出时间戳，需要丢弃时返回 -1
+     */
+    public synchronized long rebaseAudioPtsUs(long ptsUs) {
+        if (paused || firstPtsUs < 0) {
+            return -1;
+        }
+        if (ptsUs >= pausePtsUs && ptsUs < resumePtsUs) {
+            return -1;
+        }
+        long offsetUs = ptsUs >= resumePtsUs ? pausedTotalPtsUs : pausedTotalPtsUs - lastPauseSpanUs;
+        long out = ptsUs - firstPtsUs - offsetUs;
+        if (out < 0) {
+            return -1;
+        }
+        if (out <= lastAudioOutPtsUs) {
+            out = lastAudioOutPtsUs + 1;
+        }
+        lastAudioOutPtsUs = out;
+        return out;
+    }
+}
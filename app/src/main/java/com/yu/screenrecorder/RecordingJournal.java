@@ -0,0 +1,179 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录制日志：录制过程中追加记录每个样本在输出文件中的位置、大小和时间戳，正常结束时删除
+ * <br/> 样本先记在内存中，等 {@link AsyncFileWriter} 写线程确认数据已经写入文件后才追加到日志，
+ * 因此日志中的每条记录指向的数据一定在文件里。进程被杀后由 {@link RecordingRecovery} 按日志修复文件
+ * <br/> 格式：文件头 MAGIC、VERSION、输出格式、输出文件名，之后是定长的记录
+ */
+public class RecordingJournal implements AsyncFileWriter.OnWrittenListener {
+    private static final String TAG = "RecordingJournal";
+    public static final String SUFFIX = ".journal";
+
+    static final int MAGIC = 0x524a4e4c;   // "RJNL"
+    static final int VERSION = 1;
+    /* offset(8) size(4) flags(4) ptsUs(8) check(8) */
+    static final int RECORD_SIZE = 32;
+    /* 记录 flags：低 16 位为 SampleInfo 的 flags，高 16 位为轨道 */
+    static final int FLAG_FRAGMENT_END = 0x100;   // 分片中的最后一个样本，截到这里是完整的分片
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    /* 还没有确认写入的记录，录制线程追加，写线程取出，由 this 保护 */
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    private long[] ptsUs = new long[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+
+    /* 只在写线程访问 */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY * RECORD_SIZE);
+    private volatile long records;
+
+    /**
+     * 创建日志并写入文件头
+     *
+     * @param media 输出文件，日志为同目录下的 media + {@link #SUFFIX}
+     * @param outputFormat RecordConfig.OUTPUT_FORMAT_*
+     */
+    public RecordingJournal(File media, int outputFormat) throws IOException {
+        file = journalOf(media);
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+        raf.writeInt(outputFormat);
+        raf.writeUTF(media.getName());
+        channel = raf.getChannel();
+    }
+
+    public static File journalOf(File media) {
+        return new File(media.getPath() + SUFFIX);
+    }
+
+    /**
+     * 记录一个已经交给输出的样本，在录制线程调用
+     *
+     * @param offset 样本数据在输出文件中的位置
+     * @param sampleFlags SampleInfo 的 flags，可以带 {@link #FLAG_FRAGMENT_END}
+     */
+    public synchronized void append(int track, long offset, int size, long ptsUs, int sampleFlags) {
+        if (count == offsets.length) {
+            grow();
+        }
+        int i = (head + count) % offsets.length;
+        this.offsets[i] = offset;
+        this.sizes[i] = size;
+        this.flags[i] = (track << 16) | (sampleFlags & 0xffff);
+        this.ptsUs[i] = ptsUs;
+        count++;
+    }
+
+    /**
+     * 写线程确认前 bytesWritten 字节已经写入文件，把数据都已写入的记录追加到日志
+     */
+    @Override
+    public void onWritten(long bytesWritten) {
+        while (true) {
+            buffer.clear();
+            synchronized (this) {
+                while (count > 0 && buffer.remaining() >= RECORD_SIZE
+                        && offsets[head] + sizes[head] <= bytesWritten) {
+                    putRecord(buffer, offsets[head], sizes[head], flags[head], ptsUs[head]);
+                    head = (head + 1) % offsets.length;
+                    count--;
+                }
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            int n = buffer.remaining() / RECORD_SIZE;
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                records += n;
+            } catch (IOException e) {
+                LogUtil.w(TAG, "append journal failed: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * 录制正常结束，关闭并删除日志
+     */
+    public void delete() {
+        close();
+        if (!file.delete()) {
+            LogUtil.w(TAG, "delete journal {} failed", file);
+        }
+    }
+
+    /**
+     * 只关闭不删除，之后可以按日志修复
+     */
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "close journal failed: {}", e.getMessage());
+        }
+    }
+
+    private void grow() {
+        int capacity = offsets.length * 2;
+        long[] newOffsets = new long[capacity];
+        int[] newSizes = new int[capacity];
+        int[] newFlags = new int[capacity];
+        long[] newPts = new long[capacity];
+        for (int k = 0; k < count; k++) {
+            int i = (head + k) % offsets.length;
+            newOffsets[k] = offsets[i];
+            newSizes[k] = sizes[i];
+            newFlags[k] = flags[i];
+            newPts[k] = ptsUs[i];
+        }
+        offsets = newOffsets;
+        sizes = newSizes;
+        flags = newFlags;
+        ptsUs = newPts;
+        head = 0;
+    }
+
+    static void putRecord(ByteBuffer buf, long offset, int size, int flags, long ptsUs) {
+        buf.putLong(offset);
+        buf.putInt(size);
+        buf.putInt(flags);
+        buf.putLong(ptsUs);
+        buf.putLong(check(offset, size, flags, ptsUs));
+    }
+
+    /**
+     * 记录的校验值，用于识别写了一半的记录
+     */
+    static long check(long offset, int size, int flags, long ptsUs) {
+        long h = MAGIC;
+        h = h * 31 + offset;
+        h = h * 31 + size;
+        h = h * 31 + flags;
+        h = h * 31 + ptsUs;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,338 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 修复录制中被打断的文件：服务重新启动时查找遗留的 {@link RecordingJournal}，把对应的输出文件截到最后一个完整的位置
+ * <br/> 分片 mp4 截到最后一个完整的分片，H264 裸流截到最后一个完整的样本。有日志时按日志确定位置；
+ * 日志没有可用的记录时，用内存映射扫描文件：先从末尾找到实际写入的数据（{@link AsyncFileWriter} 预先扩展的部分为 0），
+ * 再按 box 或起始码找到最后的完整边界。只按窗口映射需要的部分，几 GB 的文件也不会读入堆内存
+ * <br/> 截短后 {@link KeyframeIndex} 中指向截掉部分的记录一并去掉
+ * <br/> MediaMuxer 写的 mp4 没有日志，不在修复范围内；MediaCodec 模式默认输出分片 mp4
+ */
+public class RecordingRecovery {
+    private static final String TAG = "RecordingRecovery";
+
+    /* 每次映射的窗口大小 */
+    static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    public static final int METHOD_JOURNAL = 1;
+    public static final int METHOD_SCAN = 2;
+
+    /**
+     * 一个文件的修复结果
+     */
+    public static class Result {
+        public File file;
+        /* METHOD_* */
+        public int method;
+        public long originalLength;
+        public long recoveredLength;
+        /* 修复后的时长，扫描修复时不知道，为 -1 */
+        public long durationUs = -1;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            return "Result{file=" + file + ", method=" + method + ", length=" + originalLength + "->"
+                    + recoveredLength + ", durationUs=" + durationUs + ", elapsedUs=" + elapsedNanos / 1000 + "}";
+        }
+    }
+
+    /**
+     * 修复 dir 中所有遗留日志对应的文件，修复后删除日志；没有修复出任何样本的文件一并删除
+     *
+     * @return 修复后可用的文件
+     */
+    public List<Result> recoverAll(File dir) {
+        List<Result> results = new ArrayList<>();
+        File[] journals = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(RecordingJournal.SUFFIX);
+            }
+        });
+        if (journals == null) {
+            return results;
+        }
+        for (File journal : journals) {
+            Result result = null;
+            try {
+                result = recover(journal);
+            } catch (IOException e) {
+                LogUtil.w(TAG, "recover {} failed: {}", journal, e.getMessage());
+            }
+            if (result != null) {
+                LogUtil.i(TAG, "recovered {}", result);
+                results.add(result);
+            }
+            if (!journal.delete()) {
+                LogUtil.w(TAG, "delete journal {} failed", journal);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 按日志修复一个文件，日志本身不删除
+     *
+     * @return 修复结果，文件不存在或者没有可用的数据时返回 null
+     */
+    public Result recover(File journal) throws IOException {
+        long begin = System.nanoTime();
+        String name = journal.getName();
+        File media = new File(journal.getParentFile(), name.substring(0, name.length() - RecordingJournal.SUFFIX.length()));
+        int format = media.getName().endsWith(".h264") ? RecordConfig.OUTPUT_FORMAT_H264 : RecordConfig.OUTPUT_FORMAT_FMP4;
+        JournalState state = new JournalState();
+        RandomAccessFile in = new RandomAccessFile(journal, "r");
+        try {
+            if (readJournal(in, state)) {
+                format = state.format;
+                media = new File(journal.getParentFile(), state.mediaName);
+            }
+        } finally {
+            in.close();
+        }
+        if (!media.isFile()) {
+            return null;
+        }
+        if (format != RecordConfig.OUTPUT_FORMAT_FMP4 && format != RecordConfig.OUTPUT_FORMAT_H264) {
+            LogUtil.w(TAG, "unsupported format {} for {}", format, media);
+            return null;
+        }
+
+        Result result = new Result();
+        result.file = media;
+        RandomAccessFile file = new RandomAccessFile(media, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            result.originalLength = channel.size();
+            long end = format == RecordConfig.OUTPUT_FORMAT_FMP4 ? state.fragmentEnd : state.sampleEnd;
+            if (end > 0 && end <= result.originalLength) {
+                result.method = METHOD_JOURNAL;
+                result.durationUs = (format == RecordConfig.OUTPUT_FORMAT_FMP4
+                        ? state.fragmentLastPtsUs : state.lastPtsUs) - state.firstPtsUs;
+            } else {
+                result.method = METHOD_SCAN;
+                MappedWindow window = new MappedWindow(channel);
+                long dataEnd = findDataEnd(window);
+                end = format == RecordConfig.OUTPUT_FORMAT_FMP4
+                        ? scanFragmented(window, dataEnd) : scanAnnexB(window, dataEnd);
+            }
+            if (end <= 0) {
+                file.close();
+                if (!media.delete()) {
+                    LogUtil.w(TAG, "delete empty {} failed", media);
+                }
+                KeyframeIndex.indexOf(media).delete();
+                ThumbnailStrip.stripOf(media).delete();
+                return null;
+            }
+            if (end < result.originalLength) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            result.recoveredLength = end;
+        } finally {
+            file.close();
+        }
+        try {
+            KeyframeIndex.truncate(media, result.recoveredLength);
+        } catch (IOException e) {
+            LogUtil.w(TAG, "truncate index of {} failed: {}", media, e.getMessage());
+        }
+        result.elapsedNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    /* 从日志读出的修复位置 */
+    static class JournalState {
+        int format;
+        String mediaName;
+        long records;
+        /* 最后一个完整分片的结尾 */
+        long fragmentEnd;
+        /* 最后一个样本的结尾 */
+        long sampleEnd;
+        long firstPtsUs = -1;
+        long lastPtsUs;
+        /* 最后一个完整分片中最大的时间戳 */
+        long fragmentLastPtsUs;
+    }
+
+    /**
+     * 读日志，遇到写了一半或者校验不对的记录即停止
+     *
+     * @return 文件头有效时返回 true
+     */
+    static boolean readJournal(RandomAccessFile in, JournalState state) throws IOException {
+        try {
+            if (in.readInt() != RecordingJournal.MAGIC || in.readInt() != RecordingJournal.VERSION) {
+                return false;
+            }
+            state.format = in.readInt();
+            state.mediaName = in.readUTF();
+        } catch (IOException e) {
+            return false;
+        }
+        long pos = in.getFilePointer();
+        long length = in.length();
+        long count = (length - pos) / RecordingJournal.RECORD_SIZE;
+        if (count == 0) {
+            return true;
+        }
+        MappedByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, pos,
+                count * RecordingJournal.RECORD_SIZE);
+        for (long i = 0; i < count; i++) {
+            long offset = map.getLong();
+            int size = map.getInt();
+            int flags = map.getInt();
+            long ptsUs = map.getLong();
+            if (map.getLong() != RecordingJournal.check(offset, size, flags, ptsUs)) {
+                break;
+            }
+            state.records++;
+            state.sampleEnd = Math.max(state.sampleEnd, offset + size);
+            if (state.firstPtsUs < 0 || ptsUs < state.firstPtsUs) {
+                state.firstPtsUs = ptsUs;
+            }
+            state.lastPtsUs = Math.max(state.lastPtsUs, ptsUs);
+            if ((flags & RecordingJournal.FLAG_FRAGMENT_END) != 0) {
+                state.fragmentEnd = offset + size;
+                state.fragmentLastPtsUs = state.lastPtsUs;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从末尾向前找到最后一个非 0 字节，返回它之后的位置
+     */
+    static long findDataEnd(MappedWindow window) throws IOException {
+        long end = window.length;
+        while (end > 0) {
+            long start = Math.max(0, end - WINDOW_SIZE);
+            window.map(start, (int) (end - start));
+            long pos = end;
+            /* 先按 8 字节跳过成段的 0 */
+            while (pos - 8 >= start && window.getLong(pos - 8) == 0) {
+                pos -= 8;
+            }
+            while (pos > start) {
+                if (window.get(pos - 1) != 0) {
+                    return pos;
+                }
+                pos--;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * 按 box 遍历分片 mp4，返回最后一个完整的 moof + mdat 的结尾；只有文件头时返回 0
+     */
+    static long scanFragmented(MappedWindow window, long dataEnd) throws IOException {
+        long pos = 0;
+        long headerEnd = 0;
+        long fragmentEnd = 0;
+        boolean afterMoof = false;
+        while (pos + 8 <= dataEnd) {
+            long size = window.getInt(pos) & 0xffffffffL;
+            int type = window.getInt(pos + 4);
+            if (size == 1 && pos + 16 <= dataEnd) {
+                size = window.getLong(pos + 8);
+            }
+            if (size < 8 || pos + size > dataEnd) {
+                break;
+            }
+            if (type == Mp4Box.FTYP || type == Mp4Box.MOOV) {
+                headerEnd = pos + size;
+            } else if (type == Mp4Box.MDAT && afterMoof) {
+                fragmentEnd = pos + size;
+            } else if (type != Mp4Box.MOOF) {
+                break;
+            }
+            afterMoof = type == Mp4Box.MOOF;
+            pos += size;
+        }
+        if (headerEnd == 0) {
+            return 0;
+        }
+        return fragmentEnd;
+    }
+
+    /**
+     * H264 裸流截到 dataEnd 之前最后一个起始码，丢掉可能不完整的最后一个 NAL；没有完整 NAL 时返回 0
+     */
+    static long scanAnnexB(MappedWindow window, long dataEnd) throws IOException {
+        long pos = dataEnd - 3;
+        while (pos > 0) {
+            long start = Math.max(0, pos - WINDOW_SIZE);
+            window.map(start, (int) (pos + 3 - start));
+            for (long i = pos; i >= start; i--) {
+                if (window.get(i + 2) == 1 && window.get(i + 1) == 0 && window.get(i) == 0) {
+                    long code = i > 0 && window.get(i - 1) == 0 ? i - 1 : i;
+                    if (code > 0) {
+                        return code;
+                    }
+                    return 0;
+                }
+            }
+            pos = start - 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 按窗口映射文件，读取时窗口不覆盖的位置自动重新映射
+     */
+    static class MappedWindow {
+        final FileChannel channel;
+        final long length;
+        private MappedByteBuffer map;
+        private long base;
+
+        MappedWindow(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+        }
+
+        void map(long start, int size) throws IOException {
+            if (map != null && start >= base && start + size <= base + map.capacity()) {
+                return;
+            }
+            base = start;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size, length - start));
+        }
+
+        private int index(long pos, int n) throws IOException {
+            if (map == null || pos < base || pos + n > base + map.capacity()) {
+                map(pos, (int) Math.min(WINDOW_SIZE, length - pos));
+            }
+            return (int) (pos - base);
+        }
+
+        byte get(long pos) throws IOException {
+            int i = index(pos, 1);
+            return map.get(i);
+        }
+
+        int getInt(long pos) throws IOException {
+            int i = index(pos, 4);
+            return map.getInt(i);
+        }
+
+        long getLong(long pos) throws IOException {
+            int i = index(pos, 8);
+            return map.getLong(i);
+        }
+    }
+}
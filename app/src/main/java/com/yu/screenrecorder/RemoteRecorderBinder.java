@@ -0,0 +1,217 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.Executor;
+
+/**
+ * 服务端的 {@link IRemoteRecorder}，把跨进程的调用转给进程内的 {@link IRecorderController}
+ * <br/> 控制操作在 binder 线程中只是提交给控制线程，不等待结果；录制事件在 callbackExecutor 中逐个转发给各客户端，
+ * 时长和统计事件不转发，客户端从状态文件读取；统计快照在 binder 线程中直接读取返回
+ */
+public class RemoteRecorderBinder extends IRemoteRecorder.Stub {
+    private static final String TAG = "RemoteRecorderBinder";
+
+    private final Context context;
+    private final IRecorderController controller;
+    private final File statusFile;
+    private final RemoteCallbackList<IRemoteRecorderListener> listeners = new RemoteCallbackList<>();
+
+    /* 转发事件，只在 callbackExecutor 中执行，RemoteCallbackList 的广播不能并发 */
+    private final OnRecorderEventListener forwarder = new OnRecorderEventListener() {
+        @Override
+        public void onRecorderEvent(RecorderEvent event) {
+            if (event.type == RecorderEvent.TYPE_UPDATE || event.type == RecorderEvent.TYPE_STATS) {
+                return;
+            }
+            int count = listeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        listeners.getBroadcastItem(i).onRecorderEvent(event.type, event.text, event.timeMs);
+                    } catch (RemoteException e) {
+                        // 客户端进程已经退出，RemoteCallbackList 会自动移除
+                    }
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    };
+
+    /**
+     * @param statusFile 服务写入的 StatusBlock 文件
+     * @param callbackExecutor 转发事件的线程，必须是单线程
+     */
+    public RemoteRecorderBinder(Context context, IRecorderController controller, File statusFile,
+                                Executor callbackExecutor) {
+        this.context = context.getApplicationContext();
+        this.controller = controller;
+        this.statusFile = statusFile;
+        controller.addRecorderListener(forwarder, callbackExecutor);
+    }
+
+    @Override
+    public ParcelFileDescriptor openStatus() throws RemoteException {
+        try {
+            return ParcelFileDescriptor.open(statusFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (FileNotFoundException e) {
+            LogUtil.e(TAG, "open status failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void startRecord() {
+        controller.startRecord();
+    }
+
+    @Override
+    public void stopRecord() {
+        controller.stopRecord();
+    }
+
+    @Override
+    public void pauseRecord() {
+        controller.pauseRecord();
+    }
+
+    @Override
+    public void resumeRecord() {
+        controller.resumeRecord();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public void setProjection(int resultCode, Intent data) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || data == null) {
+            return;
+        }
+        MediaProjectionManager manager =
+                (MediaProjectionManager) context.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        MediaProjection projection = manager.getMediaProjection(resultCode, data);
+        if (projection == null) {
+            LogUtil.e(TAG, "get media projection failed, resultCode " + resultCode);
+            return;
+        }
+        controller.setMediaProject(projection);
+    }
+
+    @Override
+    public void setConfig(int width, int height, int dpi) {
+        controller.setConfig(width, height, dpi);
+    }
+
+    @Override
+    public void setCaptureProfile(int profile, int maxEdge) {
+        controller.setCaptureProfile(profile, maxEdge);
+    }
+
+    @Override
+    public void setRecordMode(int mode) {
+        controller.setRecordMode(mode);
+    }
+
+    @Override
+    public void setExtraOutputs(int outputs) {
+        controller.setExtraOutputs(outputs);
+    }
+
+    @Override
+    public void setOutputFormat(int format) {
+        controller.setOutputFormat(format);
+    }
+
+    @Override
+    public void setSegmentLimits(int durationMs, long bytes) {
+        controller.setSegmentLimits(durationMs, bytes);
+    }
+
+    @Override
+    public void saveReplay() {
+        controller.saveReplay();
+    }
+
+    @Override
+    public void setIdleTimeout(int timeoutMs) {
+        controller.setIdleTimeout(timeoutMs);
+    }
+
+    @Override
+    public void setReplayBufferConfig(int maxBytes, int maxSeconds) {
+        controller.setReplayBufferConfig(maxBytes, maxSeconds);
+    }
+
+    @Override
+    public void setStreamPort(int port) {
+        controller.setStreamPort(port);
+    }
+
+    @Override
+    public void setStatusUpdateInterval(int intervalMs) {
+        controller.setStatusUpdateInterval(intervalMs);
+    }
+
+    @Override
+    public void setAudioSource(int source) {
+        controller.setAudioSource(source);
+    }
+
+    @Override
+    public void setBackpressurePolicy(int policy) {
+        controller.setBackpressurePolicy(policy);
+    }
+
+    @Override
+    public void setAdaptiveRate(boolean enabled, int minBitRate, int minFrameRate) {
+        controller.setAdaptiveRate(enabled, minBitRate, minFrameRate);
+    }
+
+    @Override
+    public void setVariableFrameRate(boolean enabled, int maxIntervalMs) {
+        controller.setVariableFrameRate(enabled, maxIntervalMs);
+    }
+
+    @Override
+    public StatsParcel getLastRateDecision() {
+        return StatsParcel.of(controller.getLastRateDecision());
+    }
+
+    @Override
+    public StatsParcel getPipelineStats() {
+        return StatsParcel.of(controller.getPipelineStats());
+    }
+
+    @Override
+    public StatsParcel getStats() {
+        return StatsParcel.of(controller.getStats());
+    }
+
+    @Override
+    public void addListener(IRemoteRecorderListener listener) {
+        if (listener != null) listeners.register(listener);
+    }
+
+    @Override
+    public void removeListener(IRemoteRecorderListener listener) {
+        if (listener != null) listeners.unregister(listener);
+    }
+
+    /**
+     * 服务销毁时调用
+     */
+    public void release() {
+        controller.removeRecorderListener(forwarder);
+        listeners.kill();
+    }
+}
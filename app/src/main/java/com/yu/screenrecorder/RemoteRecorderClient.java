@@ -0,0 +1,383 @@
+package com.yu.screenrecorder;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * 客户端的录制控制，RecordService 运行在独立进程时使用
+ * <br/> 控制操作是 oneway 调用，立即返回，结果从状态或事件得知；状态直接读服务共享的 {@link StatusBlock}，
+ * 界面可以按自己的节奏刷新而不产生 binder 调用。录制事件在本进程的 {@link RecorderEventBus} 中分发，
+ * 不管有多少个 listener，服务端只有一个回调
+ * <br/> 服务进程退出后调用只会打印日志，重新绑定后需要重新创建
+ */
+public class RemoteRecorderClient {
+    private static final String TAG = "RemoteRecorderClient";
+    /* 绑定跨进程的控制接口，不带这个 action 时 onBind 返回进程内的 IRecorderController */
+    public static final String ACTION_BIND = "com.yu.screenrecorder.action.BIND_REMOTE_RECORDER";
+
+    private final IRemoteRecorder remote;
+    private final StatusBlock.Reader status;
+    private final RecorderEventBus eventBus = new RecorderEventBus();
+    private boolean listening;
+
+    private final IRemoteRecorderListener.Stub callback = new IRemoteRecorderListener.Stub() {
+        @Override
+        public void onRecorderEvent(int type, String text, long timeMs) {
+            eventBus.post(type, text, null, timeMs);
+        }
+    };
+
+    /**
+     * 绑定服务用的 Intent
+     */
+    public static Intent bindIntent(Context context) {
+        return new Intent(context, RecordService.class).setAction(ACTION_BIND);
+    }
+
+    /**
+     * 在 onServiceConnected 中创建，会同步调用一次 openStatus 映射状态文件
+     */
+    public RemoteRecorderClient(IBinder binder) {
+        remote = IRemoteRecorder.Stub.asInterface(binder);
+        status = openStatus();
+    }
+
+    private StatusBlock.Reader openStatus() {
+        ParcelFileDescriptor fd = null;
+        try {
+            fd = remote.openStatus();
+            if (fd == null) {
+                return null;
+            }
+            FileInputStream in = new FileInputStream(fd.getFileDescriptor());
+            return new StatusBlock.Reader(in.getChannel(), fd);
+        } catch (RemoteException | IOException e) {
+            LogUtil.e(TAG, "open status failed: " + e.getMessage());
+            closeQuietly(fd);
+            return null;
+        }
+    }
+
+    /**
+     * 读取录制状态，不经过 binder，可以每帧调用
+     *
+     * @return 状态文件不可用时返回 false
+     */
+    public boolean readStatus(RecorderStatus out) {
+        return status != null && status.read(out);
+    }
+
+    public void startRecord() {
+        try {
+            remote.startRecord();
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "startRecord failed: {}", e);
+        }
+    }
+
+    public void stopRecord() {
+        try {
+            remote.stopRecord();
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "stopRecord failed: {}", e);
+        }
+    }
+
+    public void pauseRecord() {
+        try {
+            remote.pauseRecord();
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "pauseRecord failed: {}", e);
+        }
+    }
+
+    public void resumeRecord() {
+        try {
+            remote.resumeRecord();
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "resumeRecord failed: {}", e);
+        }
+    }
+
+    /**
+     * 把录屏授权的结果交给服务，在 onActivityResult 中调用
+     */
+    public void setProjection(int resultCode, Intent data) {
+        try {
+            remote.setProjection(resultCode, data);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setProjection failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setConfig(int, int, int)
+     */
+    public void setConfig(int width, int height, int dpi) {
+        try {
+            remote.setConfig(width, height, dpi);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setConfig failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setCaptureProfile(int, int)
+     */
+    public void setCaptureProfile(int profile, int maxEdge) {
+        try {
+            remote.setCaptureProfile(profile, maxEdge);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setCaptureProfile failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setRecordMode(int)
+     */
+    public void setRecordMode(int mode) {
+        try {
+            remote.setRecordMode(mode);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setRecordMode failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setExtraOutputs(int)
+     */
+    public void setExtraOutputs(int outputs) {
+        try {
+            remote.setExtraOutputs(outputs);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setExtraOutputs failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setOutputFormat(int)
+     */
+    public void setOutputFormat(int format) {
+        try {
+            remote.setOutputFormat(format);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setOutputFormat failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setSegmentLimits(int, long)
+     */
+    public void setSegmentLimits(int durationMs, long bytes) {
+        try {
+            remote.setSegmentLimits(durationMs, bytes);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setSegmentLimits failed: {}", e);
+        }
+    }
+
+    public void saveReplay() {
+        try {
+            remote.saveReplay();
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "saveReplay failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setIdleTimeout(int)
+     */
+    public void setIdleTimeout(int timeoutMs) {
+        try {
+            remote.setIdleTimeout(timeoutMs);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setIdleTimeout failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setReplayBufferConfig(int, int)
+     */
+    public void setReplayBufferConfig(int maxBytes, int maxSeconds) {
+        try {
+            remote.setReplayBufferConfig(maxBytes, maxSeconds);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setReplayBufferConfig failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setStreamPort(int)
+     */
+    public void setStreamPort(int port) {
+        try {
+            remote.setStreamPort(port);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setStreamPort failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setStatusUpdateInterval(int)
+     */
+    public void setStatusUpdateInterval(int intervalMs) {
+        try {
+            remote.setStatusUpdateInterval(intervalMs);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setStatusUpdateInterval failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setAudioSource(int)
+     */
+    public void setAudioSource(int source) {
+        try {
+            remote.setAudioSource(source);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setAudioSource failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setBackpressurePolicy(int)
+     */
+    public void setBackpressurePolicy(int policy) {
+        try {
+            remote.setBackpressurePolicy(policy);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setBackpressurePolicy failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setAdaptiveRate(boolean, int, int)
+     */
+    public void setAdaptiveRate(boolean enabled, int minBitRate, int minFrameRate) {
+        try {
+            remote.setAdaptiveRate(enabled, minBitRate, minFrameRate);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setAdaptiveRate failed: {}", e);
+        }
+    }
+
+    /**
+     * @see IRecorderController#setVariableFrameRate(boolean, int)
+     */
+    public void setVariableFrameRate(boolean enabled, int maxIntervalMs) {
+        try {
+            remote.setVariableFrameRate(enabled, maxIntervalMs);
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "setVariableFrameRate failed: {}", e);
+        }
+    }
+
+    /**
+     * 同步的 binder 调用，不要在主线程频繁调用
+     *
+     * @return 没有调整过或者服务进程已经退出时返回 null
+     * @see IRecorderController#getLastRateDecision()
+     */
+    public RateDecision getLastRateDecision() {
+        try {
+            StatsParcel parcel = remote.getLastRateDecision();
+            return parcel != null ? parcel.rateDecision : null;
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "getLastRateDecision failed: {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 同步的 binder 调用，不要在主线程频繁调用
+     *
+     * @return 当前没有经过流水线录制或者服务进程已经退出时返回 null
+     * @see IRecorderController#getPipelineStats()
+     */
+    public PipelineStats getPipelineStats() {
+        try {
+            StatsParcel parcel = remote.getPipelineStats();
+            return parcel != null ? parcel.pipeline : null;
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "getPipelineStats failed: {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 同步的 binder 调用，不要在主线程频繁调用；界面刷新用 {@link #readStatus(RecorderStatus)}
+     *
+     * @return 服务进程已经退出时返回 null
+     * @see IRecorderController#getStats()
+     */
+    public RecorderStats getStats() {
+        try {
+            StatsParcel parcel = remote.getStats();
+            return parcel != null ? parcel.stats : null;
+        } catch (RemoteException e) {
+            LogUtil.w(TAG, "getStats failed: {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 添加录制事件回调，不包括时长和统计事件，这些从 {@link #readStatus(RecorderStatus)} 读取
+     */
+    public synchronized void addRecorderListener(OnRecorderEventListener listener, Executor executor) {
+        eventBus.register(listener, executor);
+        if (!listening) {
+            try {
+                remote.addListener(callback);
+                listening = true;
+            } catch (RemoteException e) {
+                LogUtil.w(TAG, "addListener failed: {}", e);
+            }
+        }
+    }
+
+    public synchronized void removeRecorderListener(OnRecorderEventListener listener) {
+        eventBus.unregister(listener);
+        if (listening && !eventBus.hasSubscribers()) {
+            listening = false;
+            try {
+                remote.removeListener(callback);
+            } catch (RemoteException e) {
+                // 服务进程已经退出
+            }
+        }
+    }
+
+    /**
+     * 解绑服务之前调用，释放状态文件和事件回调
+     */
+    public synchronized void close() {
+        if (listening) {
+            listening = false;
+            try {
+                remote.removeListener(callback);
+            } catch (RemoteException e) {
+                // 服务进程已经退出
+            }
+        }
+        closeQuietly(status);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "close failed: {}", e);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 即时回放缓冲：在固定大小的堆外内存中保留最近一段时间的编码样本
+ * <br/> 样本数据依次写入预先分配的 direct ByteBuffer，索引保存在基本类型数组中，
+ * 写入时不产生任何对象；空间或时长超限时从最旧的 GOP 开始整组淘汰，
+ * 保证缓冲区总是从关键帧开始。
+ * <br/> 写入在编码线程，{@link #saveTo(ISampleSink)} 可以在其他线程并发调用
+ */
+public class ReplayBuffer implements ISampleSink {
+    private static final String TAG = "ReplayBuffer";
+    private static final int MAX_TRACKS = 2;
+
+    private final ByteBuffer data;
+    private final int maxSamples;
+    private final long maxDurationUs;
+
+    /* 样本索引，按序号对 maxSamples 取模存放 */
+    private final long[] ptsUs;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final int[] flags;
+    private final int[] tracks;
+
+    private final TrackFormat[] formats = new TrackFormat[MAX_TRACKS];
+    private int trackCount;
+    private int videoTrack = -1;
+
+    /* 最旧样本序号与下一个写入序号，二者相等表示为空 */
+    private long head;
+    private long tail;
+    private int writePosition;
+
+    /* 统计 */
+    private long droppedSamples;
+    private long evictedSamples;
+
+    /**
+     * @param capacityBytes 样本数据占用的最大内存
+     * @param maxSamples 最多保留的样本数
+     * @param maxDurationUs 最多保留的时长，微秒
+     */
+    public ReplayBuffer(int capacityBytes, int maxSamples, long maxDurationUs) {
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.maxSamples = maxSamples;
+        this.maxDurationUs = maxDurationUs;
+        ptsUs = new long[maxSamples];
+        offsets = new int[maxSamples];
+        sizes = new int[maxSamples];
+        flags = new int[maxSamples];
+        tracks = new int[maxSamples];
+    }
+
+    @Override
+    public synchronized int addTrack(TrackFormat format) {
+        if (trackCount == MAX_TRACKS) {
+            throw new IllegalStateException("too many tracks");
+        }
+        if (format.isVideo() && videoTrack < 0) {
+            videoTrack = trackCount;
+        }
+        formats[trackCount] = format;
+        return trackCount++;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public synchronized void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        int size = buffer.remaining();
+        if (size > data.capacity()) {
+            droppedSamples++;
+            LogUtil.w(TAG, "sample larger than replay buffer, dropped");
+            return;
+        }
+        if (writePosition + size > data.capacity()) {
+            /* 回绕：writePosition 之后的都是比 [0, writePosition) 更旧的样本，先全部淘汰，
+               否则从头写入会覆盖仍在索引中的较新样本 */
+            while (head != tail && offsets[(int) (head % maxSamples)] >= writePosition) {
+                evictGop();
+            }
+            writePosition = 0;
+        }
+        while (head != tail && overlapsHead(writePosition, size)) {
+            evictGop();
+        }
+        if (tail - head == maxSamples) {
+            evictGop();
+        }
+        /* 缓冲为空时只能从关键帧开始 */
+        if (head == tail && !(track == videoTrack && info.isKeyFrame())) {
+            droppedSamples++;
+            return;
+        }
+
+        int slot = (int) (tail % maxSamples);
+        ptsUs[slot] = info.presentationTimeUs;
+        offsets[slot] = writePosition;
+        sizes[slot] = size;
+        flags[slot] = info.flags;
+        tracks[slot] = track;
+
+        int position = buffer.position();
+        data.limit(writePosition + size);
+        data.position(writePosition);
+        data.put(buffer);
+        buffer.position(position);
+        writePosition += size;
+        tail++;
+
+        while (head != tail && info.presentationTimeUs - ptsUs[(int) (head % maxSamples)] > maxDurationUs) {
+            evictGop();
+        }
+    }
+
+    private boolean overlapsHead(int position, int size) {
+        int slot = (int) (head % maxSamples);
+        return offsets[slot] < position + size && position < offsets[slot] + sizes[slot];
+    }
+
+    /**
+     * 淘汰最旧的样本直到下一个关键帧，即整个 GOP
+     */
+    private void evictGop() {
+        do {
+            head++;
+            evictedSamples++;
+        } while (head != tail && !isGopStart(head));
+    }
+
+    private boolean isGopStart(long seq) {
+        int slot = (int) (seq % maxSamples);
+        return tracks[slot] == videoTrack && (flags[slot] & SampleInfo.FLAG_KEY_FRAME) != 0;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * 清空缓冲，开始新的录制前调用
+     */
+    public synchronized void clear() {
+        head = tail = 0;
+        writePosition = 0;
+        trackCount = 0;
+        videoTrack = -1;
+        droppedSamples = evictedSamples = 0;
+        for (int i = 0; i < MAX_TRACKS; i++) formats[i] = null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    public synchronized int getSampleCount() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * 当前缓冲的时长，微秒
+     */
+    public synchronized long getDurationUs() {
+        if (head == tail) {
+            return 0;
+        }
+        return ptsUs[(int) ((tail - 1) % maxSamples)] - ptsUs[(int) (head % maxSamples)];
+    }
+
+    public synchronized long getEvictedSamples() {
+        return evictedSamples;
+    }
+
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public int getCapacityBytes() {
+        return data.capacity();
+    }
+
+    public long getMaxDurationUs() {
+        return maxDurationUs;
+    }
+
+    /**
+     * 把当前缓冲的内容从最早的关键帧开始写入 sink，时间戳从 0 开始
+     * <br/> 每个样本只在拷贝时持锁，写文件期间编码线程可以继续写入；
+     * 写出过程中被淘汰的样本会被跳过，从新的最早关键帧继续
+     *
+     * @return 写出的样本数
+     */
+    public int saveTo(ISampleSink sink) {
+        long seq;
+        long end;
+        long firstPts;
+        synchronized (this) {
+            if (head == tail) {
+                return 0;
+            }
+            for (int i = 0; i < trackCount; i++) {
+                sink.addTrack(formats[i]);
+            }
+            seq = head;
+            end = tail;
+            firstPts = ptsUs[(int) (head % maxSamples)];
+        }
+        sink.start();
+
+        ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+        SampleInfo info = new SampleInfo();
+        int written = 0;
+        int track;
+        while (seq < end) {
+            synchronized (this) {
+                if (seq < head) {
+                    seq = head;
+                    if (seq >= end) break;
+                }
+                int slot = (int) (seq % maxSamples);
+                int size = sizes[slot];
+                if (scratch.capacity() < size) {
+                    scratch = ByteBuffer.allocateDirect(size);
+                }
+                scratch.clear();
+                ByteBuffer src = data.duplicate();
+                src.limit(offsets[slot] + size);
+                src.position(offsets[slot]);
+                scratch.put(src);
+                scratch.flip();
+                track = tracks[slot];
+                long pts = Math.max(0, ptsUs[slot] - firstPts);
+                info.set(0, size, pts, flags[slot]);
+            }
+            sink.writeSample(track, scratch, info);
+            written++;
+            seq++;
+        }
+        sink.stop();
+        return written;
+    }
+}
@@ -0,0 +1,34 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在流水线各阶段之间传递的编码样本，由 {@link SamplePool} 复用
+ */
+public class Sample {
+    public int track;
+    public final SampleInfo info = new SampleInfo();
+    /* 样本数据，position 为 0，limit 为样本大小 */
+    public ByteBuffer data;
+
+    Sample(int capacity) {
+        data = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * 拷贝一个样本，容量不够时重新分配
+     */
+    public void copyFrom(int track, ByteBuffer src, SampleInfo info) {
+        int size = src.remaining();
+        if (data.capacity() < size) {
+            data = ByteBuffer.allocateDirect(size + size / 2);
+        }
+        int position = src.position();
+        data.clear();
+        data.put(src);
+        data.flip();
+        src.position(position);
+        this.track = track;
+        this.info.set(0, size, info.presentationTimeUs, info.flags);
+    }
+}
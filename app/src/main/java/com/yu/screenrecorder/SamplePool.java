@@ -0,0 +1,31 @@
+package com.yu.screenrecorder;
+
+/**
+ * 预先分配的样本池
+ * <br/> acquire 和 release 分别只能在一个线程调用，对应流水线的上下游
+ */
+public class SamplePool {
+    private final SpscQueue<Sample> free;
+
+    public SamplePool(int count, int sampleCapacity) {
+        free = new SpscQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.offer(new Sample(sampleCapacity));
+        }
+    }
+
+    /**
+     * 取出一个空闲样本，没有时返回 null
+     */
+    public Sample acquire() {
+        return free.poll();
+    }
+
+    public void release(Sample sample) {
+        free.offer(sample);
+    }
+
+    public int available() {
+        return free.size();
+    }
+}
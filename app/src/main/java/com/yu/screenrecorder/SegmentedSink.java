@@ -0,0 +1,271 @@
+package com.yu.screenrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分段录制：按时长或大小把一次录制切成多个文件，在主轨道（有视频时为视频轨）的关键帧处切换
+ * <br/> 每个分段由 {@link SegmentFactory} 创建自己的下游 sink，添加与之前相同的轨道。
+ * 先打开并启动下一个分段再结束当前分段，触发切换的关键帧是新分段的第一个样本，样本既不丢失也不重复；
+ * 下一个分段打开失败时继续写当前分段，过 {@link #RETRY_INTERVAL_US} 再重试
+ * <br/> 达到限制时当前样本不是关键帧，请求编码器尽快输出一个关键帧，分段大小不会因为关键帧间隔太长而超出很多
+ * <br/> 样本时间戳保持不变，各分段在同一条时间线上，可以用 {@link FragmentedMp4Editor} 无损拼接。
+ * 除 {@link #getSegmentCount()} 外所有调用都在写样本的线程
+ */
+public class SegmentedSink implements ISampleSink {
+    private static final String TAG = "SegmentedSink";
+    static final long RETRY_INTERVAL_US = 10000000;
+
+    /**
+     * 创建分段的下游 sink
+     */
+    public interface SegmentFactory {
+        /**
+         * 打开一个分段，之后由 SegmentedSink 添加轨道、启动、停止和释放
+         *
+         * @param file 分段文件，见 {@link #segmentFile(File, int)}
+         */
+        ISampleSink open(File file) throws IOException;
+    }
+
+    public interface OnSegmentClosedListener {
+        /**
+         * 分段写完并关闭，在写样本的线程回调
+         */
+        void onSegmentClosed(Segment segment);
+    }
+
+    /**
+     * 一个写完的分段
+     */
+    public static class Segment {
+        public File file;
+        /* 第几个分段，从 0 开始 */
+        public int index;
+        /* 第一个主轨道样本的时间戳 */
+        public long startUs;
+        public long durationUs;
+        /* 样本数据的字节数，不含封装 */
+        public long bytes;
+        public int samples;
+        /* 录制结束时关闭的最后一个分段 */
+        public boolean last;
+
+        @Override
+        public String toString() {
+            return "segment " + index + " " + file.getName() + " " + durationUs / 1000 + "ms "
+                    + bytes + " bytes " + samples + " samples" + (last ? " (last)" : "");
+        }
+    }
+
+    private final File firstFile;
+    private final long maxDurationUs;
+    private final long maxBytes;
+    private final SegmentFactory factory;
+    private final List<TrackFormat> formats = new ArrayList<>();
+    private OnSegmentClosedListener listener;
+    private ICodec codec;
+    /* 决定切换点的轨道，有视频轨时为视频轨 */
+    private int primaryTrack = -1;
+    private boolean primaryVideo;
+
+    /* 当前分段 */
+    private ISampleSink current;
+    private int[] trackMap = new int[0];
+    private int index;
+    private File file;
+    private boolean started;
+    private long startUs = -1;
+    private long lastUs = -1;
+    private long bytes;
+    private int samples;
+    private boolean syncRequested;
+    /* 打开下一个分段失败后，主轨道时间戳到这里再重试 */
+    private long retryAtUs = Long.MIN_VALUE;
+    private volatile int segmentCount;
+
+    /**
+     * 打开第一个分段，文件为 file 本身
+     *
+     * @param maxDurationUs 分段最长时长，不大于 0 时不按时长切分
+     * @param maxBytes 分段样本数据的最大字节数，不大于 0 时不按大小切分
+     */
+    public SegmentedSink(File file, long maxDurationUs, long maxBytes, SegmentFactory factory) throws IOException {
+        this.firstFile = file;
+        this.maxDurationUs = maxDurationUs;
+        this.maxBytes = maxBytes;
+        this.factory = factory;
+        this.file = file;
+        current = factory.open(file);
+        segmentCount = 1;
+    }
+
+    /**
+     * 第 index 个分段的文件名：第一个分段为 first 本身，之后为 name_002.ext、name_003.ext ...
+     */
+    public static File segmentFile(File first, int index) {
+        if (index == 0) {
+            return first;
+        }
+        String name = first.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        return new File(first.getParentFile(), base + String.format(Locale.US, "_%03d", index + 1) + ext);
+    }
+
+    public void setOnSegmentClosedListener(OnSegmentClosedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置编码器，达到限制时请求关键帧，在 start 之前调用
+     */
+    public void setCodec(ICodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 已经打开的分段个数，可以在任意线程调用
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("addTrack after start");
+        }
+        int track = formats.size();
+        formats.add(format);
+        if (primaryTrack < 0 || (!primaryVideo && format.isVideo())) {
+            primaryTrack = track;
+            primaryVideo = format.isVideo();
+        }
+        int[] map = new int[track + 1];
+        System.arraycopy(trackMap, 0, map, 0, track);
+        map[track] = current.addTrack(format);
+        trackMap = map;
+        return track;
+    }
+
+    @Override
+    public void start() {
+        current.start();
+        started = true;
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        if (track == primaryTrack) {
+            long ptsUs = info.presentationTimeUs;
+            if (startUs < 0) {
+                startUs = ptsUs;
+            } else if (reachedLimit(ptsUs)) {
+                if (!primaryVideo || info.isKeyFrame()) {
+                    rotate(ptsUs);
+                } else if (!syncRequested && codec != null) {
+                    codec.requestSyncFrame();
+                    syncRequested = true;
+                }
+            }
+            lastUs = ptsUs;
+        }
+        bytes += buffer.remaining();
+        samples++;
+        current.writeSample(trackMap[track], buffer, info);
+    }
+
+    private boolean reachedLimit(long ptsUs) {
+        if (ptsUs < retryAtUs) {
+            return false;
+        }
+        return (maxDurationUs > 0 && ptsUs - startUs >= maxDurationUs)
+                || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    /**
+     * 打开下一个分段并结束当前分段
+     *
+     * @param ptsUs 新分段第一个样本的时间戳
+     */
+    private void rotate(long ptsUs) {
+        File nextFile = segmentFile(firstFile, index + 1);
+        ISampleSink next = null;
+        int[] nextMap = new int[formats.size()];
+        try {
+            next = factory.open(nextFile);
+            for (int i = 0; i < nextMap.length; i++) {
+                nextMap[i] = next.addTrack(formats.get(i));
+            }
+            next.start();
+        } catch (IOException | IllegalStateException e) {
+            LogUtil.w(TAG, "open segment {} failed: {}", nextFile.getName(), e.getMessage());
+            // 没有启动的分段释放时关闭写线程并删除文件
+            if (next != null) next.release();
+            retryAtUs = ptsUs + RETRY_INTERVAL_US;
+            return;
+        }
+        close(ptsUs, false);
+        current = next;
+        trackMap = nextMap;
+        index++;
+        file = nextFile;
+        startUs = ptsUs;
+        bytes = 0;
+        samples = 0;
+        syncRequested = false;
+        retryAtUs = Long.MIN_VALUE;
+        segmentCount = index + 1;
+    }
+
+    /**
+     * 停止并释放当前分段，通知监听者
+     *
+     * @param endUs 分段结束的时间戳
+     */
+    private void close(long endUs, boolean last) {
+        ISampleSink sink = current;
+        current = null;
+        try {
+            sink.stop();
+        } finally {
+            sink.release();
+        }
+        Segment segment = new Segment();
+        segment.file = file;
+        segment.index = index;
+        segment.startUs = startUs;
+        segment.durationUs = startUs >= 0 ? Math.max(0, endUs - startUs) : 0;
+        segment.bytes = bytes;
+        segment.samples = samples;
+        segment.last = last;
+        LogUtil.i(TAG, "{}", segment);
+        if (listener != null) listener.onSegmentClosed(segment);
+    }
+
+    @Override
+    public void stop() {
+        if (current != null && started) {
+            started = false;
+            close(lastUs, true);
+        }
+    }
+
+    /**
+     * 没有正常停止时只释放当前分段，文件由录制日志修复
+     */
+    @Override
+    public void release() {
+        if (current != null) {
+            ISampleSink sink = current;
+            current = null;
+            sink.release();
+        }
+    }
+}
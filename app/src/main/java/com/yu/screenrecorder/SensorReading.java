@@ -0,0 +1,33 @@
+package com.yu.screenrecorder;
+
+/**
+ * 一次电池和温控状态的读数，由 {@link ThermalGovernor.SensorSource} 填写
+ */
+public class SensorReading {
+    public static final int TEMPERATURE_UNKNOWN = Integer.MIN_VALUE;
+
+    /* PowerManager.THERMAL_STATUS_*，10.0 开始提供，之前的版本为 UNKNOWN */
+    public static final int THERMAL_STATUS_UNKNOWN = -1;
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_LIGHT = 1;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+    public static final int THERMAL_STATUS_CRITICAL = 4;
+    public static final int THERMAL_STATUS_EMERGENCY = 5;
+    public static final int THERMAL_STATUS_SHUTDOWN = 6;
+
+    /* 电池温度，0.1 摄氏度，与 BatteryManager.EXTRA_TEMPERATURE 相同 */
+    public int temperature = TEMPERATURE_UNKNOWN;
+    /* 正在充电或已充满 */
+    public boolean charging;
+    /* 电量百分比，未知时为 -1 */
+    public int batteryPercent = -1;
+    public int thermalStatus = THERMAL_STATUS_UNKNOWN;
+
+    public void set(int temperature, boolean charging, int batteryPercent, int thermalStatus) {
+        this.temperature = temperature;
+        this.charging = charging;
+        this.batteryPercent = batteryPercent;
+        this.thermalStatus = thermalStatus;
+    }
+}
@@ -0,0 +1,72 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的样本，同一份数据交给多个消费者，最后一个 {@link #release()} 时回到 {@link SharedSamplePool}
+ * <br/> 各消费者通过 {@link #view(int)} 读取自己的视图，互不影响 position，数据不再拷贝
+ */
+public class SharedSample extends Sample {
+    private final SharedSamplePool pool;
+    private final AtomicInteger refs = new AtomicInteger();
+    /* 每个消费者一个视图，数据重新分配时重建 */
+    private final ByteBuffer[] views;
+    /* 空闲链表中的下一个，由 pool 使用 */
+    SharedSample next;
+
+    SharedSample(SharedSamplePool pool, int capacity, int consumers) {
+        super(capacity);
+        this.pool = pool;
+        views = new ByteBuffer[consumers];
+        resetViews();
+    }
+
+    @Override
+    public void copyFrom(int track, ByteBuffer src, SampleInfo info) {
+        ByteBuffer old = data;
+        super.copyFrom(track, src, info);
+        if (data != old) {
+            resetViews();
+        }
+    }
+
+    private void resetViews() {
+        for (int i = 0; i < views.length; i++) {
+            views[i] = data.duplicate();
+        }
+    }
+
+    /**
+     * 第 consumer 个消费者的视图，position 为 0，limit 为样本大小；只能由对应的消费者使用
+     */
+    public ByteBuffer view(int consumer) {
+        ByteBuffer view = views[consumer];
+        view.limit(data.limit());
+        view.position(0);
+        return view;
+    }
+
+    /**
+     * 增加一个引用，交给消费者之前调用
+     */
+    public void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * 释放一个引用，没有引用时回到池中
+     */
+    public void release() {
+        int n = refs.decrementAndGet();
+        if (n == 0) {
+            pool.recycle(this);
+        } else if (n < 0) {
+            throw new IllegalStateException("sample released too many times");
+        }
+    }
+
+    int refCount() {
+        return refs.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link SharedSample} 的池，样本按需创建，最多 maxCount 个
+ * <br/> acquire 只能在一个线程调用，release 可以在任意线程调用。空闲样本用样本自身的 next 串成无锁栈，
+ * 只有一个线程出栈，不存在 ABA 问题；入栈出栈都不分配对象
+ */
+public class SharedSamplePool {
+    private final AtomicReference<SharedSample> free = new AtomicReference<>();
+    private final int maxCount;
+    private final int sampleCapacity;
+    private final int consumers;
+    /* 只在 acquire 线程写 */
+    private volatile int created;
+
+    /**
+     * @param maxCount 最多创建的样本数
+     * @param sampleCapacity 样本的初始容量，样本更大时重新分配
+     * @param consumers 每个样本的消费者数，即视图数
+     */
+    public SharedSamplePool(int maxCount, int sampleCapacity, int consumers) {
+        this.maxCount = maxCount;
+        this.sampleCapacity = sampleCapacity;
+        this.consumers = consumers;
+    }
+
+    /**
+     * 取出一个空闲样本，引用计数为 1；都在使用且已经达到上限时返回 null
+     */
+    public SharedSample acquire() {
+        SharedSample sample;
+        while (true) {
+            sample = free.get();
+            if (sample == null) {
+                break;
+            }
+            if (free.compareAndSet(sample, sample.next)) {
+                sample.next = null;
+                break;
+            }
+        }
+        if (sample == null) {
+            if (created == maxCount) {
+                return null;
+            }
+            sample = new SharedSample(this, sampleCapacity, consumers);
+            created++;
+        }
+        sample.retain();
+        return sample;
+    }
+
+    /**
+     * 引用计数归零的样本回到池中，由 {@link SharedSample#release()} 调用
+     */
+    void recycle(SharedSample sample) {
+        while (true) {
+            SharedSample head = free.get();
+            sample.next = head;
+            if (free.compareAndSet(head, sample)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 已经创建的样本数
+     */
+    public int getCreated() {
+        return created;
+    }
+}
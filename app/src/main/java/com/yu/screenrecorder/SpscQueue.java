@@ -0,0 +1,73 @@
+package com.yu.screenrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界的单生产者单消费者无锁队列
+ * <br/> offer 只能在一个线程调用，poll 只能在另一个线程调用；入队出队不分配对象
+ */
+public class SpscQueue<E> {
+    private final Object[] buffer;
+    private final int mask;
+    /* 消费者位置，只由消费者线程写 */
+    private final AtomicLong head = new AtomicLong();
+    /* 生产者位置，只由生产者线程写 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * 入队，队列已满时返回 false
+     */
+    public boolean offer(E e) {
+        long t = tail.get();
+        if (t - head.get() == buffer.length) {
+            return false;
+        }
+        buffer[(int) (t & mask)] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * 出队，队列为空时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) (h & mask);
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * 当前元素个数，其他线程读取时只是近似值
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() == buffer.length;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,130 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 启动阶段的耗时：Application、Service、Activity 的创建以及录制资源的延迟创建
+ * <br/> 4.3 以上同时用 {@link Trace} 标出同名的 section，可以在 systrace 中对照；
+ * 耗时按名称记录在本进程内，打印日志，服务进程的记录可以通过 dumpsys 查看
+ * <br/> begin 和 end 要在同一个线程中成对调用；跨线程或跨消息的阶段自己计时后调用 {@link #record(String, long)}
+ */
+public final class StartupTrace {
+    private static final String TAG = "StartupTrace";
+
+    /**
+     * 一个阶段的耗时，同名阶段多次发生时累计
+     */
+    public static class Section {
+        public final String name;
+        public int count;
+        public long firstUs;
+        public long lastUs;
+        public long maxUs;
+
+        Section(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Map<String, Section> sections = new LinkedHashMap<>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * 开始一个阶段
+     *
+     * @return 开始时间，传给 {@link #end(String, long)}
+     */
+    public static long begin(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 结束一个阶段并记录耗时
+     *
+     * @return 耗时，微秒
+     */
+    public static long end(String name, long beginNs) {
+        long durationNs = System.nanoTime() - beginNs;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endSection();
+        }
+        return record(name, durationNs);
+    }
+
+    /**
+     * 记录一个自己计时的阶段，例如从 bindService 到 onServiceConnected
+     *
+     * @return 耗时，微秒
+     */
+    public static long record(String name, long durationNs) {
+        long us = durationNs / 1000;
+        synchronized (sections) {
+            Section section = sections.get(name);
+            if (section == null) {
+                section = new Section(name);
+                section.firstUs = us;
+                sections.put(name, section);
+            }
+            section.count++;
+            section.lastUs = us;
+            section.maxUs = Math.max(section.maxUs, us);
+        }
+        LogUtil.i(TAG, "{} {}us", name, us);
+        return us;
+    }
+
+    /**
+     * 获取一个阶段的记录
+     *
+     * @return 没有发生过时返回 null
+     */
+    public static Section get(String name) {
+        synchronized (sections) {
+            Section section = sections.get(name);
+            if (section == null) {
+                return null;
+            }
+            Section copy = new Section(name);
+            copy.count = section.count;
+            copy.firstUs = section.firstUs;
+            copy.lastUs = section.lastUs;
+            copy.maxUs = section.maxUs;
+            return copy;
+        }
+    }
+
+    public static void dump(PrintWriter writer, String prefix) {
+        synchronized (sections) {
+            for (Section section : sections.values()) {
+                writer.print(prefix);
+                writer.print(section.name);
+                writer.print(": first=" + section.firstUs + "us");
+                if (section.count > 1) {
+                    writer.print(" last=" + section.lastUs + "us max=" + section.maxUs + "us count=" + section.count);
+                }
+                writer.println();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        Trace.endSection();
+    }
+}
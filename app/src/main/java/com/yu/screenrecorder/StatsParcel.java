@@ -0,0 +1,224 @@
+package com.yu.screenrecorder;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * 跨进程返回的统计快照，{@link IRemoteRecorder} 的查询方法用它传递 {@link RecorderStats}、{@link PipelineStats}
+ * 和 {@link RateDecision}，每次只有其中一个不为 null
+ * <br/> 这几个数据类不依赖 Android（基准测试直接使用），序列化都放在这里
+ */
+public class StatsParcel implements Parcelable {
+    public RecorderStats stats;
+    public PipelineStats pipeline;
+    public RateDecision rateDecision;
+
+    public StatsParcel() {
+    }
+
+    public static StatsParcel of(RecorderStats stats) {
+        StatsParcel parcel = new StatsParcel();
+        parcel.stats = stats;
+        return parcel;
+    }
+
+    public static StatsParcel of(PipelineStats pipeline) {
+        StatsParcel parcel = new StatsParcel();
+        parcel.pipeline = pipeline;
+        return parcel;
+    }
+
+    public static StatsParcel of(RateDecision rateDecision) {
+        StatsParcel parcel = new StatsParcel();
+        parcel.rateDecision = rateDecision;
+        return parcel;
+    }
+
+    private StatsParcel(Parcel in) {
+        stats = in.readInt() != 0 ? readStats(in) : null;
+        pipeline = in.readInt() != 0 ? readPipeline(in) : null;
+        rateDecision = in.readInt() != 0 ? readRateDecision(in) : null;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(stats != null ? 1 : 0);
+        if (stats != null) writeStats(dest, stats);
+        dest.writeInt(pipeline != null ? 1 : 0);
+        if (pipeline != null) writePipeline(dest, pipeline);
+        dest.writeInt(rateDecision != null ? 1 : 0);
+        if (rateDecision != null) writeRateDecision(dest, rateDecision);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<StatsParcel> CREATOR = new Creator<StatsParcel>() {
+        @Override
+        public StatsParcel createFromParcel(Parcel in) {
+            return new StatsParcel(in);
+        }
+
+        @Override
+        public StatsParcel[] newArray(int size) {
+            return new StatsParcel[size];
+        }
+    };
+
+    private static void writeStats(Parcel dest, RecorderStats stats) {
+        dest.writeInt(stats.state);
+        dest.writeLong(stats.recordings);
+        dest.writeLong(stats.framesCaptured);
+        dest.writeLong(stats.framesEncoded);
+        dest.writeLong(stats.framesDropped);
+        dest.writeLong(stats.framesUnchanged);
+        dest.writeLong(stats.framesPaused);
+        dest.writeLong(stats.bytesEncoded);
+        dest.writeLong(stats.bytesWritten);
+        dest.writeLong(stats.audioOverruns);
+        dest.writeLong(stats.audioUnderruns);
+        dest.writeInt(stats.streamClients);
+        dest.writeLong(stats.streamFragmentsDropped);
+        dest.writeLong(stats.droppedEvents);
+        writeHistogram(dest, stats.startLatencyUs);
+        writeHistogram(dest, stats.stopLatencyUs);
+        writeHistogram(dest, stats.firstFrameLatencyUs);
+        writeHistogram(dest, stats.encodeLatencyUs);
+        writeHistogram(dest, stats.fsyncTimeUs);
+        writeHistogram(dest, stats.notifyCostUs);
+        writeHistogram(dest, stats.muxQueueDepth);
+        writeHistogram(dest, stats.writeQueueDepth);
+        dest.writeInt(stats.pipeline != null ? 1 : 0);
+        if (stats.pipeline != null) writePipeline(dest, stats.pipeline);
+    }
+
+    private static RecorderStats readStats(Parcel in) {
+        RecorderStats stats = new RecorderStats();
+        stats.state = in.readInt();
+        stats.recordings = in.readLong();
+        stats.framesCaptured = in.readLong();
+        stats.framesEncoded = in.readLong();
+        stats.framesDropped = in.readLong();
+        stats.framesUnchanged = in.readLong();
+        stats.framesPaused = in.readLong();
+        stats.bytesEncoded = in.readLong();
+        stats.bytesWritten = in.readLong();
+        stats.audioOverruns = in.readLong();
+        stats.audioUnderruns = in.readLong();
+        stats.streamClients = in.readInt();
+        stats.streamFragmentsDropped = in.readLong();
+        stats.droppedEvents = in.readLong();
+        stats.startLatencyUs = readHistogram(in);
+        stats.stopLatencyUs = readHistogram(in);
+        stats.firstFrameLatencyUs = readHistogram(in);
+        stats.encodeLatencyUs = readHistogram(in);
+        stats.fsyncTimeUs = readHistogram(in);
+        stats.notifyCostUs = readHistogram(in);
+        stats.muxQueueDepth = readHistogram(in);
+        stats.writeQueueDepth = readHistogram(in);
+        stats.pipeline = in.readInt() != 0 ? readPipeline(in) : null;
+        return stats;
+    }
+
+    private static void writeHistogram(Parcel dest, Histogram.Snapshot snapshot) {
+        dest.writeInt(snapshot != null ? 1 : 0);
+        if (snapshot == null) {
+            return;
+        }
+        dest.writeString(snapshot.unit);
+        dest.writeLongArray(snapshot.buckets);
+        dest.writeLong(snapshot.count);
+        dest.writeLong(snapshot.sum);
+        dest.writeLong(snapshot.max);
+    }
+
+    private static Histogram.Snapshot readHistogram(Parcel in) {
+        if (in.readInt() == 0) {
+            return null;
+        }
+        Histogram.Snapshot snapshot = new Histogram.Snapshot(in.readString());
+        in.readLongArray(snapshot.buckets);
+        snapshot.count = in.readLong();
+        snapshot.sum = in.readLong();
+        snapshot.max = in.readLong();
+        return snapshot;
+    }
+
+    private static void writePipeline(Parcel dest, PipelineStats pipeline) {
+        dest.writeInt(pipeline.muxQueueDepth);
+        dest.writeInt(pipeline.muxQueueCapacity);
+        dest.writeInt(pipeline.writeQueueDepth);
+        dest.writeLong(pipeline.droppedSamples);
+        dest.writeLong(pipeline.drainBlockedMs);
+        dest.writeLong(pipeline.bytesWritten);
+        dest.writeLong(pipeline.syncCount);
+        dest.writeInt(pipeline.failed ? 1 : 0);
+        dest.writeLong(pipeline.audioOverruns);
+        dest.writeLong(pipeline.audioUnderruns);
+        dest.writeInt(pipeline.segments);
+        if (pipeline.branches == null) {
+            dest.writeInt(-1);
+            return;
+        }
+        dest.writeInt(pipeline.branches.length);
+        for (TeeSink.BranchStats branch : pipeline.branches) {
+            dest.writeString(branch.name);
+            dest.writeInt(branch.queueDepth);
+            dest.writeInt(branch.queueCapacity);
+            dest.writeLong(branch.samplesWritten);
+            dest.writeLong(branch.droppedSamples);
+            dest.writeLong(branch.lagUs);
+            dest.writeLong(branch.maxLagUs);
+            dest.writeInt(branch.failed ? 1 : 0);
+        }
+    }
+
+    private static PipelineStats readPipeline(Parcel in) {
+        PipelineStats pipeline = new PipelineStats();
+        pipeline.muxQueueDepth = in.readInt();
+        pipeline.muxQueueCapacity = in.readInt();
+        pipeline.writeQueueDepth = in.readInt();
+        pipeline.droppedSamples = in.readLong();
+        pipeline.drainBlockedMs = in.readLong();
+        pipeline.bytesWritten = in.readLong();
+        pipeline.syncCount = in.readLong();
+        pipeline.failed = in.readInt() != 0;
+        pipeline.audioOverruns = in.readLong();
+        pipeline.audioUnderruns = in.readLong();
+        pipeline.segments = in.readInt();
+        int count = in.readInt();
+        if (count < 0) {
+            return pipeline;
+        }
+        pipeline.branches = new TeeSink.BranchStats[count];
+        for (int i = 0; i < count; i++) {
+            TeeSink.BranchStats branch = new TeeSink.BranchStats();
+            branch.name = in.readString();
+            branch.queueDepth = in.readInt();
+            branch.queueCapacity = in.readInt();
+            branch.samplesWritten = in.readLong();
+            branch.droppedSamples = in.readLong();
+            branch.lagUs = in.readLong();
+            branch.maxLagUs = in.readLong();
+            branch.failed = in.readInt() != 0;
+            pipeline.branches[i] = branch;
+        }
+        return pipeline;
+    }
+
+    private static void writeRateDecision(Parcel dest, RateDecision decision) {
+        dest.writeInt(decision.reason);
+        dest.writeInt(decision.bitRate);
+        dest.writeInt(decision.frameRate);
+        dest.writeInt(decision.measuredBitRate);
+        dest.writeLong(decision.encoderLatencyUs);
+        dest.writeFloat(decision.queueFill);
+    }
+
+    private static RateDecision readRateDecision(Parcel in) {
+        return new RateDecision(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                in.readLong(), in.readFloat());
+    }
+}
@@ -0,0 +1,145 @@
+package com.yu.screenrecorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 进程间共享的录制状态：服务把 {@link RecorderStatus} 写入内存映射的文件，客户端映射同一个文件直接读取，
+ * 读状态不需要 binder 调用，多个客户端也不会增加服务的负担
+ * <br/> 用顺序锁保护：写之前把序号加 1 成为奇数，写完再加 1 成为偶数；读的前后序号相同且为偶数才是完整的一次写入，
+ * 否则重试。写入方只有一个（方法串行），读取方不加锁也不阻塞写入方。
+ * Java 7 没有显式的内存屏障，用 volatile 字段的读写代替
+ * <br/> 格式：MAGIC、VERSION、序号，之后是定长的状态字段，共 {@link #SIZE} 字节
+ */
+public class StatusBlock implements Closeable {
+    static final int MAGIC = 0x52535453;   // "RSTS"
+    static final int VERSION = 1;
+    static final int SIZE = 128;
+
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_STATE = 16;
+    private static final int OFFSET_FLAGS = 20;
+    private static final int OFFSET_ELAPSED = 24;
+    private static final int OFFSET_FRAMES_ENCODED = 32;
+    private static final int OFFSET_FRAMES_DROPPED = 40;
+    private static final int OFFSET_BYTES_WRITTEN = 48;
+    private static final int OFFSET_BIT_RATE = 56;
+    private static final int OFFSET_UPDATE_TIME = 64;
+
+    /* 读不到稳定的状态时最多重试的次数，写入只有几十个字节，正常一两次即可 */
+    private static final int MAX_READ_RETRIES = 100;
+
+    private static volatile int barrier;
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer map;
+    private long sequence;
+
+    /**
+     * 创建或者清空状态文件并映射，由服务调用
+     */
+    public StatusBlock(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(SIZE);
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putLong(OFFSET_SEQUENCE, 0);
+    }
+
+    /**
+     * 写入状态，可以在不同线程调用
+     */
+    public synchronized void write(RecorderStatus status) {
+        map.putLong(OFFSET_SEQUENCE, ++sequence);
+        fence();
+        map.putInt(OFFSET_STATE, status.state);
+        map.putInt(OFFSET_FLAGS, status.flags);
+        map.putLong(OFFSET_ELAPSED, status.elapsedMs);
+        map.putLong(OFFSET_FRAMES_ENCODED, status.framesEncoded);
+        map.putLong(OFFSET_FRAMES_DROPPED, status.framesDropped);
+        map.putLong(OFFSET_BYTES_WRITTEN, status.bytesWritten);
+        map.putInt(OFFSET_BIT_RATE, status.bitRate);
+        map.putLong(OFFSET_UPDATE_TIME, status.updateTimeMs);
+        fence();
+        map.putLong(OFFSET_SEQUENCE, ++sequence);
+        fence();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * 对 volatile 字段先读后写，前后的读写不会越过它
+     */
+    static void fence() {
+        barrier = barrier + 1;
+    }
+
+    /**
+     * 客户端映射状态文件读取
+     */
+    public static class Reader implements Closeable {
+        private final Closeable source;
+        private final MappedByteBuffer map;
+
+        /**
+         * @param channel 状态文件，例如服务通过 binder 传来的只读文件描述符
+         * @param source 关闭时一并关闭，可以为 null
+         */
+        public Reader(FileChannel channel, Closeable source) throws IOException {
+            this.source = source;
+            if (channel.size() < SIZE) {
+                throw new IOException("status block too small: " + channel.size());
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw new IOException("bad status block header");
+            }
+        }
+
+        /**
+         * 读取一次完整的状态，不分配对象
+         *
+         * @return 写入方一直在写、读不到稳定的状态时返回 false，out 的内容无效
+         */
+        public boolean read(RecorderStatus out) {
+            for (int i = 0; i < MAX_READ_RETRIES; i++) {
+                long begin = map.getLong(OFFSET_SEQUENCE);
+                if ((begin & 1) != 0) {
+                    Thread.yield();
+                    continue;
+                }
+                fence();
+                out.state = map.getInt(OFFSET_STATE);
+                out.flags = map.getInt(OFFSET_FLAGS);
+                out.elapsedMs = map.getLong(OFFSET_ELAPSED);
+                out.framesEncoded = map.getLong(OFFSET_FRAMES_ENCODED);
+                out.framesDropped = map.getLong(OFFSET_FRAMES_DROPPED);
+                out.bytesWritten = map.getLong(OFFSET_BYTES_WRITTEN);
+                out.bitRate = map.getInt(OFFSET_BIT_RATE);
+                out.updateTimeMs = map.getLong(OFFSET_UPDATE_TIME);
+                fence();
+                if (map.getLong(OFFSET_SEQUENCE) == begin) {
+                    out.version = begin / 2;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.yu.screenrecorder;
+
+/**
+ * 录制时长的定时更新节拍：按开始时间对齐计算每次执行的时间，显示的时长变化时才需要回调
+ * <br/> 不依赖 Android，只在 {@link RecordStatusPublisher} 的 handler 线程访问
+ */
+class StatusTicker {
+    private final TimeFormatter text = new TimeFormatter();
+    private long startUptimeMs;
+    private int intervalMs;
+    private long ticks;
+
+    /**
+     * 开始新的一次录制
+     *
+     * @param intervalMs 小于等于 0 表示不定时更新
+     * @return 需要定时更新时返回 true
+     */
+    boolean start(long uptimeMs, int intervalMs) {
+        startUptimeMs = uptimeMs;
+        this.intervalMs = intervalMs;
+        ticks = 0;
+        text.format(0);
+        return intervalMs > 0;
+    }
+
+    /**
+     * 执行一次
+     *
+     * @return 显示的时长改变时返回 true
+     */
+    boolean tick(long elapsedSeconds) {
+        ticks++;
+        return text.format(elapsedSeconds);
+    }
+
+    /**
+     * 下一次执行的时间；按开始时间对齐，不随每次执行的延迟累积误差，
+     * 线程被耽搁错过的节拍直接跳过，不会连续补执行
+     */
+    long nextTickUptimeMs(long nowUptimeMs) {
+        long elapsed = (nowUptimeMs - startUptimeMs) / intervalMs;
+        if (ticks < elapsed) {
+            ticks = elapsed;
+        }
+        return startUptimeMs + (ticks + 1) * intervalMs;
+    }
+
+    int getIntervalMs() {
+        return intervalMs;
+    }
+
+    long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * 当前显示的时长，复用同一个对象，跨线程保存时调用 toString()
+     */
+    CharSequence getText() {
+        return text;
+    }
+}
@@ -0,0 +1,51 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 把 {@link FragmentedMp4Sink} 的输出发布到 {@link StreamServer}
+ * <br/> 分片 mp4 每写完文件头或者一个分片就 flush 一次，这里按 flush 切分：第一次为文件头，之后每次一个分片
+ */
+public class StreamOutput implements ByteOutput {
+    private final StreamServer server;
+    private ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+    private boolean headerPublished;
+
+    public StreamOutput(StreamServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void write(ByteBuffer src) {
+        if (buffer.remaining() < src.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + src.remaining()));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        buffer.put(src);
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        // 分片发布后由各客户端连接共享，需要独立的一份
+        byte[] data = Arrays.copyOf(buffer.array(), buffer.position());
+        buffer.clear();
+        if (!headerPublished) {
+            headerPublished = true;
+            server.publishHeader(data);
+        } else {
+            server.publish(data);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        server.endStream();
+    }
+}
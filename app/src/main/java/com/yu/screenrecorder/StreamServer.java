@@ -0,0 +1,528 @@
+package com.yu.screenrecorder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 局域网直播：内置的 HTTP 服务，把分片 mp4 推给所有连接的客户端，例如 ffplay http://手机IP:端口/
+ * <br/> 所有 socket 都是非阻塞的，由 "stream_server" 线程通过 Selector 处理。编码侧调用 {@link #publish(byte[])}
+ * 只是放入队列后唤醒服务线程，不会被任何客户端阻塞。每个客户端有自己的有界队列，跟不上时丢弃新的分片，
+ * 等队列有空位后从下一个分片（都从关键帧开始）继续，正在发送的分片总是完整发完
+ * <br/> 还没有开始直播时连接的客户端先等待，收到 {@link #publishHeader(byte[])} 后开始发送。
+ * 发布队列为文件头和结束消息保留了位置，分片把队列占满时它们也不会丢；万一仍然放不进去，
+ * 服务线程按最近一次发布的文件头重新同步，正在播放的客户端断开
+ * <br/> 连接后 {@link #DEFAULT_REQUEST_TIMEOUT_MS} 内没有发完请求的客户端被断开，空连接不会占满 {@link #MAX_CLIENTS}
+ */
+public class StreamServer implements Runnable {
+    private static final String TAG = "StreamServer";
+    public static final int DEFAULT_CLIENT_QUEUE_CAPACITY = 4;
+    public static final int MAX_CLIENTS = 8;
+
+    public static final long DEFAULT_REQUEST_TIMEOUT_MS = 5000;
+
+    private static final int PUBLISH_QUEUE_CAPACITY = 16;
+    /* 发布队列中为文件头和结束消息保留的位置，分片不能占用 */
+    private static final int CONTROL_RESERVED = 2;
+    private static final int MAX_REQUEST_BYTES = 4096;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] RESPONSE_OK = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: video/mp4\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: close\r\n\r\n").getBytes(ASCII);
+    private static final byte[] RESPONSE_BAD_REQUEST = ("HTTP/1.1 400 Bad Request\r\n"
+            + "Connection: close\r\n\r\n").getBytes(ASCII);
+    private static final byte[] RESPONSE_BUSY = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Connection: close\r\n\r\n").getBytes(ASCII);
+
+    /* 发布给服务线程的消息 */
+    private static final int MESSAGE_HEADER = 1;
+    private static final int MESSAGE_FRAGMENT = 2;
+    private static final int MESSAGE_END = 3;
+
+    private static class Message {
+        final int type;
+        final byte[] data;
+
+        Message(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final int port;
+    private final int clientQueueCapacity;
+    private final SpscQueue<Message> messages = new SpscQueue<>(PUBLISH_QUEUE_CAPACITY);
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+    private RecorderMetrics metrics;
+    private long requestTimeoutMs = DEFAULT_REQUEST_TIMEOUT_MS;
+
+    /* 最近一次发布的文件头，直播结束后为 null；控制消息放不进队列时服务线程按它重新同步 */
+    private volatile byte[] latestHeader;
+    private volatile boolean controlLost;
+
+    /* 以下只在服务线程访问 */
+    private final List<Client> clients = new ArrayList<>();
+    private byte[] header;
+
+    private volatile int clientCount;
+    private volatile long fragmentsPublished;
+    private final AtomicLong fragmentsDropped = new AtomicLong();
+
+    /**
+     * @param port 监听端口，0 表示由系统分配
+     */
+    public StreamServer(int port) {
+        this(port, DEFAULT_CLIENT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param clientQueueCapacity 每个客户端最多排队的分片个数，包括正在发送的
+     */
+    public StreamServer(int port, int clientQueueCapacity) {
+        this.port = port;
+        this.clientQueueCapacity = clientQueueCapacity;
+    }
+
+    /**
+     * 设置统计，丢弃的分片计入其中，在 start 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置读完 HTTP 请求的最长时间，在 start 之前调用，测试用
+     */
+    void setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * 绑定端口并启动服务线程
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(this, "stream_server");
+        thread.start();
+        LogUtil.i(TAG, "listening on port {}", getPort());
+    }
+
+    /**
+     * 关闭所有连接并停止服务线程
+     */
+    public void stop() {
+        running = false;
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * 实际监听的端口
+     */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    /**
+     * 开始一路新的直播，header 为 ftyp + moov，之后连接的客户端先收到它
+     * <br/> 以下几个 publish 方法只能在同一个线程调用
+     */
+    public void publishHeader(byte[] header) {
+        latestHeader = header;
+        postControl(new Message(MESSAGE_HEADER, header));
+    }
+
+    /**
+     * 发布一个分片（moof + mdat），data 发布后不能再修改
+     */
+    public void publish(byte[] fragment) {
+        fragmentsPublished++;
+        if (messages.size() >= messages.capacity() - CONTROL_RESERVED
+                || !post(new Message(MESSAGE_FRAGMENT, fragment))) {
+            // 服务线程跟不上，所有客户端都丢掉这个分片
+            onDropped();
+        }
+    }
+
+    /**
+     * 直播结束，客户端发完已经排队的分片后断开
+     */
+    public void endStream() {
+        latestHeader = null;
+        postControl(new Message(MESSAGE_END, null));
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    public long getFragmentsPublished() {
+        return fragmentsPublished;
+    }
+
+    /**
+     * 各客户端丢弃的分片之和
+     */
+    public long getFragmentsDropped() {
+        return fragmentsDropped.get();
+    }
+
+    private boolean post(Message message) {
+        boolean offered = messages.offer(message);
+        wakeup();
+        return offered;
+    }
+
+    /**
+     * 文件头和结束消息不能丢，放不进队列时让服务线程重新同步；先设置标记再唤醒，服务线程不会错过
+     */
+    private void postControl(Message message) {
+        if (!messages.offer(message)) {
+            LogUtil.w(TAG, "publish queue full, control message {} lost", message.type);
+            controlLost = true;
+        }
+        wakeup();
+    }
+
+    private void wakeup() {
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void onDropped() {
+        fragmentsDropped.incrementAndGet();
+        RecorderMetrics metrics = this.metrics;
+        if (metrics != null) metrics.streamFragmentsDropped.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(expireRequests());
+                handleMessages();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException e) {
+                        LogUtil.d(TAG, "client {} closed: {}", client.address, e.getMessage());
+                        close(client);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "stream server failed: " + e.getMessage());
+        } finally {
+            for (Client client : new ArrayList<>(clients)) {
+                close(client);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                LogUtil.w(TAG, "close server failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void handleMessages() {
+        Message message;
+        while ((message = messages.poll()) != null) {
+            if (message.type == MESSAGE_HEADER) {
+                header = message.data;
+                for (Client client : new ArrayList<>(clients)) {
+                    if (client.state == Client.STATE_STREAMING) {
+                        // 上一路直播的客户端不能接着播放新的文件头
+                        close(client);
+                    } else if (client.state == Client.STATE_WAITING) {
+                        client.startStreaming(header);
+                    }
+                }
+            } else if (message.type == MESSAGE_FRAGMENT) {
+                for (Client client : clients) {
+                    if (client.state == Client.STATE_STREAMING && !client.offer(message.data)) {
+                        onDropped();
+                    }
+                }
+            } else if (message.type == MESSAGE_END) {
+                header = null;
+                for (Client client : new ArrayList<>(clients)) {
+                    client.finish();
+                }
+            }
+        }
+        if (controlLost) {
+            controlLost = false;
+            resync();
+        }
+    }
+
+    /**
+     * 有文件头或结束消息丢失，按最近一次发布的文件头重新开始：
+     * 不知道正在播放的客户端错过了什么，全部断开，等待的客户端从最新的文件头开始
+     */
+    private void resync() {
+        byte[] latest = latestHeader;
+        if (latest == header) {
+            return;
+        }
+        LogUtil.w(TAG, "control message lost, restart clients");
+        header = latest;
+        for (Client client : new ArrayList<>(clients)) {
+            if (client.state == Client.STATE_STREAMING) {
+                close(client);
+            } else if (client.state == Client.STATE_WAITING && latest != null) {
+                client.startStreaming(latest);
+            }
+        }
+    }
+
+    /**
+     * 断开超时还没有发完请求的客户端
+     *
+     * @return 距离下一个请求超时的毫秒数，没有正在读请求的客户端时返回 0，即一直等待
+     */
+    private long expireRequests() {
+        long now = System.nanoTime();
+        long next = 0;
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (client.state != Client.STATE_REQUEST) {
+                continue;
+            }
+            long remainingMs = requestTimeoutMs - (now - client.acceptedNs) / 1000000;
+            if (remainingMs <= 0) {
+                LogUtil.d(TAG, "client {} request timeout", client.address);
+                close(client);
+            } else if (next == 0 || remainingMs < next) {
+                next = remainingMs;
+            }
+        }
+        return next;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        try {
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        } catch (ClosedChannelException e) {
+            return;
+        }
+        clients.add(client);
+        clientCount = clients.size();
+        LogUtil.d(TAG, "client {} connected", client.address);
+        if (clients.size() > MAX_CLIENTS) {
+            client.reject(RESPONSE_BUSY);
+        }
+    }
+
+    private void close(Client client) {
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "close client failed: {}", e.getMessage());
+        }
+        clients.remove(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * 一个客户端连接，只在服务线程访问
+     */
+    private class Client {
+        static final int STATE_REQUEST = 0;     // 读 HTTP 请求
+        static final int STATE_WAITING = 1;     // 请求已读完，等待直播开始
+        static final int STATE_STREAMING = 2;
+        static final int STATE_CLOSING = 3;     // 发完队列中的数据后断开
+
+        final SocketChannel channel;
+        final String address;
+        final long acceptedNs = System.nanoTime();
+        SelectionKey key;
+        int state = STATE_REQUEST;
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        /* 等待发送的数据，第一个是正在发送的 */
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        /* 队列前面的 HTTP 响应头和文件头个数，不计入分片 */
+        int controlEntries;
+        int fragments;
+        /* 丢过分片后等队列有空位再继续，期间保持丢弃 */
+        boolean dropping;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            this.address = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        void read() throws IOException {
+            if (state != STATE_REQUEST) {
+                // 请求之后的数据不关心，只用来发现连接关闭
+                request.clear();
+                if (channel.read(request) < 0) {
+                    throw new IOException("end of stream");
+                }
+                return;
+            }
+            if (channel.read(request) < 0) {
+                throw new IOException("end of stream");
+            }
+            int end = findRequestEnd();
+            if (end < 0) {
+                if (!request.hasRemaining()) {
+                    reject(RESPONSE_BAD_REQUEST);
+                }
+                return;
+            }
+            String line = new String(request.array(), 0, end, ASCII);
+            if (!line.startsWith("GET ")) {
+                reject(RESPONSE_BAD_REQUEST);
+                return;
+            }
+            state = STATE_WAITING;
+            if (header != null) {
+                startStreaming(header);
+            }
+        }
+
+        /**
+         * 请求头结束（空行）的位置，没有读完时返回 -1
+         */
+        private int findRequestEnd() {
+            byte[] bytes = request.array();
+            for (int i = 3; i < request.position(); i++) {
+                if (bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                    return i - 3;
+                }
+            }
+            return -1;
+        }
+
+        void startStreaming(byte[] header) {
+            state = STATE_STREAMING;
+            controlEntries += 2;
+            enqueue(ByteBuffer.wrap(RESPONSE_OK));
+            enqueue(ByteBuffer.wrap(header));
+        }
+
+        void reject(byte[] response) {
+            state = STATE_CLOSING;
+            controlEntries++;
+            enqueue(ByteBuffer.wrap(response));
+        }
+
+        void finish() {
+            if (state == STATE_STREAMING) {
+                state = STATE_CLOSING;
+                if (queue.isEmpty()) {
+                    close(this);
+                }
+            }
+        }
+
+        /**
+         * 把一个分片放入队列
+         *
+         * @return 队列已满丢弃时返回 false
+         */
+        boolean offer(byte[] fragment) {
+            if (fragments >= clientQueueCapacity) {
+                dropping = true;
+                return false;
+            }
+            if (dropping) {
+                LogUtil.d(TAG, "client {} resumed", address);
+                dropping = false;
+            }
+            fragments++;
+            enqueue(ByteBuffer.wrap(fragment));
+            return true;
+        }
+
+        private void enqueue(ByteBuffer data) {
+            queue.add(data);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        void write() throws IOException {
+            while (!queue.isEmpty()) {
+                ByteBuffer head = queue.peek();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    // 发送缓冲已满，等下次可写
+                    return;
+                }
+                queue.poll();
+                if (controlEntries > 0) {
+                    controlEntries--;
+                } else {
+                    fragments--;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (state == STATE_CLOSING) {
+                close(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一次编码、多路输出：同一个编码样本交给多个下游 sink，例如同时写文件、直播和保留回放缓冲
+ * <br/> 样本只从编码器拷贝一次到 {@link SharedSamplePool}，各分支按引用计数共享，读取各自的视图。
+ * 每个分支有自己的有界队列和 "record_tee_*" 线程，背压策略按分支设置：
+ * 丢帧的分支只丢自己的样本、一直丢到下一个关键帧，不影响其他分支；阻塞的分支队列满时会拖住编码器，
+ * 只适合必须完整的输出。各分支的队列深度、丢弃数和落后时长见 {@link #getBranchStats()}
+ * <br/> writeSample 只能在一个线程调用，即一个编码器的 drain 线程；各分支共享样本的 SampleInfo，下游 sink 不能修改它
+ */
+public class TeeSink implements ISampleSink {
+    private static final String TAG = "TeeSink";
+    private static final int MAX_TRACKS = 2;
+    private static final int DEFAULT_SAMPLE_CAPACITY = 256 * 1024;
+
+    private static final long IDLE_PARK_NS = 1000000;
+    private static final long FULL_PARK_NS = 100000;
+
+    /**
+     * 一个分支的状态快照
+     */
+    public static class BranchStats {
+        public String name;
+        public int queueDepth;
+        public int queueCapacity;
+        public long samplesWritten;
+        public long droppedSamples;
+        /* 最新交给 tee 的样本与该分支正在写的样本之间的时间差，队列为空时为 0 */
+        public long lagUs;
+        public long maxLagUs;
+        public boolean failed;
+
+        @Override
+        public String toString() {
+            return name + ": queue=" + queueDepth + "/" + queueCapacity
+                    + " written=" + samplesWritten
+                    + " dropped=" + droppedSamples
+                    + " lag=" + lagUs / 1000 + "ms max=" + maxLagUs / 1000 + "ms"
+                    + (failed ? " FAILED" : "");
+        }
+    }
+
+    private final List<Branch> branches = new ArrayList<>();
+    private Branch[] active;
+    private SharedSamplePool pool;
+    private ICodec codec;
+    private RecorderMetrics metrics;
+    private int trackCount;
+    private boolean started;
+
+    /* 只在 drain 线程写 */
+    private volatile long publishedPtsUs = -1;
+
+    /**
+     * 添加一个分支，在 addTrack 之前调用
+     *
+     * @param name 分支名，用于线程名和统计
+     * @param queueCapacity 分支队列容量
+     * @param policy RecordPipeline.BACKPRESSURE_*
+     * @return 分支序号
+     */
+    public int addBranch(String name, ISampleSink sink, int queueCapacity, int policy) {
+        if (trackCount > 0 || started) {
+            throw new IllegalStateException("addBranch after addTrack");
+        }
+        branches.add(new Branch(branches.size(), name, sink, queueCapacity, policy));
+        return branches.size() - 1;
+    }
+
+    /**
+     * 设置编码器，分支丢帧后用于请求关键帧尽快恢复
+     */
+    public void setCodec(ICodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 设置统计，各分支丢弃的样本计入其中，在 start 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        if (trackCount == MAX_TRACKS) {
+            throw new IllegalStateException("too many tracks");
+        }
+        for (Branch branch : branches) {
+            branch.tracks[trackCount] = branch.sink.addTrack(format);
+        }
+        return trackCount++;
+    }
+
+    @Override
+    public void start() {
+        active = branches.toArray(new Branch[branches.size()]);
+        /* 每个分支最多占用队列中的样本和正在写的一个，再加上正在填充的一个，样本数不会超过这个上限 */
+        int maxSamples = 1;
+        for (Branch branch : active) {
+            maxSamples += branch.queue.capacity() + 1;
+        }
+        pool = new SharedSamplePool(maxSamples, DEFAULT_SAMPLE_CAPACITY, active.length);
+        for (Branch branch : active) {
+            branch.start();
+        }
+        started = true;
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        SharedSample sample = null;
+        for (Branch branch : active) {
+            if (!branch.accept(info)) {
+                continue;
+            }
+            if (sample == null) {
+                sample = acquire();
+                if (sample == null) {
+                    return;
+                }
+                sample.copyFrom(track, buffer, info);
+            }
+            branch.enqueue(sample);
+        }
+        publishedPtsUs = info.presentationTimeUs;
+        if (sample != null) {
+            sample.release();
+        }
+    }
+
+    /**
+     * @return 等待期间 drain 线程被中断（停止超时）时返回 null
+     */
+    private SharedSample acquire() {
+        SharedSample sample;
+        while ((sample = pool.acquire()) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(FULL_PARK_NS);
+        }
+        return sample;
+    }
+
+    /**
+     * 等待各分支写完队列中的样本后停止各分支的下游
+     */
+    @Override
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        for (Branch branch : active) {
+            branch.stopping = true;
+            LockSupport.unpark(branch.thread);
+        }
+        for (Branch branch : active) {
+            try {
+                branch.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Branch branch : active) {
+            try {
+                branch.sink.stop();
+            } catch (RuntimeException e) {
+                LogUtil.e(TAG, "stop branch " + branch.name + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        for (Branch branch : branches) {
+            branch.sink.release();
+        }
+    }
+
+    public int getBranchCount() {
+        return branches.size();
+    }
+
+    /**
+     * 各分支的状态
+     */
+    public BranchStats[] getBranchStats() {
+        BranchStats[] stats = new BranchStats[branches.size()];
+        long published = publishedPtsUs;
+        for (int i = 0; i < stats.length; i++) {
+            Branch branch = branches.get(i);
+            BranchStats s = new BranchStats();
+            s.name = branch.name;
+            s.queueDepth = branch.queue.size();
+            s.queueCapacity = branch.queue.capacity();
+            s.samplesWritten = branch.samplesWritten;
+            s.droppedSamples = branch.droppedSamples;
+            s.lagUs = s.queueDepth > 0 && branch.currentPtsUs >= 0 ? Math.max(0, published - branch.currentPtsUs) : 0;
+            s.maxLagUs = branch.maxLagUs;
+            s.failed = branch.failed;
+            stats[i] = s;
+        }
+        return stats;
+    }
+
+    /**
+     * 一个输出分支：有界队列 + 写线程
+     */
+    private class Branch implements Runnable {
+        final int index;
+        final String name;
+        final ISampleSink sink;
+        final SpscQueue<SharedSample> queue;
+        final int policy;
+        /* tee 的轨道对应的下游轨道 */
+        final int[] tracks = new int[MAX_TRACKS];
+        Thread thread;
+
+        /* 只在 drain 线程访问 */
+        boolean waitingForKeyFrame;
+
+        volatile boolean stopping;
+        volatile boolean failed;
+        /* 只在 drain 线程写 */
+        volatile long droppedSamples;
+        volatile long maxLagUs;
+        /* 只在分支线程写 */
+        volatile long samplesWritten;
+        /* 正在写或者最后写完的样本 */
+        volatile long currentPtsUs = -1;
+
+        Branch(int index, String name, ISampleSink sink, int queueCapacity, int policy) {
+            this.index = index;
+            this.name = name;
+            this.sink = sink;
+            this.queue = new SpscQueue<>(queueCapacity);
+            this.policy = policy;
+        }
+
+        void start() {
+            sink.start();
+            thread = new Thread(this, "record_tee_" + name);
+            thread.start();
+        }
+
+        /**
+         * 按背压策略决定这个分支是否接收样本，在 drain 线程调用
+         */
+        boolean accept(SampleInfo info) {
+            if (failed) {
+                return false;
+            }
+            if (waitingForKeyFrame) {
+                if (!info.isKeyFrame()) {
+                    drop();
+                    return false;
+                }
+                waitingForKeyFrame = false;
+            }
+            if (queue.isFull()) {
+                if (policy == RecordPipeline.BACKPRESSURE_FAIL) {
+                    LogUtil.e(TAG, "branch " + name + " queue full, failed");
+                    failed = true;
+                    drop();
+                    return false;
+                }
+                if (policy == RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE) {
+                    /* 关键帧也丢，之后从下一个关键帧恢复 */
+                    waitingForKeyFrame = true;
+                    drop();
+                    if (codec != null) codec.requestSyncFrame();
+                    return false;
+                }
+            }
+            if (currentPtsUs >= 0 && !queue.isEmpty()) {
+                long lag = info.presentationTimeUs - currentPtsUs;
+                if (lag > maxLagUs) {
+                    maxLagUs = lag;
+                }
+            }
+            return true;
+        }
+
+        void enqueue(SharedSample sample) {
+            sample.retain();
+            while (!queue.offer(sample)) {
+                LockSupport.parkNanos(FULL_PARK_NS);
+            }
+            LockSupport.unpark(thread);
+        }
+
+        private void drop() {
+            droppedSamples++;
+            if (metrics != null) metrics.framesDropped.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                SharedSample sample = queue.poll();
+                if (sample == null) {
+                    if (stopping && queue.isEmpty()) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NS);
+                    continue;
+                }
+                try {
+                    if (!failed) {
+                        currentPtsUs = sample.info.presentationTimeUs;
+                        sink.writeSample(tracks[sample.track], sample.view(index), sample.info);
+                        samplesWritten++;
+                    }
+                } catch (RuntimeException e) {
+                    LogUtil.e(TAG, "branch " + name + " write sample failed: " + e.getMessage());
+                    failed = true;
+                } finally {
+                    sample.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.yu.screenrecorder;
+
+/**
+ * 温控和电量调节
+ * <br/> 按电池温度、系统温控状态以及未充电时的电量确定级别，级别越高码率、帧率上限越低，
+ * 较高的级别还在下一次录制时降低采集档位，在系统降频之前先降低发热
+ * <br/> 温度有回差：进入一级需要达到该级的温度，留在这一级只要不低于它减去 {@link #TEMPERATURE_HYSTERESIS}；
+ * 升级立即生效，降级需要连续 recoverReadings 次读数都允许更低的级别，每次只降一级，避免在阈值附近来回切换
+ * <br/> 读数来自可替换的 {@link SensorSource}，单元测试中可以回放记录的温度曲线
+ */
+public class ThermalGovernor {
+    private static final String TAG = "ThermalGovernor";
+
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_WARM = 1;
+    public static final int LEVEL_HOT = 2;
+    public static final int LEVEL_CRITICAL = 3;
+
+    private static final String[] NAMES = {"normal", "warm", "hot", "critical"};
+
+    /* 进入各级的电池温度，0.1 摄氏度 */
+    private static final int[] ENTER_TEMPERATURE = {Integer.MIN_VALUE, 400, 430, 460};
+    static final int TEMPERATURE_HYSTERESIS = 20;
+    /* 未充电时电量不超过该值进入 WARM / HOT */
+    static final int LOW_BATTERY_PERCENT = 15;
+    static final int CRITICAL_BATTERY_PERCENT = 5;
+    /* 默认连续多少次读数好转才恢复一级，按 5 秒读一次约 30 秒 */
+    public static final int DEFAULT_RECOVER_READINGS = 6;
+
+    /* 各级的限制 */
+    private static final int[] BIT_RATE_PERCENT = {100, 75, 50, 35};
+    private static final int[] MAX_FRAME_RATE = {Integer.MAX_VALUE, 24, 20, 15};
+    private static final int[] PROFILE_STEPS = {0, 0, 1, 2};
+
+    /**
+     * 读数来源
+     */
+    public interface SensorSource {
+        /**
+         * @return 读取失败时返回 false，本次不调整
+         */
+        boolean read(SensorReading out);
+    }
+
+    public interface OnLevelChangeListener {
+        /**
+         * 在调用 {@link #update()} 的线程中回调
+         */
+        void onLevelChanged(GovernorDecision decision);
+    }
+
+    private final SensorSource source;
+    private final int recoverReadings;
+    private final SensorReading reading = new SensorReading();
+    private OnLevelChangeListener listener;
+
+    private volatile int level = LEVEL_NORMAL;
+    /* 连续允许更低级别的读数次数 */
+    private int calmReadings;
+    /* targetLevel 的第二个结果 */
+    private int targetReason;
+    private volatile GovernorDecision lastDecision;
+
+    public ThermalGovernor(SensorSource source) {
+        this(source, DEFAULT_RECOVER_READINGS);
+    }
+
+    /**
+     * @param recoverReadings 连续多少次读数好转才恢复一级
+     */
+    public ThermalGovernor(SensorSource source, int recoverReadings) {
+        this.source = source;
+        this.recoverReadings = Math.max(1, recoverReadings);
+    }
+
+    public void setOnLevelChangeListener(OnLevelChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public static String nameOf(int level) {
+        return NAMES[level];
+    }
+
+    /**
+     * 读取一次并按读数调整级别，可以在不同线程调用
+     *
+     * @return 调整后的级别
+     */
+    public synchronized int update() {
+        if (!source.read(reading)) {
+            return level;
+        }
+        int target = targetLevel(reading);
+        if (target > level) {
+            calmReadings = 0;
+            change(target, targetReason);
+        } else if (target < level) {
+            if (++calmReadings >= recoverReadings) {
+                calmReadings = 0;
+                change(level - 1, GovernorDecision.REASON_RECOVER);
+            }
+        } else {
+            calmReadings = 0;
+        }
+        return level;
+    }
+
+    /**
+     * 读数对应的级别，取温度、温控状态、电量三者中最高的，原因写入 targetReason
+     */
+    private int targetLevel(SensorReading reading) {
+        int target = LEVEL_NORMAL;
+        targetReason = GovernorDecision.REASON_TEMPERATURE;
+        if (reading.temperature != SensorReading.TEMPERATURE_UNKNOWN) {
+            for (int l = LEVEL_CRITICAL; l > LEVEL_NORMAL; l--) {
+                int threshold = l <= level ? ENTER_TEMPERATURE[l] - TEMPERATURE_HYSTERESIS : ENTER_TEMPERATURE[l];
+                if (reading.temperature >= threshold) {
+                    target = l;
+                    break;
+                }
+            }
+        }
+        int thermal = thermalLevelOf(reading.thermalStatus);
+        if (thermal > target) {
+            target = thermal;
+            targetReason = GovernorDecision.REASON_THERMAL_STATUS;
+        }
+        int battery = LEVEL_NORMAL;
+        if (!reading.charging && reading.batteryPercent >= 0) {
+            if (reading.batteryPercent <= CRITICAL_BATTERY_PERCENT) {
+                battery = LEVEL_HOT;
+            } else if (reading.batteryPercent <= LOW_BATTERY_PERCENT) {
+                battery = LEVEL_WARM;
+            }
+        }
+        if (battery > target) {
+            target = battery;
+            targetReason = GovernorDecision.REASON_BATTERY;
+        }
+        return target;
+    }
+
+    /**
+     * 系统温控状态对应的级别，系统已经开始限制时要比它更早降下来
+     */
+    static int thermalLevelOf(int status) {
+        if (status >= SensorReading.THERMAL_STATUS_SEVERE) {
+            return LEVEL_CRITICAL;
+        }
+        if (status == SensorReading.THERMAL_STATUS_MODERATE) {
+            return LEVEL_HOT;
+        }
+        if (status == SensorReading.THERMAL_STATUS_LIGHT) {
+            return LEVEL_WARM;
+        }
+        return LEVEL_NORMAL;
+    }
+
+    private void change(int newLevel, int reason) {
+        GovernorDecision decision = new GovernorDecision(newLevel, level, reason, reading);
+        level = newLevel;
+        lastDecision = decision;
+        LogUtil.i(TAG, "{}", decision);
+        if (listener != null) listener.onLevelChanged(decision);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 当前级别下码率相对配置码率的上限，百分比
+     */
+    public int getBitRatePercent() {
+        return bitRatePercentOf(level);
+    }
+
+    /**
+     * 当前级别下的帧率上限，不限制时为 Integer.MAX_VALUE
+     */
+    public int getMaxFrameRate() {
+        return maxFrameRateOf(level);
+    }
+
+    /**
+     * 下一次录制时采集档位要降低的级数，见 {@link CaptureProfile#apply(RecordConfig, int)}
+     */
+    public int getProfileSteps() {
+        return profileStepsOf(level);
+    }
+
+    /**
+     * 最近一次调整，没有调整过时返回 null
+     */
+    public GovernorDecision getLastDecision() {
+        return lastDecision;
+    }
+
+    static int bitRatePercentOf(int level) {
+        return BIT_RATE_PERCENT[level];
+    }
+
+    static int maxFrameRateOf(int level) {
+        return MAX_FRAME_RATE[level];
+    }
+
+    static int profileStepsOf(int level) {
+        return PROFILE_STEPS[level];
+    }
+}
@@ -0,0 +1,250 @@
+package com.yu.screenrecorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 缩略图条：录制过程中每隔一段时间把采集到的画面缩小后追加到旁边的文件，录制结束后保留，用于预览和拖动进度
+ * <br/> 画面来自 {@link VariableFrameRateSource} 已经拿到的 RGBA 数据，按最近邻缩小为 RGB565，不额外采集、不分配内存。
+ * 画面不变时不追加，某个时间的缩略图为时间戳不大于它的最后一张
+ * <br/> 格式：32 字节文件头 MAGIC、VERSION、宽、高、像素格式、间隔，之后是定长记录 ptsUs(8) 像素(宽 * 高 * 2)，
+ * 像素为小端 RGB565，可以直接交给 Bitmap.copyPixelsFromBuffer
+ */
+public class ThumbnailStrip {
+    private static final String TAG = "ThumbnailStrip";
+    public static final String SUFFIX = ".thumbs";
+    public static final int DEFAULT_WIDTH = 160;
+
+    static final int MAGIC = 0x52544842;   // "RTHB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    public static final int PIXEL_FORMAT_RGB565 = 1;
+
+    private final int width;
+    private final int height;
+    private final long intervalUs;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /* 只在采集线程访问 */
+    private final ByteBuffer record;
+    /* 每个缩略图像素对应的源图列、行 */
+    private final int[] columns;
+    private final int[] rows;
+    private long lastPtsUs = -1;
+    private boolean failed;
+    private volatile long count;
+
+    /**
+     * 创建缩略图文件并写入文件头
+     *
+     * @param media 输出文件，缩略图为同目录下的 media + {@link #SUFFIX}
+     * @param sourceWidth 采集画面的宽
+     * @param thumbnailWidth 缩略图的宽，高按画面比例计算
+     * @param intervalUs 两张缩略图的最小间隔
+     */
+    public ThumbnailStrip(File media, int sourceWidth, int sourceHeight, int thumbnailWidth,
+                          long intervalUs) throws IOException {
+        this.width = Math.min(thumbnailWidth, sourceWidth);
+        this.height = Math.max(1, (int) ((long) sourceHeight * width / sourceWidth));
+        this.intervalUs = intervalUs;
+        columns = new int[width];
+        for (int x = 0; x < width; x++) {
+            /* 取每个缩略图像素覆盖区域的中心 */
+            columns[x] = (int) ((2L * x + 1) * sourceWidth / (2L * width));
+        }
+        rows = new int[height];
+        for (int y = 0; y < height; y++) {
+            rows[y] = (int) ((2L * y + 1) * sourceHeight / (2L * height));
+        }
+        record = ByteBuffer.allocateDirect(recordSize(width, height));
+
+        raf = new RandomAccessFile(stripOf(media), "rw");
+        raf.setLength(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(PIXEL_FORMAT_RGB565);
+        header.putLong(intervalUs);
+        header.clear();
+        channel = raf.getChannel();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    public static File stripOf(File media) {
+        return new File(media.getPath() + SUFFIX);
+    }
+
+    static int recordSize(int width, int height) {
+        return 8 + width * height * 2;
+    }
+
+    /**
+     * 距离上一张缩略图是否已经超过间隔，不需要时可以跳过 {@link #add}
+     */
+    public boolean isDue(long ptsUs) {
+        return !failed && ptsUs >= 0 && (lastPtsUs < 0 || ptsUs - lastPtsUs >= intervalUs);
+    }
+
+    /**
+     * 缩小一帧 RGBA 画面并追加，没到间隔时忽略，在采集线程调用
+     *
+     * @param pixels 从 buffer 当前位置开始的像素数据，不修改位置
+     * @param rowStride 每行字节数
+     * @param pixelStride 每个像素的字节数，不小于 4
+     * @param ptsUs 画面在输出时间线上的时间戳
+     */
+    public void add(ByteBuffer pixels, int rowStride, int pixelStride, long ptsUs) {
+        if (!isDue(ptsUs)) {
+            return;
+        }
+        int base = pixels.position();
+        record.clear();
+        record.putLong(ptsUs);
+        for (int y = 0; y < height; y++) {
+            int row = base + rows[y] * rowStride;
+            for (int x = 0; x < width; x++) {
+                int p = row + columns[x] * pixelStride;
+                int r = pixels.get(p) & 0xff;
+                int g = pixels.get(p + 1) & 0xff;
+                int b = pixels.get(p + 2) & 0xff;
+                record.putShort(Short.reverseBytes((short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3))));
+            }
+        }
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            LogUtil.w(TAG, "append thumbnail failed: {}", e.getMessage());
+            failed = true;
+            return;
+        }
+        lastPtsUs = ptsUs;
+        count++;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "close thumbnails failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 映射缩略图文件读取，按时间戳二分查找，像素直接从映射中读取
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer map;
+        private final boolean valid;
+        private final int width;
+        private final int height;
+        private final long intervalUs;
+        private final int recordSize;
+        private final int count;
+
+        public Reader(File strip) throws IOException {
+            raf = new RandomAccessFile(strip, "r");
+            long length = raf.length();
+            if (length < HEADER_SIZE) {
+                map = null;
+                valid = false;
+                width = height = recordSize = count = 0;
+                intervalUs = 0;
+                return;
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            valid = map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(16) == PIXEL_FORMAT_RGB565;
+            width = valid ? map.getInt(8) : 0;
+            height = valid ? map.getInt(12) : 0;
+            intervalUs = valid ? map.getLong(20) : 0;
+            recordSize = recordSize(width, height);
+            count = valid ? (int) ((length - HEADER_SIZE) / recordSize) : 0;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getIntervalUs() {
+            return intervalUs;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getPtsUs(int i) {
+            return map.getLong(HEADER_SIZE + i * recordSize);
+        }
+
+        /**
+         * 第 i 张缩略图的像素，小端 RGB565，与映射共享内容
+         */
+        public ByteBuffer getPixels(int i) {
+            ByteBuffer pixels = map.duplicate();
+            int start = HEADER_SIZE + i * recordSize + 8;
+            pixels.limit(start + width * height * 2);
+            pixels.position(start);
+            return pixels.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * 查找 ptsUs 时显示的缩略图，即时间戳不大于 ptsUs 的最后一张
+         *
+         * @return 序号，ptsUs 在第一张之前或者没有缩略图时返回 -1
+         */
+        public int find(long ptsUs) {
+            int lo = 0;
+            int hi = count - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getPtsUs(mid) <= ptsUs) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
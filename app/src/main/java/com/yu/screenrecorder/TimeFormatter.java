@@ -0,0 +1,99 @@
+package com.yu.screenrecorder;
+
+/**
+ * 把秒数格式化为 "HH:MM:SS"，结果写在复用的字符数组中，格式化时不分配对象
+ * <br/> 本身就是 CharSequence，可以直接交给 TextView；需要跨线程保存时再调用 toString()
+ */
+public class TimeFormatter implements CharSequence {
+    private final char[] chars;
+    private final int prefixLength;
+    private int length;
+    private long lastSeconds = -1;
+
+    public TimeFormatter() {
+        this("");
+    }
+
+    /**
+     * @param prefix 固定的前缀，例如 "正在录制:"
+     */
+    public TimeFormatter(String prefix) {
+        prefixLength = prefix.length();
+        /* 小时最多 19 位 */
+        chars = new char[prefixLength + 25];
+        prefix.getChars(0, prefixLength, chars, 0);
+        format(0);
+    }
+
+    /**
+     * 格式化秒数
+     *
+     * @return 与上次格式化的结果不同时返回 true
+     */
+    public boolean format(long seconds) {
+        if (seconds == lastSeconds) {
+            return false;
+        }
+        lastSeconds = seconds;
+        long hour = seconds / 3600;
+        int min = (int) (seconds % 3600 / 60);
+        int second = (int) (seconds % 60);
+
+        int pos = prefixLength;
+        if (hour < 10) {
+            chars[pos++] = '0';
+            chars[pos++] = (char) ('0' + hour);
+        } else {
+            pos = writeLong(hour, pos);
+        }
+        chars[pos++] = ':';
+        chars[pos++] = (char) ('0' + min / 10);
+        chars[pos++] = (char) ('0' + min % 10);
+        chars[pos++] = ':';
+        chars[pos++] = (char) ('0' + second / 10);
+        chars[pos++] = (char) ('0' + second % 10);
+        length = pos;
+        return true;
+    }
+
+    private int writeLong(long value, int pos) {
+        int digits = 0;
+        for (long v = value; v > 0; v /= 10) digits++;
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * 把结果拷贝到 dst，返回拷贝的字符数
+     */
+    public int getChars(char[] dst, int dstBegin) {
+        System.arraycopy(chars, 0, dst, dstBegin, length);
+        return length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException("index=" + index + " length=" + length);
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
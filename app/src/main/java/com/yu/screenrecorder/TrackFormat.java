@@ -0,0 +1,42 @@
+package com.yu.screenrecorder;
+
+/**
+ * 轨道格式，对应 MediaFormat 中录制关心的部分
+ */
+public class TrackFormat {
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_AAC = "audio/mp4a-latm";
+
+    public final String mime;
+    public int width;
+    public int height;
+    public int frameRate;
+    public int bitRate;
+    public int sampleRate;
+    public int channelCount;
+    /* 编解码器特定数据，AVC 为 SPS/PPS，AAC 为 AudioSpecificConfig */
+    public byte[] csd0;
+    public byte[] csd1;
+
+    public TrackFormat(String mime) {
+        this.mime = mime;
+    }
+
+    public static TrackFormat video(String mime, int width, int height) {
+        TrackFormat format = new TrackFormat(mime);
+        format.width = width;
+        format.height = height;
+        return format;
+    }
+
+    public static TrackFormat audio(String mime, int sampleRate, int channelCount) {
+        TrackFormat format = new TrackFormat(mime);
+        format.sampleRate = sampleRate;
+        format.channelCount = channelCount;
+        return format;
+    }
+
+    public boolean isVideo() {
+        return mime.startsWith("video/");
+    }
+}
@@ -0,0 +1,238 @@
+package com.yu.screenrecorder;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可变帧率采集：VirtualDisplay 先渲染到 ImageReader，画面有变化时才画到编码器的输入 Surface
+ * <br/> 每帧用 {@link FrameHasher} 抽样比较，取舍由 {@link FrameGate} 决定；静止画面按最长间隔补心跳帧并请求关键帧。
+ * 画到编码器 Surface 需要 lockHardwareCanvas，因此需要 6.0 以上。所有处理都在 "vfr_capture" 线程
+ * <br/> 设置了 {@link ThumbnailStrip} 时，有变化的画面按间隔缩小后写入缩略图
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class VariableFrameRateSource implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "VfrSource";
+    private static final int MAX_IMAGES = 2;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final int width;
+    private final int height;
+    private final Surface encoderSurface;
+    private final ICodec codec;
+    private final ImageReader reader;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final FrameHasher hasher = new FrameHasher();
+    private final FrameGate gate;
+    private final Rect src;
+    private final Rect dst;
+    private RecorderMetrics metrics;
+    private ThumbnailStrip thumbnails;
+    private RecordingClock clock;
+    private volatile boolean running;
+
+    /* 只在采集线程访问：最近一次有变化的画面 */
+    private Bitmap frame;
+    private ByteBuffer staging;
+
+    private final Runnable deadline = new Runnable() {
+        @Override
+        public void run() {
+            onDeadline();
+        }
+    };
+
+    /**
+     * @param encoderSurface 编码器的输入 Surface
+     * @param codec 用于在心跳帧请求关键帧
+     */
+    public VariableFrameRateSource(RecordConfig config, Surface encoderSurface, ICodec codec) {
+        this.width = config.width;
+        this.height = config.height;
+        this.encoderSurface = encoderSurface;
+        this.codec = codec;
+        this.gate = new FrameGate(config.frameRate, config.maxFrameIntervalMs);
+        src = new Rect(0, 0, width, height);
+        dst = new Rect(0, 0, width, height);
+        thread = new HandlerThread("vfr_capture", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        reader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGES);
+        reader.setOnImageAvailableListener(this, handler);
+    }
+
+    /**
+     * 设置统计，跳过的画面计入其中，在 start 之前调用
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置缩略图，时间戳按录制时钟换算，在 start 之前调用
+     */
+    public void setThumbnailStrip(ThumbnailStrip thumbnails, RecordingClock clock) {
+        this.thumbnails = thumbnails;
+        this.clock = clock;
+    }
+
+    /**
+     * VirtualDisplay 的渲染目标
+     */
+    public Surface getInputSurface() {
+        return reader.getSurface();
+    }
+
+    /**
+     * 在编码器启动之后调用
+     */
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * 在通知编码器输入结束之前调用，返回后不会再向编码器输出画面
+     */
+    public void stop() {
+        running = false;
+        final CountDownLatch latch = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(deadline);
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void release() {
+        reader.close();
+        thread.quitSafely();
+        if (frame != null) {
+            frame.recycle();
+            frame = null;
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        try {
+            if (!running) {
+                return;
+            }
+            if (metrics != null) metrics.framesCaptured.incrementAndGet();
+            Image.Plane plane = image.getPlanes()[0];
+            ByteBuffer pixels = plane.getBuffer();
+            long hash = hasher.hash(pixels, width, height, plane.getRowStride(), plane.getPixelStride());
+            int result = gate.onFrame(hash, System.nanoTime());
+            if (result == FrameGate.SKIP) {
+                if (metrics != null) metrics.framesUnchanged.incrementAndGet();
+                return;
+            }
+            if (thumbnails != null) {
+                addThumbnail(plane);
+            }
+            copy(plane);
+            if (result == FrameGate.EMIT) {
+                post();
+            }
+            schedule();
+        } finally {
+            image.close();
+        }
+    }
+
+    private void onDeadline() {
+        if (!running) {
+            return;
+        }
+        int result = gate.onDeadline(System.nanoTime());
+        if (result == FrameGate.HEARTBEAT) {
+            codec.requestSyncFrame();
+        }
+        if (result != FrameGate.SKIP) {
+            post();
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        handler.removeCallbacks(deadline);
+        long deadlineNs = gate.nextDeadlineNs();
+        if (deadlineNs >= 0) {
+            handler.postDelayed(deadline, Math.max(0, (deadlineNs - System.nanoTime()) / 1000000));
+        }
+    }
+
+    private void addThumbnail(Image.Plane plane) {
+        long ptsUs = clock.toOutputPtsUs(System.nanoTime() / 1000);
+        if (thumbnails.isDue(ptsUs)) {
+            thumbnails.add(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride(), ptsUs);
+        }
+    }
+
+    /**
+     * 把画面拷贝到 Bitmap，Bitmap 宽度按行跨度分配，画的时候裁掉多余的部分
+     */
+    private void copy(Image.Plane plane) {
+        ByteBuffer pixels = plane.getBuffer();
+        if (frame == null) {
+            frame = Bitmap.createBitmap(plane.getRowStride() / plane.getPixelStride(), height, Bitmap.Config.ARGB_8888);
+        }
+        pixels.rewind();
+        if (pixels.remaining() < frame.getByteCount()) {
+            /* 最后一行可能没有按行跨度补齐 */
+            if (staging == null) {
+                staging = ByteBuffer.allocateDirect(frame.getByteCount());
+            }
+            staging.clear();
+            staging.put(pixels);
+            staging.rewind();
+            pixels = staging;
+        }
+        frame.copyPixelsFromBuffer(pixels);
+    }
+
+    private void post() {
+        if (frame == null) {
+            return;
+        }
+        try {
+            Canvas canvas = encoderSurface.lockHardwareCanvas();
+            try {
+                canvas.drawBitmap(frame, src, dst, null);
+            } finally {
+                encoderSurface.unlockCanvasAndPost(canvas);
+            }
+        } catch (RuntimeException e) {
+            LogUtil.w(TAG, "post frame failed: {}", e.getMessage());
+        }
+    }
+
+    public long getHeartbeats() {
+        return gate.getHeartbeats();
+    }
+}
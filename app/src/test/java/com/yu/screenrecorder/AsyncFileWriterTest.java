@@ -0,0 +1,42 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AsyncFileWriterTest {
+
+    @Test
+    public void writesAllBytesAndTrimsPreallocation() throws Exception {
+        File file = File.createTempFile("writer", ".bin");
+        file.deleteOnExit();
+        AsyncFileWriter writer = new AsyncFileWriter(file, 1000, 4, 64 * 1024, 5000, 1000);
+        ByteBuffer src = ByteBuffer.allocate(777);
+        int total = 0;
+        for (int i = 0; i < 100; i++) {
+            src.clear();
+            for (int j = 0; j < src.capacity(); j++) src.put((byte) (total + j));
+            src.flip();
+            writer.write(src);
+            assertFalse(src.hasRemaining());
+            total += src.capacity();
+        }
+        writer.close();
+
+        assertEquals(total, file.length());
+        assertEquals(total, writer.getBytesWritten());
+        assertTrue(writer.getSyncCount() > 0);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            for (int i = 0; i < total; i++) {
+                assertEquals((byte) i, (byte) in.read());
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.yu.screenrecorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncLogWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("logs").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private List<String> lines(String name) throws IOException {
+        return Files.readAllLines(new File(dir, name).toPath(), Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void writesFormattedLines() throws IOException {
+        AsyncLogWriter writer = new AsyncLogWriter(dir, "record.log");
+        writer.start();
+        StringBuilder sb = new StringBuilder();
+        LogUtil.appendFormat(sb, "start latency {}us, output {}", 2, 1, null, 1234, "a.mp4", 0);
+        assertTrue(writer.append(LogUtil.INFO, "RecordService", sb));
+        assertTrue(writer.append(LogUtil.ERROR, "Pipeline", "中文消息"));
+        writer.close();
+
+        List<String> lines = lines("record.log");
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).endsWith(" I/RecordService: start latency 1234us, output a.mp4"));
+        assertTrue(lines.get(1), lines.get(1).endsWith(" E/Pipeline: 中文消息"));
+        assertEquals(2, writer.getLinesWritten());
+        assertEquals(0, writer.getDroppedMessages());
+    }
+
+    @Test
+    public void dropsWhenRingIsFullInsteadOfBlocking() throws IOException {
+        // 写线程还没启动，缓冲不会被取走
+        AsyncLogWriter writer = new AsyncLogWriter(dir, "record.log", 4, 32, 1024, 2);
+        for (int i = 0; i < 10; i++) {
+            writer.append(LogUtil.DEBUG, "T", "message " + i);
+        }
+        assertEquals(6, writer.getDroppedMessages());
+        writer.start();
+        writer.close();
+        assertEquals(4, lines("record.log").size());
+    }
+
+    @Test
+    public void rotatesBySize() throws IOException {
+        AsyncLogWriter writer = new AsyncLogWriter(dir, "record.log", 16, 100, 200, 3);
+        writer.start();
+        char[] text = new char[90];
+        Arrays.fill(text, 'x');
+        for (int i = 0; i < 40; i++) {
+            while (!writer.append(LogUtil.DEBUG, "T", new String(text))) {
+                Thread.yield();
+            }
+        }
+        writer.close();
+        assertTrue(new File(dir, "record.log").exists());
+        assertTrue(new File(dir, "record.log.1").exists());
+        assertTrue(new File(dir, "record.log.2").exists());
+        assertFalse(new File(dir, "record.log.3").exists());
+        // 每个文件最多超出一行
+        assertTrue(new File(dir, "record.log.1").length() < 200 + 150);
+    }
+
+    @Test
+    public void formatKeepsExtraPlaceholders() {
+        StringBuilder sb = new StringBuilder();
+        LogUtil.appendFormat(sb, "{} and {}", 1, 0, "a", 0, null, 0);
+        assertEquals("a and {}", sb.toString());
+    }
+}
@@ -0,0 +1,91 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureProfileTest {
+
+    private static RecordConfig screen(int width, int height, int dpi, int profile) {
+        RecordConfig config = new RecordConfig();
+        config.screenWidth = width;
+        config.screenHeight = height;
+        config.screenDpi = dpi;
+        config.profile = profile;
+        return config;
+    }
+
+    @Test
+    public void scalesTallPhoneKeepingAspectAndAlignment() {
+        RecordConfig config = screen(1440, 3120, 560, CaptureProfile.PROFILE_720P);
+        CaptureProfile.apply(config);
+        assertEquals(720, config.width);
+        assertEquals(1568, config.height);   // 1560 取最接近的 16 的倍数
+        assertEquals(0, config.width % CaptureProfile.ALIGNMENT);
+        assertEquals(0, config.height % CaptureProfile.ALIGNMENT);
+        assertEquals(280, config.dpi);
+        // 比 16:9 的 720p 像素多，码率按像素数增加
+        assertTrue(config.bitRate > 4000000);
+        assertTrue(config.bitRate < 6000000);
+    }
+
+    @Test
+    public void neverUpscales() {
+        RecordConfig config = screen(720, 1280, 320, CaptureProfile.PROFILE_1080P);
+        CaptureProfile.apply(config);
+        assertEquals(720, config.width);
+        assertEquals(1280, config.height);
+        assertEquals(320, config.dpi);
+    }
+
+    @Test
+    public void roundingDownWhenNearestWouldExceedScreen() {
+        RecordConfig config = screen(1080, 1920, 480, CaptureProfile.PROFILE_NATIVE);
+        CaptureProfile.apply(config);
+        assertEquals(1072, config.width);
+        assertEquals(1920, config.height);
+        assertEquals(8000000, CaptureProfile.defaultBitRate(CaptureProfile.PROFILE_NATIVE, 1080, 1920, 30));
+    }
+
+    @Test
+    public void customMaxEdgeLimitsLongSide() {
+        RecordConfig config = screen(2560, 1600, 320, CaptureProfile.PROFILE_CUSTOM);
+        config.profileMaxEdge = 1280;
+        CaptureProfile.apply(config);
+        assertEquals(1280, config.width);
+        assertEquals(800, config.height);
+        assertEquals(160, config.dpi);
+    }
+
+    @Test
+    public void lowerProfilesUseLowerBitRates() {
+        int p1080 = CaptureProfile.defaultBitRate(CaptureProfile.PROFILE_1080P, 1080, 1920, 30);
+        int p720 = CaptureProfile.defaultBitRate(CaptureProfile.PROFILE_720P, 720, 1280, 30);
+        int p480 = CaptureProfile.defaultBitRate(CaptureProfile.PROFILE_480P, 480, 848, 30);
+        assertEquals(8000000, p1080);
+        assertEquals(4000000, p720);
+        assertTrue(p480 < p720 && p480 > 1900000);
+        assertEquals(p720 / 2, CaptureProfile.defaultBitRate(CaptureProfile.PROFILE_720P, 720, 1280, 15));
+    }
+
+    @Test
+    public void stepsLowerProfileWithoutChangingConfig() {
+        RecordConfig config = screen(1080, 1920, 480, CaptureProfile.PROFILE_1080P);
+        CaptureProfile.apply(config, 1);
+        assertEquals(720, config.width);
+        assertEquals(1280, config.height);
+        assertEquals(CaptureProfile.PROFILE_1080P, config.profile);
+        // 最低到 480p
+        CaptureProfile.apply(config, 5);
+        assertEquals(480, config.width);
+    }
+
+    @Test
+    public void stepsShrinkCustomMaxEdge() {
+        RecordConfig config = screen(1080, 1920, 480, CaptureProfile.PROFILE_CUSTOM);
+        config.profileMaxEdge = 1280;
+        CaptureProfile.apply(config, 1);
+        assertEquals(960, config.height);
+        assertEquals(1280, config.profileMaxEdge);
+    }
+}
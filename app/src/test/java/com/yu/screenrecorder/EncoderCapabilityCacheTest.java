@@ -0,0 +1,139 @@
+package com.yu.screenrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class EncoderCapabilityCacheTest {
+
+    private static class FakeProbe implements EncoderCapabilityCache.Probe {
+        int calls;
+
+        @Override
+        public EncoderCapabilities probe(String mime) {
+            calls++;
+            if (!TrackFormat.MIME_AVC.equals(mime)) {
+                return null;
+            }
+            return capabilities();
+        }
+    }
+
+    private static EncoderCapabilities capabilities() {
+        EncoderCapabilities caps = new EncoderCapabilities(TrackFormat.MIME_AVC);
+        caps.codecName = "fake.avc.encoder";
+        caps.minWidth = 64;
+        caps.maxWidth = 2048;
+        caps.minHeight = 64;
+        caps.maxHeight = 2048;
+        caps.widthAlignment = 16;
+        caps.heightAlignment = 16;
+        caps.maxPixels = 1920L * 1088;
+        caps.maxFrameRate = 60;
+        caps.minBitRate = 100000;
+        caps.maxBitRate = 20000000;
+        caps.profiles = new int[]{1, 2, 8};
+        return caps;
+    }
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("caps", ".bin");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void probesOnceAndReloadsFromFile() {
+        FakeProbe probe = new FakeProbe();
+        EncoderCapabilityCache cache = new EncoderCapabilityCache(file, "device/build:1", probe);
+        assertNotNull(cache.get(TrackFormat.MIME_AVC));
+        assertNotNull(cache.get(TrackFormat.MIME_AVC));
+        assertFalse(cache.isLoadedFromFile());
+        assertEquals(1, probe.calls);
+
+        FakeProbe second = new FakeProbe();
+        EncoderCapabilityCache reloaded = new EncoderCapabilityCache(file, "device/build:1", second);
+        EncoderCapabilities caps = reloaded.get(TrackFormat.MIME_AVC);
+        assertTrue(reloaded.isLoadedFromFile());
+        assertEquals(0, second.calls);
+        assertEquals("fake.avc.encoder", caps.codecName);
+        assertEquals(2048, caps.maxWidth);
+        assertEquals(1920L * 1088, caps.maxPixels);
+        assertEquals(60, caps.maxFrameRate);
+        assertTrue(caps.supportsProfile(8));
+        assertFalse(caps.supportsProfile(4));
+    }
+
+    @Test
+    public void missingEncoderIsCachedToo() {
+        FakeProbe probe = new FakeProbe();
+        new EncoderCapabilityCache(file, "fp", probe).get("video/hevc");
+        assertEquals(1, probe.calls);
+
+        FakeProbe second = new FakeProbe();
+        assertNull(new EncoderCapabilityCache(file, "fp", second).get("video/hevc"));
+        assertEquals(0, second.calls);
+    }
+
+    @Test
+    public void reprobesWhenFingerprintChanges() {
+        new EncoderCapabilityCache(file, "build:1", new FakeProbe()).get(TrackFormat.MIME_AVC);
+
+        FakeProbe probe = new FakeProbe();
+        EncoderCapabilityCache cache = new EncoderCapabilityCache(file, "build:2", probe);
+        assertNotNull(cache.get(TrackFormat.MIME_AVC));
+        assertFalse(cache.isLoadedFromFile());
+        assertEquals(1, probe.calls);
+    }
+
+    @Test
+    public void reprobesWhenFileIsCorrupt() throws Exception {
+        new EncoderCapabilityCache(file, "fp", new FakeProbe()).get(TrackFormat.MIME_AVC);
+        long length = file.length();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[(int) length / 2]);
+        out.close();
+
+        FakeProbe probe = new FakeProbe();
+        assertNotNull(new EncoderCapabilityCache(file, "fp", probe).get(TrackFormat.MIME_AVC));
+        assertEquals(1, probe.calls);
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void fitScalesOversizedConfig() {
+        RecordConfig config = new RecordConfig();
+        config.width = 1440;
+        config.height = 3120;
+        config.dpi = 560;
+        config.frameRate = 90;
+        config.minFrameRate = 15;
+        config.bitRate = 30000000;
+        assertTrue(capabilities().fit(config));
+        assertTrue(capabilities().isSizeSupported(config.width, config.height));
+        assertTrue((long) config.width * config.height <= 1920L * 1088);
+        assertTrue(config.height <= 2048);
+        assertEquals(0, config.width % 16);
+        assertTrue(config.dpi < 560);
+        assertEquals(60, config.frameRate);
+        assertEquals(20000000, config.bitRate);
+    }
+
+    @Test
+    public void fitKeepsSupportedConfig() {
+        RecordConfig config = new RecordConfig();
+        config.width = 720;
+        config.height = 1280;
+        config.bitRate = 4000000;
+        assertFalse(capabilities().fit(config));
+        assertEquals(720, config.width);
+        assertEquals(1280, config.height);
+    }
+}
@@ -0,0 +1,188 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class EncoderEngineTest {
+
+    /* 第一个样本就卡住的输出端，interruptible 时被中断后返回 */
+    private static class StuckSink implements ISampleSink {
+        final boolean interruptible;
+        volatile boolean release;
+        volatile boolean entered;
+
+        StuckSink(boolean interruptible) {
+            this.interruptible = interruptible;
+        }
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            return 0;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            entered = true;
+            while (!release) {
+                if (interruptible && Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                LockSupport.parkNanos(1000000);
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /* 只统计写入情况的输出端 */
+    private static class CountingSink implements ISampleSink {
+        int tracks;
+        boolean started;
+        boolean stopped;
+        long samples;
+        long bytes;
+        long keyFrames;
+        long lastPts = -1;
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            return tracks++;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            assertTrue(started);
+            assertTrue(info.presentationTimeUs > lastPts);
+            lastPts = info.presentationTimeUs;
+            samples++;
+            bytes += buffer.remaining();
+            if (info.isKeyFrame()) keyFrames++;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void drainWritesEverySample() throws Exception {
+        CountingSink sink = new CountingSink();
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(300, 1000, 30, 30), sink);
+        long beforeNs = System.nanoTime();
+        assertEquals(-1, engine.getFirstFrameTimeNanos());
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        assertEquals(1, sink.tracks);
+        assertEquals(300, sink.samples);
+        assertEquals(300 * 1000, sink.bytes);
+        assertEquals(10, sink.keyFrames);
+        assertEquals(300, engine.getFramesEncoded());
+        assertTrue(engine.getFirstFrameTimeNanos() >= beforeNs);
+    }
+
+    @Test
+    public void pausedFramesAreNotDrops() throws Exception {
+        CountingSink sink = new CountingSink();
+        RecorderMetrics metrics = new RecorderMetrics();
+        RecordingClock clock = new RecordingClock(RecordingClock.MONOTONIC, RecordingClock.MONOTONIC);
+        clock.start();
+        clock.pause();
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(30, 1000, 30, 30), sink);
+        engine.setClock(clock);
+        engine.setMetrics(metrics);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        assertEquals(0, sink.samples);
+        assertEquals(30, metrics.framesCaptured.get());
+        assertEquals(30, metrics.framesPaused.get());
+        assertEquals(0, metrics.framesDropped.get());
+        assertEquals(0, metrics.framesEncoded.get());
+
+        // 输入帧由可变帧率源计数时输出端不再重复计数
+        engine = new EncoderEngine(new FakeCodec(30, 1000, 30, 30), new CountingSink());
+        engine.setMetrics(metrics);
+        engine.setCountCaptured(false);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        assertEquals(30, metrics.framesCaptured.get());
+        assertEquals(30, metrics.framesEncoded.get());
+    }
+
+    @Test
+    public void stopDrainsOnBackgroundThread() throws Exception {
+        CountingSink sink = new CountingSink();
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(Integer.MAX_VALUE, 4096, 30, 30), sink);
+        engine.start();
+        Thread.sleep(50);
+        engine.stop();
+        assertTrue(sink.samples > 0);
+        assertEquals(sink.samples, engine.getFramesEncoded());
+    }
+
+    private static void awaitStuck(StuckSink sink) {
+        while (!sink.entered) {
+            LockSupport.parkNanos(1000000);
+        }
+    }
+
+    @Test
+    public void stopInterruptsStuckDrainThread() {
+        FakeCodec codec = new FakeCodec(Integer.MAX_VALUE, 100, 30, 30);
+        StuckSink sink = new StuckSink(true);
+        EncoderEngine engine = new EncoderEngine(codec, sink);
+        engine.setStopTimeoutMs(50);
+        engine.start();
+        awaitStuck(sink);
+        assertTrue(engine.stop());
+        assertFalse(engine.isDraining());
+        EncoderEngine.releaseCodec(codec, engine);
+        assertTrue(codec.isReleased());
+    }
+
+    @Test
+    public void codecKeptWhileDrainThreadAlive() {
+        FakeCodec codec = new FakeCodec(Integer.MAX_VALUE, 100, 30, 30);
+        StuckSink sink = new StuckSink(false);
+        EncoderEngine engine = new EncoderEngine(codec, sink);
+        engine.setStopTimeoutMs(50);
+        engine.start();
+        awaitStuck(sink);
+        assertFalse(engine.stop());
+        assertTrue(engine.isDraining());
+        EncoderEngine.releaseCodec(codec, engine);
+        assertFalse(codec.isReleased());
+
+        // 卡住的写入结束后 drain 线程退出循环，编码器可以释放
+        sink.release = true;
+        assertTrue(engine.stop());
+        EncoderEngine.releaseCodec(codec, engine);
+        assertTrue(codec.isReleased());
+    }
+}
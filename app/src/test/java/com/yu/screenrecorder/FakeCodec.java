@@ -0,0 +1,124 @@
+package com.yu.screenrecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 假编码器：按固定帧率、帧大小和关键帧间隔输出样本，用于在 JVM 上测试编码引擎
+ */
+public class FakeCodec implements ICodec {
+    private final int frameCount;
+    private final int frameSize;
+    private final int gopSize;
+    private final long frameIntervalUs;
+    private final ByteBuffer[] buffers;
+
+    private boolean formatSent;
+    private volatile boolean endOfInput;
+    private int produced;
+    private int syncFrameRequests;
+    private int bitRate;
+    private int frameRate;
+    private volatile boolean released;
+
+    /**
+     * @param frameCount 最多输出的帧数，输出完成后相当于输入结束
+     * @param frameSize 每帧字节数
+     * @param gopSize 关键帧间隔帧数
+     * @param frameRate 帧率
+     */
+    public FakeCodec(int frameCount, int frameSize, int gopSize, int frameRate) {
+        this.frameCount = frameCount;
+        this.frameSize = frameSize;
+        this.gopSize = gopSize;
+        this.frameIntervalUs = 1000000L / frameRate;
+        buffers = new ByteBuffer[]{ByteBuffer.allocateDirect(frameSize), ByteBuffer.allocateDirect(frameSize)};
+        for (ByteBuffer buffer : buffers) {
+            for (int i = 0; i < frameSize; i++) buffer.put(i, (byte) i);
+        }
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        if (!formatSent) {
+            formatSent = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        int index = produced & 1;
+        if (produced >= frameCount || endOfInput) {
+            info.set(0, 0, produced * frameIntervalUs, SampleInfo.FLAG_END_OF_STREAM);
+            return index;
+        }
+        int flags = produced % gopSize == 0 ? SampleInfo.FLAG_KEY_FRAME : 0;
+        info.set(0, frameSize, produced * frameIntervalUs, flags);
+        produced++;
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        ByteBuffer buffer = buffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720);
+        format.csd0 = new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+        format.csd1 = new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+        return format;
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        endOfInput = true;
+    }
+
+    @Override
+    public void requestSyncFrame() {
+        syncFrameRequests++;
+    }
+
+    public int getSyncFrameRequests() {
+        return syncFrameRequests;
+    }
+
+    @Override
+    public void setVideoBitrate(int bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    @Override
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+}
@@ -0,0 +1,111 @@
+package com.yu.screenrecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FileOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong closedBytes = new AtomicLong();
+
+    private static int writerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && "record_writer".equals(thread.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private FileOutput open(File file, int outputFormat) throws IOException {
+        RecordConfig config = new RecordConfig();
+        config.outputFormat = outputFormat;
+        config.outputPath = file.getPath();
+        config.fragmentDurationMs = 1000;
+        FileOutput output = FileOutput.open(config, file, null, closedBytes);
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280);
+        format.csd0 = new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+        format.csd1 = new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+        output.addTrack(format);
+        return output;
+    }
+
+    private static void write(ISampleSink sink, int frames) {
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < frames; i++) {
+            byte[] frame = {0, 0, 0, 1, (byte) (i % 15 == 0 ? 0x65 : 0x41), (byte) i};
+            info.set(0, frame.length, i * 1000000L / 30, i % 15 == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+            sink.writeSample(0, ByteBuffer.wrap(frame), info);
+        }
+    }
+
+    @Test
+    public void releaseWithoutStartStopsWriterAndDeletesFiles() throws IOException {
+        int threads = writerThreads();
+        int[] formats = {RecordConfig.OUTPUT_FORMAT_FMP4, RecordConfig.OUTPUT_FORMAT_H264};
+        for (int format : formats) {
+            File file = new File(folder.getRoot(), "standby" + format + ".mp4");
+            FileOutput output = open(file, format);
+            assertEquals(threads + 1, writerThreads());
+            assertTrue(RecordingJournal.journalOf(file).exists());
+
+            output.release();
+            assertEquals(threads, writerThreads());
+            assertFalse(file.exists());
+            assertFalse(RecordingJournal.journalOf(file).exists());
+            assertFalse(KeyframeIndex.indexOf(file).exists());
+        }
+    }
+
+    @Test
+    public void defaultOutputHasJournal() throws IOException {
+        RecordConfig config = new RecordConfig();
+        File file = new File(folder.getRoot(), "default" + config.getFileExtension());
+        FileOutput output = FileOutput.open(config, file, null, closedBytes);
+        assertNotNull(output.writer);
+        assertTrue(RecordingJournal.journalOf(file).exists());
+        output.release();
+    }
+
+    @Test
+    public void releaseWithoutStopKeepsJournalForRecovery() throws IOException {
+        int threads = writerThreads();
+        File file = new File(folder.getRoot(), "killed.mp4");
+        FileOutput output = open(file, RecordConfig.OUTPUT_FORMAT_FMP4);
+        output.start();
+        write(output, 60);
+
+        output.release();
+        assertEquals(threads, writerThreads());
+        assertTrue(file.length() > 0);
+        assertTrue(RecordingJournal.journalOf(file).exists());
+        assertTrue(KeyframeIndex.indexOf(file).exists());
+    }
+
+    @Test
+    public void stopDeletesJournalAndCountsBytes() throws IOException {
+        int threads = writerThreads();
+        File file = new File(folder.getRoot(), "done.h264");
+        FileOutput output = open(file, RecordConfig.OUTPUT_FORMAT_H264);
+        output.start();
+        write(output, 30);
+        output.stop();
+        output.release();
+
+        assertEquals(threads, writerThreads());
+        assertTrue(output.stopped);
+        assertEquals(file.length(), closedBytes.get());
+        assertFalse(RecordingJournal.journalOf(file).exists());
+        assertTrue(KeyframeIndex.indexOf(file).exists());
+    }
+}
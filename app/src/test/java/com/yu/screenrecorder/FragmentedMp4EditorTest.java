@@ -0,0 +1,268 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4EditorTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final long AUDIO_FRAME_US = 1024 * 1000000L / 48000;
+
+    /* 直接写文件 */
+    private static class FileByteOutput implements ByteOutput {
+        final FileOutputStream stream;
+        final FileChannel channel;
+
+        FileByteOutput(File file) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /* 解析出的一个轨道分片 */
+    private static class Run {
+        int sequence;
+        int trackId;
+        long decodeTime;
+        int[] durations;
+        int[] flags;
+        /* 每个样本的数据 */
+        List<byte[]> samples = new ArrayList<>();
+    }
+
+    private static File tempFile(String name) throws IOException {
+        File file = File.createTempFile(name, ".mp4");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static TrackFormat videoFormat(int width) {
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, width, 1280);
+        format.csd0 = SPS;
+        format.csd1 = PPS;
+        return format;
+    }
+
+    /**
+     * 录制 30fps 的视频和 48kHz 的音频，每 0.5 秒一个关键帧，分片 1 秒；
+     * 视频样本的内容为帧序号，音频样本的内容为 1000 + 序号
+     */
+    private static File record(String name, int firstFrame, int frames, int width) throws IOException {
+        File file = tempFile(name);
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(new FileByteOutput(file), 1000000);
+        int video = sink.addTrack(videoFormat(width));
+        int audio = sink.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 48000, 1));
+        sink.start();
+        SampleInfo info = new SampleInfo();
+        long audioUs = firstFrame * 1000000L / 30;
+        int audioIndex = (int) (audioUs / AUDIO_FRAME_US);
+        for (int i = firstFrame; i < firstFrame + frames; i++) {
+            long ptsUs = i * 1000000L / 30;
+            boolean key = i % 15 == 0;
+            byte[] frame = {0, 0, 0, 1, (byte) (key ? 0x65 : 0x41), (byte) (i >> 8), (byte) i};
+            info.set(0, frame.length, ptsUs, key ? SampleInfo.FLAG_KEY_FRAME : 0);
+            sink.writeSample(video, ByteBuffer.wrap(frame), info);
+            while (audioIndex * AUDIO_FRAME_US < ptsUs + 1000000L / 30) {
+                int value = 1000 + audioIndex;
+                info.set(0, 2, audioIndex * AUDIO_FRAME_US, 0);
+                sink.writeSample(audio, ByteBuffer.wrap(new byte[]{(byte) (value >> 8), (byte) value}), info);
+                audioIndex++;
+            }
+        }
+        sink.stop();
+        return file;
+    }
+
+    private static List<Run> parse(File file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        List<Run> runs = new ArrayList<>();
+        int pos = 0;
+        while (pos + 8 <= buf.limit()) {
+            int size = buf.getInt(pos);
+            if (buf.getInt(pos + 4) == Mp4Box.MOOF) {
+                int sequence = buf.getInt(find(buf, pos + 8, pos + size, Mp4Box.MFHD) + 12);
+                for (int traf = pos + 8; traf < pos + size; traf += buf.getInt(traf)) {
+                    if (buf.getInt(traf + 4) != Mp4Box.TRAF) continue;
+                    int end = traf + buf.getInt(traf);
+                    Run run = new Run();
+                    run.sequence = sequence;
+                    run.trackId = buf.getInt(find(buf, traf + 8, end, Mp4Box.TFHD) + 12);
+                    run.decodeTime = buf.getLong(find(buf, traf + 8, end, Mp4Box.TFDT) + 12);
+                    int trun = find(buf, traf + 8, end, Mp4Box.TRUN);
+                    int count = buf.getInt(trun + 12);
+                    int offset = pos + buf.getInt(trun + 16);
+                    run.durations = new int[count];
+                    run.flags = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        run.durations[i] = buf.getInt(trun + 20 + i * 12);
+                        int sampleSize = buf.getInt(trun + 24 + i * 12);
+                        run.flags[i] = buf.getInt(trun + 28 + i * 12);
+                        run.samples.add(Arrays.copyOfRange(buf.array(), offset, offset + sampleSize));
+                        offset += sampleSize;
+                    }
+                    runs.add(run);
+                }
+            }
+            pos += size;
+        }
+        assertEquals("boxes cover the file", buf.limit(), pos);
+        return runs;
+    }
+
+    private static int find(ByteBuffer buf, int from, int to, int type) {
+        for (int pos = from; pos + 8 <= to; pos += buf.getInt(pos)) {
+            if (buf.getInt(pos + 4) == type) return pos;
+        }
+        fail("no " + Mp4Box.typeName(type));
+        return -1;
+    }
+
+    /* 视频样本为 AVCC：4 字节长度 + NAL 头 + 两字节帧序号 */
+    private static int frameOf(byte[] sample) {
+        return ((sample[5] & 0xff) << 8) | (sample[6] & 0xff);
+    }
+
+    private static int audioOf(byte[] sample) {
+        return ((sample[0] & 0xff) << 8) | (sample[1] & 0xff);
+    }
+
+    /**
+     * 检查某个轨道在输出中的时间线连续，返回样本内容的序号
+     */
+    private static List<Integer> samplesOf(List<Run> runs, int trackId, boolean video, long[] range) {
+        List<Integer> values = new ArrayList<>();
+        long expected = -1;
+        for (Run run : runs) {
+            if (run.trackId != trackId) continue;
+            if (expected >= 0) {
+                assertEquals("track " + trackId + " timeline", expected, run.decodeTime, 2);
+            } else {
+                range[0] = run.decodeTime;
+            }
+            expected = run.decodeTime;
+            for (int i = 0; i < run.samples.size(); i++) {
+                values.add(video ? frameOf(run.samples.get(i)) : audioOf(run.samples.get(i)));
+                expected += run.durations[i];
+            }
+        }
+        range[1] = expected;
+        return values;
+    }
+
+    @Test
+    public void concatJoinsSegmentsOnOneTimeline() throws IOException {
+        // 两个分段在同一条时间线上，第二个从第 60 帧开始
+        File first = record("first", 0, 60, 720);
+        File second = record("second", 60, 60, 720);
+        File output = tempFile("concat");
+        long durationUs = FragmentedMp4Editor.concat(Arrays.asList(first, second), output);
+        assertEquals(4000000, durationUs, 50000);
+
+        List<Run> runs = parse(output);
+        int sequence = 0;
+        for (Run run : runs) {
+            if (run.sequence != sequence) {
+                assertEquals(sequence + 1, run.sequence);
+                sequence = run.sequence;
+            }
+        }
+        assertEquals(4, sequence);
+        long[] range = new long[2];
+        List<Integer> frames = samplesOf(runs, 1, true, range);
+        assertEquals(120, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i, (int) frames.get(i));
+        }
+        assertEquals(0, range[0]);
+        assertEquals(4 * 90000, range[1], 3000);
+        List<Integer> audio = samplesOf(runs, 2, false, range);
+        assertEquals(0, range[0]);
+        for (int i = 1; i < audio.size(); i++) {
+            assertEquals(audio.get(i - 1) + 1, (int) audio.get(i));
+        }
+    }
+
+    @Test
+    public void trimStartsAtPreviousKeyFrame() throws IOException {
+        File input = record("input", 0, 120, 720);
+        File output = tempFile("trim");
+        // 1.2 秒之前最近的关键帧是第 30 帧，2.6 秒即第 78 帧及之后的样本丢弃
+        long durationUs = FragmentedMp4Editor.trim(input, output, 1200000, 2600000);
+        assertEquals(1600000, durationUs, 40000);
+
+        List<Run> runs = parse(output);
+        assertEquals(1, runs.get(0).sequence);
+        long[] range = new long[2];
+        List<Integer> frames = samplesOf(runs, 1, true, range);
+        assertEquals(0, range[0]);
+        assertEquals(48, frames.size());
+        assertEquals(30, (int) frames.get(0));
+        assertEquals(77, (int) frames.get(frames.size() - 1));
+        Run firstVideo = runs.get(0).trackId == 1 ? runs.get(0) : runs.get(1);
+        assertEquals(Mp4Box.SAMPLE_FLAGS_SYNC, firstVideo.flags[0]);
+
+        List<Integer> audio = samplesOf(runs, 2, false, range);
+        // 音频从同一时间开始，时间线从 0 开始
+        assertEquals(1000 + (int) ((1000000 + AUDIO_FRAME_US - 1) / AUDIO_FRAME_US), (int) audio.get(0));
+        assertTrue(range[0] < 48000 / 100);
+        long lastAudioUs = (audio.get(audio.size() - 1) - 1000) * AUDIO_FRAME_US;
+        assertTrue(lastAudioUs < 2600000);
+    }
+
+    @Test
+    public void trimStopsAtTruncatedFragment() throws IOException {
+        File input = record("input", 0, 90, 720);
+        // 进程被杀时最后一个分片只写了一半
+        RandomAccessFile raf = new RandomAccessFile(input, "rw");
+        raf.setLength(raf.length() - 20);
+        raf.close();
+        File output = tempFile("trim");
+        FragmentedMp4Editor.trim(input, output, 0, -1);
+
+        long[] range = new long[2];
+        List<Integer> frames = samplesOf(parse(output), 1, true, range);
+        assertEquals(60, frames.size());
+        assertEquals(59, (int) frames.get(59));
+    }
+
+    @Test
+    public void rejectsDifferentTracks() throws IOException {
+        File first = record("first", 0, 30, 720);
+        File second = record("second", 30, 30, 1080);
+        File output = tempFile("concat");
+        try {
+            FragmentedMp4Editor.concat(Arrays.asList(first, second), output);
+            fail("tracks differ");
+        } catch (IOException e) {
+            assertFalse(output.exists());
+        }
+    }
+}
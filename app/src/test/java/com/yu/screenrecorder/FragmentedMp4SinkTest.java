@@ -0,0 +1,223 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4SinkTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    /* 写入内存，记录 flush 时的长度 */
+    private static class MemoryOutput implements ByteOutput {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Integer> flushed = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public void write(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                data.write(src.get());
+            }
+        }
+
+        @Override
+        public void flush() {
+            flushed.add(data.size());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class Box {
+        final int type;
+        final int offset;
+        final int size;
+
+        Box(int type, int offset, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static List<Box> topLevel(ByteBuffer buf) {
+        List<Box> boxes = new ArrayList<>();
+        int pos = 0;
+        while (pos + 8 <= buf.limit()) {
+            int size = buf.getInt(pos);
+            boxes.add(new Box(buf.getInt(pos + 4), pos, size));
+            pos += size;
+        }
+        assertEquals("boxes cover the file", buf.limit(), pos);
+        return boxes;
+    }
+
+    /* 在 [from, to) 中查找子 box */
+    private static int find(ByteBuffer buf, int from, int to, String type) {
+        int pos = from;
+        while (pos + 8 <= to) {
+            if (buf.getInt(pos + 4) == Mp4Box.fourcc(type)) {
+                return pos;
+            }
+            pos += buf.getInt(pos);
+        }
+        return -1;
+    }
+
+    private static TrackFormat videoFormat() {
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280);
+        format.csd0 = SPS;
+        format.csd1 = PPS;
+        return format;
+    }
+
+    private static void writeFrame(ISampleSink sink, int track, long ptsUs, boolean key) {
+        byte[] frame = {0, 0, 0, 1, 0x09, (byte) 0xf0, 0, 0, 1, (byte) (key ? 0x65 : 0x41), 1, 2, 3};
+        SampleInfo info = new SampleInfo();
+        info.set(0, frame.length, ptsUs, key ? SampleInfo.FLAG_KEY_FRAME : 0);
+        sink.writeSample(track, ByteBuffer.wrap(frame), info);
+    }
+
+    @Test
+    public void fragmentsStartAtKeyFramesAfterDuration() {
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(output, 1000000);
+        int track = sink.addTrack(videoFormat());
+        sink.start();
+        // 30fps，每 0.5 秒一个关键帧，共 3 秒
+        for (int i = 0; i < 90; i++) {
+            long ptsUs = i * 1000000L / 30;
+            writeFrame(sink, track, ptsUs, i % 15 == 0);
+        }
+        sink.stop();
+        assertTrue(output.closed);
+        assertEquals(3, sink.getFragmentsWritten());
+
+        ByteBuffer buf = ByteBuffer.wrap(output.data.toByteArray());
+        List<Box> boxes = topLevel(buf);
+        assertEquals(2 + 3 * 2, boxes.size());
+        assertEquals(Mp4Box.FTYP, boxes.get(0).type);
+        assertEquals(Mp4Box.MOOV, boxes.get(1).type);
+        // 头部和每个分片写完都 flush，进程被杀时最多丢失一个分片
+        assertEquals(1 + 3, output.flushed.size());
+        assertEquals(boxes.get(2).offset, (int) output.flushed.get(0));
+
+        long expectedDecodeTime = 0;
+        for (int f = 0; f < 3; f++) {
+            Box moof = boxes.get(2 + f * 2);
+            Box mdat = boxes.get(3 + f * 2);
+            assertEquals(Mp4Box.MOOF, moof.type);
+            assertEquals(Mp4Box.MDAT, mdat.type);
+            int mfhd = find(buf, moof.offset + 8, moof.offset + moof.size, "mfhd");
+            assertEquals(f + 1, buf.getInt(mfhd + 12));
+            int traf = find(buf, moof.offset + 8, moof.offset + moof.size, "traf");
+            int trafEnd = traf + buf.getInt(traf);
+            int tfdt = find(buf, traf + 8, trafEnd, "tfdt");
+            assertEquals(expectedDecodeTime, buf.getLong(tfdt + 12));
+            int trun = find(buf, traf + 8, trafEnd, "trun");
+            int count = buf.getInt(trun + 12);
+            assertEquals(30, count);
+            int dataOffset = buf.getInt(trun + 16);
+            assertEquals(mdat.offset + 8, moof.offset + dataOffset);
+            // 第一个样本是关键帧，AUD 被去掉，长度前缀指向 IDR
+            assertEquals(Mp4Box.SAMPLE_FLAGS_SYNC, buf.getInt(trun + 20 + 8));
+            assertEquals(Mp4Box.SAMPLE_FLAGS_NON_SYNC, buf.getInt(trun + 20 + 12 + 8));
+            assertEquals(8, buf.getInt(trun + 20 + 4));
+            assertEquals(4, buf.getInt(mdat.offset + 8));
+            assertEquals(0x65, buf.get(mdat.offset + 12));
+            long duration = 0;
+            for (int i = 0; i < count; i++) {
+                duration += buf.getInt(trun + 20 + i * 12);
+            }
+            assertEquals(90000, duration);
+            expectedDecodeTime += duration;
+        }
+    }
+
+    @Test
+    public void moovDescribesTracks() {
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(output);
+        sink.addTrack(videoFormat());
+        TrackFormat audio = TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 1);
+        audio.csd0 = new byte[]{0x12, 0x08};
+        sink.addTrack(audio);
+        sink.start();
+
+        ByteBuffer buf = ByteBuffer.wrap(output.data.toByteArray());
+        List<Box> boxes = topLevel(buf);
+        Box moov = boxes.get(1);
+        int end = moov.offset + moov.size;
+        assertTrue(find(buf, moov.offset + 8, end, "mvhd") > 0);
+        assertTrue(find(buf, moov.offset + 8, end, "mvex") > 0);
+        int trak = find(buf, moov.offset + 8, end, "trak");
+        int second = trak + buf.getInt(trak);
+        assertEquals(Mp4Box.fourcc("trak"), buf.getInt(second + 4));
+
+        String data = new String(output.data.toByteArray(), Charset.forName("ISO-8859-1"));
+        int avcC = data.indexOf("avcC");
+        assertTrue(avcC > 0);
+        // profile、compatibility、level 来自 SPS
+        assertEquals(0x42, buf.get(avcC + 5));
+        assertEquals(0x1f, buf.get(avcC + 7));
+        assertEquals((byte) 0xe1, buf.get(avcC + 9));
+        assertEquals(5, buf.getShort(avcC + 10));
+        assertTrue(data.indexOf("esds") > 0);
+        assertTrue(data.indexOf("mp4a") > 0);
+    }
+
+    @Test
+    public void audioSamplesAreInterleavedPerFragment() {
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(output, 1000000);
+        int video = sink.addTrack(videoFormat());
+        int audio = sink.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 48000, 2));
+        sink.start();
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < 60; i++) {
+            writeFrame(sink, video, i * 1000000L / 30, i % 30 == 0);
+            info.set(0, 4, i * 1000000L / 30, 0);
+            sink.writeSample(audio, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), info);
+        }
+        sink.stop();
+        assertEquals(2, sink.getFragmentsWritten());
+
+        ByteBuffer buf = ByteBuffer.wrap(output.data.toByteArray());
+        Box moof = topLevel(buf).get(2);
+        Box mdat = topLevel(buf).get(3);
+        int videoTraf = find(buf, moof.offset + 8, moof.offset + moof.size, "traf");
+        int audioTraf = videoTraf + buf.getInt(videoTraf);
+        int videoTrun = find(buf, videoTraf + 8, audioTraf, "trun");
+        int audioTrun = find(buf, audioTraf + 8, audioTraf + buf.getInt(audioTraf), "trun");
+        // 音频数据紧跟在视频数据之后
+        assertEquals(30 * (8 + 4) + 8, mdat.size);
+        assertEquals(buf.getInt(videoTrun + 16) + 30 * 8, buf.getInt(audioTrun + 16));
+        assertEquals(1, buf.get(moof.offset + buf.getInt(audioTrun + 16)));
+    }
+
+    @Test
+    public void annexBToAvcc() {
+        byte[] annexB = {0, 0, 0, 1, 0x09, (byte) 0xf0, 0, 0, 1, 0x67, 1, 2, 0, 0, 0, 1, 0x68, 3};
+        ByteBuffer dst = ByteBuffer.allocate(AvcUtil.maxAvccSize(annexB.length));
+        int size = AvcUtil.writeAvcc(ByteBuffer.wrap(annexB), dst);
+        assertEquals(4 + 3 + 4 + 2, size);
+        assertEquals(3, dst.getInt(0));
+        assertEquals(0x67, dst.get(4));
+        assertEquals(2, dst.getInt(7));
+        assertEquals(0x68, dst.get(11));
+
+        List<byte[]> nals = AvcUtil.splitNals(annexB);
+        assertEquals(3, nals.size());
+        assertEquals(AvcUtil.NAL_SPS, AvcUtil.nalType(nals.get(1)));
+    }
+}
@@ -0,0 +1,69 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameGateTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void hashDetectsSampledChangesOnly() {
+        int width = 64, height = 32, rowStride = width * 4 + 32;
+        ByteBuffer frame = ByteBuffer.allocateDirect(rowStride * height);
+        FrameHasher hasher = new FrameHasher();
+        long base = hasher.hash(frame, width, height, rowStride, 4);
+        assertEquals(base, hasher.hash(frame, width, height, rowStride, 4));
+
+        // 抽样点 (2, 2)
+        frame.putInt(2 * rowStride + 2 * 4, 0xff00ff00);
+        long changed = hasher.hash(frame, width, height, rowStride, 4);
+        assertNotEquals(base, changed);
+
+        // 不在抽样点上的像素以及行尾的填充不影响结果
+        frame.putInt(3 * rowStride + 3 * 4, 0x12345678);
+        frame.putInt(5 * rowStride + width * 4 + 4, 0x12345678);
+        assertEquals(changed, hasher.hash(frame, width, height, rowStride, 4));
+        assertEquals(0, frame.position());
+
+        // 逐像素比较时能发现
+        FrameHasher full = new FrameHasher(1, 1);
+        long before = full.hash(frame, width, height, rowStride, 4);
+        frame.putInt(3 * rowStride + 3 * 4, 0);
+        assertNotEquals(before, full.hash(frame, width, height, rowStride, 4));
+    }
+
+    @Test
+    public void skipsUnchangedAndLimitsFrameRate() {
+        FrameGate gate = new FrameGate(30, 1000);
+        assertEquals(-1, gate.nextDeadlineNs());
+        assertEquals(FrameGate.EMIT, gate.onFrame(1, 0));
+        assertEquals(FrameGate.SKIP, gate.onFrame(1, 8 * MS));
+        assertEquals(FrameGate.SKIP, gate.onFrame(1, 16 * MS));
+        assertEquals(2, gate.getFramesSkipped());
+
+        // 变化太快，推迟到 1/30 秒之后
+        assertEquals(FrameGate.DEFER, gate.onFrame(2, 20 * MS));
+        assertEquals(1000000000L / 30, gate.nextDeadlineNs());
+        assertEquals(FrameGate.SKIP, gate.onDeadline(25 * MS));
+        assertEquals(FrameGate.EMIT, gate.onDeadline(gate.nextDeadlineNs()));
+        assertEquals(1000000000L / 30 + 1000 * MS, gate.nextDeadlineNs());
+
+        assertEquals(FrameGate.EMIT, gate.onFrame(3, 100 * MS));
+    }
+
+    @Test
+    public void heartbeatAtMaxInterval() {
+        FrameGate gate = new FrameGate(30, 500);
+        assertEquals(FrameGate.EMIT, gate.onFrame(7, 0));
+        assertEquals(500 * MS, gate.nextDeadlineNs());
+        assertEquals(FrameGate.HEARTBEAT, gate.onDeadline(500 * MS));
+        assertEquals(FrameGate.HEARTBEAT, gate.onDeadline(1000 * MS));
+        assertEquals(2, gate.getHeartbeats());
+        // 心跳之后画面仍然没变
+        assertEquals(FrameGate.SKIP, gate.onFrame(7, 1100 * MS));
+        assertEquals(1500 * MS, gate.nextDeadlineNs());
+    }
+}
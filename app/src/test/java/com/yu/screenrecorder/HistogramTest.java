@@ -0,0 +1,64 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, Histogram.bucketOf(0));
+        assertEquals(0, Histogram.bucketOf(-5));
+        assertEquals(1, Histogram.bucketOf(1));
+        assertEquals(2, Histogram.bucketOf(3));
+        assertEquals(3, Histogram.bucketOf(4));
+        assertEquals(63, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesUseBucketUpperBound() {
+        Histogram histogram = new Histogram("us");
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count);
+        assertEquals(5000, snapshot.max);
+        assertEquals((99 * 100 + 5000) / 100, snapshot.getMean());
+        // 100 在 [64, 128) 桶中
+        assertEquals(127, snapshot.getPercentile(50));
+        assertEquals(127, snapshot.getPercentile(99));
+        assertEquals(5000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final Histogram histogram = new Histogram("");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(base * 1000 + i % 1000);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(400000, snapshot.count);
+        assertEquals(3999, snapshot.max);
+        long total = 0;
+        for (long n : snapshot.buckets) {
+            total += n;
+        }
+        assertEquals(400000, total);
+    }
+}
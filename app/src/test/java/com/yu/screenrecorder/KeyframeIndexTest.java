@@ -0,0 +1,137 @@
+package com.yu.screenrecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class KeyframeIndexTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private static class MemoryOutput implements ByteOutput {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public void write(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                data.write(src.get());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File newMedia(String name) throws IOException {
+        return new File(folder.newFolder(), name);
+    }
+
+    private static TrackFormat videoFormat() {
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280);
+        format.csd0 = SPS;
+        format.csd1 = PPS;
+        return format;
+    }
+
+    /* 30fps，每 30 帧一个关键帧 */
+    private static void writeFrames(ISampleSink sink, int count) {
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = {0, 0, 0, 1, (byte) (i % 30 == 0 ? 0x65 : 0x41), (byte) i, 1, 2, 3};
+            info.set(0, frame.length, i * 1000000L / 30, i % 30 == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+            sink.writeSample(0, ByteBuffer.wrap(frame), info);
+        }
+    }
+
+    @Test
+    public void indexesAnnexBKeyFramesAtSampleOffsets() throws Exception {
+        File media = newMedia("1.h264");
+        KeyframeIndex index = new KeyframeIndex(media, RecordConfig.OUTPUT_FORMAT_H264);
+        MemoryOutput output = new MemoryOutput();
+        AnnexBSink sink = new AnnexBSink(output);
+        sink.addTrack(videoFormat());
+        sink.setIndex(index);
+        sink.start();
+        writeFrames(sink, 100);
+        sink.stop();
+        index.close();
+        assertEquals(4, index.getEntries());
+
+        byte[] data = output.data.toByteArray();
+        KeyframeIndex.Reader reader = new KeyframeIndex.Reader(KeyframeIndex.indexOf(media));
+        try {
+            assertTrue(reader.isValid());
+            assertEquals(RecordConfig.OUTPUT_FORMAT_H264, reader.getOutputFormat());
+            assertEquals(4, reader.getCount());
+            for (int i = 0; i < reader.getCount(); i++) {
+                assertEquals(i * 1000000L, reader.getPtsUs(i));
+                // 记录的位置正好是关键帧的起始码
+                int offset = (int) reader.getOffset(i);
+                assertEquals(SPS.length + PPS.length + i * 30 * 9, offset);
+                assertEquals(0x65, data[offset + 4]);
+            }
+            assertEquals(-1, reader.find(-1));
+            assertEquals(0, reader.find(0));
+            assertEquals(1, reader.find(1999999));
+            assertEquals(2, reader.find(2000000));
+            assertEquals(3, reader.find(Long.MAX_VALUE));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void indexesFragmentedMp4KeyFramesAtFragmentOffsets() throws Exception {
+        File media = newMedia("2.mp4");
+        KeyframeIndex index = new KeyframeIndex(media, RecordConfig.OUTPUT_FORMAT_FMP4);
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(output, 2000000);
+        sink.addTrack(videoFormat());
+        sink.setIndex(index);
+        sink.start();
+        writeFrames(sink, 150);
+        sink.stop();
+        index.close();
+
+        ByteBuffer data = ByteBuffer.wrap(output.data.toByteArray());
+        KeyframeIndex.Reader reader = new KeyframeIndex.Reader(KeyframeIndex.indexOf(media));
+        try {
+            // 2 秒一个分片，每个分片两个关键帧，记录的都是分片的 moof
+            assertEquals(5, reader.getCount());
+            assertEquals(reader.getOffset(0), reader.getOffset(1));
+            assertEquals(reader.getOffset(2), reader.getOffset(3));
+            assertTrue(reader.getOffset(4) > reader.getOffset(2));
+            for (int i = 0; i < reader.getCount(); i++) {
+                assertEquals(Mp4Box.MOOF, data.getInt((int) reader.getOffset(i) + 4));
+            }
+            assertEquals(3, reader.find(3500000));
+        } finally {
+            reader.close();
+        }
+
+        // 修复时文件被截到第二个分片之后，指向第三个分片的记录被去掉
+        assertEquals(4, KeyframeIndex.truncate(media, reader.getOffset(4)));
+        reader = new KeyframeIndex.Reader(KeyframeIndex.indexOf(media));
+        try {
+            assertEquals(4, reader.getCount());
+            assertEquals(3, reader.find(Long.MAX_VALUE));
+        } finally {
+            reader.close();
+        }
+    }
+}
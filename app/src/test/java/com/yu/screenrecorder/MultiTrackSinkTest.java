@@ -0,0 +1,94 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MultiTrackSinkTest {
+
+    /* 记录调用顺序 */
+    private static class RecordingSink implements ISampleSink {
+        final List<String> calls = new ArrayList<String>();
+        int tracks;
+
+        @Override
+        public synchronized int addTrack(TrackFormat format) {
+            calls.add("add " + format.mime);
+            return tracks++;
+        }
+
+        @Override
+        public synchronized void start() {
+            calls.add("start");
+        }
+
+        @Override
+        public synchronized void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            calls.add("write " + track);
+        }
+
+        @Override
+        public synchronized void stop() {
+            calls.add("stop");
+        }
+
+        @Override
+        public synchronized void release() {
+            calls.add("release");
+        }
+    }
+
+    @Test
+    public void startsDownstreamAfterAllTracksAdded() throws Exception {
+        RecordingSink downstream = new RecordingSink();
+        MultiTrackSink tracks = new MultiTrackSink(downstream, 2);
+        final ISampleSink video = tracks.newInput();
+        ISampleSink audio = tracks.newInput();
+
+        assertEquals(0, video.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280)));
+        video.start();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // 音频轨道添加之前阻塞等待
+                video.writeSample(0, ByteBuffer.allocate(1), new SampleInfo());
+            }
+        });
+        writer.start();
+        Thread.sleep(50);
+        assertFalse(downstream.calls.contains("start"));
+
+        assertEquals(1, audio.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 1)));
+        audio.start();
+        writer.join(1000);
+        assertFalse(writer.isAlive());
+        audio.writeSample(1, ByteBuffer.allocate(1), new SampleInfo());
+
+        // 各输入端的 stop 不影响下游
+        video.stop();
+        audio.stop();
+        assertFalse(downstream.calls.contains("stop"));
+        tracks.stop();
+        tracks.release();
+        assertEquals("[add video/avc, add audio/mp4a-latm, start, write 0, write 1, stop, release]",
+                downstream.calls.toString());
+    }
+
+    @Test
+    public void cancelledInputLetsRemainingTrackStart() {
+        RecordingSink downstream = new RecordingSink();
+        MultiTrackSink tracks = new MultiTrackSink(downstream, 2);
+        ISampleSink video = tracks.newInput();
+        video.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        video.start();
+        tracks.cancelInput();
+        video.writeSample(0, ByteBuffer.allocate(1), new SampleInfo());
+        assertEquals("[add video/avc, start, write 0]", downstream.calls.toString());
+        // 启动之后不能再添加轨道
+        assertEquals(-1, tracks.newInput().addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 1)));
+    }
+}
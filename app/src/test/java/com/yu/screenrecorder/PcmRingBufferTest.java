@@ -0,0 +1,152 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+    private static final int RATE = 48000;
+    private static final long CHUNK_NS = 10000000; // 480 帧
+
+    private static short[] chunk(int frames, int channels, int start) {
+        short[] pcm = new short[frames * channels];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (start + i);
+        return pcm;
+    }
+
+    @Test
+    public void timestampsFollowSampleCountWithJitterAbsorbed() {
+        PcmRingBuffer ring = new PcmRingBuffer(4096, RATE, 2);
+        assertEquals(-1, ring.nextTimestampNs());
+        long t0 = 1000000000L;
+        // 采集时间有 2ms 以内的抖动，不产生新锚点
+        assertTrue(ring.write(chunk(480, 2, 0), 0, 960, t0));
+        assertTrue(ring.write(chunk(480, 2, 960), 0, 960, t0 + CHUNK_NS + 2000000));
+        assertTrue(ring.write(chunk(480, 2, 1920), 0, 960, t0 + 2 * CHUNK_NS - 1000000));
+
+        short[] dst = new short[1000];
+        assertEquals(t0, ring.nextTimestampNs());
+        assertEquals(1000, ring.read(dst, 0, 1000));
+        assertEquals(999, dst[999]);
+        // 500 帧之后
+        assertEquals(t0 + 500 * 1000000000L / RATE, ring.nextTimestampNs());
+        assertEquals(1000, ring.read(dst, 0, 1000));
+        assertEquals(1999, dst[999]);
+    }
+
+    @Test
+    public void gapCreatesAnchorAndReadStopsThere() {
+        PcmRingBuffer ring = new PcmRingBuffer(4096, RATE, 1);
+        long t0 = 0;
+        ring.write(chunk(480, 1, 0), 0, 480, t0);
+        // 中间丢了 50ms 的数据
+        long t1 = t0 + CHUNK_NS + 50000000;
+        ring.write(chunk(480, 1, 480), 0, 480, t1);
+
+        short[] dst = new short[1024];
+        assertEquals(t0, ring.nextTimestampNs());
+        assertEquals(480, ring.read(dst, 0, dst.length));
+        assertEquals(t1, ring.nextTimestampNs());
+        assertEquals(480, ring.read(dst, 0, dst.length));
+        assertEquals(480, dst[0]);
+    }
+
+    @Test
+    public void overrunDropsWholeChunkAndUnderrunCountsOncePerEpisode() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024, RATE, 1);
+        RecorderMetrics metrics = new RecorderMetrics();
+        ring.setMetrics(metrics);
+        short[] pcm = chunk(480, 1, 0);
+        assertTrue(ring.write(pcm, 0, 480, 0));
+        assertTrue(ring.write(pcm, 0, 480, CHUNK_NS));
+        assertFalse(ring.write(pcm, 0, 480, 2 * CHUNK_NS));
+        assertEquals(1, ring.getOverruns());
+        assertEquals(480, ring.getDroppedSamples());
+        assertEquals(960, ring.available());
+
+        short[] dst = new short[2048];
+        assertEquals(0, ring.getUnderruns());
+        // 读空之前没有读到过数据，不算 underrun
+        assertEquals(960, ring.read(dst, 0, dst.length));
+        assertEquals(0, ring.read(dst, 0, dst.length));
+        assertEquals(0, ring.read(dst, 0, dst.length));
+        assertEquals(1, ring.getUnderruns());
+        // 丢弃的那块之后重新对齐
+        assertTrue(ring.write(pcm, 0, 480, 3 * CHUNK_NS));
+        assertEquals(3 * CHUNK_NS, ring.nextTimestampNs());
+        assertEquals(1, metrics.audioOverruns.get());
+        assertEquals(1, metrics.audioUnderruns.get());
+    }
+
+    @Test
+    public void wrapsAroundPreservingData() {
+        PcmRingBuffer ring = new PcmRingBuffer(1000, RATE, 2);
+        assertEquals(1024, ring.capacity());
+        short[] dst = new short[700];
+        int next = 0;
+        for (int round = 0; round < 20; round++) {
+            short[] pcm = chunk(350, 2, next);
+            assertTrue(ring.write(pcm, 0, pcm.length, round * 7291666L));
+            assertEquals(700, ring.read(dst, 0, dst.length));
+            for (int i = 0; i < dst.length; i++) {
+                assertEquals((short) (next + i), dst[i]);
+            }
+            next += 700;
+        }
+    }
+
+    /* 记录提交的输入 */
+    private static class FakeInput implements ICodecInput {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        final List<Long> pts = new ArrayList<Long>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        boolean endOfStream;
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return 0;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return buffer;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            assertEquals(ByteOrder.nativeOrder(), buffer.order());
+            pts.add(presentationTimeUs);
+            sizes.add(size);
+            if ((flags & SampleInfo.FLAG_END_OF_STREAM) != 0) endOfStream = true;
+        }
+    }
+
+    @Test
+    public void feederStampsInputWithCaptureTimeAndEndsAfterDrain() {
+        PcmRingBuffer ring = new PcmRingBuffer(8192, RATE, 1);
+        FakeInput input = new FakeInput();
+        AudioEncoderFeeder feeder = new AudioEncoderFeeder(input, ring, 1024);
+        long t0 = 5000000000L;
+        ring.write(chunk(960, 1, 0), 0, 960, t0);
+        ring.write(chunk(960, 1, 960), 0, 960, t0 + 2 * CHUNK_NS);
+
+        assertTrue(feeder.feed(0));
+        assertTrue(feeder.feed(0));
+        assertEquals(2, input.pts.size());
+        assertEquals(t0 / 1000, (long) input.pts.get(0));
+        assertEquals(1024 * 2, (int) input.sizes.get(0));
+        assertEquals((t0 + 1024 * 1000000000L / RATE) / 1000, (long) input.pts.get(1));
+        assertEquals(896 * 2, (int) input.sizes.get(1));
+
+        // 没有启动线程时 stop 只设置标志，之后读空即提交结束标志
+        feeder.stop();
+        assertFalse(feeder.feed(0));
+        assertTrue(input.endOfStream);
+        assertEquals(0, (int) input.sizes.get(2));
+    }
+}
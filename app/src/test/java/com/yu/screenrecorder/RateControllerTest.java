@@ -0,0 +1,98 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RateControllerTest {
+    private static final int MAX_BITRATE = 5000000;
+    private static final int MIN_BITRATE = 1000000;
+
+    private final List<RateDecision> decisions = new ArrayList<>();
+    private final FakeCodec codec = new FakeCodec(0, 1, 1, 30);
+    private long nowUs;
+
+    private RateController newController() {
+        RateController controller = new RateController(MIN_BITRATE, MAX_BITRATE, 15, 30);
+        controller.setCodec(codec);
+        controller.setOnRateChangeListener(new RateController.OnRateChangeListener() {
+            @Override
+            public void onRateChanged(RateDecision decision) {
+                decisions.add(decision);
+            }
+        });
+        return controller;
+    }
+
+    /**
+     * 按给定码率和编码延迟以 30fps 输出若干秒，bitRate 为 0 时跟随控制器的目标码率
+     */
+    private void feed(RateController controller, int seconds, int bitRate, long latencyUs) {
+        for (int i = 0; i < seconds * 30; i++) {
+            int frameSize = (bitRate > 0 ? bitRate : controller.getBitRate()) / 8 / 30;
+            nowUs += 33334;
+            controller.onSampleEncoded(frameSize, nowUs - latencyUs, nowUs);
+        }
+    }
+
+    @Test
+    public void congestionLowersBitrateThenFrameRate() {
+        RateController controller = newController();
+        feed(controller, 20, MAX_BITRATE, 500000);
+        assertEquals(MIN_BITRATE, controller.getBitRate());
+        assertEquals(15, controller.getFrameRate());
+        assertEquals(MIN_BITRATE, codec.getBitRate());
+        assertEquals(15, codec.getFrameRate());
+        assertEquals(RateDecision.REASON_CONGESTION, decisions.get(0).reason);
+    }
+
+    @Test
+    public void recoversWhenHealthy() {
+        RateController controller = newController();
+        feed(controller, 20, MAX_BITRATE, 500000);
+        feed(controller, 120, 0, 10000);
+        assertEquals(30, controller.getFrameRate());
+        assertEquals(MAX_BITRATE, controller.getBitRate());
+        assertEquals(RateDecision.REASON_RECOVER, controller.getLastDecision().reason);
+    }
+
+    @Test
+    public void staticContentLowersTarget() {
+        RateController controller = newController();
+        feed(controller, 10, 200000, 10000);
+        assertTrue(controller.getBitRate() < MAX_BITRATE);
+        assertEquals(30, controller.getFrameRate());
+        assertEquals(RateDecision.REASON_LOW_CONTENT, decisions.get(0).reason);
+    }
+
+    @Test
+    public void steadyStateMakesNoDecision() {
+        RateController controller = newController();
+        feed(controller, 30, MAX_BITRATE * 9 / 10, 10000);
+        assertTrue(decisions.isEmpty());
+        assertNull(controller.getLastDecision());
+    }
+
+    @Test
+    public void ceilingLowersImmediatelyAndCapsRecovery() {
+        RateController controller = newController();
+        feed(controller, 2, MAX_BITRATE, 10000);
+        controller.setCeiling(2000000, 20);
+        feed(controller, 1, 0, 10000);
+        assertEquals(RateDecision.REASON_CEILING, decisions.get(decisions.size() - 1).reason);
+        assertEquals(2000000, codec.getBitRate());
+        assertEquals(20, codec.getFrameRate());
+        // 健康时也不会恢复到上限以上
+        feed(controller, 60, 0, 10000);
+        assertTrue(controller.getBitRate() <= 2000000);
+        assertTrue(controller.getFrameRate() <= 20);
+        // 上限解除后按正常节奏恢复
+        controller.setCeiling(MAX_BITRATE, 30);
+        feed(controller, 120, 0, 10000);
+        assertEquals(MAX_BITRATE, controller.getBitRate());
+        assertEquals(30, controller.getFrameRate());
+    }
+}
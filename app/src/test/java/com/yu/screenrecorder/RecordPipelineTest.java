@@ -0,0 +1,120 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RecordPipelineTest {
+
+    /* 每个样本写入耗时固定的慢速输出端 */
+    private static class SlowSink implements ISampleSink {
+        final long delayMs;
+        volatile int samples;
+        volatile boolean firstIsKey;
+        volatile boolean stopped;
+        /* 丢帧后第一帧必须是关键帧 */
+        volatile boolean brokenGop;
+        long lastPts = -1;
+        long frameUs;
+
+        SlowSink(long delayMs, long frameUs) {
+            this.delayMs = delayMs;
+            this.frameUs = frameUs;
+        }
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            return 0;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            if (samples == 0) firstIsKey = info.isKeyFrame();
+            if (lastPts >= 0 && info.presentationTimeUs - lastPts > frameUs && !info.isKeyFrame()) {
+                brokenGop = true;
+            }
+            lastPts = info.presentationTimeUs;
+            samples++;
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void blockPolicyKeepsEverySample() {
+        SlowSink sink = new SlowSink(0, 33333);
+        RecordPipeline pipeline = new RecordPipeline(sink, 8, RecordPipeline.BACKPRESSURE_BLOCK);
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(5000, 512, 30, 30), pipeline);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        pipeline.stop();
+        assertTrue(sink.stopped);
+        assertEquals(5000, sink.samples);
+        assertEquals(0, pipeline.getDroppedSamples());
+    }
+
+    @Test
+    public void smallSampleCapacityGrowsForLargerSamples() {
+        SlowSink sink = new SlowSink(0, 33333);
+        // 预分配 64 字节，样本 512 字节
+        RecordPipeline pipeline = new RecordPipeline(sink, 8, RecordPipeline.BACKPRESSURE_BLOCK, 64);
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(300, 512, 30, 30), pipeline);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        pipeline.stop();
+        assertEquals(300, sink.samples);
+        assertEquals(0, pipeline.getDroppedSamples());
+    }
+
+    @Test
+    public void dropPolicyDropsWholeGopRemainders() {
+        SlowSink sink = new SlowSink(1, 33333);
+        FakeCodec codec = new FakeCodec(600, 512, 30, 30);
+        RecordPipeline pipeline = new RecordPipeline(sink, 4, RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE);
+        pipeline.setCodec(codec);
+        EncoderEngine engine = new EncoderEngine(codec, pipeline);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        pipeline.stop();
+        assertTrue(pipeline.getDroppedSamples() > 0);
+        assertEquals(600, sink.samples + pipeline.getDroppedSamples());
+        assertTrue(codec.getSyncFrameRequests() > 0);
+        assertTrue(sink.firstIsKey);
+        assertFalse(sink.brokenGop);
+    }
+
+    @Test
+    public void failPolicyStopsWriting() {
+        SlowSink sink = new SlowSink(1, 33333);
+        RecordPipeline pipeline = new RecordPipeline(sink, 2, RecordPipeline.BACKPRESSURE_FAIL);
+        EncoderEngine engine = new EncoderEngine(new FakeCodec(200, 512, 30, 30), pipeline);
+        while (engine.drain(0)) {
+            // drain until end of stream
+        }
+        pipeline.stop();
+        assertTrue(pipeline.isFailed());
+        assertTrue(sink.samples < 200);
+    }
+}
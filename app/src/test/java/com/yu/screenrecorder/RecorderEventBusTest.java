@@ -0,0 +1,103 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class RecorderEventBusTest {
+
+    /* 手动执行任务的 Executor，模拟处理不过来的订阅者 */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class CollectingListener implements OnRecorderEventListener {
+        final List<RecorderEvent> events = new ArrayList<>();
+
+        @Override
+        public void onRecorderEvent(RecorderEvent event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void deliversToEverySubscriber() {
+        RecorderEventBus bus = new RecorderEventBus();
+        CollectingListener a = new CollectingListener();
+        CollectingListener b = new CollectingListener();
+        bus.register(a, DIRECT);
+        bus.register(b, DIRECT);
+        bus.post(RecorderEvent.TYPE_START, null, null, 0);
+        bus.post(RecorderEvent.TYPE_STOP, null, null, 1);
+        assertEquals(2, a.events.size());
+        assertEquals(2, b.events.size());
+        assertEquals(RecorderEvent.TYPE_STOP, a.events.get(1).type);
+
+        bus.unregister(a);
+        bus.post(RecorderEvent.TYPE_START, null, null, 2);
+        assertEquals(2, a.events.size());
+        assertEquals(3, b.events.size());
+    }
+
+    @Test
+    public void slowSubscriberGetsCoalescedUpdates() {
+        RecorderEventBus bus = new RecorderEventBus(8);
+        CollectingListener fast = new CollectingListener();
+        CollectingListener slow = new CollectingListener();
+        ManualExecutor executor = new ManualExecutor();
+        bus.register(fast, DIRECT);
+        bus.register(slow, executor);
+
+        bus.post(RecorderEvent.TYPE_START, null, null, 0);
+        for (int i = 0; i < 100; i++) {
+            bus.post(RecorderEvent.TYPE_UPDATE, String.valueOf(i), null, i);
+        }
+        bus.post(RecorderEvent.TYPE_STOP, null, null, 100);
+
+        assertEquals(102, fast.events.size());
+        // 只调度了一次投递任务
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(3, slow.events.size());
+        assertEquals(RecorderEvent.TYPE_START, slow.events.get(0).type);
+        assertEquals("99", slow.events.get(1).text);
+        assertEquals(RecorderEvent.TYPE_STOP, slow.events.get(2).type);
+    }
+
+    @Test
+    public void queueIsBounded() {
+        RecorderEventBus bus = new RecorderEventBus(4);
+        CollectingListener slow = new CollectingListener();
+        ManualExecutor executor = new ManualExecutor();
+        bus.register(slow, executor);
+        for (int i = 0; i < 10; i++) {
+            bus.post(RecorderEvent.TYPE_ERROR, String.valueOf(i), null, i);
+        }
+        executor.runAll();
+        assertEquals(4, slow.events.size());
+        assertEquals("6", slow.events.get(0).text);
+        assertEquals(6, bus.getDroppedEvents());
+    }
+}
@@ -0,0 +1,84 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.yu.screenrecorder.RecorderStateMachine.*;
+import static org.junit.Assert.*;
+
+public class RecorderStateMachineTest {
+
+    private static class ManualSource implements RecordingClock.TimeSource {
+        long nowNs;
+
+        @Override
+        public long nanoTime() {
+            return nowNs;
+        }
+    }
+
+    @Test
+    public void fullLifecycleRecordsLatency() {
+        ManualSource source = new ManualSource();
+        RecorderStateMachine machine = new RecorderStateMachine(source);
+
+        assertTrue(machine.transition(STATE_IDLE, STATE_PREPARING));
+        source.nowNs += 40000000L;
+        assertTrue(machine.transition(STATE_PREPARING, STATE_RECORDING));
+        assertEquals(40000000L, machine.getLastDurationNanos(STATE_PREPARING));
+
+        assertTrue(machine.transition(STATE_RECORDING, STATE_PAUSED));
+        assertTrue(machine.isActive());
+        assertTrue(machine.transition(STATE_PAUSED, STATE_STOPPING));
+        source.nowNs += 7000000L;
+        assertTrue(machine.transition(STATE_STOPPING, STATE_IDLE));
+        assertEquals(7000000L, machine.getLastDurationNanos(STATE_STOPPING));
+        assertFalse(machine.isActive());
+    }
+
+    @Test
+    public void illegalTransitionsAreRejected() {
+        RecorderStateMachine machine = new RecorderStateMachine();
+        assertFalse(machine.transition(STATE_IDLE, STATE_RECORDING));
+        assertFalse(machine.transition(STATE_RECORDING, STATE_PAUSED));
+        assertFalse(machine.transition(STATE_IDLE, STATE_IDLE));
+        assertEquals(STATE_IDLE, machine.getState());
+
+        assertTrue(machine.transition(STATE_IDLE, STATE_PREPARING));
+        assertTrue(machine.transition(STATE_PREPARING, STATE_ERROR));
+        assertFalse(machine.transition(STATE_ERROR, STATE_RECORDING));
+        assertTrue(machine.transition(STATE_ERROR, STATE_IDLE));
+    }
+
+    @Test
+    public void onlyOneConcurrentStartWins() throws InterruptedException {
+        final RecorderStateMachine machine = new RecorderStateMachine();
+        final AtomicInteger winners = new AtomicInteger();
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (machine.transition(STATE_IDLE, STATE_PREPARING)) {
+                        winners.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, winners.get());
+        assertEquals(STATE_PREPARING, machine.getState());
+    }
+}
@@ -0,0 +1,103 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordingClockTest {
+
+    /* 手动推进的时钟 */
+    private static class ManualSource implements RecordingClock.TimeSource {
+        long nowNs;
+
+        @Override
+        public long nanoTime() {
+            return nowNs;
+        }
+    }
+
+    private final ManualSource source = new ManualSource();
+    private final RecordingClock clock = new RecordingClock(source, source);
+
+    private void advanceMs(long ms) {
+        source.nowNs += ms * 1000000L;
+    }
+
+    @Test
+    public void elapsedExcludesPausedSpans() {
+        clock.start();
+        advanceMs(3000);
+        assertTrue(clock.pause());
+        assertFalse(clock.pause());
+        advanceMs(5000);
+        assertEquals(3, clock.getElapsedSeconds());
+        assertTrue(clock.resume());
+        advanceMs(2500);
+        assertEquals(5, clock.getElapsedSeconds());
+        assertEquals(5500000000L, clock.getElapsedNanos());
+    }
+
+    @Test
+    public void rebasedTimelineHasNoPauseGap() {
+        clock.start();
+        long lastOut = -1;
+        for (int i = 0; i < 30; i++) {
+            lastOut = clock.rebasePtsUs(source.nowNs / 1000, i == 0);
+            advanceMs(33);
+        }
+        assertEquals(29 * 33000, lastOut);
+
+        clock.pause();
+        // 暂停期间编码出的帧被丢弃
+        for (int i = 0; i < 30; i++) {
+            advanceMs(33);
+            assertEquals(-1, clock.rebasePtsUs(source.nowNs / 1000, i % 10 == 0));
+        }
+        clock.resume();
+
+        advanceMs(33);
+        // 恢复后先丢弃非关键帧
+        assertEquals(-1, clock.rebasePtsUs(source.nowNs / 1000, false));
+        advanceMs(33);
+        long resumed = clock.rebasePtsUs(source.nowNs / 1000, true);
+        assertTrue(resumed > lastOut);
+        // 暂停的 30 帧不计入输出时间线
+        assertTrue(resumed - lastOut < 100000);
+        advanceMs(33);
+        assertEquals(resumed + 33000, clock.rebasePtsUs(source.nowNs / 1000, false));
+    }
+
+    @Test
+    public void formatsDurationInPlace() {
+        TimeFormatter formatter = new TimeFormatter("t:");
+        assertEquals("t:00:00:00", formatter.toString());
+        assertTrue(formatter.format(3723));
+        assertEquals("t:01:02:03", formatter.toString());
+        assertFalse(formatter.format(3723));
+        formatter.format(100 * 3600 + 59);
+        assertEquals("t:100:00:59", formatter.toString());
+        assertEquals(11, formatter.length());
+        assertEquals('1', formatter.charAt(2));
+    }
+
+    @Test
+    public void audioAlignsToFirstVideoFrameAndSkipsPause() {
+        clock.start();
+        long audioUs = source.nowNs / 1000;
+        // 第一帧视频之前的音频被丢弃
+        assertEquals(-1, clock.rebaseAudioPtsUs(audioUs));
+        advanceMs(10);
+        assertEquals(0, clock.rebasePtsUs(source.nowNs / 1000, true));
+        assertEquals(-1, clock.rebaseAudioPtsUs(audioUs));
+        assertEquals(5000, clock.rebaseAudioPtsUs(source.nowNs / 1000 + 5000));
+
+        advanceMs(100);
+        clock.pause();
+        assertEquals(-1, clock.rebaseAudioPtsUs(source.nowNs / 1000));
+        advanceMs(1000);
+        clock.resume();
+        advanceMs(20);
+        // 暂停的 1s 从时间线中去掉
+        assertEquals(120000, clock.rebaseAudioPtsUs(source.nowNs / 1000));
+    }
+}
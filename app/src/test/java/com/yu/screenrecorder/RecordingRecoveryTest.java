@@ -0,0 +1,159 @@
+package com.yu.screenrecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingRecoveryTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    /* 模拟 AsyncFileWriter 预先扩展的部分 */
+    private static final int PREALLOCATED_ZEROS = 64 * 1024;
+
+    private static class MemoryOutput implements ByteOutput {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public void write(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                data.write(src.get());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File newDir() throws IOException {
+        return folder.newFolder();
+    }
+
+    /* 把录制到一半的数据和预先扩展的 0 写入文件 */
+    private static void writeInterrupted(File file, byte[] data, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+            out.write(new byte[PREALLOCATED_ZEROS]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFrames(ISampleSink sink, int from, int to) {
+        SampleInfo info = new SampleInfo();
+        for (int i = from; i < to; i++) {
+            byte[] frame = {0, 0, 0, 1, (byte) (i % 30 == 0 ? 0x65 : 0x41), (byte) i, 1, 2, 3};
+            info.set(0, frame.length, i * 1000000L / 30, i % 30 == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+            sink.writeSample(0, ByteBuffer.wrap(frame), info);
+        }
+    }
+
+    private static FragmentedMp4Sink newFmp4Sink(ByteOutput output, RecordingJournal journal) {
+        FragmentedMp4Sink sink = new FragmentedMp4Sink(output, 1000000);
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280);
+        format.csd0 = SPS;
+        format.csd1 = PPS;
+        sink.addTrack(format);
+        sink.setJournal(journal);
+        sink.start();
+        return sink;
+    }
+
+    @Test
+    public void truncatesFragmentedMp4ToLastJournaledFragment() throws Exception {
+        File dir = newDir();
+        File media = new File(dir, "1.mp4");
+        RecordingJournal journal = new RecordingJournal(media, RecordConfig.OUTPUT_FORMAT_FMP4);
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = newFmp4Sink(output, journal);
+        writeFrames(sink, 0, 61);
+        int twoFragments = output.data.size();
+        writeFrames(sink, 61, 100);
+        byte[] data = output.data.toByteArray();
+        assertEquals(3, sink.getFragmentsWritten());
+
+        // 写线程写到第三个分片中间时进程被杀
+        int written = twoFragments + (data.length - twoFragments) / 2;
+        journal.onWritten(written);
+        journal.close();
+        writeInterrupted(media, data, written);
+
+        List<RecordingRecovery.Result> results = new RecordingRecovery().recoverAll(dir);
+        assertEquals(1, results.size());
+        RecordingRecovery.Result result = results.get(0);
+        assertEquals(RecordingRecovery.METHOD_JOURNAL, result.method);
+        assertEquals(twoFragments, result.recoveredLength);
+        assertEquals(twoFragments, media.length());
+        assertEquals(59 * 1000000L / 30, result.durationUs);
+        assertFalse(RecordingJournal.journalOf(media).exists());
+    }
+
+    @Test
+    public void scansFragmentedMp4WithoutJournalRecords() throws Exception {
+        File dir = newDir();
+        File media = new File(dir, "2.mp4");
+        // 日志只有文件头，按扫描修复
+        new RecordingJournal(media, RecordConfig.OUTPUT_FORMAT_FMP4).close();
+        MemoryOutput output = new MemoryOutput();
+        FragmentedMp4Sink sink = newFmp4Sink(output, null);
+        writeFrames(sink, 0, 91);
+        int threeFragments = output.data.size();
+        writeFrames(sink, 91, 125);
+        byte[] data = output.data.toByteArray();
+        writeInterrupted(media, data, threeFragments + 100);
+
+        RecordingRecovery.Result result = new RecordingRecovery().recover(RecordingJournal.journalOf(media));
+        assertEquals(RecordingRecovery.METHOD_SCAN, result.method);
+        assertEquals(threeFragments + 100 + PREALLOCATED_ZEROS, result.originalLength);
+        assertEquals(threeFragments, media.length());
+    }
+
+    @Test
+    public void truncatesAnnexBToLastCompleteSample() throws Exception {
+        File dir = newDir();
+        File media = new File(dir, "3.h264");
+        RecordingJournal journal = new RecordingJournal(media, RecordConfig.OUTPUT_FORMAT_H264);
+        MemoryOutput output = new MemoryOutput();
+        AnnexBSink sink = new AnnexBSink(output);
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280);
+        format.csd0 = SPS;
+        format.csd1 = PPS;
+        sink.addTrack(format);
+        sink.setJournal(journal);
+        sink.start();
+        writeFrames(sink, 0, 10);
+        int tenFrames = output.data.size();
+        writeFrames(sink, 10, 11);
+        journal.onWritten(tenFrames + 4);
+        journal.close();
+        writeInterrupted(media, output.data.toByteArray(), tenFrames + 4);
+
+        RecordingRecovery.Result result = new RecordingRecovery().recover(RecordingJournal.journalOf(media));
+        assertEquals(RecordingRecovery.METHOD_JOURNAL, result.method);
+        assertEquals(tenFrames, media.length());
+
+        // 没有日志记录时扫描到最后一个起始码，同样丢掉不完整的第 11 帧
+        new RecordingJournal(media, RecordConfig.OUTPUT_FORMAT_H264).close();
+        writeInterrupted(media, output.data.toByteArray(), tenFrames + 6);
+        result = new RecordingRecovery().recover(RecordingJournal.journalOf(media));
+        assertEquals(RecordingRecovery.METHOD_SCAN, result.method);
+        assertEquals(tenFrames, media.length());
+    }
+}
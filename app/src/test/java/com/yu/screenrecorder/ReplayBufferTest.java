@@ -0,0 +1,171 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayBufferTest {
+    private static final long FRAME_US = 33333;
+
+    /* 记录写入样本的输出端 */
+    private static class RecordingSink implements ISampleSink {
+        final List<Long> pts = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        final List<Byte> firstBytes = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        /* 样本的每个字节是否都与第一个字节相同 */
+        final List<Boolean> intact = new ArrayList<>();
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            return 0;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            pts.add(info.presentationTimeUs);
+            flags.add(info.flags);
+            byte first = buffer.get(buffer.position());
+            boolean same = true;
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                same &= buffer.get(i) == first;
+            }
+            firstBytes.add(first);
+            sizes.add(buffer.remaining());
+            intact.add(same);
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private static void write(ReplayBuffer buffer, int frame, int size, int gop) {
+        ByteBuffer sample = ByteBuffer.allocate(size);
+        sample.put(0, (byte) frame);
+        SampleInfo info = new SampleInfo();
+        info.set(0, size, frame * FRAME_US, frame % gop == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+        buffer.writeSample(0, sample, info);
+    }
+
+    /* 样本的所有字节都填成帧序号，每帧都是关键帧 */
+    private static void writeFilled(ReplayBuffer buffer, int frame, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) frame);
+        SampleInfo info = new SampleInfo();
+        info.set(0, size, frame * FRAME_US, SampleInfo.FLAG_KEY_FRAME);
+        buffer.writeSample(0, ByteBuffer.wrap(bytes), info);
+    }
+
+    private static ReplayBuffer newBuffer(int bytes, int samples, long durationUs) {
+        ReplayBuffer buffer = new ReplayBuffer(bytes, samples, durationUs);
+        buffer.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720));
+        return buffer;
+    }
+
+    @Test
+    public void evictsWholeGopsWhenMemoryIsFull() {
+        ReplayBuffer buffer = newBuffer(100 * 1000, 10000, Long.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            write(buffer, i, 1000, 30);
+        }
+        assertTrue(buffer.getSampleCount() <= 100);
+        assertTrue(buffer.getSampleCount() > 60);
+
+        RecordingSink sink = new RecordingSink();
+        buffer.saveTo(sink);
+        assertEquals(buffer.getSampleCount(), sink.pts.size());
+        assertEquals(SampleInfo.FLAG_KEY_FRAME, (int) sink.flags.get(0));
+        assertEquals(0L, (long) sink.pts.get(0));
+        // 最后一帧仍然在缓冲中
+        assertEquals((byte) 999, (byte) sink.firstBytes.get(sink.firstBytes.size() - 1));
+    }
+
+    @Test
+    public void keepsOnlyConfiguredDuration() {
+        ReplayBuffer buffer = newBuffer(10 * 1000 * 1000, 10000, 2000000);
+        for (int i = 0; i < 600; i++) {
+            write(buffer, i, 100, 30);
+        }
+        assertTrue(buffer.getDurationUs() <= 2000000);
+        assertTrue(buffer.getDurationUs() >= 1000000);
+    }
+
+    @Test
+    public void evictsWhenIndexIsFull() {
+        ReplayBuffer buffer = newBuffer(10 * 1000 * 1000, 50, Long.MAX_VALUE);
+        for (int i = 0; i < 500; i++) {
+            write(buffer, i, 100, 10);
+        }
+        assertTrue(buffer.getSampleCount() <= 50);
+        RecordingSink sink = new RecordingSink();
+        buffer.saveTo(sink);
+        assertEquals(SampleInfo.FLAG_KEY_FRAME, (int) sink.flags.get(0));
+    }
+
+    @Test
+    public void dropsLeadingNonKeyFrames() {
+        ReplayBuffer buffer = newBuffer(1000 * 1000, 100, Long.MAX_VALUE);
+        for (int i = 1; i < 40; i++) {
+            write(buffer, i, 100, 30);
+        }
+        assertEquals(40 - 30, buffer.getSampleCount());
+        assertEquals(29, buffer.getDroppedSamples());
+    }
+
+    @Test
+    public void secondWrapDoesNotOverwriteNewerSamples() {
+        ReplayBuffer buffer = newBuffer(1000, 100, Long.MAX_VALUE);
+        writeFilled(buffer, 1, 700);
+        writeFilled(buffer, 2, 300);
+        // 第一次回绕，淘汰 700 字节的样本
+        writeFilled(buffer, 3, 400);
+        // 第二次回绕，[0, 400) 的样本比 [700, 1000) 的新，也必须淘汰
+        writeFilled(buffer, 4, 650);
+
+        RecordingSink sink = new RecordingSink();
+        buffer.saveTo(sink);
+        assertEquals(1, sink.firstBytes.size());
+        assertEquals((byte) 4, (byte) sink.firstBytes.get(0));
+        assertEquals(650, (int) sink.sizes.get(0));
+        assertTrue(sink.intact.get(0));
+    }
+
+    @Test
+    public void mixedSizesSurviveManyWraps() {
+        ReplayBuffer buffer = newBuffer(10000, 1000, Long.MAX_VALUE);
+        int[] sizes = {700, 3100, 50, 1900, 4200, 10, 2600, 900, 3300};
+        int frame;
+        for (frame = 0; frame < 200; frame++) {
+            writeFilled(buffer, frame, sizes[frame % sizes.length]);
+        }
+
+        RecordingSink sink = new RecordingSink();
+        buffer.saveTo(sink);
+        assertEquals(buffer.getSampleCount(), sink.firstBytes.size());
+        assertTrue(sink.firstBytes.size() > 1);
+        int total = 0;
+        for (int i = 0; i < sink.firstBytes.size(); i++) {
+            // 保留的是最后连续的若干帧，内容没有被后写入的样本覆盖
+            int expected = frame - sink.firstBytes.size() + i;
+            assertEquals((byte) expected, (byte) sink.firstBytes.get(i));
+            assertEquals(sizes[expected % sizes.length], (int) sink.sizes.get(i));
+            assertTrue(sink.intact.get(i));
+            total += sink.sizes.get(i);
+        }
+        assertTrue(total <= buffer.getCapacityBytes());
+    }
+}
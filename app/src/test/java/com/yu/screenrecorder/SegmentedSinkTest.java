@@ -0,0 +1,218 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentedSinkTest {
+    private static final File FIRST = new File("/sdcard/rec.mp4");
+
+    /* 记录一个分段收到的轨道和样本 */
+    private static class SegmentRecord implements ISampleSink {
+        final File file;
+        final List<Integer> tracks = new ArrayList<>();
+        final List<Long> pts = new ArrayList<>();
+        final List<Integer> sampleTracks = new ArrayList<>();
+        final List<Boolean> keyFrames = new ArrayList<>();
+        boolean started;
+        boolean stopped;
+        boolean released;
+
+        SegmentRecord(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            tracks.add(tracks.size());
+            return tracks.size() - 1;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            assertTrue(started);
+            assertFalse(stopped);
+            pts.add(info.presentationTimeUs);
+            sampleTracks.add(track);
+            keyFrames.add(info.isKeyFrame());
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    private static class RecordingFactory implements SegmentedSink.SegmentFactory {
+        final List<SegmentRecord> segments = new ArrayList<>();
+        int failures;
+
+        @Override
+        public ISampleSink open(File file) throws IOException {
+            if (failures > 0) {
+                failures--;
+                throw new IOException("disk full");
+            }
+            SegmentRecord segment = new SegmentRecord(file);
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    private final RecordingFactory factory = new RecordingFactory();
+    private final List<SegmentedSink.Segment> closed = new ArrayList<>();
+    private final FakeCodec codec = new FakeCodec(0, 1, 1, 30);
+
+    private SegmentedSink newSink(long maxDurationUs, long maxBytes) throws IOException {
+        SegmentedSink sink = new SegmentedSink(FIRST, maxDurationUs, maxBytes, factory);
+        sink.setCodec(codec);
+        sink.setOnSegmentClosedListener(new SegmentedSink.OnSegmentClosedListener() {
+            @Override
+            public void onSegmentClosed(SegmentedSink.Segment segment) {
+                closed.add(segment);
+            }
+        });
+        return sink;
+    }
+
+    private static void write(ISampleSink sink, int track, long ptsUs, boolean key, int size) {
+        SampleInfo info = new SampleInfo();
+        info.set(0, size, ptsUs, key ? SampleInfo.FLAG_KEY_FRAME : 0);
+        sink.writeSample(track, ByteBuffer.allocate(size), info);
+    }
+
+    @Test
+    public void namesSegmentsAfterFirstFile() {
+        assertEquals(FIRST, SegmentedSink.segmentFile(FIRST, 0));
+        assertEquals(new File("/sdcard/rec_002.mp4"), SegmentedSink.segmentFile(FIRST, 1));
+        assertEquals(new File("/sdcard/rec_012.h264"), SegmentedSink.segmentFile(new File("/sdcard/rec.h264"), 11));
+    }
+
+    @Test
+    public void rotatesAtKeyFrameAfterDuration() throws IOException {
+        SegmentedSink sink = newSink(1000000, 0);
+        int track = sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        sink.start();
+        // 30fps，每 0.5 秒一个关键帧，共 3 秒
+        for (int i = 0; i < 90; i++) {
+            write(sink, track, i * 1000000L / 30, i % 15 == 0, 100);
+        }
+        sink.stop();
+        sink.release();
+
+        assertEquals(3, factory.segments.size());
+        assertEquals(3, sink.getSegmentCount());
+        int total = 0;
+        for (SegmentRecord segment : factory.segments) {
+            assertTrue(segment.stopped);
+            assertTrue(segment.released);
+            assertEquals(1, segment.tracks.size());
+            assertTrue(segment.keyFrames.get(0));
+            assertEquals(30, segment.pts.size());
+            total += segment.pts.size();
+        }
+        // 没有丢失也没有重复，时间戳不变
+        assertEquals(90, total);
+        assertEquals(1000000L, (long) factory.segments.get(1).pts.get(0));
+        assertEquals(new File("/sdcard/rec_003.mp4"), factory.segments.get(2).file);
+
+        assertEquals(3, closed.size());
+        assertEquals(1000000, closed.get(0).durationUs);
+        assertEquals(3000, closed.get(0).bytes);
+        assertFalse(closed.get(1).last);
+        assertTrue(closed.get(2).last);
+        assertEquals(2, closed.get(2).index);
+        assertEquals(0, codec.getSyncFrameRequests());
+    }
+
+    @Test
+    public void requestsKeyFrameWhenSizeLimitFallsBetweenKeyFrames() throws IOException {
+        SegmentedSink sink = newSink(0, 5000);
+        int track = sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        sink.start();
+        // 关键帧间隔很长，达到大小后请求关键帧，编码器在第 60 帧响应
+        for (int i = 0; i < 90; i++) {
+            write(sink, track, i * 1000000L / 30, i == 0 || i == 60, 100);
+        }
+        sink.stop();
+
+        assertEquals(1, codec.getSyncFrameRequests());
+        assertEquals(2, factory.segments.size());
+        assertEquals(60, factory.segments.get(0).pts.size());
+        assertTrue(factory.segments.get(1).keyFrames.get(0));
+        assertEquals(30, factory.segments.get(1).pts.size());
+    }
+
+    @Test
+    public void otherTracksFollowIntoNewSegment() throws IOException {
+        SegmentedSink sink = newSink(1000000, 0);
+        int audio = sink.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 1));
+        int video = sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        sink.start();
+        for (int i = 0; i < 45; i++) {
+            long ptsUs = i * 1000000L / 30;
+            write(sink, video, ptsUs, i % 30 == 0, 100);
+            // 音频不是关键帧也不决定切换点
+            write(sink, audio, ptsUs + 1000, false, 10);
+        }
+        sink.stop();
+
+        assertEquals(2, factory.segments.size());
+        SegmentRecord second = factory.segments.get(1);
+        assertEquals(2, second.tracks.size());
+        assertEquals(1000000L, (long) second.pts.get(0));
+        assertEquals(video, (int) second.sampleTracks.get(0));
+        assertEquals(audio, (int) second.sampleTracks.get(1));
+        assertEquals(30, second.pts.size());
+    }
+
+    @Test
+    public void keepsCurrentSegmentWhenNextFailsToOpen() throws IOException {
+        SegmentedSink sink = newSink(1000000, 0);
+        int track = sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        sink.start();
+        factory.failures = 1;
+        long frames = 30 * (1 + SegmentedSink.RETRY_INTERVAL_US / 1000000) + 45;
+        for (int i = 0; i < frames; i++) {
+            write(sink, track, i * 1000000L / 30, i % 30 == 0, 100);
+        }
+        sink.stop();
+
+        // 第一次切换失败后继续写第一个分段，过了重试间隔才切换
+        assertEquals(3, factory.segments.size());
+        SegmentRecord first = factory.segments.get(0);
+        assertEquals(30 * (1 + SegmentedSink.RETRY_INTERVAL_US / 1000000), first.pts.size());
+        assertEquals(new File("/sdcard/rec_002.mp4"), factory.segments.get(1).file);
+        assertEquals(closed.size(), factory.segments.size());
+    }
+
+    @Test
+    public void releaseWithoutStopKeepsSegmentOpen() throws IOException {
+        SegmentedSink sink = newSink(1000000, 0);
+        int track = sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        sink.start();
+        write(sink, track, 0, true, 100);
+        sink.release();
+
+        SegmentRecord segment = factory.segments.get(0);
+        assertTrue(segment.released);
+        assertFalse(segment.stopped);
+        assertTrue(closed.isEmpty());
+    }
+}
@@ -0,0 +1,41 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+
+    @Test
+    public void recordsEachSectionByName() throws InterruptedException {
+        assertNull(StartupTrace.get("test.lazy"));
+        long begin = StartupTrace.begin("test.lazy");
+        Thread.sleep(5);
+        long us = StartupTrace.end("test.lazy", begin);
+        assertTrue("took " + us + "us", us >= 5000);
+
+        StartupTrace.record("test.lazy", 1000000000L);
+        StartupTrace.record("test.lazy", 2000000L);
+        StartupTrace.Section section = StartupTrace.get("test.lazy");
+        assertEquals(3, section.count);
+        // 冷启动看第一次，之后重新创建资源看最近一次和最大值
+        assertEquals(us, section.firstUs);
+        assertEquals(2000, section.lastUs);
+        assertEquals(1000000, section.maxUs);
+    }
+
+    @Test
+    public void dumpsSectionsInOrder() {
+        StartupTrace.record("test.first", 3000000L);
+        StartupTrace.record("test.second", 4000000L);
+        StringWriter out = new StringWriter();
+        StartupTrace.dump(new PrintWriter(out), "  ");
+        String text = out.toString();
+        int first = text.indexOf("  test.first: first=3000us");
+        int second = text.indexOf("  test.second: first=4000us");
+        assertTrue(text, first >= 0 && second > first);
+    }
+}
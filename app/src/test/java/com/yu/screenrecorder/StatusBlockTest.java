@@ -0,0 +1,132 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StatusBlockTest {
+    private static File newFile() throws IOException {
+        File file = File.createTempFile("status", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static StatusBlock.Reader openReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        return new StatusBlock.Reader(raf.getChannel(), raf);
+    }
+
+    /* 所有字段都由 n 推出，读到的字段互相矛盾说明读到了写了一半的状态 */
+    private static void fill(RecorderStatus status, long n) {
+        status.state = (int) (n % 6);
+        status.flags = (int) (n & 1);
+        status.elapsedMs = n * 10;
+        status.framesEncoded = n;
+        status.framesDropped = n / 2;
+        status.bytesWritten = n * 1000;
+        status.bitRate = (int) (n % 100000);
+        status.updateTimeMs = n * 7;
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        File file = newFile();
+        StatusBlock block = new StatusBlock(file);
+        StatusBlock.Reader reader = openReader(file);
+        RecorderStatus out = new RecorderStatus();
+        assertTrue(reader.read(out));
+        assertEquals(0, out.version);
+
+        RecorderStatus in = new RecorderStatus();
+        in.state = RecorderStateMachine.STATE_PAUSED;
+        in.flags = RecorderStatus.FLAG_STANDBY;
+        in.elapsedMs = 65000;
+        in.framesEncoded = 1950;
+        in.framesDropped = 3;
+        in.bytesWritten = 1L << 33;
+        in.bitRate = 4000000;
+        in.updateTimeMs = 123456;
+        block.write(in);
+        block.write(in);
+
+        assertTrue(reader.read(out));
+        assertEquals(2, out.version);
+        assertTrue(out.isRecording() && out.isPaused() && out.isStandby());
+        assertEquals(65000, out.elapsedMs);
+        // 暂停中不推算时长
+        assertEquals(65000, out.elapsedAt(200000));
+        assertEquals(1950, out.framesEncoded);
+        assertEquals(3, out.framesDropped);
+        assertEquals(1L << 33, out.bytesWritten);
+        assertEquals(4000000, out.bitRate);
+        assertEquals(123456, out.updateTimeMs);
+        reader.close();
+        block.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsForeignFile() throws IOException {
+        File file = newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(StatusBlock.SIZE);
+        raf.close();
+        openReader(file);
+    }
+
+    @Test
+    public void readerNeverSeesTornWrite() throws Exception {
+        File file = newFile();
+        final StatusBlock block = new StatusBlock(file);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RecorderStatus status = new RecorderStatus();
+                for (long n = 1; running.get(); n++) {
+                    fill(status, n);
+                    block.write(status);
+                }
+            }
+        });
+        writer.start();
+
+        StatusBlock.Reader reader = openReader(file);
+        RecorderStatus out = new RecorderStatus();
+        RecorderStatus expected = new RecorderStatus();
+        long lastVersion = 0;
+        int reads = 0;
+        long deadline = System.nanoTime() + 500000000L;
+        while (System.nanoTime() < deadline) {
+            if (!reader.read(out)) {
+                continue;
+            }
+            reads++;
+            assertTrue(out.version >= lastVersion);
+            lastVersion = out.version;
+            long n = out.framesEncoded;
+            fill(expected, n);
+            assertEquals(expected.state, out.state);
+            assertEquals(expected.flags, out.flags);
+            assertEquals(expected.elapsedMs, out.elapsedMs);
+            assertEquals(expected.framesDropped, out.framesDropped);
+            assertEquals(expected.bytesWritten, out.bytesWritten);
+            assertEquals(expected.bitRate, out.bitRate);
+            assertEquals(expected.updateTimeMs, out.updateTimeMs);
+            if (n > 0) {
+                // 每次写入序号加 2
+                assertEquals(n, out.version);
+            }
+        }
+        running.set(false);
+        writer.join();
+        reader.close();
+        block.close();
+        assertTrue("reads " + reads, reads > 0);
+        assertTrue("version " + lastVersion, lastVersion > 0);
+    }
+}
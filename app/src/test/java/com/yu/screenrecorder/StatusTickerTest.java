@@ -0,0 +1,62 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatusTickerTest {
+
+    @Test
+    public void ticksAlignToStartTime() {
+        StatusTicker ticker = new StatusTicker();
+        assertTrue(ticker.start(10000, 1000));
+        assertEquals("00:00:00", ticker.getText().toString());
+        assertEquals(11000, ticker.nextTickUptimeMs(10000));
+
+        // 每次执行都晚了 300ms，下一次仍然对齐到开始时间
+        assertTrue(ticker.tick(1));
+        assertEquals(12000, ticker.nextTickUptimeMs(11300));
+        assertTrue(ticker.tick(2));
+        assertEquals(13000, ticker.nextTickUptimeMs(12300));
+        assertEquals("00:00:02", ticker.getText().toString());
+    }
+
+    @Test
+    public void callbackOnlyWhenTimeChanges() {
+        StatusTicker ticker = new StatusTicker();
+        ticker.start(0, 500);
+        assertFalse(ticker.tick(0));
+        assertTrue(ticker.tick(1));
+        // 暂停期间时长不变
+        assertFalse(ticker.tick(1));
+        assertFalse(ticker.tick(1));
+        assertTrue(ticker.tick(2));
+    }
+
+    @Test
+    public void skipsMissedTicks() {
+        StatusTicker ticker = new StatusTicker();
+        ticker.start(0, 1000);
+        ticker.tick(1);
+        // 线程被耽搁了 5 秒，不连续补执行
+        assertEquals(6000, ticker.nextTickUptimeMs(5200));
+        assertEquals(5, ticker.getTicks());
+        ticker.tick(6);
+        assertEquals(7000, ticker.nextTickUptimeMs(6010));
+    }
+
+    @Test
+    public void restartResetsTicks() {
+        StatusTicker ticker = new StatusTicker();
+        ticker.start(0, 1000);
+        ticker.tick(1);
+        ticker.tick(2);
+        assertFalse(ticker.start(50000, 0));
+        assertEquals(0, ticker.getTicks());
+        assertEquals("00:00:00", ticker.getText().toString());
+        // 开始时已经回调过 0 秒
+        assertTrue(ticker.start(50000, 1000));
+        assertFalse(ticker.tick(0));
+        assertTrue(ticker.tick(1));
+    }
+}
@@ -0,0 +1,255 @@
+package com.yu.screenrecorder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamServerTest {
+    private static final int FRAGMENT_SIZE = 1024 * 1024;
+
+    private StreamServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /* 模拟分片：4 字节长度 + 4 字节序号，其余填充 */
+    private static byte[] fragment(int sequence, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(size);
+        buf.putInt(sequence);
+        return buf.array();
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(5000);
+        socket.setReceiveBufferSize(64 * 1024);
+        OutputStream out = socket.getOutputStream();
+        out.write("GET /live.mp4 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("US-ASCII"));
+        out.flush();
+        return socket;
+    }
+
+    private static String readResponseHeader(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n")) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException();
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 读出文件头之后的全部分片序号，同时检查每个分片都是完整的
+     */
+    private static List<Integer> readFragments(InputStream in, int headerSize) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        data.readFully(new byte[headerSize]);
+        List<Integer> sequences = new ArrayList<>();
+        while (true) {
+            int size;
+            try {
+                size = data.readInt();
+            } catch (EOFException e) {
+                return sequences;
+            }
+            assertTrue("fragment size " + size, size >= 8 && size <= FRAGMENT_SIZE);
+            sequences.add(data.readInt());
+            data.readFully(new byte[size - 8]);
+        }
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getClientCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.getClientCount());
+    }
+
+    @Test
+    public void streamsHeaderAndFragmentsToWaitingClient() throws Exception {
+        server = new StreamServer(0, 8);
+        server.start();
+        // 直播开始之前连接，等到文件头后开始接收
+        Socket socket = connect(server.getPort());
+        awaitClients(1);
+
+        StreamOutput output = new StreamOutput(server);
+        byte[] header = new byte[100];
+        output.write(ByteBuffer.wrap(header));
+        output.flush();
+        InputStream in = socket.getInputStream();
+        String response = readResponseHeader(in);
+        for (int i = 0; i < 5; i++) {
+            output.write(ByteBuffer.wrap(fragment(i, 1000)));
+            output.flush();
+        }
+        output.close();
+
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("Content-Type: video/mp4"));
+        List<Integer> sequences = readFragments(in, header.length);
+        assertEquals("[0, 1, 2, 3, 4]", sequences.toString());
+        socket.close();
+        assertEquals(0, server.getFragmentsDropped());
+    }
+
+    @Test
+    public void slowClientDropsWholeFragmentsWithoutStallingOthers() throws Exception {
+        server = new StreamServer(0, 3);
+        server.start();
+        Socket slow = connect(server.getPort());
+        final Socket fast = connect(server.getPort());
+        awaitClients(2);
+
+        StreamOutput output = new StreamOutput(server);
+        output.write(ByteBuffer.wrap(new byte[8]));
+        output.flush();
+        InputStream slowIn = slow.getInputStream();
+        readResponseHeader(slowIn);
+        final InputStream fastIn = fast.getInputStream();
+        readResponseHeader(fastIn);
+
+        final List<Integer> fastSequences = new ArrayList<>();
+        final Exception[] fastError = new Exception[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fastSequences.addAll(readFragments(fastIn, 8));
+                } catch (Exception e) {
+                    fastError[0] = e;
+                }
+            }
+        });
+        reader.start();
+
+        int count = 40;
+        for (int i = 0; i < count; i++) {
+            long begin = System.nanoTime();
+            output.write(ByteBuffer.wrap(fragment(i, FRAGMENT_SIZE)));
+            output.flush();
+            // 发布不会被不读数据的客户端阻塞
+            assertTrue((System.nanoTime() - begin) < 500 * 1000000L);
+            Thread.sleep(20);
+        }
+        output.close();
+        reader.join(10000);
+        assertNull(fastError[0]);
+        assertEquals(count, fastSequences.size());
+
+        // 慢的客户端现在开始读：队列满之后的分片都被丢弃，收到的都是完整的分片
+        List<Integer> slowSequences = readFragments(slowIn, 8);
+        assertTrue(slowSequences.size() < count);
+        assertTrue(server.getFragmentsDropped() > 0);
+        for (int i = 1; i < slowSequences.size(); i++) {
+            assertTrue(slowSequences.get(i) > slowSequences.get(i - 1));
+        }
+        slow.close();
+        fast.close();
+    }
+
+    @Test
+    public void rejectsNonGetRequest() throws Exception {
+        server = new StreamServer(0);
+        server.start();
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write("POST / HTTP/1.1\r\n\r\n".getBytes("US-ASCII"));
+        String response = readResponseHeader(socket.getInputStream());
+        assertTrue(response, response.startsWith("HTTP/1.1 400"));
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+    }
+
+    @Test
+    public void headerSurvivesFullPublishQueue() throws Exception {
+        server = new StreamServer(0, 8);
+        // 服务线程还没有运行，分片把发布队列占满
+        for (int i = 0; i < 40; i++) {
+            server.publish(fragment(i, 100));
+        }
+        assertTrue(server.getFragmentsDropped() > 0);
+        byte[] header = new byte[16];
+        header[0] = 1;
+        server.publishHeader(header);
+        server.start();
+
+        Socket socket = connect(server.getPort());
+        InputStream in = socket.getInputStream();
+        assertTrue(readResponseHeader(in).startsWith("HTTP/1.1 200 OK\r\n"));
+        server.publish(fragment(100, 100));
+        server.endStream();
+        DataInputStream data = new DataInputStream(in);
+        byte[] received = new byte[header.length];
+        data.readFully(received);
+        assertEquals(1, received[0]);
+        assertEquals("[100]", readFragments(in, 0).toString());
+        socket.close();
+    }
+
+    @Test
+    public void resyncsToLatestHeaderWhenControlMessageIsLost() throws Exception {
+        server = new StreamServer(0, 8);
+        for (int i = 0; i < 40; i++) {
+            server.publish(fragment(i, 100));
+        }
+        // 保留的位置也用完，第二个文件头放不进队列
+        server.publishHeader(new byte[]{1, 0, 0, 0, 0, 0, 0, 0});
+        server.endStream();
+        server.publishHeader(new byte[]{2, 0, 0, 0, 0, 0, 0, 0});
+        server.start();
+
+        Socket socket = connect(server.getPort());
+        InputStream in = socket.getInputStream();
+        assertTrue(readResponseHeader(in).startsWith("HTTP/1.1 200 OK\r\n"));
+        assertEquals(2, in.read());
+        socket.close();
+    }
+
+    @Test
+    public void idleConnectionsTimeOut() throws Exception {
+        server = new StreamServer(0);
+        server.setRequestTimeoutMs(200);
+        server.start();
+        List<Socket> idle = new ArrayList<>();
+        for (int i = 0; i < StreamServer.MAX_CLIENTS; i++) {
+            idle.add(new Socket("127.0.0.1", server.getPort()));
+        }
+        awaitClients(StreamServer.MAX_CLIENTS);
+        // 没有发请求的连接超时后被断开，不再占用名额
+        awaitClients(0);
+        for (Socket socket : idle) {
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+            socket.close();
+        }
+
+        Socket socket = connect(server.getPort());
+        server.publishHeader(new byte[8]);
+        assertTrue(readResponseHeader(socket.getInputStream()).startsWith("HTTP/1.1 200 OK\r\n"));
+        // 发完请求的客户端不受超时影响
+        Thread.sleep(400);
+        assertEquals(1, server.getClientCount());
+        socket.close();
+    }
+}
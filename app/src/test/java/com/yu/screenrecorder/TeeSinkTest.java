@@ -0,0 +1,158 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TeeSinkTest {
+    private static final int GOP = 10;
+
+    /* 记录收到的样本，可以模拟写得慢或者写失败 */
+    private static class RecordingSink implements ISampleSink {
+        final List<Long> pts = new ArrayList<>();
+        final List<Boolean> keyFrames = new ArrayList<>();
+        final long delayMs;
+        final int failAt;
+        int tracks;
+        boolean started;
+        boolean stopped;
+
+        RecordingSink(long delayMs, int failAt) {
+            this.delayMs = delayMs;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            return tracks++;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            if (pts.size() == failAt) {
+                throw new IllegalStateException("disk full");
+            }
+            // 数据与时间戳对应，并且读取不影响其他分支
+            assertEquals(info.size, buffer.remaining());
+            assertEquals(info.presentationTimeUs, buffer.getLong());
+            buffer.position(buffer.limit());
+            pts.add(info.presentationTimeUs);
+            keyFrames.add(info.isKeyFrame());
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private static void writeFrames(TeeSink tee, int count, int size) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(size);
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < count; i++) {
+            frame.clear();
+            frame.putLong(0, i * 1000L);
+            info.set(0, size, i * 1000L, i % GOP == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+            tee.writeSample(0, frame, info);
+        }
+    }
+
+    @Test
+    public void fansOutEverySampleToAllBranches() {
+        TeeSink tee = new TeeSink();
+        RecordingSink[] sinks = new RecordingSink[3];
+        for (int i = 0; i < sinks.length; i++) {
+            sinks[i] = new RecordingSink(0, -1);
+            tee.addBranch("b" + i, sinks[i], 8, RecordPipeline.BACKPRESSURE_BLOCK);
+        }
+        assertEquals(0, tee.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280)));
+        tee.start();
+        writeFrames(tee, 500, 4096);
+        tee.stop();
+
+        for (RecordingSink sink : sinks) {
+            assertTrue(sink.started && sink.stopped);
+            assertEquals(1, sink.tracks);
+            assertEquals(500, sink.pts.size());
+            for (int i = 0; i < 500; i++) {
+                assertEquals(i * 1000L, (long) sink.pts.get(i));
+            }
+        }
+        for (TeeSink.BranchStats stats : tee.getBranchStats()) {
+            assertEquals(500, stats.samplesWritten);
+            assertEquals(0, stats.droppedSamples);
+            assertEquals(0, stats.queueDepth);
+        }
+    }
+
+    @Test
+    public void slowBranchDropsToKeyFrameWithoutSlowingOthers() {
+        TeeSink tee = new TeeSink();
+        RecordingSink file = new RecordingSink(0, -1);
+        RecordingSink stream = new RecordingSink(5, -1);
+        tee.addBranch("file", file, 64, RecordPipeline.BACKPRESSURE_BLOCK);
+        tee.addBranch("stream", stream, 4, RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE);
+        tee.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        tee.start();
+        long begin = System.nanoTime();
+        writeFrames(tee, 300, 1024);
+        long elapsedMs = (System.nanoTime() - begin) / 1000000;
+        TeeSink.BranchStats[] running = tee.getBranchStats();
+        tee.stop();
+
+        // 慢的分支每个样本 5ms，如果拖住编码器至少需要 1.5 秒
+        assertTrue("write took " + elapsedMs + "ms", elapsedMs < 1000);
+        assertEquals(300, file.pts.size());
+        assertTrue("received " + stream.pts.size(), stream.pts.size() < 300);
+        TeeSink.BranchStats stats = tee.getBranchStats()[1];
+        assertEquals(300 - stream.pts.size(), stats.droppedSamples);
+        assertTrue("max lag " + running[1].maxLagUs, running[1].maxLagUs > 0);
+        assertEquals(0, tee.getBranchStats()[0].droppedSamples);
+        // 丢帧之后总是从关键帧恢复
+        for (int i = 1; i < stream.pts.size(); i++) {
+            long gap = stream.pts.get(i) - stream.pts.get(i - 1);
+            if (gap != 1000) {
+                assertTrue("resumed at " + stream.pts.get(i), stream.keyFrames.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void failedBranchDoesNotAffectOthers() {
+        TeeSink tee = new TeeSink();
+        RecordingSink good = new RecordingSink(0, -1);
+        RecordingSink bad = new RecordingSink(0, 20);
+        tee.addBranch("good", good, 8, RecordPipeline.BACKPRESSURE_BLOCK);
+        tee.addBranch("bad", bad, 8, RecordPipeline.BACKPRESSURE_BLOCK);
+        tee.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 720, 1280));
+        tee.start();
+        writeFrames(tee, 200, 512);
+        tee.stop();
+
+        assertEquals(200, good.pts.size());
+        assertEquals(20, bad.pts.size());
+        assertTrue(bad.stopped);
+        assertTrue(tee.getBranchStats()[1].failed);
+        assertFalse(tee.getBranchStats()[0].failed);
+    }
+}
@@ -0,0 +1,127 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ThermalGovernorTest {
+
+    /**
+     * 按顺序回放记录的读数，每行为 {温度, 充电, 电量, 温控状态}
+     */
+    private static class TraceSource implements ThermalGovernor.SensorSource {
+        private final int[][] trace;
+        private int index;
+
+        TraceSource(int[][] trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public boolean read(SensorReading out) {
+            if (index >= trace.length) {
+                return false;
+            }
+            int[] row = trace[index++];
+            out.set(row[0], row[1] != 0, row[2], row[3]);
+            return true;
+        }
+    }
+
+    private final List<GovernorDecision> decisions = new ArrayList<>();
+
+    private ThermalGovernor newGovernor(int recoverReadings, int[][] trace) {
+        ThermalGovernor governor = new ThermalGovernor(new TraceSource(trace), recoverReadings);
+        governor.setOnLevelChangeListener(new ThermalGovernor.OnLevelChangeListener() {
+            @Override
+            public void onLevelChanged(GovernorDecision decision) {
+                decisions.add(decision);
+            }
+        });
+        return governor;
+    }
+
+    private static int[] battery(int temperature) {
+        return new int[]{temperature, 1, 80, SensorReading.THERMAL_STATUS_UNKNOWN};
+    }
+
+    private static int[] run(ThermalGovernor governor, int count) {
+        int[] levels = new int[count];
+        for (int i = 0; i < count; i++) {
+            levels[i] = governor.update();
+        }
+        return levels;
+    }
+
+    @Test
+    public void warmingStepsDownImmediately() {
+        ThermalGovernor governor = newGovernor(3, new int[][]{
+                battery(350), battery(395), battery(405), battery(440), battery(470)});
+        assertArrayEquals(new int[]{0, 0, 1, 2, 3}, run(governor, 5));
+        assertEquals(3, decisions.size());
+        assertEquals(GovernorDecision.REASON_TEMPERATURE, decisions.get(2).reason);
+        assertEquals(35, governor.getBitRatePercent());
+        assertEquals(15, governor.getMaxFrameRate());
+        assertEquals(2, governor.getProfileSteps());
+    }
+
+    @Test
+    public void hysteresisPreventsFlapping() {
+        // 在 40 度附近抖动，只进入 WARM 一次
+        ThermalGovernor governor = newGovernor(2, new int[][]{
+                battery(401), battery(395), battery(399), battery(402), battery(385),
+                battery(398), battery(390), battery(379), battery(378)});
+        assertArrayEquals(new int[]{1, 1, 1, 1, 1, 1, 1, 1, 0}, run(governor, 9));
+        assertEquals(2, decisions.size());
+        assertEquals(GovernorDecision.REASON_RECOVER, decisions.get(1).reason);
+    }
+
+    @Test
+    public void recoversOneLevelPerDwell() {
+        ThermalGovernor governor = newGovernor(2, new int[][]{
+                battery(470), battery(300), battery(300), battery(300), battery(300),
+                battery(300), battery(300)});
+        assertArrayEquals(new int[]{3, 3, 2, 2, 1, 1, 0}, run(governor, 7));
+        assertEquals(ThermalGovernor.LEVEL_NORMAL, decisions.get(3).level);
+        assertEquals(100, governor.getBitRatePercent());
+        assertEquals(Integer.MAX_VALUE, governor.getMaxFrameRate());
+    }
+
+    @Test
+    public void reheatingResetsRecovery() {
+        ThermalGovernor governor = newGovernor(3, new int[][]{
+                battery(440), battery(300), battery(300), battery(420), battery(300),
+                battery(300), battery(300)});
+        assertArrayEquals(new int[]{2, 2, 2, 2, 2, 2, 1}, run(governor, 7));
+    }
+
+    @Test
+    public void thermalStatusDominatesCoolBattery() {
+        ThermalGovernor governor = newGovernor(1, new int[][]{
+                {320, 1, 80, SensorReading.THERMAL_STATUS_MODERATE},
+                {320, 1, 80, SensorReading.THERMAL_STATUS_SEVERE}});
+        assertArrayEquals(new int[]{2, 3}, run(governor, 2));
+        assertEquals(GovernorDecision.REASON_THERMAL_STATUS, governor.getLastDecision().reason);
+    }
+
+    @Test
+    public void lowBatteryOnlyWhenDischarging() {
+        ThermalGovernor governor = newGovernor(1, new int[][]{
+                {300, 1, 4, SensorReading.THERMAL_STATUS_UNKNOWN},
+                {300, 0, 12, SensorReading.THERMAL_STATUS_UNKNOWN},
+                {300, 0, 5, SensorReading.THERMAL_STATUS_UNKNOWN},
+                {300, 1, 5, SensorReading.THERMAL_STATUS_UNKNOWN}});
+        assertArrayEquals(new int[]{0, 1, 2, 1}, run(governor, 4));
+        assertEquals(GovernorDecision.REASON_BATTERY, decisions.get(0).reason);
+    }
+
+    @Test
+    public void failedReadKeepsLevel() {
+        ThermalGovernor governor = newGovernor(1, new int[][]{battery(440)});
+        assertArrayEquals(new int[]{2, 2, 2}, run(governor, 3));
+        assertEquals(1, decisions.size());
+    }
+}
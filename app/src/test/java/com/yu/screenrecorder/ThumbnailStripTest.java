@@ -0,0 +1,82 @@
+package com.yu.screenrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailStripTest {
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    /* 模拟 ImageReader 的行跨度，每行末尾有填充 */
+    private static final int ROW_STRIDE = WIDTH * 4 + 64;
+
+    /**
+     * 左半边红色、右半边蓝色，上下按 shade 区分
+     */
+    private static ByteBuffer frame(int shade) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int p = y * ROW_STRIDE + x * 4;
+                boolean left = x < WIDTH / 2;
+                pixels.put(p, (byte) (left ? 0xff : 0));
+                pixels.put(p + 1, (byte) (y < HEIGHT / 2 ? 0 : shade));
+                pixels.put(p + 2, (byte) (left ? 0 : 0xff));
+                pixels.put(p + 3, (byte) 0xff);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void downscalesFramesAtIntervalAndFindsByTime() throws Exception {
+        File media = File.createTempFile("thumbs", ".mp4");
+        media.deleteOnExit();
+        File file = ThumbnailStrip.stripOf(media);
+        file.deleteOnExit();
+        ThumbnailStrip strip = new ThumbnailStrip(media, WIDTH, HEIGHT, 160, 5000000);
+        assertEquals(160, strip.getWidth());
+        assertEquals(284, strip.getHeight());
+
+        ByteBuffer dark = frame(0);
+        ByteBuffer bright = frame(0xff);
+        long[] times = {0, 1000000, 5000000, 7000000, 12000000};
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(i != 1 && i != 3, strip.isDue(times[i]));
+            strip.add(i == 2 ? bright : dark, ROW_STRIDE, 4, times[i]);
+        }
+        strip.add(dark, ROW_STRIDE, 4, -1);
+        strip.close();
+        assertEquals(3, strip.getCount());
+        assertEquals(0, dark.position());
+
+        ThumbnailStrip.Reader reader = new ThumbnailStrip.Reader(file);
+        try {
+            assertTrue(reader.isValid());
+            assertEquals(3, reader.getCount());
+            assertEquals(5000000, reader.getIntervalUs());
+            assertEquals(-1, reader.find(-1));
+            assertEquals(0, reader.find(4999999));
+            assertEquals(1, reader.find(5000000));
+            assertEquals(2, reader.find(60000000));
+
+            int w = reader.getWidth();
+            int bottom = (reader.getHeight() - 1) * w;
+            // RGB565：左红右蓝，亮的一帧下半部分加上绿色
+            ByteBuffer pixels = reader.getPixels(0);
+            assertEquals(w * reader.getHeight() * 2, pixels.remaining());
+            assertEquals((short) 0xf800, pixels.getShort(0));
+            assertEquals((short) 0x001f, pixels.getShort((w - 1) * 2));
+            assertEquals((short) 0xf800, pixels.getShort(bottom * 2));
+            pixels = reader.getPixels(1);
+            assertEquals((short) 0xf800, pixels.getShort(0));
+            assertEquals((short) 0xffe0, pixels.getShort(bottom * 2));
+            assertEquals((short) 0x07ff, pixels.getShort((bottom + w - 1) * 2));
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.EncoderEngine;
+import com.yu.screenrecorder.RateController;
+import com.yu.screenrecorder.RecorderMetrics;
+import com.yu.screenrecorder.RecordingClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每一帧的 drain 路径：取出编码输出、码率统计、时间戳换算、指标记录，然后交给 sink
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderDrainBenchmark {
+    @Param({"true", "false"})
+    public boolean instrumented;
+
+    private EncoderEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new EncoderEngine(new LoopCodec(16 * 1024, 30), new NullSink());
+        if (instrumented) {
+            RecordingClock clock = new RecordingClock(RecordingClock.MONOTONIC, RecordingClock.MONOTONIC);
+            clock.start();
+            engine.setClock(clock);
+            engine.setMetrics(new RecorderMetrics());
+            engine.setRateController(new RateController(1000000, 5000000, 15, 30));
+        }
+        engine.drain(0);
+    }
+
+    @Benchmark
+    public boolean drainFrame() {
+        return engine.drain(0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.AnnexBSink;
+import com.yu.screenrecorder.AsyncFileWriter;
+import com.yu.screenrecorder.SampleInfo;
+import com.yu.screenrecorder.TrackFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写文件路径：AsyncFileWriter 的缓冲块交接以及 AnnexBSink 的封装
+ * <br/> 每轮迭代使用新的临时文件，避免文件无限增长；结果受磁盘影响，只在同一台机器上比较
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileWriterBenchmark {
+    @Param({"4096", "65536"})
+    public int frameSize;
+
+    private final SampleInfo info = new SampleInfo();
+    private ByteBuffer frame;
+    private File file;
+    private AsyncFileWriter writer;
+    private AnnexBSink sink;
+    private long frameIndex;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        frame = ByteBuffer.allocateDirect(frameSize);
+        file = File.createTempFile("record_bench", ".h264");
+        writer = new AsyncFileWriter(file);
+        sink = new AnnexBSink(writer);
+        sink.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720));
+        sink.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writer.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        frame.clear();
+        writer.write(frame);
+    }
+
+    @Benchmark
+    public void annexB() {
+        info.set(0, frameSize, frameIndex * 33333, frameIndex % 30 == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+        frameIndex++;
+        frame.clear();
+        sink.writeSample(0, frame, info);
+    }
+}
@@ -0,0 +1,67 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.FragmentedMp4Sink;
+import com.yu.screenrecorder.SampleInfo;
+import com.yu.screenrecorder.TrackFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片 mp4 的封装：样本转为 AVCC 后在分片缓冲中累积，每 2 秒写出一个分片，不包括写文件
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FragmentedMp4Benchmark {
+    private static final int FRAME_RATE = 30;
+
+    @Param({"4096", "65536"})
+    public int frameSize;
+
+    private final SampleInfo info = new SampleInfo();
+    private ByteBuffer frame;
+    private FragmentedMp4Sink sink;
+    private long frameIndex;
+
+    @Setup
+    public void setUp() {
+        frame = ByteBuffer.allocateDirect(frameSize);
+        /* 编码输出中不会出现起始码以外的 00 00 0x（防竞争字节），用随机数据模拟 */
+        Random random = new Random(1);
+        frame.put(new byte[]{0, 0, 0, 1, 0x65});
+        while (frame.hasRemaining()) {
+            frame.put((byte) (random.nextInt(255) + 1));
+        }
+        TrackFormat format = TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720);
+        format.bitRate = frameSize * 8 * FRAME_RATE;
+        sink = new FragmentedMp4Sink(new NullOutput());
+        sink.addTrack(format);
+        sink.start();
+    }
+
+    @Benchmark
+    public void writeSample() {
+        info.set(0, frameSize, frameIndex * 1000000 / FRAME_RATE,
+                frameIndex % FRAME_RATE == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+        frameIndex++;
+        frame.clear();
+        sink.writeSample(0, frame, info);
+    }
+}
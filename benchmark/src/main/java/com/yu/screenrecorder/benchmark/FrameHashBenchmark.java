@@ -0,0 +1,75 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.FrameGate;
+import com.yu.screenrecorder.FrameHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可变帧率模式下每帧的画面比较，1080x2340 RGBA，对照逐像素和默认抽样间隔的耗时
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameHashBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    /* 行尾按 64 字节对齐，与 ImageReader 常见的行跨度一致 */
+    private static final int ROW_STRIDE = (WIDTH * 4 + 63) / 64 * 64;
+    private static final long FRAME_INTERVAL_NS = 1000000000L / 60;
+
+    @Param({"1", "4"})
+    public int step;
+
+    private ByteBuffer frame;
+    private FrameHasher hasher;
+    private FrameGate gate;
+    private long nowNs;
+
+    @Setup
+    public void setUp() {
+        frame = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        Random random = new Random(1);
+        while (frame.remaining() >= 4) {
+            frame.putInt(random.nextInt());
+        }
+        frame.clear();
+        hasher = new FrameHasher(step, step);
+        gate = new FrameGate(30, 1000);
+    }
+
+    @Benchmark
+    public long hash() {
+        return hasher.hash(frame, WIDTH, HEIGHT, ROW_STRIDE, 4);
+    }
+
+    /**
+     * 静止画面：每帧计算哈希并判断取舍
+     */
+    @Benchmark
+    public int hashAndGate() {
+        nowNs += FRAME_INTERVAL_NS;
+        int result = gate.onFrame(hasher.hash(frame, WIDTH, HEIGHT, ROW_STRIDE, 4), nowNs);
+        if (gate.onDeadline(nowNs) != FrameGate.SKIP) {
+            result++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.AsyncLogWriter;
+import com.yu.screenrecorder.LogUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录制线程上的日志开销：被级别过滤的参数化调用，以及写入异步环形缓冲的调用
+ * <br/> 写线程跟不上时 async 测到的是丢弃路径，丢弃数量见 tearDown 输出
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+    private static final String TAG = "LoggingBenchmark";
+
+    private File directory;
+    private AsyncLogWriter writer;
+    private long frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("record_logs").toFile();
+        writer = new AsyncLogWriter(directory, "record.log");
+        writer.start();
+        LogUtil.setAsyncWriter(writer);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        LogUtil.setAsyncWriter(null);
+        LogUtil.level = LogUtil.VERBOSE;
+        writer.close();
+        System.err.println("written " + writer.getLinesWritten() + ", dropped " + writer.getDroppedMessages());
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void filtered() {
+        LogUtil.level = LogUtil.INFO;
+        LogUtil.d(TAG, "frame {} encoded", frame++);
+    }
+
+    @Benchmark
+    public void async() {
+        LogUtil.level = LogUtil.VERBOSE;
+        LogUtil.d(TAG, "frame {} written to {}", frame++, TAG);
+    }
+}
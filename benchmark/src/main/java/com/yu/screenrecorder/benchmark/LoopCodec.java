@@ -0,0 +1,78 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.ICodec;
+import com.yu.screenrecorder.SampleInfo;
+import com.yu.screenrecorder.TrackFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 不断输出同一个缓冲区的假编码器，时间戳取当前时间，与 Surface 输入的时间基一致
+ */
+class LoopCodec implements ICodec {
+    private final ByteBuffer frame;
+    private final TrackFormat format;
+    private final int gopSize;
+    private boolean formatSent;
+    private long frameIndex;
+
+    LoopCodec(int frameSize, int gopSize) {
+        this.frame = ByteBuffer.allocateDirect(frameSize);
+        this.gopSize = gopSize;
+        this.format = TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        if (!formatSent) {
+            formatSent = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        int flags = frameIndex++ % gopSize == 0 ? SampleInfo.FLAG_KEY_FRAME : 0;
+        info.set(0, frame.capacity(), System.nanoTime() / 1000 - 16000, flags);
+        return 0;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        frame.clear();
+        return frame;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        return format;
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+    }
+
+    @Override
+    public void requestSyncFrame() {
+    }
+
+    @Override
+    public void setVideoBitrate(int bitRate) {
+    }
+
+    @Override
+    public void setFrameRate(int frameRate) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
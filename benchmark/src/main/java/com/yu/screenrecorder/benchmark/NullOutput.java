@@ -0,0 +1,26 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.ByteOutput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 只消费数据不写文件的输出
+ */
+class NullOutput implements ByteOutput {
+    volatile long bytes;
+
+    @Override
+    public void write(ByteBuffer src) {
+        bytes += src.remaining();
+        src.position(src.limit());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
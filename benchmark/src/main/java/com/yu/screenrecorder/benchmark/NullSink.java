@@ -0,0 +1,37 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.ISampleSink;
+import com.yu.screenrecorder.SampleInfo;
+import com.yu.screenrecorder.TrackFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 只消费数据不输出的 sink
+ */
+class NullSink implements ISampleSink {
+    volatile long bytes;
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return 0;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        bytes += buffer.remaining();
+        buffer.position(buffer.limit());
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
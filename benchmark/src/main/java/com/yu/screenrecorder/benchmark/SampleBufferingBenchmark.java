@@ -0,0 +1,106 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.RecordPipeline;
+import com.yu.screenrecorder.ReplayBuffer;
+import com.yu.screenrecorder.SampleInfo;
+import com.yu.screenrecorder.SpscQueue;
+import com.yu.screenrecorder.TeeSink;
+import com.yu.screenrecorder.TrackFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 样本缓冲：drain -> mux 的交接队列、回放缓冲的写入与 GOP 淘汰、一次拷贝分发到多个分支
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBufferingBenchmark {
+    private static final int GOP_SIZE = 30;
+    private static final long FRAME_INTERVAL_US = 33333;
+
+    @Param({"4096", "65536"})
+    public int frameSize;
+
+    private final SampleInfo info = new SampleInfo();
+    private final SpscQueue<Object> queue = new SpscQueue<>(64);
+    private final Object element = new Object();
+    private ByteBuffer frame;
+    private RecordPipeline pipeline;
+    private ReplayBuffer replay;
+    private TeeSink tee;
+    private long frameIndex;
+
+    @Setup
+    public void setUp() {
+        frame = ByteBuffer.allocateDirect(frameSize);
+        pipeline = new RecordPipeline(new NullSink(), RecordPipeline.DEFAULT_QUEUE_CAPACITY,
+                RecordPipeline.BACKPRESSURE_BLOCK);
+        pipeline.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720));
+        pipeline.start();
+        // 约 10 秒的数据，写满后开始按 GOP 淘汰
+        replay = new ReplayBuffer(frameSize * GOP_SIZE * 10, GOP_SIZE * 10 * 2, 10000000L);
+        replay.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720));
+        // 文件、直播、回放三个分支
+        tee = new TeeSink();
+        tee.addBranch("file", new NullSink(), RecordPipeline.DEFAULT_QUEUE_CAPACITY, RecordPipeline.BACKPRESSURE_BLOCK);
+        tee.addBranch("stream", new NullSink(), 32, RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE);
+        tee.addBranch("replay", new NullSink(), 32, RecordPipeline.BACKPRESSURE_DROP_NON_REFERENCE);
+        tee.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720));
+        tee.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+        pipeline.release();
+        tee.stop();
+        tee.release();
+    }
+
+    private SampleInfo nextFrame() {
+        int flags = frameIndex % GOP_SIZE == 0 ? SampleInfo.FLAG_KEY_FRAME : 0;
+        info.set(0, frameSize, frameIndex * FRAME_INTERVAL_US, flags);
+        frameIndex++;
+        frame.clear();
+        return info;
+    }
+
+    @Benchmark
+    public void pipelineWrite() {
+        pipeline.writeSample(0, frame, nextFrame());
+    }
+
+    @Benchmark
+    public void teeWrite() {
+        tee.writeSample(0, frame, nextFrame());
+    }
+
+    @Benchmark
+    public void replayWrite() {
+        replay.writeSample(0, frame, nextFrame());
+    }
+
+    @Benchmark
+    public Object spscOfferPoll() {
+        queue.offer(element);
+        return queue.poll();
+    }
+}
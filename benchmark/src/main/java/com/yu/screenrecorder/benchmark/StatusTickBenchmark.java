@@ -0,0 +1,87 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.OnRecorderEventListener;
+import com.yu.screenrecorder.RecorderEvent;
+import com.yu.screenrecorder.RecorderEventBus;
+import com.yu.screenrecorder.RecordingClock;
+import com.yu.screenrecorder.TimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次定时更新的路径：读取录制时钟、格式化时长、发布 UPDATE 事件
+ * <br/> 通知本身依赖 system_server，不在这里测量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusTickBenchmark {
+    /* 每次调用推进一秒，让格式化结果每次都变化 */
+    private static class SteppingSource implements RecordingClock.TimeSource {
+        long nowNs;
+
+        @Override
+        public long nanoTime() {
+            return nowNs += 1000000000L;
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final SteppingSource source = new SteppingSource();
+    private final RecordingClock clock = new RecordingClock(source, source);
+    private final TimeFormatter timeText = new TimeFormatter();
+    private final RecorderEventBus idleBus = new RecorderEventBus();
+    private final RecorderEventBus bus = new RecorderEventBus();
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        clock.start();
+        bus.register(new OnRecorderEventListener() {
+            @Override
+            public void onRecorderEvent(RecorderEvent event) {
+                blackhole.consume(event);
+            }
+        }, DIRECT);
+    }
+
+    @Benchmark
+    public boolean tickNoSubscriber() {
+        return tick(idleBus);
+    }
+
+    @Benchmark
+    public boolean tick() {
+        return tick(bus);
+    }
+
+    private boolean tick(RecorderEventBus target) {
+        if (timeText.format(clock.getElapsedSeconds())) {
+            // 与 RecordStatusPublisher 回调到 RecordService.publishStatus() 的路径一致
+            target.post(RecorderEvent.TYPE_UPDATE, target.hasSubscribers() ? timeText.toString() : null, null, 0);
+            return true;
+        }
+        return false;
+    }
+}
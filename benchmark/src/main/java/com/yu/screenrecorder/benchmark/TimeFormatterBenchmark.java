@@ -0,0 +1,48 @@
+package com.yu.screenrecorder.benchmark;
+
+import com.yu.screenrecorder.TimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录制时长格式化，与原来 RecordService.getStringTime() 的 String.format 写法对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeFormatterBenchmark {
+    /* 100 小时内循环 */
+    private static final long MAX_SECONDS = 360000;
+
+    private final TimeFormatter formatter = new TimeFormatter("正在录制:");
+    private long seconds;
+
+    @Benchmark
+    public boolean formatter() {
+        seconds = (seconds + 1) % MAX_SECONDS;
+        return formatter.format(seconds);
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        seconds = (seconds + 1) % MAX_SECONDS;
+        long hour = seconds / 3600;
+        long min = seconds % 3600 / 60;
+        long second = seconds % 60;
+        return String.format(Locale.CHINA, "%02d:%02d:%02d", hour, min, second);
+    }
+}
@@ -0,0 +1,20 @@
+package android.util;
+
+/**
+ * 基准测试中代替 android.util.Log，app 的 LogUtil 直接按源码编译，输出到 stderr
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private static final String PRIORITIES = "??VDIWEA";
+
+    public static int println(int priority, String tag, String msg) {
+        System.err.println(PRIORITIES.charAt(priority) + "/" + tag + ": " + msg);
+        return 0;
+    }
+}